@@ -107,6 +107,8 @@ public class RecordScanReader implements EntityReader<RecordScan> {
 
         scan.setCacheBlocks(JsonUtil.getBoolean(node, "cacheBlocks", scan.getCacheBlocks()));
 
+        scan.setUseFieldValueIndex(JsonUtil.getBoolean(node, "useFieldValueIndex", scan.getUseFieldValueIndex()));
+
         return scan;
     }
 
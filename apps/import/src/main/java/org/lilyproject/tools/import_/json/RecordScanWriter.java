@@ -84,6 +84,8 @@ public class RecordScanWriter implements EntityWriter<RecordScan> {
 
         node.put("cacheBlocks", scan.getCacheBlocks());
 
+        node.put("useFieldValueIndex", scan.getUseFieldValueIndex());
+
         return node;
     }
 }
@@ -57,10 +57,15 @@ public class FieldValueFilterJson implements RecordFilterJsonConverter<FieldValu
             throw new RuntimeException("FieldValueFilter deserialization: both field and fieldValue must be specified.");
         }
 
+        String listMatch = JsonUtil.getString(node, "listMatch", null);
+        if (listMatch != null) {
+            filter.setListMatch(FieldValueFilter.ListMatch.valueOf(listMatch));
+        }
+
         if (field != null && fieldValue != null) {
             QName fieldQName = QNameConverter.fromJson(field, namespaces);
             filter.setField(fieldQName);
-            ValueType valueType = repository.getTypeManager().getFieldTypeByName(fieldQName).getValueType();
+            ValueType valueType = getFilterValueType(filter, repository);
             Object value = RecordReader.INSTANCE.readValue(
                     new RecordReader.ValueHandle(fieldValue, "fieldValue", valueType),
                     new RecordReader.ReadContext(repository, new NamespacesImpl(), defaultLinkTransformer));
@@ -93,7 +98,7 @@ public class FieldValueFilterJson implements RecordFilterJsonConverter<FieldValu
         if (filter.getField() != null && filter.getFieldValue() != null) {
             node.put("field", QNameConverter.toJson(filter.getField(), namespaces));
 
-            ValueType valueType = repository.getTypeManager().getFieldTypeByName(filter.getField()).getValueType();
+            ValueType valueType = getFilterValueType(filter, repository);
             JsonNode valueAsJson = RecordWriter.INSTANCE.valueToJson(filter.getFieldValue(), valueType,
                     new WriteOptions(), namespaces, repository);
 
@@ -107,6 +112,20 @@ public class FieldValueFilterJson implements RecordFilterJsonConverter<FieldValu
 
         node.put("filterIfMissing", filter.getFilterIfMissing());
 
+        if (filter.getListMatch() != null) {
+            node.put("listMatch", filter.getListMatch().toString());
+        }
+
         return node;
     }
+
+    /**
+     * Returns the value type of the filter value: with a list match, it is compared with the elements of the
+     * field value rather than with the field value as a whole.
+     */
+    private ValueType getFilterValueType(FieldValueFilter filter, LRepository repository)
+            throws RepositoryException, InterruptedException {
+        ValueType valueType = repository.getTypeManager().getFieldTypeByName(filter.getField()).getValueType();
+        return filter.getListMatch() != null ? valueType.getDeepestValueType() : valueType;
+    }
 }
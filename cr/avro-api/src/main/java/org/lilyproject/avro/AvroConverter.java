@@ -42,6 +42,7 @@ import org.lilyproject.repository.api.MutationCondition;
 import org.lilyproject.repository.api.QName;
 import org.lilyproject.repository.api.Record;
 import org.lilyproject.repository.api.RecordId;
+import org.lilyproject.repository.api.RecordResult;
 import org.lilyproject.repository.api.RecordType;
 import org.lilyproject.repository.api.RemoteException;
 import org.lilyproject.repository.api.RepositoryException;
@@ -112,6 +113,34 @@ public class AvroConverter {
         return RecordAsBytesConverter.readIdRecord(new DataInputImpl(asArray(avroIdRecord)), repository);
     }
 
+    public List<AvroRecordResult> convertRecordResults(List<RecordResult> results, LRepository repository)
+            throws RepositoryException, InterruptedException {
+        List<AvroRecordResult> avroResults = new ArrayList<AvroRecordResult>(results.size());
+        for (RecordResult result : results) {
+            AvroRecordResult avroResult = new AvroRecordResult();
+            if (result.isSuccess()) {
+                avroResult.setRecord(convert(result.getRecord(), repository));
+            } else {
+                avroResult.setException(convert(result.getException()));
+            }
+            avroResults.add(avroResult);
+        }
+        return avroResults;
+    }
+
+    public List<RecordResult> convertAvroRecordResults(List<AvroRecordResult> avroResults, LRepository repository)
+            throws RepositoryException, InterruptedException {
+        List<RecordResult> results = new ArrayList<RecordResult>(avroResults.size());
+        for (AvroRecordResult avroResult : avroResults) {
+            if (avroResult.getException() != null) {
+                results.add(new RecordResult(convert(avroResult.getException())));
+            } else {
+                results.add(new RecordResult(convertRecord(avroResult.getRecord(), repository)));
+            }
+        }
+        return results;
+    }
+
     public List<AvroMutationCondition> convert(Record parentRecord, List<MutationCondition> conditions,
             LRepository repository) throws AvroRepositoryException, AvroInterruptedException {
 
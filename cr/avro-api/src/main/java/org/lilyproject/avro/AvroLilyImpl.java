@@ -24,10 +24,12 @@ import java.util.Map;
 
 import com.google.common.annotations.VisibleForTesting;
 import org.apache.avro.AvroRemoteException;
+import org.lilyproject.repository.api.FieldType;
 import org.lilyproject.repository.api.LRepository;
 import org.lilyproject.repository.api.LTable;
 import org.lilyproject.repository.api.Record;
 import org.lilyproject.repository.api.RecordId;
+import org.lilyproject.repository.api.RecordType;
 import org.lilyproject.repository.api.RepositoryException;
 import org.lilyproject.repository.api.RepositoryManager;
 import org.lilyproject.repository.api.RepositoryTable;
@@ -35,6 +37,7 @@ import org.lilyproject.repository.api.TableManager;
 import org.lilyproject.repository.api.TypeBucket;
 import org.lilyproject.repository.api.TypeManager;
 import org.lilyproject.repository.spi.AuthorizationContextHolder;
+import org.lilyproject.util.Pair;
 
 public class AvroLilyImpl implements AvroLily {
 
@@ -89,6 +92,26 @@ public class AvroLilyImpl implements AvroLily {
         }
     }
 
+    @Override
+    public List<AvroRecordResult> createOrUpdateBatch(AvroAuthzContext authzContext, List<ByteBuffer> records,
+            String repositoryName, String tableName, boolean useLatestRecordType)
+            throws AvroRepositoryException, AvroInterruptedException {
+        try {
+            AuthorizationContextHolder.setCurrentContext(converter.convert(authzContext));
+            LRepository repository = repositoryManager.getRepository(repositoryName);
+            LTable table = repository.getTable(tableName);
+            return converter.convertRecordResults(
+                    table.createOrUpdate(converter.convertAvroRecords(records, repository), useLatestRecordType),
+                    repository);
+        } catch (RepositoryException e) {
+            throw converter.convert(e);
+        } catch (InterruptedException e) {
+            throw converter.convert(e);
+        } finally {
+            AuthorizationContextHolder.clearContext();
+        }
+    }
+
     @Override
     public ByteBuffer delete(AvroAuthzContext authzContext, ByteBuffer recordId, String repositoryName,
             String tableName, List<AvroMutationCondition> conditions, Map<String,String> attributes)
@@ -265,6 +288,21 @@ public class AvroLilyImpl implements AvroLily {
         }
     }
 
+    @Override
+    public AvroFieldAndRecordTypes createOrUpdateTypes(AvroFieldAndRecordTypes types) throws AvroRepositoryException,
+            AvroInterruptedException {
+        try {
+            Pair<List<FieldType>, List<RecordType>> typesToSave = converter.convertAvroFieldAndRecordTypes(types,
+                    typeManager);
+            return converter.convertFieldAndRecordTypes(
+                    typeManager.createOrUpdateTypes(typesToSave.getV1(), typesToSave.getV2()));
+        } catch (RepositoryException e) {
+            throw converter.convert(e);
+        } catch (InterruptedException e) {
+            throw converter.convert(e);
+        }
+    }
+
     @Override
     public AvroFieldType getFieldTypeById(AvroSchemaId id) throws AvroRepositoryException, AvroInterruptedException {
         try {
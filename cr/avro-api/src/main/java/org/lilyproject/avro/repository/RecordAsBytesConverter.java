@@ -22,6 +22,7 @@ import java.util.Map;
 import org.lilyproject.bytes.api.DataInput;
 import org.lilyproject.bytes.api.DataOutput;
 import org.lilyproject.bytes.impl.DataOutputImpl;
+import org.lilyproject.repository.api.FieldType;
 import org.lilyproject.repository.api.FieldTypes;
 import org.lilyproject.repository.api.IdGenerator;
 import org.lilyproject.repository.api.IdRecord;
@@ -52,6 +53,8 @@ public class RecordAsBytesConverter {
     private static final int VERSION_1 = 1;
     /** Version 2 adds metadata serialization. */
     private static final int VERSION_2 = 2;
+    /** Version 3 identifies fields and record types by schema id rather than by name, see {@link #writeWithSchemaIds}. */
+    private static final int VERSION_3 = 3;
 
     private RecordAsBytesConverter() {
     }
@@ -138,10 +141,101 @@ public class RecordAsBytesConverter {
         }
     }
 
+    /**
+     * Writes a record in a more compact form than {@link #write}: fields and record types are identified by
+     * their schema id rather than by name, and the value types of the fields are not written. Reading the
+     * record back requires the same field and record types to exist.
+     *
+     * @param fieldTypeDictionary optional dictionary to shorten the field type ids, reading the record back
+     *                            requires the same dictionary
+     */
+    public static final void writeWithSchemaIds(Record record, DataOutput output, LRepository repository,
+            SchemaIdDictionary fieldTypeDictionary) throws RepositoryException, InterruptedException {
+        output.writeShort(VERSION_3);
+
+        writeNullOrBytes(record.getId() != null ? record.getId().toBytes() : null, output);
+
+        writeNullOrVLong(record.getVersion(), output);
+
+        // The name of a record type is the same for all its versions, so the latest version is looked up,
+        // which is cached by the type manager
+        TypeManager typeManager = repository.getTypeManager();
+        for (Scope scope : Scope.values()) {
+            QName recordTypeName = record.getRecordTypeName(scope);
+            SchemaId recordTypeId = null;
+            if (record instanceof IdRecord) {
+                recordTypeId = ((IdRecord) record).getRecordTypeId(scope);
+            }
+            if (recordTypeId == null && recordTypeName != null) {
+                recordTypeId = typeManager.getRecordTypeByName(recordTypeName, null).getId();
+            }
+            writeNullOrBytes(recordTypeId != null ? recordTypeId.getBytes() : null, output);
+            writeNullOrVLong(record.getRecordTypeVersion(scope), output);
+        }
+
+        FieldTypes fieldTypes = typeManager.getFieldTypesSnapshot();
+        output.writeVInt(record.getFields().size());
+        for (Map.Entry<QName, Object> entry : record.getFields().entrySet()) {
+            if (entry.getKey() == null) {
+                throw new IllegalArgumentException("Record contains field with null key.");
+            }
+            if (entry.getValue() == null) {
+                throw new IllegalArgumentException("Record contains field with null value.");
+            }
+
+            FieldType fieldType = fieldTypes.getFieldType(entry.getKey());
+
+            writeSchemaId(fieldType.getId(), fieldTypeDictionary, output);
+            try {
+                fieldType.getValueType().write(entry.getValue(), output, new IdentityRecordStack());
+            } catch (Exception e) {
+                throw new RecordException("Error serializing field " + entry.getKey(), e);
+            }
+        }
+
+        output.writeVInt(record.getFieldsToDelete().size());
+        for (QName name : record.getFieldsToDelete()) {
+            writeSchemaId(fieldTypes.getFieldType(name).getId(), fieldTypeDictionary, output);
+        }
+
+        if (record.hasAttributes()) {
+            output.writeVInt(record.getAttributes().size());
+            for (String key : record.getAttributes().keySet()) {
+                String value = record.getAttributes().get(key);
+                output.writeUTF(key);
+                output.writeUTF(value);
+            }
+        } else {
+            output.writeVInt(0);
+        }
+
+        writeNullOrVInt(record.getResponseStatus() != null ? record.getResponseStatus().ordinal() : null, output);
+
+        Map<QName, Metadata> metadatas = record.getMetadataMap();
+        output.writeVInt(metadatas.size());
+        for (Map.Entry<QName, Metadata> entry : metadatas.entrySet()) {
+            writeSchemaId(fieldTypes.getFieldType(entry.getKey()).getId(), fieldTypeDictionary, output);
+            MetadataSerDeser.write(entry.getValue(), output);
+        }
+    }
+
     public static final Record read(DataInput input, LRepository repository)
             throws RepositoryException, InterruptedException {
+        return read(input, repository, null);
+    }
+
+    /**
+     * Reads a record written by any of the write methods.
+     *
+     * @param fieldTypeDictionary the dictionary used to write the record, if any
+     */
+    public static final Record read(DataInput input, LRepository repository, SchemaIdDictionary fieldTypeDictionary)
+            throws RepositoryException, InterruptedException {
         // Read & check version
         int version = input.readShort();
+        if (version == VERSION_3) {
+            return readWithSchemaIds(input, repository, fieldTypeDictionary, null);
+        }
         if (version != VERSION_1 && version != VERSION_2) {
             throw new RuntimeException("Unsupported record serialization version: " + version);
         }
@@ -209,6 +303,72 @@ public class RecordAsBytesConverter {
         return record;
     }
 
+    /**
+     * @param recordTypeIds optional, will be filled with the record type ids that were read
+     */
+    private static Record readWithSchemaIds(DataInput input, LRepository repository,
+            SchemaIdDictionary fieldTypeDictionary, Map<Scope, SchemaId> recordTypeIds)
+            throws RepositoryException, InterruptedException {
+        Record record = repository.getRecordFactory().newRecord();
+        IdGenerator idGenerator = repository.getIdGenerator();
+        TypeManager typeManager = repository.getTypeManager();
+
+        byte[] idBytes = readNullOrBytes(input);
+        if (idBytes != null) {
+            record.setId(idGenerator.fromBytes(idBytes));
+        }
+
+        record.setVersion(readNullOrVLong(input));
+
+        for (Scope scope : Scope.values()) {
+            byte[] recordTypeIdBytes = readNullOrBytes(input);
+            Long rtVersion = readNullOrVLong(input);
+            if (recordTypeIdBytes != null) {
+                SchemaId recordTypeId = idGenerator.getSchemaId(recordTypeIdBytes);
+                record.setRecordType(scope, typeManager.getRecordTypeById(recordTypeId, null).getName(), rtVersion);
+                if (recordTypeIds != null) {
+                    recordTypeIds.put(scope, recordTypeId);
+                }
+            }
+        }
+
+        FieldTypes fieldTypes = typeManager.getFieldTypesSnapshot();
+        int size = input.readVInt();
+        for (int i = 0; i < size; i++) {
+            FieldType fieldType = fieldTypes.getFieldType(readSchemaId(input, fieldTypeDictionary, idGenerator));
+            Object value = fieldType.getValueType().read(input);
+            record.setField(fieldType.getName(), value);
+        }
+
+        size = input.readVInt();
+        for (int i = 0; i < size; i++) {
+            SchemaId fieldId = readSchemaId(input, fieldTypeDictionary, idGenerator);
+            record.getFieldsToDelete().add(fieldTypes.getFieldType(fieldId).getName());
+        }
+
+        size = input.readVInt();
+        for (int i = 0; i < size; i++) {
+            String key = input.readUTF();
+            String value = input.readUTF();
+
+            record.getAttributes().put(key, value);
+        }
+
+        Integer responseStatusOrdinal = readNullOrVInt(input);
+        if (responseStatusOrdinal != null) {
+            record.setResponseStatus(ResponseStatus.values()[responseStatusOrdinal]);
+        }
+
+        size = input.readVInt();
+        for (int i = 0; i < size; i++) {
+            SchemaId fieldId = readSchemaId(input, fieldTypeDictionary, idGenerator);
+            Metadata metadata = MetadataSerDeser.read(input);
+            record.setMetadata(fieldTypes.getFieldType(fieldId).getName(), metadata);
+        }
+
+        return record;
+    }
+
     public static final byte[] writeIdRecord(IdRecord record, LRepository repository)
             throws RepositoryException, InterruptedException {
         DataOutput output = new DataOutputImpl();
@@ -232,8 +392,49 @@ public class RecordAsBytesConverter {
         }
     }
 
+    /**
+     * Compact variant of {@link #writeIdRecord}, see {@link #writeWithSchemaIds}.
+     */
+    public static final void writeIdRecordWithSchemaIds(IdRecord record, DataOutput output, LRepository repository,
+            SchemaIdDictionary fieldTypeDictionary) throws RepositoryException, InterruptedException {
+        writeWithSchemaIds(record, output, repository, fieldTypeDictionary);
+
+        // The names are looked up again when reading, the record type ids were written as part of the record
+        output.writeVInt(record.getFieldIdToNameMapping().size());
+        for (SchemaId fieldId : record.getFieldIdToNameMapping().keySet()) {
+            writeSchemaId(fieldId, fieldTypeDictionary, output);
+        }
+    }
+
     public static final IdRecord readIdRecord(DataInput input, LRepository repository)
             throws RepositoryException, InterruptedException {
+        return readIdRecord(input, repository, null);
+    }
+
+    /**
+     * Reads an IdRecord written by any of the writeIdRecord methods.
+     *
+     * @param fieldTypeDictionary the dictionary used to write the record, if any
+     */
+    public static final IdRecord readIdRecord(DataInput input, LRepository repository,
+            SchemaIdDictionary fieldTypeDictionary) throws RepositoryException, InterruptedException {
+        int start = input.getPosition();
+        if (input.readShort() == VERSION_3) {
+            Map<Scope, SchemaId> recordTypeIds = new EnumMap<Scope, SchemaId>(Scope.class);
+            Record record = readWithSchemaIds(input, repository, fieldTypeDictionary, recordTypeIds);
+
+            FieldTypes fieldTypes = repository.getTypeManager().getFieldTypesSnapshot();
+            int size = input.readVInt();
+            Map<SchemaId, QName> idToQNameMapping = new HashMap<SchemaId, QName>();
+            for (int i = 0; i < size; i++) {
+                SchemaId fieldId = readSchemaId(input, fieldTypeDictionary, repository.getIdGenerator());
+                idToQNameMapping.put(fieldId, fieldTypes.getFieldType(fieldId).getName());
+            }
+
+            return new IdRecordImpl(record, idToQNameMapping, recordTypeIds);
+        }
+        input.setPosition(start);
+
         Record record = read(input, repository);
 
         IdGenerator idGenerator = repository.getIdGenerator();
@@ -260,6 +461,30 @@ public class RecordAsBytesConverter {
         return new IdRecordImpl(record, idToQNameMapping, recordTypeIds);
     }
 
+    /**
+     * Writes a schema id as its position in the dictionary plus one, or as 0 followed by the schema id itself.
+     */
+    private static void writeSchemaId(SchemaId schemaId, SchemaIdDictionary dictionary, DataOutput output) {
+        Integer index = dictionary != null ? dictionary.indexOf(schemaId) : null;
+        if (index != null) {
+            output.writeVInt(index + 1);
+        } else {
+            output.writeVInt(0);
+            writeBytes(schemaId.getBytes(), output);
+        }
+    }
+
+    private static SchemaId readSchemaId(DataInput input, SchemaIdDictionary dictionary, IdGenerator idGenerator) {
+        int index = input.readVInt();
+        if (index == 0) {
+            return idGenerator.getSchemaId(readBytes(input));
+        } else if (dictionary == null) {
+            throw new IllegalStateException("Record was written using a schema id dictionary, but none was supplied.");
+        } else {
+            return dictionary.get(index - 1);
+        }
+    }
+
     private static void writeQName(QName name, DataOutput output) {
         output.writeUTF(name.getNamespace());
         output.writeUTF(name.getName());
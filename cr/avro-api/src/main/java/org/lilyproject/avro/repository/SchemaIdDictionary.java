@@ -0,0 +1,59 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.avro.repository;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.lilyproject.repository.api.SchemaId;
+
+/**
+ * Assigns small numbers to a fixed list of schema ids, so that these can be serialized in a byte or two
+ * instead of in full. See {@link RecordAsBytesConverter#writeWithSchemaIds}.
+ *
+ * <p>The serialized data can only be read with a dictionary containing the same schema ids, in the same
+ * order, as the one used for writing.</p>
+ */
+public class SchemaIdDictionary {
+    private final List<SchemaId> schemaIds;
+    private final Map<SchemaId, Integer> indexes;
+
+    public SchemaIdDictionary(List<SchemaId> schemaIds) {
+        this.schemaIds = Collections.unmodifiableList(new ArrayList<SchemaId>(schemaIds));
+        this.indexes = new HashMap<SchemaId, Integer>(schemaIds.size());
+        for (int i = 0; i < schemaIds.size(); i++) {
+            indexes.put(schemaIds.get(i), i);
+        }
+    }
+
+    /**
+     * @return null if the schema id is not part of this dictionary
+     */
+    public Integer indexOf(SchemaId schemaId) {
+        return indexes.get(schemaId);
+    }
+
+    public SchemaId get(int index) {
+        return schemaIds.get(index);
+    }
+
+    public List<SchemaId> getSchemaIds() {
+        return schemaIds;
+    }
+}
@@ -39,6 +39,7 @@ import org.lilyproject.repository.api.RecordBuilder;
 import org.lilyproject.repository.api.RecordException;
 import org.lilyproject.repository.api.RecordFactory;
 import org.lilyproject.repository.api.RecordId;
+import org.lilyproject.repository.api.RecordResult;
 import org.lilyproject.repository.api.RecordScan;
 import org.lilyproject.repository.api.RecordScanner;
 import org.lilyproject.repository.api.Repository;
@@ -159,6 +160,17 @@ public class FakeLRepository implements LRepository, Repository {
         throw new UnsupportedOperationException();
     }
 
+    @Override
+    public List<RecordResult> createOrUpdate(List<Record> records) throws RepositoryException, InterruptedException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public List<RecordResult> createOrUpdate(List<Record> records, boolean b)
+            throws RepositoryException, InterruptedException {
+        throw new UnsupportedOperationException();
+    }
+
     @Override
     public Record read(RecordId recordId, List<QName> qNames) throws RepositoryException, InterruptedException {
         throw new UnsupportedOperationException();
@@ -179,6 +191,11 @@ public class FakeLRepository implements LRepository, Repository {
         throw new UnsupportedOperationException();
     }
 
+    @Override
+    public List<Record> readBatch(List<RecordId> recordIds, QName... qNames) throws RepositoryException, InterruptedException {
+        throw new UnsupportedOperationException();
+    }
+
     @Override
     public Record read(RecordId recordId, Long aLong, List<QName> qNames) throws RepositoryException, InterruptedException {
         throw new UnsupportedOperationException();
@@ -214,6 +231,11 @@ public class FakeLRepository implements LRepository, Repository {
         throw new UnsupportedOperationException();
     }
 
+    @Override
+    public List<IdRecord> readVersionsWithIds(RecordId recordId, List<Long> longs, List<SchemaId> schemaIds) throws RepositoryException, InterruptedException {
+        throw new UnsupportedOperationException();
+    }
+
     @Override
     public void delete(RecordId recordId) throws RepositoryException, InterruptedException {
         throw new UnsupportedOperationException();
@@ -45,6 +45,7 @@ import org.lilyproject.repository.api.RecordExistsException;
 import org.lilyproject.repository.api.RecordFactory;
 import org.lilyproject.repository.api.RecordId;
 import org.lilyproject.repository.api.RecordNotFoundException;
+import org.lilyproject.repository.api.RecordResult;
 import org.lilyproject.repository.api.RecordScan;
 import org.lilyproject.repository.api.RecordScanner;
 import org.lilyproject.repository.api.RecordType;
@@ -203,6 +204,25 @@ public class FakeLTable implements Repository {
         return update(record);
     }
 
+    @Override
+    public List<RecordResult> createOrUpdate(List<Record> records) throws RepositoryException, InterruptedException {
+        return createOrUpdate(records, true);
+    }
+
+    @Override
+    public List<RecordResult> createOrUpdate(List<Record> records, boolean b)
+            throws RepositoryException, InterruptedException {
+        List<RecordResult> results = Lists.newArrayList();
+        for (Record record : records) {
+            try {
+                results.add(new RecordResult(createOrUpdate(record, b)));
+            } catch (RepositoryException e) {
+                results.add(new RecordResult(e));
+            }
+        }
+        return results;
+    }
+
     private Record getRecord(RecordId recordId) throws RecordNotFoundException {
         Record record = records.get(recordId);
         if (record == null) {
@@ -235,6 +255,19 @@ public class FakeLTable implements Repository {
         return list;
     }
 
+    @Override
+    public List<Record> readBatch(List<RecordId> recordIds, QName... qNames) throws RepositoryException, InterruptedException {
+        List<Record> list = Lists.newArrayList();
+        for (RecordId id : recordIds) {
+            try {
+                list.add(getRecord(id));
+            } catch (RecordNotFoundException e) {
+                list.add(null);
+            }
+        }
+        return list;
+    }
+
     @Override
     public Record read(RecordId recordId, Long aLong, List<QName> qNames) throws RepositoryException, InterruptedException {
         return getRecord(recordId);
@@ -283,6 +316,17 @@ public class FakeLTable implements Repository {
         return idRecord;
     }
 
+    @Override
+    public List<IdRecord> readVersionsWithIds(RecordId recordId, List<Long> versions, List<SchemaId> schemaIds) throws RepositoryException, InterruptedException {
+        // Only the latest version of a record is kept, so that is the only version which can be returned
+        List<IdRecord> result = Lists.newArrayList();
+        Long version = getRecord(recordId).getVersion();
+        if (version != null && versions.contains(version)) {
+            result.add(readWithIds(recordId, version, schemaIds));
+        }
+        return result;
+    }
+
     @Override
     public void delete(RecordId recordId) throws RepositoryException, InterruptedException {
         records.remove(recordId);
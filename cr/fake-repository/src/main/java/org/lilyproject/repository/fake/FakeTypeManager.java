@@ -25,6 +25,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
 
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
@@ -68,6 +69,7 @@ public class FakeTypeManager implements TypeManager {
     Map<QName, RecordType> recordTypeByName = new HashMap<QName, RecordType>();
     Map<String, ValueTypeFactory> valueTypeFactories = new HashMap<String, ValueTypeFactory>();
     private IdGenerator idGenerator;
+    private final AtomicLong changeCount = new AtomicLong();
 
     public FakeTypeManager(IdGenerator idGenerator) {
         this.registerDefaultValueTypes();
@@ -169,6 +171,7 @@ public class FakeTypeManager implements TypeManager {
         recordType.setVersion(version + 1l);
         recordTypeByName.put(recordType.getName(), recordType);
         recordTypes.put(recordType.getId(), recordType);
+        changeCount.incrementAndGet();
         return recordType;
     }
 
@@ -203,9 +206,24 @@ public class FakeTypeManager implements TypeManager {
         }
         fieldTypesByName.put(fieldType.getName(), fieldType);
         fieldTypes.put(fieldType.getId(), fieldType);
+        changeCount.incrementAndGet();
         return fieldType;
     }
 
+    @Override
+    public Pair<List<FieldType>, List<RecordType>> createOrUpdateTypes(List<FieldType> fieldTypes,
+            List<RecordType> recordTypes) throws RepositoryException, InterruptedException {
+        List<FieldType> newFieldTypes = Lists.newArrayList();
+        for (FieldType fieldType : fieldTypes) {
+            newFieldTypes.add(createOrUpdateFieldType(fieldType));
+        }
+        List<RecordType> newRecordTypes = Lists.newArrayList();
+        for (RecordType recordType : recordTypes) {
+            newRecordTypes.add(createOrUpdateRecordType(recordType));
+        }
+        return new Pair<List<FieldType>, List<RecordType>>(newFieldTypes, newRecordTypes);
+    }
+
     @Override
     public Pair<List<FieldType>, List<RecordType>> getTypesWithoutCache()
             throws RepositoryException, InterruptedException {
@@ -400,6 +418,11 @@ public class FakeTypeManager implements TypeManager {
         return false;
     }
 
+    @Override
+    public long getSchemaCacheChangeCount() {
+        return changeCount.get();
+    }
+
     @Override
     public void close() throws IOException {
     }
@@ -17,8 +17,10 @@ package org.lilyproject.indexer.derefmap;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.util.Set;
 
 import org.lilyproject.repository.api.AbsoluteRecordId;
+import org.lilyproject.repository.api.SchemaId;
 
 /**
  * Iterator used to iterate over results of a query on the dereference map.
@@ -30,4 +32,17 @@ public interface DependantRecordIdsIterator extends Closeable {
     boolean hasNext() throws IOException;
 
     AbsoluteRecordId next() throws IOException;
+
+    /**
+     * Returns the vtag of the dependant returned by the last call of {@link #next()}. Only supported by the
+     * iterators returned by {@link DerefMap#findDependantsWithVtagsOf}.
+     */
+    SchemaId getDependantVtag();
+
+    /**
+     * Returns the fields of the queried record on which the dependant returned by the last call of {@link #next()}
+     * depends: an empty set if it depends on the record as a whole, null if this is not known. Only supported by the iterators returned by
+     * {@link DerefMap#findDependantsWithVtagsOf}.
+     */
+    Set<SchemaId> getDependencyFields();
 }
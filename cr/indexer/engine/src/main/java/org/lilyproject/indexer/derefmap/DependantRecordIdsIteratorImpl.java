@@ -16,9 +16,11 @@
 package org.lilyproject.indexer.derefmap;
 
 import java.io.IOException;
+import java.util.Set;
 
 import org.lilyproject.hbaseindex.QueryResult;
 import org.lilyproject.repository.api.AbsoluteRecordId;
+import org.lilyproject.repository.api.SchemaId;
 
 /**
  * Implementation of {@link org.lilyproject.indexer.derefmap.DependantRecordIdsIterator}.
@@ -28,10 +30,20 @@ import org.lilyproject.repository.api.AbsoluteRecordId;
 final class DependantRecordIdsIteratorImpl implements DependantRecordIdsIterator {
     private final QueryResult queryResult;
     private final DerefMapSerializationUtil serializationUtil;
+    private final boolean withVtags;
 
     DependantRecordIdsIteratorImpl(QueryResult queryResult, DerefMapSerializationUtil serializationUtil) {
+        this(queryResult, serializationUtil, false);
+    }
+
+    /**
+     * @param withVtags if true, the vtag and fields of each dependency are decoded as well
+     */
+    DependantRecordIdsIteratorImpl(QueryResult queryResult, DerefMapSerializationUtil serializationUtil,
+                                   boolean withVtags) {
         this.queryResult = queryResult;
         this.serializationUtil = serializationUtil;
+        this.withVtags = withVtags;
     }
 
     @Override
@@ -41,6 +53,12 @@ final class DependantRecordIdsIteratorImpl implements DependantRecordIdsIterator
 
     AbsoluteRecordId next = null;
 
+    // since hasNext() reads ahead, the details of the next and the current dependant are kept separately
+    private SchemaId nextVtag;
+    private byte[] nextFields;
+    private SchemaId currentVtag;
+    private byte[] currentFields;
+
     private AbsoluteRecordId getNextFromQueryResult() throws IOException {
         // the identifier is the record id of the record that depends on the queried record
 
@@ -48,10 +66,32 @@ final class DependantRecordIdsIteratorImpl implements DependantRecordIdsIterator
         if (nextIdentifier == null) {
             return null;
         } else {
+            if (withVtags) {
+                nextVtag = serializationUtil.deserializeSchemaId((byte[]) queryResult.getIndexField("dependant_vtag"));
+                nextFields = queryResult.getData(DerefMapHbaseImpl.FIELDS_KEY);
+            }
             return serializationUtil.deserializeDependantRecordId(nextIdentifier);
         }
     }
 
+    @Override
+    public SchemaId getDependantVtag() {
+        checkWithVtags();
+        return currentVtag;
+    }
+
+    @Override
+    public Set<SchemaId> getDependencyFields() {
+        checkWithVtags();
+        return currentFields != null ? serializationUtil.deserializeFields(currentFields) : null;
+    }
+
+    private void checkWithVtags() {
+        if (!withVtags) {
+            throw new UnsupportedOperationException("This iterator does not provide the vtags of the dependants.");
+        }
+    }
+
     @Override
     public boolean hasNext() throws IOException {
         synchronized (this) { // to protect setting/resetting the next value from race conditions
@@ -73,10 +113,14 @@ final class DependantRecordIdsIteratorImpl implements DependantRecordIdsIterator
                 // the next was already set, but not yet used
                 AbsoluteRecordId nextToReturn = next;
                 next = null;
+                currentVtag = nextVtag;
+                currentFields = nextFields;
                 return nextToReturn;
             } else {
                 // try setting a next value
                 next = getNextFromQueryResult();
+                currentVtag = nextVtag;
+                currentFields = nextFields;
                 return next;
             }
         }
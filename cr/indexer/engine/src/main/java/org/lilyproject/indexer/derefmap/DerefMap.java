@@ -76,4 +76,12 @@ public interface DerefMap {
     DependantRecordIdsIterator findDependantsOf(AbsoluteRecordId parentRecordId)
             throws IOException;
 
+    /**
+     * Same as {@link #findDependantsOf(AbsoluteRecordId, Set, SchemaId)} with <code>null</code> as vtag, but the
+     * returned iterator also gives access to the vtag of each dependant and the fields it depends on. This allows
+     * to find the dependants for several vtags using a single query, rather than one query per vtag.
+     */
+    DependantRecordIdsIterator findDependantsWithVtagsOf(AbsoluteRecordId parentRecordId, Set<SchemaId> fields)
+            throws IOException;
+
 }
@@ -16,8 +16,10 @@
 package org.lilyproject.indexer.derefmap;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -30,13 +32,11 @@ import org.lilyproject.hbaseindex.IndexEntry;
 import org.lilyproject.hbaseindex.IndexManager;
 import org.lilyproject.hbaseindex.IndexNotFoundException;
 import org.lilyproject.hbaseindex.Query;
-import org.lilyproject.hbaseindex.QueryResult;
 import org.lilyproject.repository.api.AbsoluteRecordId;
 import org.lilyproject.repository.api.IdGenerator;
 import org.lilyproject.repository.api.RecordId;
 import org.lilyproject.repository.api.SchemaId;
 import org.lilyproject.util.hbase.HBaseTableFactory;
-import org.lilyproject.util.io.Closer;
 
 /**
  *
@@ -45,7 +45,7 @@ public class DerefMapHbaseImpl implements DerefMap {
 
     private static final byte[] DEPENDENCIES_KEY = Bytes.toBytes("dependencies");
 
-    private static final byte[] FIELDS_KEY = Bytes.toBytes("fields");
+    static final byte[] FIELDS_KEY = Bytes.toBytes("fields");
 
     private static final byte[] DUMMY_IDENTIFIER = new byte[]{0};
 
@@ -144,11 +144,13 @@ public class DerefMapHbaseImpl implements DerefMap {
         // be found via the forward index.
 
         // delete removed from bwd index
-        for (DependencyEntry removed : removedDependencies) {
-            final IndexEntry backwardEntry =
-                    createBackwardEntry(removed.getDependency(), parentRecordId, parentVtagId, null,
-                            removed.getMoreDimensionedVariants());
-            backwardDerefIndex.removeEntry(backwardEntry);
+        if (!removedDependencies.isEmpty()) {
+            final List<IndexEntry> backwardEntries = new ArrayList<IndexEntry>(removedDependencies.size());
+            for (DependencyEntry removed : removedDependencies) {
+                backwardEntries.add(createBackwardEntry(removed.getDependency(), parentRecordId, parentVtagId, null,
+                        removed.getMoreDimensionedVariants()));
+            }
+            backwardDerefIndex.removeEntries(backwardEntries);
         }
 
         // update fwd index (added and removed at the same time, it is a single row)
@@ -157,12 +159,14 @@ public class DerefMapHbaseImpl implements DerefMap {
         forwardDerefIndex.addEntry(fwdEntry);
 
         // add added to bwd idx
-        for (DependencyEntry added : addedDependencies) {
-            final Set<SchemaId> fields = newDependantEntries.get(added);
-            final IndexEntry backwardEntry =
-                    createBackwardEntry(added.getDependency(), parentRecordId, parentVtagId, fields,
-                            added.getMoreDimensionedVariants());
-            backwardDerefIndex.addEntry(backwardEntry);
+        if (!addedDependencies.isEmpty()) {
+            final List<IndexEntry> backwardEntries = new ArrayList<IndexEntry>(addedDependencies.size());
+            for (DependencyEntry added : addedDependencies) {
+                final Set<SchemaId> fields = newDependantEntries.get(added);
+                backwardEntries.add(createBackwardEntry(added.getDependency(), parentRecordId, parentVtagId, fields,
+                        added.getMoreDimensionedVariants()));
+            }
+            backwardDerefIndex.addEntries(backwardEntries);
         }
     }
 
@@ -240,36 +244,37 @@ public class DerefMapHbaseImpl implements DerefMap {
      * @return the record ids and vtags on which the given record depends
      */
     Set<DependencyEntry> findDependencies(AbsoluteRecordId parentRecordId, SchemaId vtag) throws IOException {
-        final Query query = new Query();
-        query.addEqualsCondition("dependant_recordid", parentRecordId.toBytes());
-        query.addEqualsCondition("dependant_vtag", vtag.getBytes());
-
-        final Set<DependencyEntry> result;
-
-        final QueryResult queryResult = forwardDerefIndex.performQuery(query);
-        if (queryResult.next() != null) {
-            final byte[] serializedEntries = queryResult.getData(DEPENDENCIES_KEY);
-            result = this.serializationUtil.deserializeDependenciesForward(serializedEntries);
-
-            if (queryResult.next() != null) {
-                throw new IllegalStateException(
-                        "Expected only a single matching entry in " + forwardDerefIndex.getDefinition().getName());
-            }
+        // the forward index has a single entry per dependant and vtag, so we can look it up directly
+        final IndexEntry fwdEntry = new IndexEntry(forwardDerefIndex.getDefinition());
+        fwdEntry.addField("dependant_recordid", parentRecordId.toBytes());
+        fwdEntry.addField("dependant_vtag", vtag.getBytes());
+        fwdEntry.setIdentifier(DUMMY_IDENTIFIER);
 
+        final byte[] serializedEntries = forwardDerefIndex.getData(fwdEntry, DEPENDENCIES_KEY);
+        if (serializedEntries != null) {
+            return this.serializationUtil.deserializeDependenciesForward(serializedEntries);
         } else {
-            result = new HashSet<DependencyEntry>();
+            return new HashSet<DependencyEntry>();
         }
-
-        // Not closed in finally block: avoid HBase contact when there could be connection problems.
-        Closer.close(queryResult);
-
-        return result;
     }
 
     @Override
     public DependantRecordIdsIterator findDependantsOf(AbsoluteRecordId parentRecordId, Set<SchemaId> fields,
                                                        SchemaId vtag) throws IOException {
+        return new DependantRecordIdsIteratorImpl(
+                backwardDerefIndex.performQuery(createDependantsQuery(parentRecordId, fields, vtag)),
+                this.serializationUtil);
+    }
+
+    @Override
+    public DependantRecordIdsIterator findDependantsWithVtagsOf(AbsoluteRecordId parentRecordId, Set<SchemaId> fields)
+            throws IOException {
+        return new DependantRecordIdsIteratorImpl(
+                backwardDerefIndex.performQuery(createDependantsQuery(parentRecordId, fields, null)),
+                this.serializationUtil, true);
+    }
 
+    private Query createDependantsQuery(AbsoluteRecordId parentRecordId, Set<SchemaId> fields, SchemaId vtag) {
         final RecordId master = parentRecordId.getRecordId().getMaster();
 
         final Query query = new Query();
@@ -280,7 +285,7 @@ public class DerefMapHbaseImpl implements DerefMap {
 
         query.setIndexFilter(new DerefMapIndexFilter(parentRecordId.getRecordId().getVariantProperties(), fields));
 
-        return new DependantRecordIdsIteratorImpl(backwardDerefIndex.performQuery(query), this.serializationUtil);
+        return query;
     }
 
     @Override
@@ -0,0 +1,179 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.indexer.engine;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
+import org.apache.hadoop.hbase.HColumnDescriptor;
+import org.apache.hadoop.hbase.HTableDescriptor;
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.HTableInterface;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.lilyproject.repository.api.Blob;
+import org.lilyproject.util.ObjectUtils;
+import org.lilyproject.util.hbase.HBaseTableFactory;
+
+/**
+ * Cache of the text extracted from blobs by the {@link ContentExtractor}.
+ *
+ * <p>A blob never changes once it is stored, so the text extracted from it can be reused each time the blob
+ * is indexed again, e.g. on a reindex, when a vtag moves to a version with the same blob, or when denormalized
+ * data changes. The texts are stored in an HBase table, keyed on the blob key and the write limit of the
+ * extraction, where they expire after the time to live which was specified when the table got created. The most
+ * recently used texts are also kept in memory, up to a maximum size.</p>
+ *
+ * <p>Inline blobs are not cached: their key is the data itself, so they are small and cheap to extract.</p>
+ */
+public class ContentExtractionCache implements Closeable {
+    private static final byte[] TABLE_NAME = Bytes.toBytes("contentextraction");
+    private static final byte[] DATA_CF = Bytes.toBytes("data");
+    private static final byte[] TEXT_COLUMN = Bytes.toBytes("t");
+    private static final byte[] MEDIA_TYPE_COLUMN = Bytes.toBytes("mt");
+    private static final byte[] NAME_COLUMN = Bytes.toBytes("n");
+
+    /**
+     * Id of the blob store keeping blobs inline in the record, see InlineBlobStoreAccess.
+     */
+    private static final byte[] INLINE_BLOB_STORE_ID = Bytes.toBytes("INLINE");
+
+    private final HTableInterface table;
+    private final Cache<ByteBuffer, Entry> memoryCache;
+
+    /**
+     * @param timeToLive time in seconds after which texts expire from the HBase table, only used when the table
+     *                   does not exist yet
+     * @param maxMemoryBytes maximum (estimated) size of the texts kept in memory
+     */
+    public ContentExtractionCache(HBaseTableFactory tableFactory, int timeToLive, long maxMemoryBytes)
+            throws IOException, InterruptedException {
+        HColumnDescriptor family = new HColumnDescriptor(DATA_CF);
+        family.setMaxVersions(1);
+        family.setTimeToLive(timeToLive);
+        HTableDescriptor tableDescriptor = new HTableDescriptor(TABLE_NAME);
+        tableDescriptor.addFamily(family);
+        table = tableFactory.getTable(tableDescriptor);
+
+        memoryCache = CacheBuilder.newBuilder()
+                .maximumWeight(maxMemoryBytes)
+                .weigher(new Weigher<ByteBuffer, Entry>() {
+                    @Override
+                    public int weigh(ByteBuffer key, Entry entry) {
+                        return key.remaining() + entry.weight();
+                    }
+                })
+                .build();
+    }
+
+    /**
+     * Returns the text previously extracted from the blob with the given write limit, or null if not cached.
+     */
+    public String get(Blob blob, int writeLimit) throws IOException {
+        ByteBuffer key = getKey(blob, writeLimit);
+        if (key == null) {
+            return null;
+        }
+
+        Entry entry = memoryCache.getIfPresent(key);
+        if (entry == null) {
+            Result result = table.get(new Get(key.array()));
+            byte[] text = result.getValue(DATA_CF, TEXT_COLUMN);
+            if (text == null) {
+                return null;
+            }
+            entry = new Entry(Bytes.toString(text),
+                    Bytes.toString(result.getValue(DATA_CF, MEDIA_TYPE_COLUMN)),
+                    Bytes.toString(result.getValue(DATA_CF, NAME_COLUMN)));
+            memoryCache.put(key, entry);
+        }
+
+        // The extraction depends on the media type and name, which can differ between the records sharing a blob
+        return entry.matches(blob) ? entry.text : null;
+    }
+
+    public void put(Blob blob, int writeLimit, String text) throws IOException {
+        ByteBuffer key = getKey(blob, writeLimit);
+        if (key == null) {
+            return;
+        }
+
+        Put put = new Put(key.array());
+        put.add(DATA_CF, TEXT_COLUMN, Bytes.toBytes(text));
+        put.add(DATA_CF, MEDIA_TYPE_COLUMN, Bytes.toBytes(blob.getMediaType()));
+        if (blob.getName() != null) {
+            put.add(DATA_CF, NAME_COLUMN, Bytes.toBytes(blob.getName()));
+        }
+        table.put(put);
+        memoryCache.put(key, new Entry(text, blob.getMediaType(), blob.getName()));
+    }
+
+    @Override
+    public void close() throws IOException {
+        table.close();
+    }
+
+    private static ByteBuffer getKey(Blob blob, int writeLimit) {
+        byte[] blobKey = blob.getValue();
+        if (blobKey == null || !isStoredOutsideRecord(blobKey)) {
+            return null;
+        }
+        return ByteBuffer.wrap(Bytes.add(blobKey, Bytes.toBytes(writeLimit)));
+    }
+
+    /**
+     * Checks the id of the blob store which is encoded in the blob key: the key ends with the store id,
+     * followed by the length of that id.
+     */
+    private static boolean isStoredOutsideRecord(byte[] blobKey) {
+        if (blobKey.length < Bytes.SIZEOF_INT) {
+            return false;
+        }
+        int idLength = Bytes.toInt(blobKey, blobKey.length - Bytes.SIZEOF_INT, Bytes.SIZEOF_INT);
+        if (idLength < 0 || idLength > blobKey.length - Bytes.SIZEOF_INT) {
+            return false;
+        }
+        return Bytes.compareTo(blobKey, blobKey.length - Bytes.SIZEOF_INT - idLength, idLength,
+                INLINE_BLOB_STORE_ID, 0, INLINE_BLOB_STORE_ID.length) != 0;
+    }
+
+    private static final class Entry {
+        private final String text;
+        private final String mediaType;
+        private final String name;
+
+        Entry(String text, String mediaType, String name) {
+            this.text = text;
+            this.mediaType = mediaType;
+            this.name = name;
+        }
+
+        boolean matches(Blob blob) {
+            return ObjectUtils.safeEquals(mediaType, blob.getMediaType())
+                    && ObjectUtils.safeEquals(name, blob.getName());
+        }
+
+        int weight() {
+            return 2 * (text.length() + (mediaType != null ? mediaType.length() : 0)
+                    + (name != null ? name.length() : 0));
+        }
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.indexer.engine;
+
+import javax.management.ObjectName;
+
+import org.apache.hadoop.metrics.MetricsContext;
+import org.apache.hadoop.metrics.MetricsRecord;
+import org.apache.hadoop.metrics.MetricsUtil;
+import org.apache.hadoop.metrics.Updater;
+import org.apache.hadoop.metrics.util.MetricsBase;
+import org.apache.hadoop.metrics.util.MetricsIntValue;
+import org.apache.hadoop.metrics.util.MetricsRegistry;
+import org.apache.hadoop.metrics.util.MetricsTimeVaryingLong;
+import org.apache.hadoop.metrics.util.MetricsTimeVaryingRate;
+import org.lilyproject.util.hbase.metrics.MBeanUtil;
+import org.lilyproject.util.hbase.metrics.MetricsDynamicMBeanBase;
+
+/**
+ * Metrics of the blob content extraction done by {@link ContentExtractor}: the time spent per blob, the number
+ * of bytes read, the number of extractions which failed or timed out, and the number of abandoned extractions
+ * which are still running.
+ */
+public class ContentExtractionMetrics implements Updater {
+    private final MetricsRegistry registry = new MetricsRegistry();
+    private final MetricsRecord metricsRecord;
+    private final MetricsContext context;
+    private final MetricsTimeVaryingRate extractionRate = new MetricsTimeVaryingRate("extraction", registry);
+    private final MetricsTimeVaryingLong bytes = new MetricsTimeVaryingLong("bytes", registry);
+    private final MetricsTimeVaryingLong failures = new MetricsTimeVaryingLong("failures", registry);
+    private final MetricsTimeVaryingLong timeouts = new MetricsTimeVaryingLong("timeouts", registry);
+    private final MetricsIntValue abandoned = new MetricsIntValue("abandoned", registry);
+    private final ContentExtractionMetricsMXBean mbean;
+    private final String recordName;
+
+    public ContentExtractionMetrics(String recordName) {
+        this.recordName = recordName;
+
+        context = MetricsUtil.getContext("contentExtraction");
+        metricsRecord = MetricsUtil.createRecord(context, recordName);
+        context.registerUpdater(this);
+        mbean = new ContentExtractionMetricsMXBean(this.registry);
+    }
+
+    public void shutdown() {
+        context.unregisterUpdater(this);
+        mbean.shutdown();
+    }
+
+    @Override
+    public void doUpdates(MetricsContext unused) {
+        synchronized (this) {
+          for (MetricsBase m : registry.getMetricsList()) {
+            m.pushMetric(metricsRecord);
+          }
+        }
+        metricsRecord.update();
+    }
+
+    void reportExtraction(long duration, long byteCount) {
+        extractionRate.inc(duration);
+        bytes.inc(byteCount);
+    }
+
+    void reportFailure() {
+        failures.inc();
+    }
+
+    void reportTimeout() {
+        timeouts.inc();
+    }
+
+    void reportAbandoned(int count) {
+        abandoned.set(count);
+    }
+
+    public class ContentExtractionMetricsMXBean extends MetricsDynamicMBeanBase {
+        private final ObjectName mbeanName;
+
+        public ContentExtractionMetricsMXBean(MetricsRegistry registry) {
+            super(registry, "Lily Content Extraction");
+
+            mbeanName = MBeanUtil.registerMBean("Content Extraction", recordName, this);
+        }
+
+        public void shutdown() {
+            if (mbeanName != null) {
+                MBeanUtil.unregisterMBean(mbeanName);
+            }
+        }
+    }
+}
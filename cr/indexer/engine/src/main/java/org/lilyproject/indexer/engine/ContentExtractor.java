@@ -0,0 +1,406 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.indexer.engine;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.io.CountingInputStream;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.tika.metadata.Metadata;
+import org.apache.tika.parser.AutoDetectParser;
+import org.apache.tika.parser.ParseContext;
+import org.apache.tika.parser.Parser;
+import org.apache.tika.sax.BodyContentHandler;
+import org.apache.tika.sax.WriteOutContentHandler;
+import org.lilyproject.repository.api.Blob;
+import org.lilyproject.repository.api.FieldType;
+import org.lilyproject.repository.api.LRepository;
+import org.lilyproject.repository.api.Record;
+import org.lilyproject.util.concurrent.CustomThreadFactory;
+import org.lilyproject.util.concurrent.WaitPolicy;
+import org.lilyproject.util.io.Closer;
+
+/**
+ * Extracts the text of blobs using Tika.
+ *
+ * <p>When created with extraction threads, the extraction runs on a bounded pool of worker threads: all blobs
+ * submitted for one index field are extracted in parallel, and the extraction of a blob which takes longer than
+ * the timeout is abandoned, so that a large or malformed document does not stall the indexer. Without extraction
+ * threads, blobs are extracted by the calling thread, without time limit.</p>
+ *
+ * <p>An abandoned extraction is stopped by closing its input stream, but a parser can still keep its thread busy
+ * for a long time, e.g. when it loops on data it already read. The pool then starts an extra thread for each
+ * abandoned extraction which is still running, up to {@link #MAX_ABANDONED_PER_THREAD} per extraction
+ * thread.</p>
+ *
+ * <p>Usage: {@link #submit} the blobs, then collect their text using {@link #getText}.</p>
+ */
+public class ContentExtractor {
+    private final Log log = LogFactory.getLog(getClass());
+
+    public static final int DEFAULT_WRITE_LIMIT = 500 * 1000; // 500K limit (Tika default: 100K)
+
+    public static final int MAX_ABANDONED_PER_THREAD = 4;
+
+    private final Parser tikaParser = new AutoDetectParser();
+    private final int writeLimit;
+    private final long timeout;
+    private final int threads;
+    private final int maxAbandoned;
+    private final ThreadPoolExecutor executor;
+    /** Number of abandoned extractions which are still running. */
+    private final AtomicInteger abandoned = new AtomicInteger();
+    private final ContentExtractionCache cache;
+    private final ContentExtractionMetrics metrics;
+
+    /**
+     * Creates an extractor which extracts in the calling thread, without cache or metrics.
+     */
+    public ContentExtractor() {
+        this(DEFAULT_WRITE_LIMIT, 0, 0, null, null);
+    }
+
+    /**
+     * @param writeLimit max number of characters extracted from one blob
+     * @param threads number of extraction threads, 0 to extract in the calling thread
+     * @param timeout time in ms after which the extraction of one blob is abandoned, only applies when there
+     *                are extraction threads
+     * @param cache optional cache of the extracted texts
+     * @param metricsName name of the metrics record, null for no metrics
+     */
+    public ContentExtractor(int writeLimit, int threads, long timeout, ContentExtractionCache cache,
+            String metricsName) {
+        this.writeLimit = writeLimit;
+        this.timeout = timeout;
+        this.threads = threads;
+        this.maxAbandoned = threads * MAX_ABANDONED_PER_THREAD;
+        this.cache = cache;
+        this.metrics = metricsName != null ? new ContentExtractionMetrics(metricsName) : null;
+
+        if (threads > 0) {
+            // When all threads are busy and the queue is full, the submitter waits at most the timeout
+            // for a place in the queue, after which the blob is skipped. The core pool size is raised above
+            // the number of threads to replace the threads of abandoned extractions.
+            executor = new ThreadPoolExecutor(threads, threads + maxAbandoned, 60, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<Runnable>(threads), new CustomThreadFactory("lily-content-extraction",
+                    null, true), new WaitPolicy(timeout, TimeUnit.MILLISECONDS));
+            executor.allowCoreThreadTimeOut(true);
+        } else {
+            executor = null;
+        }
+    }
+
+    public void shutdown() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+        if (metrics != null) {
+            metrics.shutdown();
+        }
+    }
+
+    /**
+     * Starts the extraction of a blob. When there are no extraction threads, the extraction is done before
+     * this method returns.
+     *
+     * @param indexes the position of the blob within the field value, see
+     *                {@link org.lilyproject.repository.api.LTable#getInputStream(Record, org.lilyproject.repository.api.QName, int...)}
+     */
+    public Extraction submit(String table, Blob blob, Record record, FieldType fieldType, int[] indexes,
+            LRepository repository) throws InterruptedException {
+        ExtractionTask task = new ExtractionTask(table, blob, record, fieldType, indexes, repository);
+
+        if (executor == null) {
+            return new Extraction(task, null, task.call());
+        }
+
+        try {
+            return new Extraction(task, executor.submit(task), null);
+        } catch (RejectedExecutionException e) {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            if (metrics != null) {
+                metrics.reportTimeout();
+            }
+            log.warn("Blob extraction: no extraction thread available within " + timeout + " ms, skipping blob. "
+                    + task.describe());
+            return new Extraction(task, null, null);
+        }
+    }
+
+    /**
+     * Waits for the result of an extraction.
+     *
+     * @return the extracted text, or null if the extraction failed or timed out
+     */
+    public String getText(Extraction extraction) throws InterruptedException {
+        if (extraction.future == null) {
+            return extraction.text;
+        }
+
+        try {
+            // The timeout applies from the moment the extraction starts, since the other blobs of the same
+            // value were submitted at the same time. A blob which cannot start within the timeout because all
+            // extraction threads are busy is abandoned as well.
+            while (true) {
+                long started = extraction.task.started;
+                long wait = started == 0 ? timeout : started + timeout - System.currentTimeMillis();
+                if (wait <= 0) {
+                    break;
+                }
+                try {
+                    return extraction.future.get(wait, TimeUnit.MILLISECONDS);
+                } catch (TimeoutException e) {
+                    if (started == 0 && extraction.task.started == 0) {
+                        break;
+                    }
+                }
+            }
+        } catch (ExecutionException e) {
+            log.error("Error extracting blob content. " + extraction.task.describe(), e.getCause());
+            return null;
+        } catch (InterruptedException e) {
+            extraction.cancel();
+            throw e;
+        }
+
+        extraction.cancel();
+        if (metrics != null) {
+            metrics.reportTimeout();
+        }
+        log.warn("Blob extraction: timed out after " + timeout + " ms. " + extraction.task.describe());
+        return null;
+    }
+
+    /**
+     * Cancels an extraction whose result is no longer needed.
+     */
+    public void cancel(Extraction extraction) {
+        if (extraction.future != null) {
+            extraction.cancel();
+        }
+    }
+
+    /**
+     * Returns the number of abandoned extractions whose thread is still busy.
+     */
+    public int getAbandonedCount() {
+        return abandoned.get();
+    }
+
+    private void abandonedStarted(ExtractionTask task) {
+        int count = abandoned.incrementAndGet();
+        if (count > maxAbandoned) {
+            log.warn("Blob extraction: " + count + " abandoned extractions are still running, no more extraction"
+                    + " threads are added to replace them. " + task.describe());
+        }
+        updatePoolSize();
+    }
+
+    private void abandonedFinished() {
+        abandoned.decrementAndGet();
+        updatePoolSize();
+    }
+
+    private synchronized void updatePoolSize() {
+        int count = abandoned.get();
+        executor.setCorePoolSize(threads + Math.min(count, maxAbandoned));
+        if (metrics != null) {
+            metrics.reportAbandoned(count);
+        }
+    }
+
+    private String getCachedText(Blob blob) {
+        if (cache != null) {
+            try {
+                return cache.get(blob, writeLimit);
+            } catch (IOException e) {
+                log.warn("Error reading from the content extraction cache, extracting the blob content.", e);
+            }
+        }
+        return null;
+    }
+
+    private void putCachedText(Blob blob, String text) {
+        if (cache != null) {
+            try {
+                cache.put(blob, writeLimit, text);
+            } catch (IOException e) {
+                log.warn("Error writing to the content extraction cache.", e);
+            }
+        }
+    }
+
+    /**
+     * The extraction of one blob, as returned by {@link #submit}.
+     */
+    public static class Extraction {
+        private final ExtractionTask task;
+        private final Future<String> future;
+        private final String text;
+
+        private Extraction(ExtractionTask task, Future<String> future, String text) {
+            this.task = task;
+            this.future = future;
+            this.text = text;
+        }
+
+        private void cancel() {
+            // Tika does not always react on interrupts, closing the stream makes sure parsing stops
+            task.abort();
+            future.cancel(true);
+        }
+    }
+
+    private class ExtractionTask implements Callable<String> {
+        private final String table;
+        private final Blob blob;
+        private final Record record;
+        private final FieldType fieldType;
+        private final int[] indexes;
+        private final LRepository repository;
+        private volatile long started;
+        private volatile InputStream is;
+        private volatile boolean aborted;
+        /** Whether the task is running, guarded by the task itself. */
+        private boolean running;
+        /** Whether the task was abandoned while running, guarded by the task itself. */
+        private boolean abandonedWhileRunning;
+
+        ExtractionTask(String table, Blob blob, Record record, FieldType fieldType, int[] indexes,
+                LRepository repository) {
+            this.table = table;
+            this.blob = blob;
+            this.record = record;
+            this.fieldType = fieldType;
+            this.indexes = indexes;
+            this.repository = repository;
+        }
+
+        /**
+         * @return the extracted text, or null if the extraction failed
+         */
+        @Override
+        public String call() {
+            synchronized (this) {
+                running = true;
+            }
+            try {
+                return extract();
+            } finally {
+                boolean wasAbandoned;
+                synchronized (this) {
+                    running = false;
+                    wasAbandoned = abandonedWhileRunning;
+                }
+                if (wasAbandoned) {
+                    abandonedFinished();
+                }
+            }
+        }
+
+        private String extract() {
+            started = System.currentTimeMillis();
+
+            String text = getCachedText(blob);
+            if (text != null) {
+                return text;
+            }
+
+            long before = System.currentTimeMillis();
+            CountingInputStream countingIs = null;
+
+            WriteOutContentHandler woh = new WriteOutContentHandler(writeLimit);
+            BodyContentHandler ch = new BodyContentHandler(woh);
+
+            try {
+                countingIs = new CountingInputStream(
+                        repository.getTable(table).getInputStream(record, fieldType.getName(), indexes));
+                is = countingIs;
+                if (aborted) {
+                    return null;
+                }
+
+                Metadata metadata = new Metadata();
+                metadata.add(Metadata.CONTENT_TYPE, blob.getMediaType());
+                if (blob.getName() != null) {
+                    metadata.add(Metadata.RESOURCE_NAME_KEY, blob.getName());
+                }
+
+                ParseContext parseContext = new ParseContext();
+
+                tikaParser.parse(countingIs, ch, metadata, parseContext);
+            } catch (Throwable t) {
+                if (woh.isWriteLimitReached(t)) {
+                    // ok, we'll just add use the partial result
+                    if (log.isInfoEnabled()) {
+                        log.info("Blob extraction: write limit reached. " + describe());
+                    }
+                } else if (aborted) {
+                    // timed out, reported by getText
+                    return null;
+                } else {
+                    if (metrics != null) {
+                        metrics.reportFailure();
+                    }
+                    log.error("Error extracting blob content. " + describe(), t);
+                    return null;
+                }
+            } finally {
+                Closer.close(countingIs);
+                if (metrics != null) {
+                    metrics.reportExtraction(System.currentTimeMillis() - before,
+                            countingIs != null ? countingIs.getCount() : 0);
+                }
+            }
+
+            text = ch.toString();
+            putCachedText(blob, text);
+            return text;
+        }
+
+        void abort() {
+            aborted = true;
+            boolean abandon = false;
+            synchronized (this) {
+                if (running && !abandonedWhileRunning) {
+                    abandonedWhileRunning = true;
+                    abandon = true;
+                }
+            }
+            if (abandon) {
+                abandonedStarted(this);
+            }
+            Closer.close(is);
+        }
+
+        String describe() {
+            return "Field '" + fieldType.getName() + "', record '" + record.getId() + "'.";
+        }
+    }
+}
@@ -16,7 +16,6 @@
 package org.lilyproject.indexer.engine;
 
 import java.io.IOException;
-import java.io.InputStream;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -25,14 +24,6 @@ import java.util.List;
 
 import com.google.common.collect.Lists;
 import com.google.common.primitives.Ints;
-import org.apache.commons.logging.Log;
-import org.apache.commons.logging.LogFactory;
-import org.apache.tika.metadata.Metadata;
-import org.apache.tika.parser.AutoDetectParser;
-import org.apache.tika.parser.ParseContext;
-import org.apache.tika.parser.Parser;
-import org.apache.tika.sax.BodyContentHandler;
-import org.apache.tika.sax.WriteOutContentHandler;
 import org.lilyproject.indexer.model.indexerconf.DerefValue;
 import org.lilyproject.indexer.model.indexerconf.FieldValue;
 import org.lilyproject.indexer.model.indexerconf.Follow;
@@ -47,24 +38,26 @@ import org.lilyproject.repository.api.FieldType;
 import org.lilyproject.repository.api.LRepository;
 import org.lilyproject.repository.api.Record;
 import org.lilyproject.repository.api.RepositoryException;
-import org.lilyproject.util.io.Closer;
 import org.lilyproject.util.repo.SystemFields;
 
 /**
  * Evaluates an index field value (a {@link Value}) to a value.
  */
 public class ValueEvaluator {
-    private Log log = LogFactory.getLog(getClass());
-
     private LilyIndexerConf conf;
 
     private SystemFields systemFields;
 
-    private Parser tikaParser = new AutoDetectParser();
+    private ContentExtractor contentExtractor;
 
     public ValueEvaluator(LilyIndexerConf conf) {
+        this(conf, new ContentExtractor());
+    }
+
+    public ValueEvaluator(LilyIndexerConf conf, ContentExtractor contentExtractor) {
         this.conf = conf;
         this.systemFields = conf.getSystemFields();
+        this.contentExtractor = contentExtractor;
     }
 
     /**
@@ -120,85 +113,59 @@ public class ValueEvaluator {
         return formatter.format(indexValues, repository);
     }
 
-    private List<String> extractContent(String table, List<IndexValue> indexValues, LRepository repository) {
+    private List<String> extractContent(String table, List<IndexValue> indexValues, LRepository repository)
+            throws InterruptedException {
         // At this point we can be sure the value will be a blob, this is
         // validated during
         // the construction of the indexer conf.
 
-        List<String> result = new ArrayList<String>(indexValues.size());
+        // All blobs are submitted before collecting the results, so that they can be extracted in parallel
+        List<ContentExtractor.Extraction> extractions = new ArrayList<ContentExtractor.Extraction>(indexValues.size());
 
         Deque<Integer> indexes = new ArrayDeque<Integer>();
 
-        for (IndexValue indexValue : indexValues) {
-            indexes.clear();
+        try {
+            for (IndexValue indexValue : indexValues) {
+                indexes.clear();
 
-            if (indexValue.listIndex != null) {
-                indexes.addLast(indexValue.listIndex);
+                if (indexValue.listIndex != null) {
+                    indexes.addLast(indexValue.listIndex);
+                }
+
+                extractContent(table, indexValue.value, indexes, indexValue.record, indexValue.fieldType, extractions,
+                        repository);
             }
 
-            extractContent(table, indexValue.value, indexes, indexValue.record, indexValue.fieldType, result, repository);
-        }
+            List<String> result = new ArrayList<String>(extractions.size());
+            for (ContentExtractor.Extraction extraction : extractions) {
+                String text = contentExtractor.getText(extraction);
+                if (text != null && text.length() > 0) {
+                    result.add(text);
+                }
+            }
 
-        return result.isEmpty() ? null : result;
+            return result.isEmpty() ? null : result;
+        } catch (InterruptedException e) {
+            for (ContentExtractor.Extraction extraction : extractions) {
+                contentExtractor.cancel(extraction);
+            }
+            throw e;
+        }
     }
 
     private void extractContent(String table, Object value, Deque<Integer> indexes, Record record, FieldType fieldType,
-            List<String> result, LRepository repository) {
+            List<ContentExtractor.Extraction> extractions, LRepository repository) throws InterruptedException {
 
         if (value instanceof List) { // this covers both LIST and PATH types
             List values = (List) value;
             for (int i = 0; i < values.size(); i++) {
                 indexes.addLast(i);
-                extractContent(table, values.get(i), indexes, record, fieldType, result, repository);
+                extractContent(table, values.get(i), indexes, record, fieldType, extractions, repository);
                 indexes.removeLast();
             }
         } else {
-            extractContent(table, value, record, fieldType, Ints.toArray(indexes), result, repository);
-        }
-    }
-
-    private void extractContent(String table, Object value, Record record, FieldType fieldType, int[] indexes, List<String> result,
-            LRepository repository) {
-
-        Blob blob = (Blob) value;
-        InputStream is = null;
-
-        // TODO make write limit configurable
-        WriteOutContentHandler woh = new WriteOutContentHandler(500 * 1000); // 500K limit (Tika default: 100K)
-        BodyContentHandler ch = new BodyContentHandler(woh);
-
-        try {
-            is = repository.getTable(table).getInputStream(record, fieldType.getName(), indexes);
-
-            Metadata metadata = new Metadata();
-            metadata.add(Metadata.CONTENT_TYPE, blob.getMediaType());
-            if (blob.getName() != null) {
-                metadata.add(Metadata.RESOURCE_NAME_KEY, blob.getName());
-            }
-
-            ParseContext parseContext = new ParseContext();
-
-            tikaParser.parse(is, ch, metadata, parseContext);
-        } catch (Throwable t) {
-            if (woh.isWriteLimitReached(t)) {
-                // ok, we'll just add use the partial result
-                if (log.isInfoEnabled()) {
-                    log.info("Blob extraction: write limit reached. Field '" + fieldType.getName() + "', record '"
-                            + record.getId() + "'.");
-                }
-            } else {
-                log.error(
-                        "Error extracting blob content. Field '" + fieldType.getName() + "', record '" + record.getId()
-                                + "'.", t);
-                return;
-            }
-        } finally {
-            Closer.close(is);
-        }
-
-        String text = ch.toString();
-        if (text.length() > 0) {
-            result.add(text);
+            extractions.add(contentExtractor.submit(table, (Blob) value, record, fieldType, Ints.toArray(indexes),
+                    repository));
         }
     }
 
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.indexer.engine.test;
+
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.lilyproject.indexer.engine.ContentExtractionCache;
+import org.lilyproject.repository.api.Blob;
+import org.lilyproject.repotestfw.RepositorySetup;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class ContentExtractionCacheTest {
+    private final static RepositorySetup repoSetup = new RepositorySetup();
+
+    @BeforeClass
+    public static void setUpBeforeClass() throws Exception {
+        repoSetup.setupCore();
+    }
+
+    @AfterClass
+    public static void tearDownAfterClass() throws Exception {
+        repoSetup.stop();
+    }
+
+    @Test
+    public void testCache() throws Exception {
+        ContentExtractionCache cache = new ContentExtractionCache(repoSetup.getHbaseTableFactory(), 3600, 1024 * 1024);
+
+        Blob blob = new Blob(blobKey(Bytes.toBytes("blobkey"), "HBASE"), "application/pdf", 10L, "file.pdf");
+        assertNull(cache.get(blob, 100));
+
+        cache.put(blob, 100, "extracted text");
+        assertEquals("extracted text", cache.get(blob, 100));
+
+        // The text is persisted, not only kept in memory
+        ContentExtractionCache otherCache =
+                new ContentExtractionCache(repoSetup.getHbaseTableFactory(), 3600, 1024 * 1024);
+        assertEquals("extracted text", otherCache.get(blob, 100));
+
+        // A different write limit or media type gives another extraction result
+        assertNull(otherCache.get(blob, 200));
+        assertNull(otherCache.get(new Blob(blob.getValue(), "text/plain", 10L, "file.pdf"), 100));
+
+        // Inline blobs, whose value is the data itself, are not cached, however small they are
+        Blob inlineBlob = new Blob(blobKey(new byte[10], "INLINE"), "text/plain", 10L, null);
+        cache.put(inlineBlob, 100, "inline text");
+        assertNull(cache.get(inlineBlob, 100));
+
+        cache.close();
+        otherCache.close();
+    }
+
+    /**
+     * Encodes a blob key the way the BlobStoreAccessRegistry does: followed by the id of the blob store.
+     */
+    private byte[] blobKey(byte[] key, String blobStoreId) {
+        byte[] id = Bytes.toBytes(blobStoreId);
+        return Bytes.add(key, id, Bytes.toBytes(id.length));
+    }
+}
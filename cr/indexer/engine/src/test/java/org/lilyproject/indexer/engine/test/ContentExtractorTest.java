@@ -0,0 +1,174 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.indexer.engine.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.lilyproject.indexer.engine.ContentExtractor;
+import org.lilyproject.repository.api.Blob;
+import org.lilyproject.repository.api.FieldType;
+import org.lilyproject.repository.api.LRepository;
+import org.lilyproject.repository.api.LTable;
+import org.lilyproject.repository.api.QName;
+import org.lilyproject.repository.api.Record;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyVararg;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class ContentExtractorTest {
+    private static final long TIMEOUT = 500;
+
+    private ContentExtractor extractor;
+    private LRepository repository;
+    private LTable table;
+    private Record record;
+    private FieldType fieldType;
+    private Blob blob;
+
+    @Before
+    public void setUp() throws Exception {
+        extractor = new ContentExtractor(ContentExtractor.DEFAULT_WRITE_LIMIT, 2, TIMEOUT, null, null);
+
+        table = mock(LTable.class);
+        repository = mock(LRepository.class);
+        when(repository.getTable("record")).thenReturn(table);
+        record = mock(Record.class);
+        fieldType = mock(FieldType.class);
+        when(fieldType.getName()).thenReturn(new QName("ns", "blob"));
+        blob = new Blob("application/octet-stream", 10L, "file");
+    }
+
+    @After
+    public void tearDown() {
+        extractor.shutdown();
+    }
+
+    @Test
+    public void testExtract() throws Exception {
+        when(table.getInputStream(eq(record), eq(new QName("ns", "blob")), (int[]) anyVararg()))
+                .thenReturn(new ByteArrayInputStream(new byte[10]));
+
+        ContentExtractor.Extraction extraction = extractor.submit("record", blob, record, fieldType, new int[0],
+                repository);
+        assertNotNull(extractor.getText(extraction));
+    }
+
+    @Test
+    public void testTimeout() throws Exception {
+        BlockingInputStream is1 = new BlockingInputStream();
+        BlockingInputStream is2 = new BlockingInputStream();
+        when(table.getInputStream(any(Record.class), any(QName.class), (int[]) anyVararg())).thenReturn(is1, is2);
+
+        ContentExtractor.Extraction extraction1 = extractor.submit("record", blob, record, fieldType, new int[0],
+                repository);
+        ContentExtractor.Extraction extraction2 = extractor.submit("record", blob, record, fieldType, new int[0],
+                repository);
+        assertNull(extractor.getText(extraction1));
+        assertNull(extractor.getText(extraction2));
+
+        // Both extractions were abandoned, and their streams got closed to stop the extraction
+        is1.closed.await();
+        is2.closed.await();
+    }
+
+    @Test(timeout = 30000)
+    public void testStuckExtraction() throws Exception {
+        CountDownLatch released = new CountDownLatch(1);
+        when(table.getInputStream(any(Record.class), any(QName.class), (int[]) anyVararg())).thenReturn(
+                new StuckInputStream(released), new StuckInputStream(released),
+                new ByteArrayInputStream(new byte[10]));
+
+        ContentExtractor.Extraction extraction1 = extractor.submit("record", blob, record, fieldType, new int[0],
+                repository);
+        ContentExtractor.Extraction extraction2 = extractor.submit("record", blob, record, fieldType, new int[0],
+                repository);
+        assertNull(extractor.getText(extraction1));
+        assertNull(extractor.getText(extraction2));
+        assertEquals(2, extractor.getAbandonedCount());
+
+        // Both extraction threads are still stuck, other threads take over
+        ContentExtractor.Extraction extraction3 = extractor.submit("record", blob, record, fieldType, new int[0],
+                repository);
+        assertNotNull(extractor.getText(extraction3));
+
+        released.countDown();
+        while (extractor.getAbandonedCount() > 0) {
+            Thread.sleep(10);
+        }
+    }
+
+    /**
+     * Input stream whose reads block until it is closed.
+     */
+    private static class BlockingInputStream extends InputStream {
+        private final CountDownLatch closed = new CountDownLatch(1);
+
+        @Override
+        public int read() throws IOException {
+            try {
+                closed.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            throw new IOException("Stream closed");
+        }
+
+        @Override
+        public void close() {
+            closed.countDown();
+        }
+    }
+
+    /**
+     * Input stream whose reads ignore close and interrupts, like a parser which is stuck.
+     */
+    private static class StuckInputStream extends InputStream {
+        private final CountDownLatch released;
+
+        StuckInputStream(CountDownLatch released) {
+            this.released = released;
+        }
+
+        @Override
+        public int read() throws IOException {
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    released.await();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            return -1;
+        }
+    }
+}
@@ -258,6 +258,66 @@ public class RecordMatcherTest {
                         idxConf.getRecordFilter().getIndexCase(Table.RECORD.name, record).getVersionTags());
             }
         }
+
+        // The outcome depends on the version of the record type: the first version of rt3 had no supertypes
+        String conf = makeIndexerConf(
+                "xmlns:ns1='ns1'",
+                Lists.newArrayList("instanceOf='ns1:rt1' vtags='vtag1'"),
+                Collections.<String>emptyList()
+        );
+        LilyIndexerConf idxConf = LilyIndexerConfBuilder.build(new ByteArrayInputStream(conf.getBytes()), repository);
+
+        Record recordV1 = newRecordOfType(new QName("ns1", "rt3"));
+        recordV1.setRecordType(new QName("ns1", "rt3"), 1L);
+        Record recordV2 = newRecordOfType(new QName("ns1", "rt3"));
+        recordV2.setRecordType(new QName("ns1", "rt3"), rt3.getVersion());
+
+        for (int i = 0; i < 2; i++) {
+            assertNull(idxConf.getRecordFilter().getIndexCase(Table.RECORD.name, recordV1));
+            assertNotNull(idxConf.getRecordFilter().getIndexCase(Table.RECORD.name, recordV2));
+        }
+    }
+
+    @Test
+    public void testInstanceOfAfterRename() throws Exception {
+        RecordType base = typeManager.recordTypeBuilder()
+                .defaultNamespace("ns1")
+                .name("renameBase")
+                .field(stringField.getId(), false)
+                .create();
+
+        RecordType other = typeManager.recordTypeBuilder()
+                .defaultNamespace("ns1")
+                .name("renameOther")
+                .field(stringField.getId(), false)
+                .create();
+
+        RecordType sub = typeManager.recordTypeBuilder()
+                .defaultNamespace("ns1")
+                .name("renameSub")
+                .supertype().use(base).add()
+                .field(stringField.getId(), false)
+                .create();
+
+        String conf = makeIndexerConf(
+                "xmlns:ns1='ns1'",
+                Lists.newArrayList("instanceOf='ns1:renameBase' vtags='vtag1'"),
+                Collections.<String>emptyList()
+        );
+        LilyIndexerConf idxConf = LilyIndexerConfBuilder.build(new ByteArrayInputStream(conf.getBytes()), repository);
+
+        Record record = newRecordOfType(sub.getName());
+        record.setRecordType(sub.getName(), sub.getVersion());
+        assertNotNull(idxConf.getRecordFilter().getIndexCase(Table.RECORD.name, record));
+
+        // Give the name of the supertype to another type: the outcome remembered for this version of the
+        // record type does not apply anymore
+        base.setName(new QName("ns1", "renameBaseOld"));
+        typeManager.updateRecordType(base);
+        other.setName(new QName("ns1", "renameBase"));
+        typeManager.updateRecordType(other);
+
+        assertNull(idxConf.getRecordFilter().getIndexCase(Table.RECORD.name, record));
     }
 
     @Test
@@ -75,6 +75,11 @@ public class LilyIndexerComponentFactory implements IndexerComponentFactory {
         try {
             zk = new ZooKeeperImpl(zookeeperConnectString, 30000);
             lilyClient = new LilyClient(zk);
+            long recordCacheSize = Long.parseLong(
+                    Optional.fromNullable(params.get(LResultToSolrMapper.RECORD_CACHE_SIZE_KEY)).or("0"));
+            if (recordCacheSize > 0) {
+                lilyClient.enableRecordCache(recordCacheSize * 1024 * 1024);
+            }
             if (repositoryName == null) {
                 lRepository = lilyClient.getDefaultRepository();
             } else {
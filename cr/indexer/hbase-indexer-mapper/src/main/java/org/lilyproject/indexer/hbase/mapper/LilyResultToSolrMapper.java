@@ -1,6 +1,7 @@
 package org.lilyproject.indexer.hbase.mapper;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
@@ -13,10 +14,9 @@ import com.google.common.base.Function;
 import com.google.common.base.Joiner;
 import com.google.common.base.Optional;
 import com.google.common.base.Predicate;
-import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.Collections2;
 import com.google.common.collect.ImmutableSet;
-import com.google.common.collect.Lists;
+import com.google.common.collect.LinkedHashMultimap;
 import com.google.common.collect.Multimap;
 import com.google.common.collect.Sets;
 import com.ngdata.hbaseindexer.Configurable;
@@ -35,6 +35,8 @@ import org.lilyproject.indexer.derefmap.DependantRecordIdsIterator;
 import org.lilyproject.indexer.derefmap.DependencyEntry;
 import org.lilyproject.indexer.derefmap.DerefMap;
 import org.lilyproject.indexer.derefmap.DerefMapHbaseImpl;
+import org.lilyproject.indexer.engine.ContentExtractionCache;
+import org.lilyproject.indexer.engine.ContentExtractor;
 import org.lilyproject.indexer.engine.SolrDocumentBuilder;
 import org.lilyproject.indexer.engine.ValueEvaluator;
 import org.lilyproject.indexer.model.api.LResultToSolrMapper;
@@ -72,6 +74,7 @@ import org.lilyproject.util.hbase.HBaseTableFactoryImpl;
 import org.lilyproject.util.hbase.LilyHBaseSchema;
 import org.lilyproject.util.hbase.RepoAndTableUtil;
 import org.lilyproject.util.io.Closer;
+import org.lilyproject.util.repo.LazyRecordEvent;
 import org.lilyproject.util.repo.RecordEvent;
 import org.lilyproject.util.repo.RecordEventHelper;
 import org.lilyproject.util.repo.VTaggedRecord;
@@ -99,6 +102,15 @@ public class LilyResultToSolrMapper implements LResultToSolrMapper,Configurable
     private LilyEventPublisherManager eventPublisherManager;
     private String subscriptionId;
     private boolean enableDerefMap = true;
+    private long reindexCoalesceWindow = 0;
+    private PendingReindexRequests pendingReindexRequests;
+    private int extractionCacheTtl = 0;
+    private long extractionCacheMemory = 32;
+    private int extractionThreads = 2;
+    private long extractionTimeout = 60000;
+    private int extractionWriteLimit = ContentExtractor.DEFAULT_WRITE_LIMIT;
+    private ContentExtractionCache extractionCache;
+    private ContentExtractor contentExtractor;
 
     public LilyResultToSolrMapper(String indexName, LilyIndexerConf lilyIndexerConf, RepositoryManager repositoryManager, ZooKeeperItf zooKeeperItf) {
         setIndexName(indexName);
@@ -114,6 +126,13 @@ public class LilyResultToSolrMapper implements LResultToSolrMapper,Configurable
             String repoParam = Optional.fromNullable(params.get(LResultToSolrMapper.REPO_KEY)).or(RepoAndTableUtil.DEFAULT_REPOSITORY);
             setRepositoryName(repoParam);
             enableDerefMap = Boolean.parseBoolean(Optional.fromNullable(params.get(LResultToSolrMapper.ENABLE_DEREFMAP_KEY)).or("true"));
+            reindexCoalesceWindow = Long.parseLong(Optional.fromNullable(params.get(LResultToSolrMapper.REINDEX_COALESCE_WINDOW_KEY)).or("0"));
+            extractionCacheTtl = Integer.parseInt(Optional.fromNullable(params.get(LResultToSolrMapper.EXTRACTION_CACHE_TTL_KEY)).or("0"));
+            extractionCacheMemory = Long.parseLong(Optional.fromNullable(params.get(LResultToSolrMapper.EXTRACTION_CACHE_MEMORY_KEY)).or("32"));
+            extractionThreads = Integer.parseInt(Optional.fromNullable(params.get(LResultToSolrMapper.EXTRACTION_THREADS_KEY)).or("2"));
+            extractionTimeout = Long.parseLong(Optional.fromNullable(params.get(LResultToSolrMapper.EXTRACTION_TIMEOUT_KEY)).or("60000"));
+            extractionWriteLimit = Integer.parseInt(Optional.fromNullable(params.get(LResultToSolrMapper.EXTRACTION_WRITE_LIMIT_KEY))
+                    .or(String.valueOf(ContentExtractor.DEFAULT_WRITE_LIMIT)));
             init();
 
         } catch (Exception e) {
@@ -126,18 +145,32 @@ public class LilyResultToSolrMapper implements LResultToSolrMapper,Configurable
         repository = repositoryManager.getRepository(repositoryName != null ? repositoryName : RepoAndTableUtil.DEFAULT_REPOSITORY);
         idGenerator = repository.getIdGenerator();
 
-        valueEvaluator = new ValueEvaluator(lilyIndexerConf);
+        HBaseTableFactory tableFactory = new HBaseTableFactoryImpl(LilyClient.getHBaseConfiguration(zooKeeperItf));
+
+        if (extractionCacheTtl > 0) {
+            extractionCache = new ContentExtractionCache(tableFactory, extractionCacheTtl,
+                    extractionCacheMemory * 1024 * 1024);
+        }
+        contentExtractor = new ContentExtractor(extractionWriteLimit, extractionThreads, extractionTimeout,
+                extractionCache, indexName);
+        valueEvaluator = new ValueEvaluator(lilyIndexerConf, contentExtractor);
         recordDecoder = new RecordDecoder(repository.getTypeManager(), repository.getIdGenerator(), repository.getRecordFactory());
 
         if (lilyIndexerConf.containsDerefExpressions() && enableDerefMap) {
-            HBaseTableFactory tableFactory = new HBaseTableFactoryImpl(LilyClient.getHBaseConfiguration(zooKeeperItf));
             eventPublisherManager = new LilyEventPublisherManager(tableFactory);
             derefMap = DerefMapHbaseImpl.create(repository.getRepositoryName(), indexName,
                     LilyClient.getHBaseConfiguration(zooKeeperItf), null, repository.getIdGenerator());
+            if (reindexCoalesceWindow > 0) {
+                pendingReindexRequests = new PendingReindexRequests(reindexCoalesceWindow);
+            }
         }
     }
 
     public void stop () {
+        if (contentExtractor != null) {
+            contentExtractor.shutdown();
+        }
+        Closer.close(extractionCache);
         Closer.close(eventPublisherManager);
         Closer.close(repository);
         Closer.close(repositoryManager);
@@ -149,7 +182,8 @@ public class LilyResultToSolrMapper implements LResultToSolrMapper,Configurable
         try {
             // If we have a request to reindex then all the information we need should be in the payload
             if (result.containsColumn(LilyHBaseSchema.RecordCf.DATA.bytes, LilyHBaseSchema.RecordColumn.PAYLOAD.bytes)) {
-                RecordEvent event = new RecordEvent(result.getFamilyMap(LilyHBaseSchema.RecordCf.DATA.bytes)
+                // Only the type is needed, no need to decode the complete event
+                LazyRecordEvent event = new LazyRecordEvent(result.getFamilyMap(LilyHBaseSchema.RecordCf.DATA.bytes)
                         .get(LilyHBaseSchema.RecordColumn.PAYLOAD.bytes), idGenerator);
                 return event.getType().equals(INDEX);
             }
@@ -224,7 +258,9 @@ public class LilyResultToSolrMapper implements LResultToSolrMapper,Configurable
     @Override
     public void map(Result result, SolrUpdateWriter solrUpdateWriter) {
         try {
-            Record record = recordDecoder.decodeRecord(result);
+            // For reindex requests, the result only contains the event payload. For other events, it contains
+            // the current state of the record row, which is reused rather than reading the record again.
+            IdRecord record = recordDecoder.decodeRecordWithIds(result);
             RecordEvent event = new RecordEvent(result.getFamilyMap(LilyHBaseSchema.RecordCf.DATA.bytes)
                     .get(LilyHBaseSchema.RecordColumn.PAYLOAD.bytes), idGenerator);
 
@@ -232,6 +268,10 @@ public class LilyResultToSolrMapper implements LResultToSolrMapper,Configurable
             LTable table = repository.getTable(tableName != null ? tableName : LilyHBaseSchema.Table.RECORD.name);
 
             if (event.getType().equals(INDEX)) {
+                if (pendingReindexRequests != null) {
+                    // from now on, changes to the denormalized data need a new reindex request
+                    pendingReindexRequests.remove(new AbsoluteRecordIdImpl(table.getTableName(), record.getId()));
+                }
                 if (log.isDebugEnabled()) {
                     log.debug(String.format("Record %1$s: reindex requested for these vtags: %2$s", record.getId(),
                             vtagSetToNameString(event.getVtagsToIndex())));
@@ -312,20 +352,19 @@ public class LilyResultToSolrMapper implements LResultToSolrMapper,Configurable
                 RecordEventHelper eventHelper = new RecordEventHelper(event, null, repository.getTypeManager());
 
                 if (doIndexing) {
-                    try {
-                        // Read the vtags of the record. Note that while this algorithm is running, the record can
-                        // meanwhile undergo changes. However, we continuously work with the snapshot of the vtags
-                        // mappings read here. The processing of later events will bring the index up to date with
-                        // any new changes.
-                        vtRecord = new VTaggedRecord(record.getId(), eventHelper,
-                                repository.getTable(event.getTableName()), repository);
-                    } catch (RecordNotFoundException e) {
+                    if (!isExistingRecord(result)) {
                         // The record has been deleted in the meantime.
                         // For now, we do nothing, when the delete event is received the record will be removed
                         // from the index (as well as update of denormalized data).
                         // TODO: we should process all outstanding messages for the record (up to delete) in one go
                         return;
                     }
+                    // The vtags of the record are taken from the row state as it was fetched for this event. Note
+                    // that while this algorithm is running, the record can meanwhile undergo changes. However, we
+                    // continuously work with this snapshot of the vtags mappings. The processing of later events
+                    // will bring the index up to date with any new changes.
+                    vtRecord = new VTaggedRecord(record, eventHelper, repository.getTable(event.getTableName()),
+                            repository);
 
                     handleRecordCreateUpdate(vtRecord, table, solrUpdateWriter);
                 }
@@ -340,11 +379,21 @@ public class LilyResultToSolrMapper implements LResultToSolrMapper,Configurable
         }
     }
 
+    /**
+     * Checks the deleted flag of a fetched record row. The flag is missing when a lock was taken on a
+     * not-yet-existing row and the record creation failed.
+     */
+    private boolean isExistingRecord(Result result) {
+        byte[] deleted = recordDecoder.getLatest(result, LilyHBaseSchema.RecordCf.DATA.bytes,
+                LilyHBaseSchema.RecordColumn.DELETED.bytes);
+        return deleted != null && !Bytes.toBoolean(deleted);
+    }
+
     private void updateDenormalizedData(String repo, String table, RecordId recordId, Map<Scope, Set<FieldType>> updatedFieldsByScope,
                                         Set<SchemaId> changedVTagFields)
             throws RepositoryException, InterruptedException, IOException {
 
-        Multimap<AbsoluteRecordId, SchemaId> referrersAndVTags = ArrayListMultimap.create();
+        Multimap<AbsoluteRecordId, SchemaId> referrersAndVTags = LinkedHashMultimap.create();
 
         Set<SchemaId> allVTags = lilyIndexerConf.getVtags();
 
@@ -352,33 +401,48 @@ public class LilyResultToSolrMapper implements LResultToSolrMapper,Configurable
             log.debug("Updating denormalized data for " + recordId + ", vtags: " + changedVTagFields);
         }
 
-        // The reason to iterate over all vtags is because a field from a record without versions might be
+        // The reason to consider all vtags is because a field from a record without versions might be
         // dereferenced into multiple vtagged versions of another record, and we don't know what the [indexed]
         // vtags of that other record are.
+        // For changed vtags (or a delete), all dependants need to be reindexed regardless of fields, for the
+        // other vtags only the dependants in that vtag which depend on one of the changed fields.
+        Set<SchemaId> reindexAllVTags = new HashSet<SchemaId>();
+        Set<SchemaId> fieldVTags = new HashSet<SchemaId>();
         for (SchemaId vtag : allVTags) {
             if ((changedVTagFields != null && changedVTagFields.contains(vtag)) || updatedFieldsByScope == null) {
-                // changed vtags or delete: reindex regardless of fields
-                AbsoluteRecordId absRecordId = new AbsoluteRecordIdImpl(table, recordId);
-                DependantRecordIdsIterator dependants = derefMap.findDependantsOf(absRecordId);
-                if (log.isDebugEnabled()) {
-                    log.debug("changed vtag: dependants of " + recordId + ": " +
-                            depIds(derefMap.findDependantsOf(absRecordId)));
-                }
-                while (dependants.hasNext()) {
-                    referrersAndVTags.put(dependants.next(), vtag);
-                }
+                reindexAllVTags.add(vtag);
             } else {
-                // vtag didn't change, but some fields did change:
-                Set<SchemaId> fields = new HashSet<SchemaId>();
-                for (Scope scope : updatedFieldsByScope.keySet()) {
-                    fields.addAll(toSchemaIds(updatedFieldsByScope.get(scope)));
-                }
-                AbsoluteRecordId absRecordId = new AbsoluteRecordIdImpl(table, recordId);
-                final DependantRecordIdsIterator dependants = derefMap.findDependantsOf(absRecordId, fields, vtag);
-                while (dependants.hasNext()) {
-                    referrersAndVTags.put(dependants.next(), vtag);
+                fieldVTags.add(vtag);
+            }
+        }
+
+        Set<SchemaId> fields = null;
+        if (updatedFieldsByScope != null) {
+            fields = new HashSet<SchemaId>();
+            for (Scope scope : updatedFieldsByScope.keySet()) {
+                fields.addAll(toSchemaIds(updatedFieldsByScope.get(scope)));
+            }
+        }
+
+        // All vtags are handled using a single query on the deref map. The field filtering can only be done
+        // in the query if all dependants are filtered on fields.
+        AbsoluteRecordId absRecordId = new AbsoluteRecordIdImpl(table, recordId);
+        boolean filterOnFields = reindexAllVTags.isEmpty();
+        DependantRecordIdsIterator dependants =
+                derefMap.findDependantsWithVtagsOf(absRecordId, filterOnFields ? fields : null);
+        try {
+            while (dependants.hasNext()) {
+                AbsoluteRecordId dependant = dependants.next();
+                referrersAndVTags.putAll(dependant, reindexAllVTags);
+
+                SchemaId dependantVTag = dependants.getDependantVtag();
+                if (fieldVTags.contains(dependantVTag)
+                        && (filterOnFields || dependsOnOneOf(dependants.getDependencyFields(), fields))) {
+                    referrersAndVTags.put(dependant, dependantVTag);
                 }
             }
+        } finally {
+            Closer.close(dependants);
         }
 
         if (log.isDebugEnabled()) {
@@ -390,35 +454,64 @@ public class LilyResultToSolrMapper implements LResultToSolrMapper,Configurable
 
         //
         // Now add an index message to each of the found referrers, their actual indexing
-        // will be triggered by the message queue.
+        // will be triggered by the message queue. The messages are published concurrently, per table.
         //
+        Map<String, List<Pair<byte[], byte[]>>> eventsByTable = new HashMap<String, List<Pair<byte[], byte[]>>>();
+        Map<String, List<AbsoluteRecordId>> referrersByTable = new HashMap<String, List<AbsoluteRecordId>>();
         for (AbsoluteRecordId referrer : referrersAndVTags.keySet()) {
+            Collection<SchemaId> vtags = referrersAndVTags.get(referrer);
+            if (pendingReindexRequests != null) {
+                vtags = pendingReindexRequests.register(referrer, vtags);
+                if (vtags.isEmpty()) {
+                    // a reindex of the referrer has already been requested, but did not happen yet
+                    continue;
+                }
+            }
+
             RecordEvent payload = new RecordEvent();
             payload.setTableName(referrer.getTable());
             payload.setType(INDEX);
-            for (SchemaId vtag : referrersAndVTags.get(referrer)) {
+            for (SchemaId vtag : vtags) {
                 payload.addVTagToIndex(vtag);
             }
             RecordEvent.IndexRecordFilterData filterData = new RecordEvent.IndexRecordFilterData();
             filterData.setSubscriptionInclusions(ImmutableSet.of(this.subscriptionId));
             payload.setIndexRecordFilterData(filterData);
 
+            List<Pair<byte[], byte[]>> events = eventsByTable.get(referrer.getTable());
+            if (events == null) {
+                events = new ArrayList<Pair<byte[], byte[]>>();
+                eventsByTable.put(referrer.getTable(), events);
+                referrersByTable.put(referrer.getTable(), new ArrayList<AbsoluteRecordId>());
+            }
+            events.add(new Pair<byte[], byte[]>(referrer.getRecordId().toBytes(), payload.toBytes()));
+            referrersByTable.get(referrer.getTable()).add(referrer);
+        }
+
+        for (Map.Entry<String, List<Pair<byte[], byte[]>>> entry : eventsByTable.entrySet()) {
             try {
-                eventPublisherManager.getEventPublisher(repo, referrer.getTable()
-                ).publishEvent(referrer.getRecordId().toBytes(), payload.toJsonBytes());
+                eventPublisherManager.getEventPublisher(repo, entry.getKey()).publishEvents(entry.getValue());
+            } catch (InterruptedException e) {
+                throw e;
             } catch (Exception e) {
-                // We failed to put the message: this is pretty important since it means the record's index
-                // won't get updated, therefore log as error, but after this we continue with the next one.
-                log.error("Error putting index message on queue of record " + referrer, e);
-                //metrics.errors.inc();
+                // We failed to put (some of) the messages: this is pretty important since it means the records'
+                // index won't get updated, therefore log as error, but after this we continue with the next table.
+                log.error("Error putting index messages on queue of records " + referrersByTable.get(entry.getKey()),
+                        e);
+                if (pendingReindexRequests != null) {
+                    for (AbsoluteRecordId referrer : referrersByTable.get(entry.getKey())) {
+                        pendingReindexRequests.remove(referrer);
+                    }
+                }
             }
-            //metrics.lastReindexRequestedTimestamp.set(System.currentTimeMillis());
-
-
-
         }
     }
 
+    private boolean dependsOnOneOf(Set<SchemaId> dependencyFields, Set<SchemaId> fields) {
+        // same logic as in DerefMapIndexFilter: unknown fields match, a dependency on the whole record does not
+        return dependencyFields == null || !Sets.intersection(dependencyFields, fields).isEmpty();
+    }
+
     private Set<SchemaId> toSchemaIds(Set<FieldType> fieldTypes) {
         return new HashSet<SchemaId>(Collections2.transform(fieldTypes, new Function<FieldType, SchemaId>() {
             @Override
@@ -428,14 +521,6 @@ public class LilyResultToSolrMapper implements LResultToSolrMapper,Configurable
         }));
     }
 
-    private List<AbsoluteRecordId> depIds(DependantRecordIdsIterator dependants) throws IOException {
-        List<AbsoluteRecordId> recordIds = Lists.newArrayList();
-        while (dependants.hasNext()) {
-            recordIds.add(dependants.next());
-        }
-        return recordIds;
-    }
-
     @Override
     public LRepository getRepository() {
         return this.repository;
@@ -670,6 +755,12 @@ public class LilyResultToSolrMapper implements LResultToSolrMapper,Configurable
     private void index(LTable table, VTaggedRecord vtRecord, Set<SchemaId> vtagsToIndex, SolrUpdateWriter solrUpdateWriter) throws Exception {
         IdRecord idRecord = vtRecord.getRecord();
         Map<Long, Set<SchemaId>> vtagsToIndexByVersion = getVtagsByVersion(vtagsToIndex, vtRecord.getVTags());
+        try {
+            // Read all the versions to index at once, rather than one by one below
+            vtRecord.prefetchIdRecords(vtagsToIndex);
+        } catch (RecordNotFoundException e) {
+            // ok, handled per version below
+        }
         for (Map.Entry<Long, Set<SchemaId>> entry : vtagsToIndexByVersion.entrySet()) {
 
             IdRecord version = null;
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.indexer.hbase.mapper;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.cache.Cache;
+import com.google.common.base.Ticker;
+import com.google.common.cache.CacheBuilder;
+import org.lilyproject.repository.api.AbsoluteRecordId;
+import org.lilyproject.repository.api.SchemaId;
+
+/**
+ * Keeps track of the reindex requests which were recently sent for records whose denormalized data changed, so
+ * that when a record changes repeatedly, its dependants are not requested to be reindexed again and again.
+ *
+ * <p>A request is considered pending until the reindex event for the record is processed by this mapper, or until
+ * the time window has passed since the last request for the record. The latter bounds the staleness in case the
+ * reindex event is processed elsewhere (e.g. by the mapper of another indexer process).</p>
+ */
+class PendingReindexRequests {
+    private static final int MAX_SIZE = 100000;
+
+    private final Cache<AbsoluteRecordId, Set<SchemaId>> pending;
+
+    PendingReindexRequests(long windowMillis) {
+        this(windowMillis, Ticker.systemTicker());
+    }
+
+    /**
+     * @param ticker the time source for the time window
+     */
+    PendingReindexRequests(long windowMillis, Ticker ticker) {
+        pending = CacheBuilder.newBuilder()
+                .ticker(ticker)
+                .expireAfterWrite(windowMillis, TimeUnit.MILLISECONDS)
+                .maximumSize(MAX_SIZE)
+                .build();
+    }
+
+    /**
+     * Registers a reindex request for the given vtags of a record.
+     *
+     * @return the vtags for which no request is pending yet, and which hence need to be requested
+     */
+    synchronized Set<SchemaId> register(AbsoluteRecordId recordId, Collection<SchemaId> vtags) {
+        Set<SchemaId> pendingVtags = pending.getIfPresent(recordId);
+        Set<SchemaId> newVtags = new HashSet<SchemaId>(vtags);
+        if (pendingVtags != null) {
+            newVtags.removeAll(pendingVtags);
+        }
+
+        if (!newVtags.isEmpty()) {
+            Set<SchemaId> allVtags = new HashSet<SchemaId>(newVtags);
+            if (pendingVtags != null) {
+                allVtags.addAll(pendingVtags);
+            }
+            pending.put(recordId, allVtags);
+        }
+
+        return newVtags;
+    }
+
+    /**
+     * Forgets about the pending requests of a record, either because its reindex event is being processed or
+     * because sending the request failed.
+     */
+    void remove(AbsoluteRecordId recordId) {
+        pending.invalidate(recordId);
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.indexer.hbase.mapper;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.base.Ticker;
+import com.google.common.collect.Sets;
+import org.junit.Test;
+import org.lilyproject.repository.api.AbsoluteRecordId;
+import org.lilyproject.repository.api.IdGenerator;
+import org.lilyproject.repository.api.SchemaId;
+import org.lilyproject.repository.impl.id.IdGeneratorImpl;
+
+public class PendingReindexRequestsTest {
+    private final IdGenerator idGenerator = new IdGeneratorImpl();
+
+    @Test
+    public void testCoalescing() {
+        PendingReindexRequests pending = new PendingReindexRequests(60000);
+        AbsoluteRecordId id = idGenerator.newAbsoluteRecordId("record", idGenerator.newRecordId());
+        SchemaId vtag1 = idGenerator.getSchemaId(UUID.randomUUID());
+        SchemaId vtag2 = idGenerator.getSchemaId(UUID.randomUUID());
+
+        assertEquals(Sets.newHashSet(vtag1), pending.register(id, Sets.newHashSet(vtag1)));
+        assertTrue(pending.register(id, Sets.newHashSet(vtag1)).isEmpty());
+        // only the vtags that were not requested yet
+        assertEquals(Sets.newHashSet(vtag2), pending.register(id, Sets.newHashSet(vtag1, vtag2)));
+
+        // once the record is reindexed, new requests are needed again
+        pending.remove(id);
+        assertEquals(Sets.newHashSet(vtag1, vtag2), pending.register(id, Sets.newHashSet(vtag1, vtag2)));
+    }
+
+    @Test
+    public void testWindowExpiry() throws Exception {
+        FakeTicker ticker = new FakeTicker();
+        PendingReindexRequests pending = new PendingReindexRequests(50, ticker);
+        AbsoluteRecordId id = idGenerator.newAbsoluteRecordId("record", idGenerator.newRecordId());
+        SchemaId vtag = idGenerator.getSchemaId(UUID.randomUUID());
+
+        assertEquals(1, pending.register(id, Sets.newHashSet(vtag)).size());
+        ticker.advance(49);
+        assertTrue(pending.register(id, Sets.newHashSet(vtag)).isEmpty());
+        ticker.advance(1);
+        assertEquals(1, pending.register(id, Sets.newHashSet(vtag)).size());
+    }
+
+    private static class FakeTicker extends Ticker {
+        private final AtomicLong nanos = new AtomicLong();
+
+        @Override
+        public long read() {
+            return nanos.get();
+        }
+
+        void advance(long millis) {
+            nanos.addAndGet(TimeUnit.MILLISECONDS.toNanos(millis));
+        }
+    }
+}
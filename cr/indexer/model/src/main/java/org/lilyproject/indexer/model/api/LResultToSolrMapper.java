@@ -9,6 +9,20 @@ public interface LResultToSolrMapper extends ResultToSolrMapper {
     static final String REPO_KEY = "lily.repository"; // defaults to 'default'
     static final String TABLE_KEY = "lily.table"; // defaults to 'record'
     static final String ENABLE_DEREFMAP_KEY = "lily.enable-derefmap"; // defaults to 'true'
+    // time in ms during which repeated reindex requests for the same dependant are skipped, defaults to '0' (off)
+    static final String REINDEX_COALESCE_WINDOW_KEY = "lily.reindex-coalesce-window";
+    // time in seconds during which the text extracted from blobs is kept for reuse, defaults to '0' (no caching)
+    static final String EXTRACTION_CACHE_TTL_KEY = "lily.extraction-cache-ttl";
+    // size in MB of the extracted texts which are also kept in memory, defaults to '32'
+    static final String EXTRACTION_CACHE_MEMORY_KEY = "lily.extraction-cache-memory";
+    // number of threads extracting text from blobs, defaults to '2', '0' extracts in the indexer thread
+    static final String EXTRACTION_THREADS_KEY = "lily.extraction-threads";
+    // time in ms after which the extraction of one blob is abandoned, defaults to '60000'
+    static final String EXTRACTION_TIMEOUT_KEY = "lily.extraction-timeout";
+    // max number of characters extracted from one blob, defaults to '500000'
+    static final String EXTRACTION_WRITE_LIMIT_KEY = "lily.extraction-write-limit";
+    // size in MB of the cache of the records read by the indexer, defaults to '0' (no caching)
+    static final String RECORD_CACHE_SIZE_KEY = "lily.record-cache-size";
 
     LRepository getRepository();
 }
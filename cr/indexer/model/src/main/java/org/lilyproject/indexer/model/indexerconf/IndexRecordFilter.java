@@ -19,6 +19,8 @@ import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.lilyproject.repository.api.QName;
 import org.lilyproject.repository.api.Record;
@@ -31,12 +33,28 @@ public class IndexRecordFilter {
     private List<Pair<RecordMatcher, IndexCase>> includes = new ArrayList<Pair<RecordMatcher, IndexCase>>();
     private List<RecordMatcher> excludes = new ArrayList<RecordMatcher>();
 
+    /**
+     * Per record type name, the includes and excludes whose record type conditions match it, so that the
+     * other ones don't need to be evaluated. Filled in on first use of each record type name, there are only
+     * as many entries as there are record types.
+     */
+    private final ConcurrentMap<QName, Candidates> candidatesByRecordType = new ConcurrentHashMap<QName, Candidates>();
+    /** The candidates for records without record type. */
+    private volatile Candidates candidatesWithoutRecordType;
+
     public void addExclude(RecordMatcher exclude) {
         excludes.add(exclude);
+        clearCandidates();
     }
 
     public void addInclude(RecordMatcher include, IndexCase indexCase) {
         includes.add(new Pair<RecordMatcher, IndexCase>(include, indexCase));
+        clearCandidates();
+    }
+
+    private void clearCandidates() {
+        candidatesByRecordType.clear();
+        candidatesWithoutRecordType = null;
     }
 
     public Set<QName> getFieldDependencies() {
@@ -70,16 +88,18 @@ public class IndexRecordFilter {
     }
 
     public IndexCase getIndexCase(String table, Record record) {
+        Candidates candidates = getCandidates(record.getRecordTypeName());
+
         // If an exclude matches, the record is not included in this index.
         // Excludes have higher precedence than includes.
-        for (RecordMatcher exclude : excludes) {
-            if (exclude.matches(table, record)) {
+        for (RecordMatcher exclude : candidates.excludes) {
+            if (exclude.matchesIgnoringRecordTypeName(table, record)) {
                 return null;
             }
         }
 
-        for (Pair<RecordMatcher, IndexCase> include : includes) {
-            if (include.getV1().matches(table, record)) {
+        for (Pair<RecordMatcher, IndexCase> include : candidates.includes) {
+            if (include.getV1().matchesIgnoringRecordTypeName(table, record)) {
                 return include.getV2();
             }
         }
@@ -87,6 +107,24 @@ public class IndexRecordFilter {
         return null;
     }
 
+    private Candidates getCandidates(QName recordTypeName) {
+        if (recordTypeName == null) {
+            Candidates candidates = candidatesWithoutRecordType;
+            if (candidates == null) {
+                candidates = new Candidates(null);
+                candidatesWithoutRecordType = candidates;
+            }
+            return candidates;
+        }
+
+        Candidates candidates = candidatesByRecordType.get(recordTypeName);
+        if (candidates == null) {
+            candidates = new Candidates(recordTypeName);
+            candidatesByRecordType.put(recordTypeName, candidates);
+        }
+        return candidates;
+    }
+
     public List<IndexCase> getAllIndexCases() {
         List<IndexCase> cases = new ArrayList<IndexCase>(includes.size());
         for (Pair<RecordMatcher, IndexCase> include : includes) {
@@ -94,4 +132,25 @@ public class IndexRecordFilter {
         }
         return cases;
     }
+
+    /**
+     * The includes and excludes which can match records of a certain record type, in their original order.
+     */
+    private class Candidates {
+        private final List<RecordMatcher> excludes = new ArrayList<RecordMatcher>();
+        private final List<Pair<RecordMatcher, IndexCase>> includes = new ArrayList<Pair<RecordMatcher, IndexCase>>();
+
+        Candidates(QName recordTypeName) {
+            for (RecordMatcher exclude : IndexRecordFilter.this.excludes) {
+                if (exclude.matchesRecordTypeName(recordTypeName)) {
+                    excludes.add(exclude);
+                }
+            }
+            for (Pair<RecordMatcher, IndexCase> include : IndexRecordFilter.this.includes) {
+                if (include.getV1().matchesRecordTypeName(recordTypeName)) {
+                    includes.add(include);
+                }
+            }
+        }
+    }
 }
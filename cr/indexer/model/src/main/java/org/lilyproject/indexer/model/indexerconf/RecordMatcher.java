@@ -19,14 +19,18 @@ import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import com.google.common.collect.Sets;
 import org.lilyproject.repository.api.FieldType;
 import org.lilyproject.repository.api.QName;
 import org.lilyproject.repository.api.Record;
+import org.lilyproject.repository.api.RecordType;
 import org.lilyproject.repository.api.RepositoryException;
 import org.lilyproject.repository.api.SchemaId;
 import org.lilyproject.repository.api.TypeManager;
+import org.lilyproject.util.Pair;
 import org.lilyproject.util.repo.RecordUtil;
 
 
@@ -48,6 +52,12 @@ public class RecordMatcher {
 
     private TypeManager typeManager;
 
+    /**
+     * Outcome of the instanceOf condition per record type id and version, valid as long as the schema cache
+     * does not change.
+     */
+    private volatile InstanceOfResults instanceOfResults = new InstanceOfResults(-1);
+
     /**
      * The variant properties the record should have. Evaluation rules: a key named
      * "*" (star symbol) is a wildcard meaning that any variant dimensions not specified
@@ -72,9 +82,13 @@ public class RecordMatcher {
     }
 
     public boolean matches(String table, Record record) {
-        QName recordTypeName = record.getRecordTypeName();
-        Map<String, String> varProps = record.getId().getVariantProperties();
+        return matchesRecordTypeName(record.getRecordTypeName()) && matchesIgnoringRecordTypeName(table, record);
+    }
 
+    /**
+     * Evaluates the conditions on the record type name and namespace, which only depend on the record type name.
+     */
+    boolean matchesRecordTypeName(QName recordTypeName) {
         // About "recordTypeName == null": normally record type name cannot be null, but it can
         // be in the case of IndexAwareMQFeeder
         if (this.recordTypeNamespace != null &&
@@ -82,25 +96,27 @@ public class RecordMatcher {
             return false;
         }
 
-        if (!tableNames.isEmpty() && !tableNames.contains(table)) {
+        if (this.recordTypeName != null
+                && (recordTypeName == null || !this.recordTypeName.lightMatch(recordTypeName.getName()))) {
             return false;
         }
 
-        if (this.recordTypeName != null
-                && (recordTypeName == null || !this.recordTypeName.lightMatch(recordTypeName.getName()))) {
+        return true;
+    }
+
+    /**
+     * Evaluates all conditions except those checked by {@link #matchesRecordTypeName}.
+     */
+    boolean matchesIgnoringRecordTypeName(String table, Record record) {
+        QName recordTypeName = record.getRecordTypeName();
+        Map<String, String> varProps = record.getId().getVariantProperties();
+
+        if (!tableNames.isEmpty() && !tableNames.contains(table)) {
             return false;
         }
 
-        try {
-            if (this.instanceOfType != null
-                    && (recordTypeName == null || !RecordUtil.instanceOf(record, instanceOfType, typeManager))) {
-                return false;
-            }
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
-            throw new RuntimeException(e);
-        } catch (RepositoryException e) {
-            throw new RuntimeException(e);
+        if (this.instanceOfType != null && (recordTypeName == null || !isInstanceOf(record))) {
+            return false;
         }
 
         if (variantPropsPattern != null) {
@@ -140,6 +156,46 @@ public class RecordMatcher {
         return true;
     }
 
+    private boolean isInstanceOf(Record record) {
+        // The supertypes of a record type version never change, but the names of the record type and of the
+        // instanceOf type can move to another type by a rename or a delete and recreate. Therefore the outcomes
+        // are remembered per record type id and forgotten whenever the schema cache changes.
+        InstanceOfResults results = instanceOfResults;
+        long changeCount = typeManager.getSchemaCacheChangeCount();
+        if (results.changeCount != changeCount) {
+            results = new InstanceOfResults(changeCount);
+            instanceOfResults = results;
+        }
+
+        try {
+            RecordType recordType =
+                    typeManager.getRecordTypeByName(record.getRecordTypeName(), record.getRecordTypeVersion());
+            Pair<SchemaId, Long> key = new Pair<SchemaId, Long>(recordType.getId(), recordType.getVersion());
+            Boolean instanceOf = results.outcomes.get(key);
+            if (instanceOf == null) {
+                instanceOf = RecordUtil.instanceOf(record, instanceOfType, typeManager);
+                results.outcomes.put(key, instanceOf);
+            }
+            return instanceOf;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (RepositoryException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static final class InstanceOfResults {
+        /** The {@link TypeManager#getSchemaCacheChangeCount() change count} the outcomes belong to. */
+        private final long changeCount;
+        private final ConcurrentMap<Pair<SchemaId, Long>, Boolean> outcomes =
+                new ConcurrentHashMap<Pair<SchemaId, Long>, Boolean>();
+
+        private InstanceOfResults(long changeCount) {
+            this.changeCount = changeCount;
+        }
+    }
+
     public Set<QName> getFieldDependencies() {
         return fieldType != null ? Collections.singleton(fieldType.getName()) : Collections.<QName>emptySet();
     }
@@ -27,8 +27,7 @@ import org.lilyproject.repository.api.IdGenerator;
 import org.lilyproject.repository.impl.id.IdGeneratorImpl;
 import org.lilyproject.util.hbase.LilyHBaseSchema.RecordCf;
 import org.lilyproject.util.hbase.LilyHBaseSchema.RecordColumn;
-import org.lilyproject.util.repo.RecordEvent;
-import org.lilyproject.util.repo.RecordEvent.IndexRecordFilterData;
+import org.lilyproject.util.repo.LazyRecordEvent;
 
 /**
  * Filter for SEP events that removes all KeyValues from WALEdits that are not applicable to the configured index
@@ -68,22 +67,22 @@ class IndexerEditFilter implements WALEditFilter {
 
     private boolean isValidKeyValue(KeyValue kv) {
         if (kv.matchingColumn(RecordCf.DATA.bytes, RecordColumn.PAYLOAD.bytes)) {
-            RecordEvent recordEvent = null;
+            // This runs in the replication source of each index subscription, so only the parts needed for the
+            // routing decision are decoded, not the field changes
+            LazyRecordEvent recordEvent = new LazyRecordEvent(kv.getValue(), idGenerator);
             try {
-                recordEvent = new RecordEvent(kv.getValue(), idGenerator);
+                if ("false".equals(recordEvent.getAttributes().get(NO_INDEX_FLAG))) {
+                    return false;
+                }
+                if (recordEvent.hasIndexRecordFilterData()) {
+                    return recordEvent.appliesToSubscription(subscriptionName);
+                } else {
+                    log.warn("No IndexRecordFilterData on " + recordEvent.getRecordEvent().toJson());
+                }
             } catch (IOException e) {
                 log.error("Error parsing RecordEvent", e);
                 return false;
             }
-            if (recordEvent.hasAttributes() && "false".equals(recordEvent.getAttributes().get(NO_INDEX_FLAG))) {
-                return false;
-            }
-            IndexRecordFilterData indexRecordFilterData = recordEvent.getIndexRecordFilterData();
-            if (indexRecordFilterData != null) {
-                return indexRecordFilterData.appliesToSubscription(subscriptionName);
-            } else {
-                log.warn("No IndexRecordFilterData on " + recordEvent.toJson());
-            }
         }
         return false;
     }
@@ -15,12 +15,15 @@
  */
 package org.lilyproject.indexer.event;
 
+import java.util.UUID;
+
 import com.google.common.collect.ImmutableSet;
 import org.apache.hadoop.hbase.KeyValue;
 import org.apache.hadoop.hbase.regionserver.wal.WALEdit;
 import org.apache.hadoop.hbase.util.Bytes;
 import org.junit.Before;
 import org.junit.Test;
+import org.lilyproject.repository.impl.id.IdGeneratorImpl;
 import org.lilyproject.util.hbase.LilyHBaseSchema.RecordCf;
 import org.lilyproject.util.hbase.LilyHBaseSchema.RecordColumn;
 import org.lilyproject.util.repo.RecordEvent;
@@ -99,6 +102,26 @@ public class IndexerEditFilterTest {
         assertEquals(0, walEdit.size());
     }
 
+    @Test
+    public void testApply_BinaryPayload() {
+        RecordEvent recordEvent = new RecordEvent();
+        IndexRecordFilterData filterData = new IndexRecordFilterData();
+        filterData.addChangedField(new IdGeneratorImpl().getSchemaId(UUID.randomUUID()), Bytes.toBytes("old"),
+                Bytes.toBytes("new"));
+        filterData.setSubscriptionExclusions(ImmutableSet.of("SomeOtherIndexName"));
+        recordEvent.setIndexRecordFilterData(filterData);
+
+        WALEdit walEdit = new WALEdit();
+        walEdit.add(new KeyValue(Bytes.toBytes("row"), RecordCf.DATA.bytes, RecordColumn.PAYLOAD.bytes,
+                recordEvent.toBytes()));
+
+        editFilter.apply(walEdit);
+        assertEquals(1, walEdit.size());
+
+        new IndexerEditFilter("SomeOtherIndexName").apply(walEdit);
+        assertEquals(0, walEdit.size());
+    }
+
     @Test
     public void testApply_NonJsonPayload() {
 
@@ -18,8 +18,11 @@ package org.lilyproject.linkindex;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import com.google.common.collect.Sets;
@@ -275,6 +278,172 @@ public class LinkIndex {
         }
     }
 
+    /**
+     * Creates a batch in which the link changes of many records can be collected, to be applied all at once.
+     */
+    public Batch newBatch() {
+        return new Batch();
+    }
+
+    /**
+     * Collects link changes for many source records, see {@link LinkIndex#newBatch()}. The changes are only
+     * applied when calling {@link #apply()}.
+     *
+     * <p>When applying, the existing forward links of all source records are read using one scan, after which the net
+     * changes for all records are written to each index using one HBase call (the forward index gets one
+     * call for the additions and one for the removals, to respect the order of updating the forward and
+     * backward index). Changes for the same record are applied in the order they were added to the batch.</p>
+     *
+     * <p>This class is not thread safe.</p>
+     */
+    public class Batch {
+        private final Map<AbsoluteRecordId, SourceChanges> changes = new LinkedHashMap<AbsoluteRecordId, SourceChanges>();
+
+        private Batch() {
+        }
+
+        /**
+         * See {@link LinkIndex#deleteLinks(AbsoluteRecordId)}.
+         */
+        public void deleteLinks(AbsoluteRecordId sourceRecord) {
+            SourceChanges sourceChanges = getChanges(sourceRecord, false);
+            sourceChanges.deleteAll = true;
+            sourceChanges.links.clear();
+        }
+
+        /**
+         * See {@link LinkIndex#deleteLinks(AbsoluteRecordId, SchemaId)}.
+         */
+        public void deleteLinks(AbsoluteRecordId sourceRecord, SchemaId vtag) {
+            getChanges(sourceRecord, false).links.put(vtag, Collections.<FieldedLink>emptySet());
+        }
+
+        /**
+         * See {@link LinkIndex#updateLinks(AbsoluteRecordId, SchemaId, Set, boolean)}.
+         */
+        public void updateLinks(AbsoluteRecordId sourceRecord, SchemaId vtag, Set<FieldedLink> links,
+                boolean isNewRecord) {
+            getChanges(sourceRecord, isNewRecord).links.put(vtag, links);
+        }
+
+        public boolean isEmpty() {
+            return changes.isEmpty();
+        }
+
+        private SourceChanges getChanges(AbsoluteRecordId sourceRecord, boolean isNewRecord) {
+            SourceChanges sourceChanges = changes.get(sourceRecord);
+            if (sourceChanges == null) {
+                // For a new record there are no existing links, unless they were added earlier in this batch
+                sourceChanges = new SourceChanges(!isNewRecord);
+                changes.put(sourceRecord, sourceChanges);
+            }
+            return sourceChanges;
+        }
+
+        /**
+         * Applies the collected changes, after which the batch is empty again.
+         */
+        public void apply() throws LinkIndexException, InterruptedException {
+            if (changes.isEmpty()) {
+                return;
+            }
+
+            long before = System.currentTimeMillis();
+            try {
+                List<IndexEntry> fwdAdded = new ArrayList<IndexEntry>();
+                List<IndexEntry> fwdRemoved = new ArrayList<IndexEntry>();
+                List<IndexEntry> bkwdAdded = new ArrayList<IndexEntry>();
+                List<IndexEntry> bkwdRemoved = new ArrayList<IndexEntry>();
+
+                List<AbsoluteRecordId> existingRecords = new ArrayList<AbsoluteRecordId>();
+                for (Map.Entry<AbsoluteRecordId, SourceChanges> entry : changes.entrySet()) {
+                    if (entry.getValue().readExisting) {
+                        existingRecords.add(entry.getKey());
+                    }
+                }
+                Map<AbsoluteRecordId, Map<SchemaId, Set<FieldedLink>>> existingLinks =
+                        getAllForwardLinksByVtag(existingRecords);
+
+                for (Map.Entry<AbsoluteRecordId, SourceChanges> entry : changes.entrySet()) {
+                    AbsoluteRecordId sourceRecord = entry.getKey();
+                    SourceChanges sourceChanges = entry.getValue();
+
+                    Map<SchemaId, Set<FieldedLink>> oldLinksByVtag = existingLinks.get(sourceRecord);
+                    if (oldLinksByVtag == null) {
+                        oldLinksByVtag = Collections.emptyMap();
+                    }
+
+                    Set<SchemaId> vtags = new HashSet<SchemaId>(sourceChanges.links.keySet());
+                    if (sourceChanges.deleteAll) {
+                        vtags.addAll(oldLinksByVtag.keySet());
+                    }
+
+                    byte[] sourceAsBytes = sourceRecord.toBytes();
+                    for (SchemaId vtag : vtags) {
+                        Set<FieldedLink> oldLinks = oldLinksByVtag.containsKey(vtag) ?
+                                oldLinksByVtag.get(vtag) : Collections.<FieldedLink>emptySet();
+                        Set<FieldedLink> newLinks = sourceChanges.links.containsKey(vtag) ?
+                                sourceChanges.links.get(vtag) : Collections.<FieldedLink>emptySet();
+
+                        for (FieldedLink link : newLinks) {
+                            if (!oldLinks.contains(link)) {
+                                addEntries(vtag, sourceRecord, sourceAsBytes, link, fwdAdded, bkwdAdded);
+                            }
+                        }
+                        for (FieldedLink link : oldLinks) {
+                            if (!newLinks.contains(link)) {
+                                addEntries(vtag, sourceRecord, sourceAsBytes, link, fwdRemoved, bkwdRemoved);
+                            }
+                        }
+                    }
+                }
+
+                // Respect the order explained at the top of this class: additions go first to the forward index,
+                // removals first to the backward index.
+                if (!fwdAdded.isEmpty()) {
+                    forwardIndex.addEntries(fwdAdded);
+                }
+                backwardIndex.updateEntries(bkwdAdded, bkwdRemoved);
+                if (!fwdRemoved.isEmpty()) {
+                    forwardIndex.removeEntries(fwdRemoved);
+                }
+
+                changes.clear();
+            } catch (IOException e) {
+                throw new LinkIndexException("Error updating links for a batch of " + changes.size() + " records", e);
+            } finally {
+                metrics.report(Action.UPDATE_LINKS_BATCH, System.currentTimeMillis() - before);
+            }
+        }
+
+        private void addEntries(SchemaId vtag, AbsoluteRecordId sourceRecord, byte[] sourceAsBytes, FieldedLink link,
+                List<IndexEntry> fwdEntries, List<IndexEntry> bkwdEntries) {
+            IndexEntry fwdEntry = createForwardIndexEntry(vtag, sourceRecord, link.getFieldTypeId());
+            fwdEntry.setIdentifier(link.getAbsoluteRecordId().toBytes());
+            fwdEntries.add(fwdEntry);
+
+            IndexEntry bkwdEntry = createBackwardIndexEntry(vtag, link.getAbsoluteRecordId(), link.getFieldTypeId());
+            bkwdEntry.setIdentifier(sourceAsBytes);
+            bkwdEntries.add(bkwdEntry);
+        }
+    }
+
+    /**
+     * The links of one source record as they should be after applying a {@link Batch}.
+     */
+    private static class SourceChanges {
+        /** Whether the existing links need to be read, false for new records. */
+        private final boolean readExisting;
+        /** Whether the links of all vtags not in {@link #links} should be deleted. */
+        private boolean deleteAll;
+        /** The new links for each of the changed vtags. */
+        private final Map<SchemaId, Set<FieldedLink>> links = new HashMap<SchemaId, Set<FieldedLink>>();
+
+        private SourceChanges(boolean readExisting) {
+            this.readExisting = readExisting;
+        }
+    }
+
     private IndexEntry createBackwardIndexEntry(SchemaId vtag, AbsoluteRecordId target, SchemaId sourceField) {
         IndexEntry entry = new IndexEntry(backwardIndex.getDefinition());
 
@@ -338,7 +507,7 @@ public class LinkIndex {
 
             Set<AbsoluteRecordId> result = Sets.newHashSet();
 
-            QueryResult qr = backwardIndex.performQuery(query);
+            QueryResult qr = backwardIndex.performQuery(query, Index.ScanMode.PARALLEL_UNORDERED);
             byte[] id;
             while ((id = qr.next()) != null) {
                 result.add(getIdGenerator().absoluteFromBytes(id));
@@ -367,7 +536,7 @@ public class LinkIndex {
 
             Set<FieldedLink> result = new HashSet<FieldedLink>();
 
-            QueryResult qr = backwardIndex.performQuery(query);
+            QueryResult qr = backwardIndex.performQuery(query, Index.ScanMode.PARALLEL_UNORDERED);
             byte[] id;
             while ((id = qr.next()) != null) {
                 SchemaId sourceField = getIdGenerator().getSchemaId(qr.getData(SOURCE_FIELD_KEY));
@@ -417,6 +586,58 @@ public class LinkIndex {
         }
     }
 
+    /**
+     * Reads the forward links of many records using one scan of the forward index.
+     *
+     * @return the links per vtag, for the records that have links
+     */
+    private Map<AbsoluteRecordId, Map<SchemaId, Set<FieldedLink>>> getAllForwardLinksByVtag(
+            List<AbsoluteRecordId> records) throws LinkIndexException, InterruptedException {
+        Map<AbsoluteRecordId, Map<SchemaId, Set<FieldedLink>>> result =
+                new HashMap<AbsoluteRecordId, Map<SchemaId, Set<FieldedLink>>>();
+        if (records.isEmpty()) {
+            return result;
+        }
+
+        long before = System.currentTimeMillis();
+        try {
+            List<Query> queries = new ArrayList<Query>(records.size());
+            for (AbsoluteRecordId record : records) {
+                Query query = new Query();
+                query.addEqualsCondition("source", record.toBytes());
+                queries.add(query);
+            }
+
+            QueryResult qr = forwardIndex.performQueries(queries);
+            byte[] id;
+            while ((id = qr.next()) != null) {
+                AbsoluteRecordId source = getIdGenerator().absoluteFromBytes((byte[])qr.getIndexField("source"));
+                SchemaId sourceField = getIdGenerator().getSchemaId(qr.getData(SOURCE_FIELD_KEY));
+                SchemaId vtag = getIdGenerator().getSchemaId(qr.getData(VTAG_KEY));
+
+                Map<SchemaId, Set<FieldedLink>> linksByVtag = result.get(source);
+                if (linksByVtag == null) {
+                    linksByVtag = new HashMap<SchemaId, Set<FieldedLink>>();
+                    result.put(source, linksByVtag);
+                }
+                Set<FieldedLink> vtagLinks = linksByVtag.get(vtag);
+                if (vtagLinks == null) {
+                    vtagLinks = new HashSet<FieldedLink>();
+                    linksByVtag.put(vtag, vtagLinks);
+                }
+                vtagLinks.add(new FieldedLink(getIdGenerator().absoluteFromBytes(id), sourceField));
+            }
+            Closer.close(
+                    qr); // Not closed in finally block: avoid HBase contact when there could be connection problems.
+
+            return result;
+        } catch (IOException e) {
+            throw new LinkIndexException("Error getting forward links for " + records.size() + " records", e);
+        } finally {
+            metrics.report(Action.GET_ALL_FW_LINKS, System.currentTimeMillis() - before);
+        }
+    }
+
     public Set<RecordId> getForwardLinks(RecordId record, SchemaId vtag)
             throws LinkIndexException, InterruptedException {
         return getForwardLinks(record, vtag, null);
@@ -65,31 +65,41 @@ public class LinkIndexUpdater extends LilyEventListener {
     private LinkIndexUpdaterMetrics metrics;
 
     public LinkIndexUpdater(RepositoryManager repositoryManager, LinkIndex linkIndex) throws RepositoryException, InterruptedException {
-        super(repositoryManager);
+        this(repositoryManager, linkIndex, 1);
+    }
+
+    /**
+     * @param threads the number of threads used to process the events of one SEP batch, see
+     *                {@link LilyEventListener}
+     */
+    public LinkIndexUpdater(RepositoryManager repositoryManager, LinkIndex linkIndex, int threads)
+            throws RepositoryException, InterruptedException {
+        super(repositoryManager, repositoryManager.getDefaultRepository().getIdGenerator(), threads);
         this.repositoryManager = repositoryManager;
         this.linkIndex = linkIndex;
         metrics = new LinkIndexUpdaterMetrics("linkIndexUpdater");
     }
 
+    /**
+     * Processes the events as one {@link LinkIndex.Batch}, so that the link index is read and updated once for
+     * all the events.
+     */
     @Override
     public void processLilyEvents(List<LilySepEvent> events) {
+        LinkIndex.Batch batch = linkIndex.newBatch();
         for (LilySepEvent event : events) {
-            processEvent(event);
+            processEvent(event, batch);
         }
+        apply(batch);
     }
     
     public void processEvent(LilySepEvent event) {
+        LinkIndex.Batch batch = linkIndex.newBatch();
+        processEvent(event, batch);
+        apply(batch);
+    }
 
-        LRepository repository = null;
-        try {
-            repository = repositoryManager.getDefaultRepository();
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
-            throw new RuntimeException(e);
-        } catch (RepositoryException e) {
-            throw new RuntimeException(e);
-        }
-
+    private void processEvent(LilySepEvent event, LinkIndex.Batch batch) {
         RecordEvent recordEvent;
         try {
             recordEvent = event.getRecordEvent();
@@ -98,10 +108,29 @@ public class LinkIndexUpdater extends LilyEventListener {
             return;
         }
         AbsoluteRecordId absoluteRecordId = event.getAbsoluteRecordId();
-        update(absoluteRecordId, recordEvent);
+        update(absoluteRecordId, recordEvent, batch);
     }
 
     public void update(AbsoluteRecordId absRecordId, RecordEvent recordEvent) {
+        LinkIndex.Batch batch = linkIndex.newBatch();
+        update(absRecordId, recordEvent, batch);
+        apply(batch);
+    }
+
+    private void apply(LinkIndex.Batch batch) {
+        try {
+            batch.apply();
+        } catch (Exception e) {
+            // Throw the exception through so that it is retried later by the SEP
+            ExceptionUtil.handleInterrupt(e);
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Adds the link index changes needed for the given event to the batch.
+     */
+    private void update(AbsoluteRecordId absRecordId, RecordEvent recordEvent, LinkIndex.Batch batch) {
         // This is the algorithm for updating the LinkIndex when a record changes.
         //
         // The LinkIndex contains, for each vtag defined on the record, the links extracted from the record
@@ -118,7 +147,7 @@ public class LinkIndexUpdater extends LilyEventListener {
         try {
             if (recordEvent.getType().equals(DELETE)) {
                 // Delete everything from the link index for this record, thus for all vtags
-                linkIndex.deleteLinks(absRecordId);
+                batch.deleteLinks(absRecordId);
                 if (log.isDebugEnabled()) {
                     log.debug("Record " + absRecordId + " : delete event : deleted extracted links.");
                 }
@@ -135,7 +164,7 @@ public class LinkIndexUpdater extends LilyEventListener {
                     vtRecord = new VTaggedRecord(absRecordId.getRecordId(), eventHelper, table, repository);
                 } catch (RecordNotFoundException e) {
                     // record not found: delete all links for all vtags
-                    linkIndex.deleteLinks(absRecordId);
+                    batch.deleteLinks(absRecordId);
                     if (log.isDebugEnabled()) {
                         log.debug("Record " + absRecordId + " : does not exist : deleted extracted links.");
                     }
@@ -163,7 +192,7 @@ public class LinkIndexUpdater extends LilyEventListener {
                     if (!vtags.containsKey(vtag)) {
                         // The vtag is not defined on the document: it is a deleted vtag, delete the
                         // links corresponding to it
-                        linkIndex.deleteLinks(absRecordId, vtag);
+                        batch.deleteLinks(absRecordId, vtag);
                         if (log.isDebugEnabled()) {
                             log.debug(String.format("Record %1$s, vtag %2$s : deleted extracted links " +
                                     "because vtag does not exist on document anymore",
@@ -180,7 +209,7 @@ public class LinkIndexUpdater extends LilyEventListener {
                             links = extractLinks(vtRecord, version);
                             cache.put(version, links);
                         }
-                        linkIndex.updateLinks(absRecordId, vtag, links, isNewRecord);
+                        batch.updateLinks(absRecordId, vtag, links, isNewRecord);
                         if (log.isDebugEnabled()) {
                             log.debug(String.format("Record %1$s, vtag %2$s : extracted links count : %3$s",
                                     absRecordId, safeLoadTagName(vtag), links.size()));
@@ -142,6 +142,46 @@ public class LinkIndexTest {
         assertEquals(1, referrers.size());
     }
 
+    @Test
+    public void testLinkIndexBatch() throws Exception {
+        SchemaId liveTag = repository.getIdGenerator().getSchemaId(UUID.randomUUID());
+        SchemaId lastTag = repository.getIdGenerator().getSchemaId(UUID.randomUUID());
+
+        Set<FieldedLink> links1 = Sets.newHashSet(new FieldedLink(createAbsoluteId("batch1"), field1),
+                new FieldedLink(createAbsoluteId("batch2"), field1));
+        Set<FieldedLink> links2 = Sets.newHashSet(new FieldedLink(createAbsoluteId("batch2"), field1),
+                new FieldedLink(createAbsoluteId("batch3"), field1));
+
+        LinkIndex.Batch batch = linkIndex.newBatch();
+        batch.updateLinks(createAbsoluteId("batchA"), liveTag, links1, true);
+        batch.updateLinks(createAbsoluteId("batchA"), lastTag, links1, true);
+        batch.updateLinks(createAbsoluteId("batchB"), liveTag, links1, true);
+        // a later change to the same record within the batch wins
+        batch.updateLinks(createAbsoluteId("batchB"), liveTag, links2, false);
+        batch.apply();
+
+        assertEquals(links1, linkIndex.getFieldedForwardLinks(createAbsoluteId("batchA"), liveTag));
+        assertEquals(links1, linkIndex.getFieldedForwardLinks(createAbsoluteId("batchA"), lastTag));
+        assertEquals(links2, linkIndex.getFieldedForwardLinks(createAbsoluteId("batchB"), liveTag));
+        assertEquals(Sets.newHashSet(ids.newRecordId("batchA"), ids.newRecordId("batchB")),
+                linkIndex.getReferrers(ids.newRecordId("batch2"), liveTag));
+        assertEquals(Sets.newHashSet(ids.newRecordId("batchA")),
+                linkIndex.getReferrers(ids.newRecordId("batch1"), liveTag));
+
+        batch = linkIndex.newBatch();
+        batch.updateLinks(createAbsoluteId("batchA"), liveTag, links2, false);
+        batch.deleteLinks(createAbsoluteId("batchA"), lastTag);
+        batch.deleteLinks(createAbsoluteId("batchB"));
+        batch.apply();
+
+        assertEquals(links2, linkIndex.getFieldedForwardLinks(createAbsoluteId("batchA"), liveTag));
+        assertEquals(0, linkIndex.getFieldedForwardLinks(createAbsoluteId("batchA"), lastTag).size());
+        assertEquals(0, linkIndex.getAllForwardLinks(createAbsoluteId("batchB")).size());
+        assertEquals(Sets.newHashSet(ids.newRecordId("batchA")),
+                linkIndex.getReferrers(ids.newRecordId("batch3"), liveTag));
+        assertEquals(0, linkIndex.getReferrers(ids.newRecordId("batch1"), liveTag).size());
+    }
+
     @Test
     public void testLinkIndex_AcrossTables() throws Exception {
         SchemaId liveTag = repository.getIdGenerator().getSchemaId(UUID.randomUUID());
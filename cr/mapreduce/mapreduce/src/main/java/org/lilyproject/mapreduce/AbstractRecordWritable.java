@@ -0,0 +1,144 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.mapreduce;
+
+import java.io.IOException;
+
+import org.apache.hadoop.conf.Configurable;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+import org.lilyproject.avro.repository.RecordAsBytesConverter;
+import org.lilyproject.avro.repository.SchemaIdDictionary;
+import org.lilyproject.bytes.api.DataInput;
+import org.lilyproject.bytes.api.DataOutput;
+import org.lilyproject.bytes.impl.DataInputImpl;
+import org.lilyproject.bytes.impl.DataOutputImpl;
+import org.lilyproject.repository.api.LRepository;
+import org.lilyproject.repository.api.RepositoryException;
+import org.lilyproject.util.exception.ExceptionUtil;
+
+/**
+ * Base class for the Writables of Lily records.
+ *
+ * <p>Records are serialized using {@link RecordAsBytesConverter#writeWithSchemaIds}, preceded by their length
+ * as a vint. The field type ids are shortened using the dictionary set with
+ * {@link LilyMapReduceUtil#setFieldTypeDictionary}, if any.</p>
+ *
+ * <p>Serialization needs access to the repository. By default this is the repository configured in the job
+ * conf, using a LilyClient shared by all writables within the task, see {@link WritableClients}. Hadoop passes
+ * the job conf through {@link #setConf} when it instantiates writables.</p>
+ */
+public abstract class AbstractRecordWritable implements Writable, Configurable {
+    private Configuration conf;
+    private LRepository repository;
+    /** The client of the repository, if it is the shared client of the task. */
+    private WritableClients.SharedClient sharedClient;
+    private SchemaIdDictionary fieldTypeDictionary;
+    private boolean initialized;
+
+    @Override
+    public void setConf(Configuration conf) {
+        releaseSharedClient();
+        this.conf = conf;
+        this.initialized = false;
+    }
+
+    @Override
+    public Configuration getConf() {
+        return conf;
+    }
+
+    /**
+     * Sets the repository to use for serialization, rather than the one configured in the job conf.
+     */
+    public void setRepository(LRepository repository) {
+        releaseSharedClient();
+        this.repository = repository;
+        this.initialized = false;
+    }
+
+    /**
+     * Sets the field type dictionary to use, rather than the one configured in the job conf.
+     */
+    public void setFieldTypeDictionary(SchemaIdDictionary fieldTypeDictionary) {
+        this.fieldTypeDictionary = fieldTypeDictionary;
+        this.initialized = false;
+    }
+
+    @Override
+    public void write(java.io.DataOutput out) throws IOException {
+        DataOutput output = new DataOutputImpl();
+        try {
+            init();
+            writeRecord(output, repository, fieldTypeDictionary);
+        } catch (Exception e) {
+            ExceptionUtil.handleInterrupt(e);
+            throw new IOException("Error serializing record", e);
+        }
+        byte[] bytes = output.toByteArray();
+        WritableUtils.writeVInt(out, bytes.length);
+        out.write(bytes);
+    }
+
+    @Override
+    public void readFields(java.io.DataInput in) throws IOException {
+        int length = WritableUtils.readVInt(in);
+        byte[] bytes = new byte[length];
+        in.readFully(bytes, 0, length);
+        try {
+            init();
+            readRecord(new DataInputImpl(bytes), repository, fieldTypeDictionary);
+        } catch (Exception e) {
+            ExceptionUtil.handleInterrupt(e);
+            throw new IOException("Error deserializing record", e);
+        }
+    }
+
+    private void init() throws RepositoryException, InterruptedException {
+        if (initialized) {
+            return;
+        }
+        if (repository == null) {
+            if (conf == null) {
+                throw new IllegalStateException("No repository available to serialize records: setConf or "
+                        + "setRepository should be called first.");
+            }
+            if (sharedClient == null) {
+                sharedClient = LilyMapReduceUtil.acquireWritableClient(conf);
+            }
+            repository = LilyMapReduceUtil.getRepository(sharedClient.getLilyClient(), conf);
+        }
+        if (fieldTypeDictionary == null && conf != null) {
+            fieldTypeDictionary = LilyMapReduceUtil.getFieldTypeDictionary(conf, repository.getIdGenerator());
+        }
+        initialized = true;
+    }
+
+    private void releaseSharedClient() {
+        if (sharedClient != null) {
+            LilyMapReduceUtil.releaseWritableClient(sharedClient);
+            sharedClient = null;
+            repository = null;
+        }
+    }
+
+    protected abstract void writeRecord(DataOutput output, LRepository repository,
+            SchemaIdDictionary fieldTypeDictionary) throws RepositoryException, InterruptedException;
+
+    protected abstract void readRecord(DataInput input, LRepository repository,
+            SchemaIdDictionary fieldTypeDictionary) throws RepositoryException, InterruptedException;
+}
@@ -15,27 +15,33 @@
  */
 package org.lilyproject.mapreduce;
 
-import java.io.DataInput;
-import java.io.DataOutput;
-import java.io.IOException;
-
-import org.apache.hadoop.io.Writable;
+import org.lilyproject.avro.repository.RecordAsBytesConverter;
+import org.lilyproject.avro.repository.SchemaIdDictionary;
+import org.lilyproject.bytes.api.DataInput;
+import org.lilyproject.bytes.api.DataOutput;
 import org.lilyproject.repository.api.IdRecord;
+import org.lilyproject.repository.api.LRepository;
+import org.lilyproject.repository.api.RepositoryException;
 
-public class IdRecordWritable implements Writable {
+/**
+ * A Hadoop Writable for Lily IdRecords, see {@link AbstractRecordWritable} for the serialization.
+ */
+public class IdRecordWritable extends AbstractRecordWritable {
     private IdRecord idRecord;
 
-    protected IdRecordWritable() {
+    public IdRecordWritable() {
     }
 
     @Override
-    public void write(DataOutput dataOutput) throws IOException {
-        throw new UnsupportedOperationException("Not implemented");
+    protected void writeRecord(DataOutput output, LRepository repository, SchemaIdDictionary fieldTypeDictionary)
+            throws RepositoryException, InterruptedException {
+        RecordAsBytesConverter.writeIdRecordWithSchemaIds(idRecord, output, repository, fieldTypeDictionary);
     }
 
     @Override
-    public void readFields(DataInput dataInput) throws IOException {
-        throw new UnsupportedOperationException("Not implemented");
+    protected void readRecord(DataInput input, LRepository repository, SchemaIdDictionary fieldTypeDictionary)
+            throws RepositoryException, InterruptedException {
+        idRecord = RecordAsBytesConverter.readIdRecord(input, repository, fieldTypeDictionary);
     }
 
     public IdRecord getRecord() {
@@ -15,18 +15,26 @@
  */
 package org.lilyproject.mapreduce;
 
+import java.util.ArrayList;
 import java.util.List;
 
 import com.google.common.base.Joiner;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.mapreduce.Job;
 import org.codehaus.jackson.JsonNode;
+import org.lilyproject.avro.repository.SchemaIdDictionary;
 import org.lilyproject.client.LilyClient;
+import org.lilyproject.repository.api.IdGenerator;
 import org.lilyproject.repository.api.LRepository;
+import org.lilyproject.repository.api.QName;
 import org.lilyproject.repository.api.RecordScan;
+import org.lilyproject.repository.api.RepositoryException;
+import org.lilyproject.repository.api.SchemaId;
+import org.lilyproject.repository.api.TypeManager;
 import org.lilyproject.tools.import_.json.RecordScanWriter;
 import org.lilyproject.tools.import_.json.WriteOptions;
 import org.lilyproject.util.exception.ExceptionUtil;
+import org.lilyproject.util.hbase.RepoAndTableUtil;
 import org.lilyproject.util.json.JsonFormat;
 
 public class LilyMapReduceUtil {
@@ -42,6 +50,17 @@ public class LilyMapReduceUtil {
      */
     public static final String REPOSITORY_NAME = "lily.mapreduce.repository";
 
+    /**
+     * Config key for storing the ids of the field types which {@link RecordWritable} and {@link IdRecordWritable}
+     * serialize in short form.
+     */
+    public static final String FIELD_TYPE_DICTIONARY = "lily.mapreduce.fieldtype-dictionary";
+
+    /**
+     * LilyClients used by the record writables to (de)serialize records.
+     */
+    private static final WritableClients WRITABLE_CLIENTS = new WritableClients();
+
     private LilyMapReduceUtil() {
     }
 
@@ -97,6 +116,57 @@ public class LilyMapReduceUtil {
         }
     }
 
+    /**
+     * Sets the field types which the record writables serialize in short form, typically the fields which
+     * the job outputs in most records. Other fields can be serialized as well, they just take more space.
+     */
+    public static void setFieldTypeDictionary(Job job, List<QName> fieldNames, LRepository repository)
+            throws RepositoryException, InterruptedException {
+        TypeManager typeManager = repository.getTypeManager();
+        String[] fieldIds = new String[fieldNames.size()];
+        for (int i = 0; i < fieldNames.size(); i++) {
+            fieldIds[i] = typeManager.getFieldTypeByName(fieldNames.get(i)).getId().toString();
+        }
+        job.getConfiguration().setStrings(FIELD_TYPE_DICTIONARY, fieldIds);
+    }
+
+    /**
+     * @return null if no field type dictionary was set for the job
+     */
+    static SchemaIdDictionary getFieldTypeDictionary(Configuration conf, IdGenerator idGenerator) {
+        String[] fieldIds = conf.getStrings(FIELD_TYPE_DICTIONARY);
+        if (fieldIds == null) {
+            return null;
+        }
+        List<SchemaId> schemaIds = new ArrayList<SchemaId>(fieldIds.length);
+        for (String fieldId : fieldIds) {
+            schemaIds.add(idGenerator.getSchemaId(fieldId));
+        }
+        return new SchemaIdDictionary(schemaIds);
+    }
+
+    /**
+     * Returns a reference to the LilyClient of the task, for use by the record writables, which Hadoop
+     * instantiates as needed. The client is shared by all writables within the task, and should be released
+     * through {@link #releaseWritableClient}.
+     */
+    static WritableClients.SharedClient acquireWritableClient(Configuration conf) throws InterruptedException {
+        return WRITABLE_CLIENTS.acquire(conf);
+    }
+
+    static void releaseWritableClient(WritableClients.SharedClient client) {
+        WRITABLE_CLIENTS.release(client);
+    }
+
+    /**
+     * Returns the repository of the job.
+     */
+    static LRepository getRepository(LilyClient lilyClient, Configuration conf)
+            throws InterruptedException, RepositoryException {
+        String repositoryName = conf.get(REPOSITORY_NAME);
+        return lilyClient.getRepository(repositoryName != null ? repositoryName : RepoAndTableUtil.DEFAULT_REPOSITORY);
+    }
+
     /**
      * Creates a LilyClient based on the information found in the Configuration object.
      */
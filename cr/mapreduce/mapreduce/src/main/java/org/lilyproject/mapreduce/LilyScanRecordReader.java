@@ -17,6 +17,7 @@ package org.lilyproject.mapreduce;
 
 import java.io.IOException;
 
+import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.mapreduce.InputSplit;
 import org.apache.hadoop.mapreduce.RecordReader;
 import org.apache.hadoop.mapreduce.TaskAttemptContext;
@@ -45,6 +46,14 @@ public class LilyScanRecordReader extends RecordReader<RecordIdWritable, RecordW
     @Override
     public void initialize(InputSplit inputSplit, TaskAttemptContext taskAttemptContext)
             throws IOException, InterruptedException {
+        // In case the mapper outputs the records, they are serialized using our own client
+        Configuration conf = taskAttemptContext.getConfiguration();
+        record.setConf(conf);
+        try {
+            record.setRepository(lilyClient.getRepository(conf.get(LilyMapReduceUtil.REPOSITORY_NAME)));
+        } catch (RepositoryException e) {
+            throw new IOException("Error getting Lily repository object", e);
+        }
     }
 
     @Override
@@ -15,24 +15,30 @@
  */
 package org.lilyproject.mapreduce;
 
-import java.io.DataInput;
-import java.io.DataOutput;
-import java.io.IOException;
-
-import org.apache.hadoop.io.Writable;
+import org.lilyproject.avro.repository.RecordAsBytesConverter;
+import org.lilyproject.avro.repository.SchemaIdDictionary;
+import org.lilyproject.bytes.api.DataInput;
+import org.lilyproject.bytes.api.DataOutput;
+import org.lilyproject.repository.api.LRepository;
 import org.lilyproject.repository.api.Record;
+import org.lilyproject.repository.api.RepositoryException;
 
-public class RecordWritable implements Writable {
+/**
+ * A Hadoop Writable for Lily Records, see {@link AbstractRecordWritable} for the serialization.
+ */
+public class RecordWritable extends AbstractRecordWritable {
     private Record record;
 
     @Override
-    public void write(DataOutput dataOutput) throws IOException {
-        throw new UnsupportedOperationException("Not implemented");
+    protected void writeRecord(DataOutput output, LRepository repository, SchemaIdDictionary fieldTypeDictionary)
+            throws RepositoryException, InterruptedException {
+        RecordAsBytesConverter.writeWithSchemaIds(record, output, repository, fieldTypeDictionary);
     }
 
     @Override
-    public void readFields(DataInput dataInput) throws IOException {
-        throw new UnsupportedOperationException("Not implemented");
+    protected void readRecord(DataInput input, LRepository repository, SchemaIdDictionary fieldTypeDictionary)
+            throws RepositoryException, InterruptedException {
+        record = RecordAsBytesConverter.read(input, repository, fieldTypeDictionary);
     }
 
     public Record getRecord() {
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.mapreduce;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.conf.Configuration;
+import org.lilyproject.client.LilyClient;
+import org.lilyproject.util.io.Closer;
+
+/**
+ * The LilyClients which the record writables of the current task use to (de)serialize records, one per ZooKeeper
+ * connect string, shared by all writables of the task.
+ *
+ * <p>A client is reference counted: writables acquire it when they are initialized, and release it when they are
+ * configured again. Hadoop does not tell writables when the task is done with them, e.g. a map task closes its
+ * input before its output, and closing the output runs the combiner on the final spill. Therefore the clients of
+ * a task which are still referenced are closed when the task ends: when the next task in the same JVM acquires a
+ * client, or when the JVM exits.</p>
+ */
+class WritableClients {
+    /**
+     * Config key of the task attempt id, set by Hadoop in the task configuration.
+     */
+    private static final String TASK_ID = "mapred.task.id";
+
+    private final Map<String, SharedClient> clients = new HashMap<String, SharedClient>();
+    private String taskId;
+    private boolean shutdownHookAdded;
+
+    /**
+     * Returns the client of the current task for the ZooKeeper connect string in the conf, creating it if
+     * needed. The caller should {@link #release} it when it no longer needs it.
+     */
+    public synchronized SharedClient acquire(Configuration conf) throws InterruptedException {
+        String currentTaskId = conf.get(TASK_ID, "");
+        if (!currentTaskId.equals(taskId)) {
+            // The previous task is done, including the spills of its output
+            closeAll();
+            taskId = currentTaskId;
+        }
+
+        String zkConnectString = conf.get(LilyMapReduceUtil.ZK_CONNECT_STRING);
+        SharedClient client = clients.get(zkConnectString);
+        if (client == null) {
+            client = new SharedClient(zkConnectString, LilyMapReduceUtil.getLilyClient(conf));
+            clients.put(zkConnectString, client);
+            addShutdownHook();
+        }
+        client.references++;
+        return client;
+    }
+
+    /**
+     * Releases a client obtained through {@link #acquire}, closing it when it is not referenced anymore.
+     */
+    public synchronized void release(SharedClient client) {
+        client.references--;
+        if (client.references == 0 && clients.get(client.zkConnectString) == client) {
+            clients.remove(client.zkConnectString);
+            Closer.close(client.lilyClient);
+        }
+    }
+
+    private synchronized void closeAll() {
+        List<SharedClient> toClose = new ArrayList<SharedClient>(clients.values());
+        clients.clear();
+        for (SharedClient client : toClose) {
+            Closer.close(client.lilyClient);
+        }
+    }
+
+    private void addShutdownHook() {
+        if (!shutdownHookAdded) {
+            Runtime.getRuntime().addShutdownHook(new Thread("lily-mapreduce-writable-clients-closer") {
+                @Override
+                public void run() {
+                    closeAll();
+                }
+            });
+            shutdownHookAdded = true;
+        }
+    }
+
+    public static class SharedClient {
+        private final String zkConnectString;
+        private final LilyClient lilyClient;
+        private int references;
+
+        private SharedClient(String zkConnectString, LilyClient lilyClient) {
+            this.zkConnectString = zkConnectString;
+            this.lilyClient = lilyClient;
+        }
+
+        public LilyClient getLilyClient() {
+            return lilyClient;
+        }
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.mapreduce.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+import org.apache.hadoop.io.Writable;
+import org.junit.Before;
+import org.junit.Test;
+import org.lilyproject.avro.repository.SchemaIdDictionary;
+import org.lilyproject.mapreduce.IdRecordWritable;
+import org.lilyproject.mapreduce.RecordWritable;
+import org.lilyproject.repository.api.FieldType;
+import org.lilyproject.repository.api.FieldTypes;
+import org.lilyproject.repository.api.IdGenerator;
+import org.lilyproject.repository.api.IdRecord;
+import org.lilyproject.repository.api.LRepository;
+import org.lilyproject.repository.api.QName;
+import org.lilyproject.repository.api.Record;
+import org.lilyproject.repository.api.RecordType;
+import org.lilyproject.repository.api.SchemaId;
+import org.lilyproject.repository.api.Scope;
+import org.lilyproject.repository.api.TypeManager;
+import org.lilyproject.repository.impl.FieldTypeImpl;
+import org.lilyproject.repository.impl.IdRecordImpl;
+import org.lilyproject.repository.impl.RecordFactoryImpl;
+import org.lilyproject.repository.impl.id.IdGeneratorImpl;
+import org.lilyproject.repository.impl.id.SchemaIdImpl;
+import org.lilyproject.repository.impl.valuetype.StringValueType;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class RecordWritableTest {
+    private IdGenerator idGenerator = new IdGeneratorImpl();
+    private LRepository repository;
+    private FieldType titleField;
+    private FieldType bodyField;
+    private RecordType recordType;
+
+    @Before
+    public void setUp() throws Exception {
+        titleField = new FieldTypeImpl(new SchemaIdImpl(UUID.randomUUID()), new StringValueType(),
+                new QName("ns", "title"), Scope.NON_VERSIONED);
+        bodyField = new FieldTypeImpl(new SchemaIdImpl(UUID.randomUUID()), new StringValueType(),
+                new QName("ns", "body"), Scope.VERSIONED);
+
+        FieldTypes fieldTypes = mock(FieldTypes.class);
+        for (FieldType fieldType : new FieldType[] {titleField, bodyField}) {
+            when(fieldTypes.getFieldType(fieldType.getId())).thenReturn(fieldType);
+            when(fieldTypes.getFieldType(fieldType.getName())).thenReturn(fieldType);
+        }
+
+        recordType = mock(RecordType.class);
+        when(recordType.getId()).thenReturn(new SchemaIdImpl(UUID.randomUUID()));
+        when(recordType.getName()).thenReturn(new QName("ns", "Document"));
+
+        TypeManager typeManager = mock(TypeManager.class);
+        when(typeManager.getFieldTypesSnapshot()).thenReturn(fieldTypes);
+        when(typeManager.getRecordTypeByName(recordType.getName(), null)).thenReturn(recordType);
+        when(typeManager.getRecordTypeById(recordType.getId(), null)).thenReturn(recordType);
+
+        repository = mock(LRepository.class);
+        when(repository.getTypeManager()).thenReturn(typeManager);
+        when(repository.getIdGenerator()).thenReturn(idGenerator);
+        when(repository.getRecordFactory()).thenReturn(new RecordFactoryImpl());
+    }
+
+    @Test
+    public void testRecordRoundTrip() throws Exception {
+        // Only the title is in the dictionary, the body field id is written in full
+        SchemaIdDictionary dictionary = new SchemaIdDictionary(Collections.singletonList(titleField.getId()));
+
+        for (SchemaIdDictionary fieldTypeDictionary : new SchemaIdDictionary[] {null, dictionary}) {
+            RecordWritable writable = newRecordWritable(fieldTypeDictionary);
+            writable.setRecord(newRecord());
+
+            RecordWritable result = newRecordWritable(fieldTypeDictionary);
+            roundTrip(writable, result);
+
+            assertRecord(result.getRecord());
+        }
+    }
+
+    @Test
+    public void testIdRecordRoundTrip() throws Exception {
+        SchemaIdDictionary dictionary = new SchemaIdDictionary(Collections.singletonList(titleField.getId()));
+
+        Map<SchemaId, QName> idToQNameMapping = new HashMap<SchemaId, QName>();
+        idToQNameMapping.put(titleField.getId(), titleField.getName());
+        idToQNameMapping.put(bodyField.getId(), bodyField.getName());
+        Map<Scope, SchemaId> recordTypeIds = new EnumMap<Scope, SchemaId>(Scope.class);
+        recordTypeIds.put(Scope.NON_VERSIONED, recordType.getId());
+
+        IdRecordWritable writable = new IdRecordWritable();
+        writable.setRepository(repository);
+        writable.setFieldTypeDictionary(dictionary);
+        writable.setRecord(new IdRecordImpl(newRecord(), idToQNameMapping, recordTypeIds));
+
+        IdRecordWritable result = new IdRecordWritable();
+        result.setRepository(repository);
+        result.setFieldTypeDictionary(dictionary);
+        roundTrip(writable, result);
+
+        IdRecord idRecord = result.getRecord();
+        assertRecord(idRecord);
+        assertEquals("A title", idRecord.getField(titleField.getId()));
+        assertEquals("Some text", idRecord.getField(bodyField.getId()));
+        assertEquals(recordType.getId(), idRecord.getRecordTypeId(Scope.NON_VERSIONED));
+    }
+
+    private RecordWritable newRecordWritable(SchemaIdDictionary fieldTypeDictionary) {
+        RecordWritable writable = new RecordWritable();
+        writable.setRepository(repository);
+        writable.setFieldTypeDictionary(fieldTypeDictionary);
+        return writable;
+    }
+
+    private Record newRecord() {
+        Record record = new RecordFactoryImpl().newRecord(idGenerator.newRecordId("doc"));
+        record.setVersion(3L);
+        record.setRecordType(recordType.getName(), 1L);
+        record.setField(titleField.getName(), "A title");
+        record.setField(bodyField.getName(), "Some text");
+        return record;
+    }
+
+    private void assertRecord(Record record) {
+        assertEquals(idGenerator.newRecordId("doc"), record.getId());
+        assertEquals(Long.valueOf(3L), record.getVersion());
+        assertEquals(recordType.getName(), record.getRecordTypeName());
+        assertEquals(Long.valueOf(1L), record.getRecordTypeVersion());
+        assertEquals(2, record.getFields().size());
+        assertEquals("A title", record.getField(titleField.getName()));
+        assertEquals("Some text", record.getField(bodyField.getName()));
+    }
+
+    private void roundTrip(Writable writable, Writable result) throws Exception {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        writable.write(new DataOutputStream(bos));
+        result.readFields(new DataInputStream(new ByteArrayInputStream(bos.toByteArray())));
+    }
+}
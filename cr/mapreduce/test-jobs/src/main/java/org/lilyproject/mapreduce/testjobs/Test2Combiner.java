@@ -0,0 +1,44 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.mapreduce.testjobs;
+
+import java.io.IOException;
+
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.lilyproject.mapreduce.RecordWritable;
+
+/**
+ * Passes the records output by {@link Test2Mapper} through, counting them.
+ *
+ * <p>In a map task, the combiner runs on the final spill of the map output, after the record reader has been
+ * closed, so the records need to be deserialized without the client of the reader.</p>
+ */
+public class Test2Combiner extends Reducer<Text, RecordWritable, Text, RecordWritable> {
+    public static enum Counters { RECORDS }
+
+    @Override
+    protected void reduce(Text key, Iterable<RecordWritable> values, Context context)
+            throws IOException, InterruptedException {
+        for (RecordWritable value : values) {
+            if (value.getRecord().getId() == null) {
+                throw new IOException("Record without id");
+            }
+            context.getCounter(Counters.RECORDS).increment(1);
+            context.write(key, value);
+        }
+    }
+}
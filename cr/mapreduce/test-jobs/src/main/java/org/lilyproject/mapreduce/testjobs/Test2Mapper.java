@@ -0,0 +1,36 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.mapreduce.testjobs;
+
+import java.io.IOException;
+
+import org.apache.hadoop.io.Text;
+import org.lilyproject.mapreduce.RecordIdWritable;
+import org.lilyproject.mapreduce.RecordMapper;
+import org.lilyproject.mapreduce.RecordWritable;
+
+/**
+ * Outputs the records it reads, all under the same key.
+ */
+public class Test2Mapper extends RecordMapper<Text, RecordWritable> {
+    private final Text keyOut = new Text("records");
+
+    @Override
+    public void map(RecordIdWritable key, RecordWritable value, Context context)
+            throws IOException, InterruptedException {
+        context.write(keyOut, value);
+    }
+}
@@ -24,7 +24,9 @@ import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hbase.HBaseConfiguration;
 import org.apache.hadoop.hbase.client.HBaseAdmin;
 import org.apache.hadoop.hbase.client.HConnectionManager;
+import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.Reducer;
 import org.apache.hadoop.mapreduce.lib.output.NullOutputFormat;
 import org.junit.AfterClass;
 import org.junit.BeforeClass;
@@ -32,7 +34,10 @@ import org.junit.Test;
 import org.lilyproject.hadooptestfw.TestHelper;
 import org.lilyproject.lilyservertestfw.LilyProxy;
 import org.lilyproject.mapreduce.LilyMapReduceUtil;
+import org.lilyproject.mapreduce.RecordWritable;
 import org.lilyproject.mapreduce.testjobs.Test1Mapper;
+import org.lilyproject.mapreduce.testjobs.Test2Combiner;
+import org.lilyproject.mapreduce.testjobs.Test2Mapper;
 import org.lilyproject.repository.api.FieldType;
 import org.lilyproject.repository.api.IdGenerator;
 import org.lilyproject.repository.api.LRepository;
@@ -328,6 +333,42 @@ public class MapReduceTest {
             // Verify some counters
             assertEquals("Number of input records", 50L, getTotalInputRecords(job));
         }
+
+        //
+        // Launch MapReduce job which outputs the records, with a combiner and a reducer
+        //
+        {
+            Configuration config = HBaseConfiguration.create();
+
+            config.set("mapred.job.tracker", "localhost:8021");
+            config.set("fs.defaultFS", "hdfs://localhost:8020");
+
+            Job job = new Job(config, "Test2");
+            job.setJarByClass(Test2Mapper.class);
+
+            job.setMapperClass(Test2Mapper.class);
+            job.setMapOutputKeyClass(Text.class);
+            job.setMapOutputValueClass(RecordWritable.class);
+
+            // The combiner runs when the map output is flushed, after the record reader was closed
+            job.setCombinerClass(Test2Combiner.class);
+            job.setReducerClass(Reducer.class);
+
+            job.setOutputFormatClass(NullOutputFormat.class);
+
+            job.setNumReduceTasks(1);
+
+            LilyMapReduceUtil.initMapperJob(null, "localhost", repository, job);
+
+            boolean b = job.waitForCompletion(true);
+            if (!b) {
+                throw new IOException("error with job!");
+            }
+
+            assertEquals("Number of input records", 100L, getTotalInputRecords(job));
+            assertTrue("Number of combined records",
+                    job.getCounters().findCounter(Test2Combiner.Counters.RECORDS).getValue() >= 100L);
+        }
     }
 
     private long getTotalLaunchedMaps(Job job) throws IOException {
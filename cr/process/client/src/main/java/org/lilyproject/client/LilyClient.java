@@ -17,6 +17,7 @@ package org.lilyproject.client;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.URI;
 import java.util.ArrayList;
@@ -27,12 +28,16 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.UUID;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import org.lilyproject.util.hbase.RepoAndTableUtil;
 
 import org.lilyproject.repository.model.api.RepositoryModel;
 
+import com.ngdata.sep.SepModel;
+import com.ngdata.sep.impl.SepConsumer;
+import com.ngdata.sep.impl.SepModelImpl;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configuration;
@@ -67,6 +72,8 @@ import org.lilyproject.repository.impl.BlobStoreAccessConfig;
 import org.lilyproject.repository.impl.DFSBlobStoreAccess;
 import org.lilyproject.repository.impl.HBaseBlobStoreAccess;
 import org.lilyproject.repository.impl.InlineBlobStoreAccess;
+import org.lilyproject.repository.impl.RecordCache;
+import org.lilyproject.repository.impl.RecordCacheInvalidator;
 import org.lilyproject.repository.impl.RecordFactoryImpl;
 import org.lilyproject.repository.impl.SizeBasedBlobStoreAccessFactory;
 import org.lilyproject.repository.impl.id.IdGeneratorImpl;
@@ -74,6 +81,8 @@ import org.lilyproject.repository.remote.AvroLilyTransceiver;
 import org.lilyproject.repository.remote.RemoteRepositoryManager;
 import org.lilyproject.repository.remote.RemoteTypeManager;
 import org.lilyproject.repository.model.impl.RepositoryModelImpl;
+import org.lilyproject.sep.LilyPayloadExtractor;
+import org.lilyproject.sep.ZooKeeperItfAdapter;
 import org.lilyproject.util.hbase.HBaseTableFactory;
 import org.lilyproject.util.hbase.HBaseTableFactoryImpl;
 import org.lilyproject.util.hbase.LilyHBaseSchema.Table;
@@ -116,6 +125,11 @@ public class LilyClient implements Closeable, RepositoryManager {
     private boolean isClosed = true;
     private boolean keepAlive = false;
 
+    private RecordCache recordCache;
+    private SepModel recordCacheSepModel;
+    private String recordCacheSubscription;
+    private SepConsumer recordCacheSepConsumer;
+
     /**
      * @throws NoServersException if the znode under which the repositories are published does not exist
      */
@@ -194,6 +208,8 @@ public class LilyClient implements Closeable, RepositoryManager {
 
         schemaCache.close();
 
+        disableRecordCache();
+
         synchronized (this) {
             for (ServerNode node : servers) {
                 node.close();
@@ -217,6 +233,72 @@ public class LilyClient implements Closeable, RepositoryManager {
         Closer.close(hbaseConnections);
     }
 
+    /**
+     * Caches the records read through this client, see {@link RecordCache}.
+     *
+     * <p>The cache is kept up to date using a SEP subscription of its own, which is removed again by
+     * {@link #close()}. Since the events arrive asynchronously, reads can return records which were changed by
+     * others a moment ago; the changes made through this client are visible immediately.</p>
+     *
+     * @param maxBytes the approximate maximum size of the cached records
+     */
+    public synchronized void enableRecordCache(long maxBytes) throws IOException, InterruptedException,
+            KeeperException {
+        if (isClosed) {
+            throw new IllegalStateException("This LilyClient is closed.");
+        }
+        if (recordCache != null) {
+            return;
+        }
+
+        String hostName = InetAddress.getLocalHost().getHostName();
+        String subscriptionName = "LilyClientRecordCache_" + hostName.replaceAll("[^a-zA-Z0-9]", "_") + "_"
+                + UUID.randomUUID().toString().replace("-", "");
+        Configuration hbaseConf = getNewOrExistingConfiguration(zk);
+
+        // Old events are of no interest, since the cache starts out empty
+        long now = System.currentTimeMillis();
+        recordCacheSepModel = new SepModelImpl(new ZooKeeperItfAdapter(zk), hbaseConf);
+        recordCacheSepModel.addSubscriptionSilent(subscriptionName);
+        recordCacheSubscription = subscriptionName;
+
+        RecordCache recordCache = new RecordCache(maxBytes);
+        recordCacheSepConsumer = new SepConsumer(subscriptionName, now,
+                new RecordCacheInvalidator(this, recordCache), 1, hostName, new ZooKeeperItfAdapter(zk), hbaseConf,
+                new LilyPayloadExtractor());
+        recordCacheSepConsumer.start();
+
+        this.recordCache = recordCache;
+        for (ServerNode server : servers) {
+            if (server.repoMgr != null) {
+                server.repoMgr.setRecordCache(recordCache);
+            }
+        }
+    }
+
+    private synchronized void disableRecordCache() {
+        recordCache = null;
+        for (ServerNode server : servers) {
+            if (server.repoMgr != null) {
+                server.repoMgr.setRecordCache(null);
+            }
+        }
+
+        Closer.close(recordCacheSepConsumer);
+        recordCacheSepConsumer = null;
+
+        if (recordCacheSubscription != null) {
+            try {
+                recordCacheSepModel.removeSubscriptionSilent(recordCacheSubscription);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (Throwable t) {
+                log.error("Error removing the record cache SEP subscription " + recordCacheSubscription, t);
+            }
+            recordCacheSubscription = null;
+        }
+    }
+
     /**
      * Returns if the connection to the lily server has been closed.
      */
@@ -312,7 +394,8 @@ public class LilyClient implements Closeable, RepositoryManager {
         return retryConf;
     }
 
-    private RepositoryManager constructRepositoryManager(ServerNode server) throws IOException, InterruptedException {
+    private RemoteRepositoryManager constructRepositoryManager(ServerNode server)
+            throws IOException, InterruptedException {
 
         IdGeneratorImpl idGenerator = new IdGeneratorImpl();
         Configuration hbaseConf = getNewOrExistingConfiguration(zk);
@@ -323,8 +406,9 @@ public class LilyClient implements Closeable, RepositoryManager {
         AvroConverter avroConverter = new AvroConverter();
         RemoteTypeManager remoteTypeManager = new RemoteTypeManager(lilySocketAddr, avroConverter, idGenerator, zk, schemaCache, keepAlive);
         RecordFactory recordFactory = new RecordFactoryImpl();
-        RepositoryManager repositoryManager = new RemoteRepositoryManager(remoteTypeManager, idGenerator, recordFactory,
-                transceiver, avroConverter, blobManager, tableFactory, repositoryModel);
+        RemoteRepositoryManager repositoryManager = new RemoteRepositoryManager(remoteTypeManager, idGenerator,
+                recordFactory, transceiver, avroConverter, blobManager, tableFactory, repositoryModel);
+        repositoryManager.setRecordCache(recordCache);
         return repositoryManager;
     }
 
@@ -406,7 +490,7 @@ public class LilyClient implements Closeable, RepositoryManager {
 
     private class ServerNode {
         private String lilyAddressAndPort;
-        private RepositoryManager repoMgr;
+        private RemoteRepositoryManager repoMgr;
 
         ServerNode(String lilyAddressAndPort) {
             this.lilyAddressAndPort = lilyAddressAndPort;
@@ -39,18 +39,22 @@ public class LinkIndexSetup {
     private final SepModel sepModel;
     private final boolean linkIndexEnabled;
     private final int threads;
+    private final int processingThreads;
     private final RepositoryManager repositoryManager;
     private final Configuration hbaseConf;
     private final HBaseTableFactory tableFactory;
     private final ZooKeeperItf zk;
     private final String hostName;
     private SepConsumer sepConsumer;
+    private LinkIndexUpdater linkIndexUpdater;
 
-    public LinkIndexSetup(SepModel sepModel, boolean linkIndexEnabled, int threads, RepositoryManager repositoryManager,
-            Configuration hbaseConf, HBaseTableFactory tableFactory, ZooKeeperItf zk, String hostName) {
+    public LinkIndexSetup(SepModel sepModel, boolean linkIndexEnabled, int threads, int processingThreads,
+            RepositoryManager repositoryManager, Configuration hbaseConf, HBaseTableFactory tableFactory,
+            ZooKeeperItf zk, String hostName) {
         this.sepModel = sepModel;
         this.linkIndexEnabled = linkIndexEnabled;
         this.threads = threads;
+        this.processingThreads = processingThreads;
         this.repositoryManager = repositoryManager;
         this.hbaseConf = hbaseConf;
         this.tableFactory = tableFactory;
@@ -75,7 +79,7 @@ public class LinkIndexSetup {
 
             LinkIndex linkIndex = new LinkIndex(indexManager, /* TODO multiple repositories */ repositoryManager);
 
-            LinkIndexUpdater linkIndexUpdater = new LinkIndexUpdater(repositoryManager, linkIndex);
+            linkIndexUpdater = new LinkIndexUpdater(repositoryManager, linkIndex, processingThreads);
 
             sepConsumer = new SepConsumer("LinkIndexUpdater", 0L, linkIndexUpdater, threads, hostName,
                     new ZooKeeperItfAdapter(zk), hbaseConf, new LilyPayloadExtractor());
@@ -86,5 +90,8 @@ public class LinkIndexSetup {
     @PreDestroy
     public void stop() {
         Closer.close(sepConsumer);
+        if (linkIndexUpdater != null) {
+            linkIndexUpdater.shutdown();
+        }
     }
 }
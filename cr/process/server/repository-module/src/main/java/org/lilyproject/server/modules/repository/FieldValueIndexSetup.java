@@ -0,0 +1,129 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.server.modules.repository;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import com.ngdata.sep.SepModel;
+import com.ngdata.sep.impl.SepConsumer;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.zookeeper.KeeperException;
+import org.lilyproject.hbaseindex.IndexManager;
+import org.lilyproject.repository.api.IdGenerator;
+import org.lilyproject.repository.api.TypeManager;
+import org.lilyproject.repository.impl.AbstractRepositoryManager;
+import org.lilyproject.repository.impl.valueindex.FieldValueIndexBuilder;
+import org.lilyproject.repository.impl.valueindex.FieldValueIndexUpdater;
+import org.lilyproject.repository.impl.valueindex.FieldValueIndexes;
+import org.lilyproject.repository.model.api.RepositoryModel;
+import org.lilyproject.runtime.conf.Conf;
+import org.lilyproject.sep.LilyPayloadExtractor;
+import org.lilyproject.sep.ZooKeeperItfAdapter;
+import org.lilyproject.util.hbase.HBaseTableFactory;
+import org.lilyproject.util.io.Closer;
+import org.lilyproject.util.zookeeper.LeaderElectionSetupException;
+import org.lilyproject.util.zookeeper.ZooKeeperItf;
+
+/**
+ * Installs the {@link FieldValueIndexes} on the repository manager, if they are enabled in the configuration.
+ *
+ * <p>The indexes are updated through one SEP subscription shared by all Lily servers. The records which existed
+ * before are added to the indexes by the {@link FieldValueIndexBuilder}, which runs on one of the servers.</p>
+ */
+public class FieldValueIndexSetup {
+    private static final String SUBSCRIPTION_NAME = "FieldValueIndexUpdater";
+
+    private final SepModel sepModel;
+    private final AbstractRepositoryManager repositoryManager;
+    private final RepositoryModel repositoryModel;
+    private final TypeManager typeManager;
+    private final IdGenerator idGenerator;
+    private final Configuration hbaseConf;
+    private final HBaseTableFactory tableFactory;
+    private final ZooKeeperItf zk;
+    private final Conf repositoryConf;
+    private final String hostName;
+    private SepConsumer sepConsumer;
+    private FieldValueIndexBuilder builder;
+    private FieldValueIndexUpdater updater;
+
+    public FieldValueIndexSetup(SepModel sepModel, AbstractRepositoryManager repositoryManager,
+            RepositoryModel repositoryModel, TypeManager typeManager, IdGenerator idGenerator, Configuration hbaseConf, HBaseTableFactory tableFactory,
+            ZooKeeperItf zk, Conf repositoryConf, String hostName) {
+        this.sepModel = sepModel;
+        this.repositoryManager = repositoryManager;
+        this.repositoryModel = repositoryModel;
+        this.typeManager = typeManager;
+        this.idGenerator = idGenerator;
+        this.hbaseConf = hbaseConf;
+        this.tableFactory = tableFactory;
+        this.zk = zk;
+        this.repositoryConf = repositoryConf;
+        this.hostName = hostName;
+    }
+
+    @PostConstruct
+    public void start() throws InterruptedException, KeeperException, IOException, LeaderElectionSetupException {
+        Conf indexConf = repositoryConf.getChild("fieldValueIndex");
+        boolean enabled = indexConf.getAttributeAsBoolean("enabled", false);
+
+        if (!enabled) {
+            // assure the subscription doesn't exist
+            sepModel.removeSubscriptionSilent(SUBSCRIPTION_NAME);
+            return;
+        }
+
+        // assure the subscription exists
+        sepModel.addSubscriptionSilent(SUBSCRIPTION_NAME);
+
+        Set<String> fields = new LinkedHashSet<String>();
+        for (Conf fieldConf : indexConf.getChild("fields").getChildren("field")) {
+            fields.add(fieldConf.getValue());
+        }
+
+        FieldValueIndexes indexes = new FieldValueIndexes(new IndexManager(hbaseConf, tableFactory),
+                typeManager, idGenerator, fields, indexConf.getAttributeAsBoolean("recordType", false));
+
+        updater = new FieldValueIndexUpdater(repositoryManager, indexes, idGenerator,
+                indexConf.getAttributeAsInteger("processingThreads", 1));
+        sepConsumer = new SepConsumer(SUBSCRIPTION_NAME, 0L, updater,
+                indexConf.getAttributeAsInteger("threads", 2), hostName, new ZooKeeperItfAdapter(zk), hbaseConf,
+                new LilyPayloadExtractor());
+        sepConsumer.start();
+
+        builder = new FieldValueIndexBuilder(zk, repositoryManager, repositoryModel, indexes,
+                indexConf.getAttributeAsLong("buildDelay", 60L) * 1000L);
+        builder.start();
+
+        repositoryManager.setFieldValueIndexes(indexes);
+    }
+
+    @PreDestroy
+    public void stop() {
+        repositoryManager.setFieldValueIndexes(null);
+        if (builder != null) {
+            builder.stop();
+        }
+        Closer.close(sepConsumer);
+        if (updater != null) {
+            updater.shutdown();
+        }
+    }
+}
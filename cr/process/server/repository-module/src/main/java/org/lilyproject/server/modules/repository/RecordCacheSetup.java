@@ -0,0 +1,94 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.server.modules.repository;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+
+import com.ngdata.sep.SepModel;
+import com.ngdata.sep.impl.SepConsumer;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.zookeeper.KeeperException;
+import org.lilyproject.repository.impl.AbstractRepositoryManager;
+import org.lilyproject.repository.impl.RecordCache;
+import org.lilyproject.repository.impl.RecordCacheInvalidator;
+import org.lilyproject.runtime.conf.Conf;
+import org.lilyproject.sep.LilyPayloadExtractor;
+import org.lilyproject.sep.ZooKeeperItfAdapter;
+import org.lilyproject.util.io.Closer;
+import org.lilyproject.util.zookeeper.ZooKeeperItf;
+
+/**
+ * Installs the {@link RecordCache} on the repository manager, if it is enabled in the configuration.
+ *
+ * <p>Each Lily server has its own SEP subscription to invalidate the cache.</p>
+ */
+public class RecordCacheSetup {
+    private final SepModel sepModel;
+    private final AbstractRepositoryManager repositoryManager;
+    private final Configuration hbaseConf;
+    private final ZooKeeperItf zk;
+    private final Conf repositoryConf;
+    private final String hostName;
+    private SepConsumer sepConsumer;
+
+    public RecordCacheSetup(SepModel sepModel, AbstractRepositoryManager repositoryManager, Configuration hbaseConf,
+            ZooKeeperItf zk, Conf repositoryConf, String hostName) {
+        this.sepModel = sepModel;
+        this.repositoryManager = repositoryManager;
+        this.hbaseConf = hbaseConf;
+        this.zk = zk;
+        this.repositoryConf = repositoryConf;
+        this.hostName = hostName;
+    }
+
+    @PostConstruct
+    public void start() throws InterruptedException, KeeperException, IOException {
+        Conf cacheConf = repositoryConf.getChild("recordCache");
+        boolean enabled = cacheConf.getAttributeAsBoolean("enabled", false);
+        String subscriptionName = getSubscriptionName();
+
+        if (!enabled) {
+            // assure the subscription doesn't exist
+            sepModel.removeSubscriptionSilent(subscriptionName);
+            return;
+        }
+
+        // Old events are of no interest, since the cache starts out empty
+        long now = System.currentTimeMillis();
+        sepModel.addSubscriptionSilent(subscriptionName);
+
+        RecordCache recordCache = new RecordCache(cacheConf.getAttributeAsLong("maxBytes", 100L * 1024 * 1024));
+        RecordCacheInvalidator invalidator = new RecordCacheInvalidator(repositoryManager, recordCache);
+        sepConsumer = new SepConsumer(subscriptionName, now, invalidator,
+                cacheConf.getAttributeAsInteger("threads", 2), hostName, new ZooKeeperItfAdapter(zk), hbaseConf,
+                new LilyPayloadExtractor());
+        sepConsumer.start();
+
+        repositoryManager.setRecordCache(recordCache);
+    }
+
+    @PreDestroy
+    public void stop() {
+        repositoryManager.setRecordCache(null);
+        Closer.close(sepConsumer);
+    }
+
+    private String getSubscriptionName() {
+        return "RecordCache_" + hostName.replaceAll("[^a-zA-Z0-9]", "_");
+    }
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.server.modules.repository;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.lilyproject.repository.impl.AbstractRepositoryManager;
+import org.lilyproject.runtime.conf.Conf;
+
+/**
+ * Enables updating records through the {@link org.lilyproject.repository.impl.hbase.RecordUpdateEndpoint},
+ * if it is enabled in the configuration.
+ */
+public class RecordUpdateEndpointSetup {
+    private final AbstractRepositoryManager repositoryManager;
+    private final Conf repositoryConf;
+
+    public RecordUpdateEndpointSetup(AbstractRepositoryManager repositoryManager, Conf repositoryConf) {
+        this.repositoryManager = repositoryManager;
+        this.repositoryConf = repositoryConf;
+    }
+
+    @PostConstruct
+    public void start() {
+        boolean enabled = repositoryConf.getChild("recordUpdateEndpoint").getAttributeAsBoolean("enabled", false);
+        repositoryManager.setRecordUpdateEndpointEnabled(enabled);
+    }
+
+    @PreDestroy
+    public void stop() {
+        repositoryManager.setRecordUpdateEndpointEnabled(false);
+    }
+}
@@ -20,6 +20,7 @@ import org.lilyproject.tools.restresourcegenerator.GenerateTableResource;
 import org.lilyproject.tools.restresourcegenerator.GenerateRepositoryAndTableResource;
 
 import javax.ws.rs.GET;
+import javax.ws.rs.HeaderParam;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
@@ -35,8 +36,9 @@ public class BlobByFieldResource extends BaseRepositoryResource {
 
     @GET
     @Produces("*/*")
-    public Response get(@PathParam("id") String id, @PathParam("fieldName") String fieldName, @Context UriInfo uriInfo) {
-        return BlobByVersionAndFieldResource.getBlob(id, null, fieldName, uriInfo, getTable(uriInfo),
+    public Response get(@PathParam("id") String id, @PathParam("fieldName") String fieldName,
+            @HeaderParam("Range") String range, @Context UriInfo uriInfo) {
+        return BlobByVersionAndFieldResource.getBlob(id, null, fieldName, range, uriInfo, getTable(uriInfo),
                 getRepository(uriInfo));
     }
 
@@ -16,6 +16,7 @@
 package org.lilyproject.rest;
 
 import javax.ws.rs.GET;
+import javax.ws.rs.HeaderParam;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
@@ -23,6 +24,8 @@ import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.UriInfo;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import org.lilyproject.repository.api.BlobAccess;
 import org.lilyproject.repository.api.BlobNotFoundException;
@@ -44,16 +47,24 @@ import static javax.ws.rs.core.Response.Status.NOT_FOUND;
 @GenerateRepositoryResource
 @GenerateRepositoryAndTableResource
 public class BlobByVersionAndFieldResource extends BaseRepositoryResource {
+    private static final Pattern BYTE_RANGE = Pattern.compile("\\s*bytes\\s*=\\s*(\\d*)\\s*-\\s*(\\d*)\\s*");
+    private static final int PARTIAL_CONTENT = 206;
+    private static final int REQUESTED_RANGE_NOT_SATISFIABLE = 416;
 
     @GET
     @Produces("*/*")
     public Response get(@PathParam("id") String id, @PathParam("version") String version,
-            @PathParam("fieldName") String fieldName, @Context UriInfo uriInfo) {
-        return getBlob(id, version, fieldName, uriInfo, getTable(uriInfo), getRepository(uriInfo));
+            @PathParam("fieldName") String fieldName, @HeaderParam("Range") String range,
+            @Context UriInfo uriInfo) {
+        return getBlob(id, version, fieldName, range, uriInfo, getTable(uriInfo), getRepository(uriInfo));
     }
 
 
-    protected static Response getBlob(String id, String version, String fieldName, UriInfo uriInfo,
+    /**
+     * @param range value of the HTTP Range header, can be null. Only a single byte range is supported, when
+     *              another range is requested the complete blob is returned.
+     */
+    protected static Response getBlob(String id, String version, String fieldName, String range, UriInfo uriInfo,
             LTable table, LRepository repository) {
         final RecordId recordId = repository.getIdGenerator().fromString(id);
 
@@ -68,7 +79,28 @@ public class BlobByVersionAndFieldResource extends BaseRepositoryResource {
 
         try {
             final BlobAccess blobAccess = table.getBlob(recordId, versionNr, fieldQName, indexes);
-            return Response.ok(blobAccess, MediaType.valueOf(blobAccess.getBlob().getMediaType())).build();
+            MediaType mediaType = MediaType.valueOf(blobAccess.getBlob().getMediaType());
+            Long size = blobAccess.getBlob().getSize();
+            if (size == null) {
+                return Response.ok(blobAccess, mediaType).build();
+            }
+
+            long[] byteRange = parseRange(range, size);
+            if (byteRange == null) {
+                return Response.ok(blobAccess, mediaType).header("Accept-Ranges", "bytes").build();
+            } else if (byteRange.length == 0) {
+                return Response.status(REQUESTED_RANGE_NOT_SATISFIABLE).header("Content-Range", "bytes */" + size)
+                        .build();
+            } else {
+                long first = byteRange[0];
+                long last = byteRange[1];
+                return Response.status(PARTIAL_CONTENT)
+                        .entity(new BlobRange(blobAccess, first, last - first + 1))
+                        .type(mediaType)
+                        .header("Accept-Ranges", "bytes")
+                        .header("Content-Range", "bytes " + first + "-" + last + "/" + size)
+                        .build();
+            }
         } catch (RecordNotFoundException e) {
             throw new ResourceException(e, NOT_FOUND.getStatusCode());
         } catch (FieldNotFoundException e) {
@@ -80,4 +112,47 @@ public class BlobByVersionAndFieldResource extends BaseRepositoryResource {
         }
     }
 
+    /**
+     * Parses a single byte range as specified in RFC 2616 section 14.35.
+     *
+     * @return null if no (supported) range is requested, an empty array if the range can't be satisfied, or else
+     *         the first and last byte position of the range
+     */
+    private static long[] parseRange(String range, long size) {
+        if (range == null) {
+            return null;
+        }
+        Matcher matcher = BYTE_RANGE.matcher(range);
+        if (!matcher.matches()) {
+            return null;
+        }
+        String first = matcher.group(1);
+        String last = matcher.group(2);
+        try {
+            if (first.length() == 0) {
+                if (last.length() == 0) {
+                    return null;
+                }
+                // suffix range: the last n bytes
+                long suffixLength = Long.parseLong(last);
+                if (suffixLength == 0 || size == 0) {
+                    return new long[0];
+                }
+                return new long[] {Math.max(0, size - suffixLength), size - 1};
+            }
+            long firstPos = Long.parseLong(first);
+            long lastPos = last.length() == 0 ? size - 1 : Math.min(Long.parseLong(last), size - 1);
+            if (last.length() > 0 && Long.parseLong(last) < firstPos) {
+                // syntactically invalid, the header should be ignored
+                return null;
+            }
+            if (firstPos >= size) {
+                return new long[0];
+            }
+            return new long[] {firstPos, lastPos};
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
 }
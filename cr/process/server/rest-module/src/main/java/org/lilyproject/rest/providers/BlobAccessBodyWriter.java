@@ -51,7 +51,7 @@ public class BlobAccessBodyWriter implements MessageBodyWriter<BlobAccess> {
         InputStream is = null;
         try {
             is = blobAccess.getInputStream();
-            IOUtils.copyLarge(blobAccess.getInputStream(), entityStream);
+            IOUtils.copyLarge(is, entityStream);
         } catch (BlobException e) {
             throw new IOException("Error reading blob.", e);
         } finally {
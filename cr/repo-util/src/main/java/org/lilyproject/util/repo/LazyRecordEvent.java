@@ -0,0 +1,162 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.util.repo;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.Set;
+
+import org.lilyproject.repository.api.IdGenerator;
+import org.lilyproject.repository.api.SchemaId;
+
+/**
+ * Gives access to a {@link RecordEvent} payload, only decoding the parts that are actually requested.
+ *
+ * <p>For payloads in the binary format, the type, versions and table name can be read without decoding
+ * the updated fields, and those can in turn be read without decoding the attributes and the
+ * {@link RecordEvent.IndexRecordFilterData}. What is needed to route the event to SEP subscriptions (the
+ * attributes and the subscriptions of the IndexRecordFilterData) can be read while skipping over the updated
+ * fields and field values. Payloads in the json format are always decoded completely.</p>
+ *
+ * <p>This class is not thread safe.</p>
+ */
+public class LazyRecordEvent {
+    private final byte[] data;
+    private final IdGenerator idGenerator;
+
+    /** The event with only the header decoded. */
+    private RecordEvent header;
+    /** The event with the header and the updated fields decoded. */
+    private RecordEvent headerAndFields;
+    /** The event with the header, the attributes and the subscriptions decoded. */
+    private RecordEvent routing;
+    /** The completely decoded event. */
+    private RecordEvent event;
+
+    public LazyRecordEvent(byte[] data, IdGenerator idGenerator) {
+        this.data = data;
+        this.idGenerator = idGenerator;
+    }
+
+    public RecordEvent.Type getType() throws IOException {
+        return getHeader().getType();
+    }
+
+    public String getTableName() throws IOException {
+        return getHeader().getTableName();
+    }
+
+    public long getVersionCreated() throws IOException {
+        return getHeader().getVersionCreated();
+    }
+
+    public long getVersionUpdated() throws IOException {
+        return getHeader().getVersionUpdated();
+    }
+
+    public boolean getRecordTypeChanged() throws IOException {
+        return getHeader().getRecordTypeChanged();
+    }
+
+    /**
+     * See {@link RecordEvent#getUpdatedFields()}.
+     */
+    public Set<SchemaId> getUpdatedFields() throws IOException {
+        if (event != null) {
+            return event.getUpdatedFields();
+        }
+        if (headerAndFields == null) {
+            if (RecordEvent.isBinary(data)) {
+                headerAndFields = RecordEvent.readBinaryHeader(data, idGenerator, true);
+            } else {
+                headerAndFields = getRecordEvent();
+            }
+        }
+        return headerAndFields.getUpdatedFields();
+    }
+
+    /**
+     * See {@link RecordEvent#getAttributes()}.
+     */
+    public Map<String, String> getAttributes() throws IOException {
+        return getRouting().getAttributes();
+    }
+
+    public boolean hasIndexRecordFilterData() throws IOException {
+        return getRouting().getIndexRecordFilterData() != null;
+    }
+
+    /**
+     * See {@link RecordEvent.IndexRecordFilterData#appliesToSubscription(String)}.
+     *
+     * @return false if the event has no IndexRecordFilterData
+     */
+    public boolean appliesToSubscription(String indexSubscriptionId) throws IOException {
+        RecordEvent.IndexRecordFilterData filterData = getRouting().getIndexRecordFilterData();
+        return filterData != null && filterData.appliesToSubscription(indexSubscriptionId);
+    }
+
+    /**
+     * Returns the completely decoded event.
+     */
+    public RecordEvent getRecordEvent() throws IOException {
+        if (event == null) {
+            event = new RecordEvent(data, idGenerator);
+        }
+        return event;
+    }
+
+    /**
+     * Returns the raw payload.
+     */
+    public byte[] getData() {
+        return data;
+    }
+
+    private RecordEvent getRouting() throws IOException {
+        if (event != null) {
+            return event;
+        }
+        if (routing == null) {
+            if (RecordEvent.isBinary(data)) {
+                routing = RecordEvent.readBinaryRouting(data);
+            } else {
+                routing = getRecordEvent();
+            }
+        }
+        return routing;
+    }
+
+    private RecordEvent getHeader() throws IOException {
+        if (event != null) {
+            return event;
+        }
+        if (headerAndFields != null) {
+            return headerAndFields;
+        }
+        if (routing != null) {
+            return routing;
+        }
+        if (header == null) {
+            if (RecordEvent.isBinary(data)) {
+                header = RecordEvent.readBinaryHeader(data, idGenerator, false);
+            } else {
+                header = getRecordEvent();
+            }
+        }
+        return header;
+    }
+}
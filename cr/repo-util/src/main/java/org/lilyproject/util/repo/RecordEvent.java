@@ -34,6 +34,10 @@ import org.codehaus.jackson.JsonGenerator;
 import org.codehaus.jackson.JsonParser;
 import org.codehaus.jackson.JsonToken;
 import org.codehaus.jackson.util.ByteArrayBuilder;
+import org.lilyproject.bytes.api.DataInput;
+import org.lilyproject.bytes.api.DataOutput;
+import org.lilyproject.bytes.impl.DataInputImpl;
+import org.lilyproject.bytes.impl.DataOutputImpl;
 import org.lilyproject.repository.api.IdGenerator;
 import org.lilyproject.repository.api.Record;
 import org.lilyproject.repository.api.SchemaId;
@@ -43,9 +47,30 @@ import org.lilyproject.util.json.JsonFormat;
 /**
  * Represents the payload of an event about a create-update-delete operation on the repository.
  *
- * <p>The actual payload is json, this class helps in parsing or constructing that json.
+ * <p>The payload is written in a compact binary format (see {@link #toBytes()}). Older payloads are
+ * json, this class can still parse these, and can still produce json for debugging purposes
+ * (see {@link #toJson()}).
  */
 public class RecordEvent {
+    /**
+     * First byte of a binary-encoded payload. A json payload always starts with '{' (or whitespace),
+     * so this allows to distinguish between both formats.
+     */
+    static final byte BINARY_MARKER = 0;
+
+    /**
+     * Version of the binary format, written right after the {@link #BINARY_MARKER}.
+     */
+    static final int BINARY_VERSION = 1;
+
+    // Flags of the binary format
+    private static final int FLAG_RECORD_TYPE_CHANGED = 1;
+    private static final int FLAG_TABLE_NAME = 1 << 1;
+    private static final int FLAG_UPDATED_FIELDS = 1 << 2;
+    private static final int FLAG_VTAGS_TO_INDEX = 1 << 3;
+    private static final int FLAG_ATTRIBUTES = 1 << 4;
+    private static final int FLAG_INDEX_FILTER_DATA = 1 << 5;
+
     private long versionCreated = -1;
     private long versionUpdated = -1;
     private Type type;
@@ -79,9 +104,25 @@ public class RecordEvent {
     }
 
     /**
-     * Creates a record event from the json data supplied as bytes.
+     * Creates a record event from the data supplied as bytes, which can be either in the binary
+     * format or in the (older) json format.
      */
     public RecordEvent(byte[] data, IdGenerator idGenerator) throws IOException {
+        if (isBinary(data)) {
+            readBinary(data, idGenerator);
+        } else {
+            readJson(data, idGenerator);
+        }
+    }
+
+    /**
+     * Checks if the given payload is in the binary format, as opposed to json.
+     */
+    static boolean isBinary(byte[] data) {
+        return data.length > 0 && data[0] == BINARY_MARKER;
+    }
+
+    private void readJson(byte[] data, IdGenerator idGenerator) throws IOException {
         // Using streaming JSON parsing for performance. We expect the JSON to be correct, validation
         // is absent/minimal.
 
@@ -148,6 +189,169 @@ public class RecordEvent {
         }
     }
 
+    private void readBinary(byte[] data, IdGenerator idGenerator) throws IOException {
+        DataInput input = openBinary(data);
+
+        int flags = readHeader(input);
+        if ((flags & FLAG_UPDATED_FIELDS) != 0) {
+            updatedFields = readSchemaIds(input, idGenerator);
+        }
+        if ((flags & FLAG_VTAGS_TO_INDEX) != 0) {
+            vtagsToIndex = readSchemaIds(input, idGenerator);
+        }
+        if ((flags & FLAG_ATTRIBUTES) != 0) {
+            attributes = readAttributes(input);
+        }
+        if ((flags & FLAG_INDEX_FILTER_DATA) != 0) {
+            indexRecordFilterData = new IndexRecordFilterData(input, idGenerator);
+        }
+    }
+
+    private static Map<String, String> readAttributes(DataInput input) {
+        int count = input.readVInt();
+        Map<String, String> attributes = new HashMap<String, String>(count * 2);
+        for (int i = 0; i < count; i++) {
+            String key = input.readVUTF();
+            attributes.put(key, input.readVUTF());
+        }
+        return attributes;
+    }
+
+    /**
+     * Checks the marker and version of a binary payload and returns an input positioned after them.
+     */
+    static DataInput openBinary(byte[] data) throws IOException {
+        DataInput input = new DataInputImpl(data);
+        input.readByte(); // the marker
+        int version = input.readVInt();
+        if (version != BINARY_VERSION) {
+            throw new IOException("Unsupported record event format version: " + version);
+        }
+        return input;
+    }
+
+    /**
+     * Reads the fixed part of the binary format, which is kept in front so that the most commonly
+     * needed information can be read without decoding the complete event (see {@link LazyRecordEvent}).
+     *
+     * @return the flags indicating which optional parts follow
+     */
+    private int readHeader(DataInput input) {
+        int typeCode = input.readByte();
+        type = typeCode == -1 ? null : Type.values()[typeCode];
+        int flags = input.readVInt();
+        recordTypeChanged = (flags & FLAG_RECORD_TYPE_CHANGED) != 0;
+        // versions are stored incremented by one, since -1 (= not set) can not be written as a vlong
+        versionCreated = input.readVLong() - 1;
+        versionUpdated = input.readVLong() - 1;
+        if ((flags & FLAG_TABLE_NAME) != 0) {
+            tableName = input.readVUTF();
+        }
+        return flags;
+    }
+
+    /**
+     * Reads the header and the updated fields from a binary payload, leaving the remaining parts
+     * undecoded. Used by {@link LazyRecordEvent}.
+     */
+    static RecordEvent readBinaryHeader(byte[] data, IdGenerator idGenerator, boolean includeUpdatedFields)
+            throws IOException {
+        RecordEvent event = new RecordEvent();
+        DataInput input = openBinary(data);
+        int flags = event.readHeader(input);
+        if (includeUpdatedFields && (flags & FLAG_UPDATED_FIELDS) != 0) {
+            event.updatedFields = readSchemaIds(input, idGenerator);
+        }
+        return event;
+    }
+
+    /**
+     * Reads the header, the attributes and the subscriptions of the {@link IndexRecordFilterData} from a binary
+     * payload, which is what is needed to decide to which SEP subscriptions the event should go. The other parts,
+     * which include the old and new field values, are skipped without decoding them. Used by
+     * {@link LazyRecordEvent}.
+     */
+    static RecordEvent readBinaryRouting(byte[] data) throws IOException {
+        RecordEvent event = new RecordEvent();
+        DataInput input = openBinary(data);
+        int flags = event.readHeader(input);
+        if ((flags & FLAG_UPDATED_FIELDS) != 0) {
+            skipSchemaIds(input);
+        }
+        if ((flags & FLAG_VTAGS_TO_INDEX) != 0) {
+            skipSchemaIds(input);
+        }
+        if ((flags & FLAG_ATTRIBUTES) != 0) {
+            event.attributes = readAttributes(input);
+        }
+        if ((flags & FLAG_INDEX_FILTER_DATA) != 0) {
+            event.indexRecordFilterData = IndexRecordFilterData.readSubscriptions(input);
+        }
+        return event;
+    }
+
+    private static void skipSchemaIds(DataInput input) {
+        int count = input.readVInt();
+        for (int i = 0; i < count; i++) {
+            skip(input, input.readVInt());
+        }
+    }
+
+    private static void skip(DataInput input, int length) {
+        input.setPosition(input.getPosition() + length);
+    }
+
+    private static Set<SchemaId> readSchemaIds(DataInput input, IdGenerator idGenerator) {
+        int count = input.readVInt();
+        Set<SchemaId> ids = new HashSet<SchemaId>(count * 2);
+        for (int i = 0; i < count; i++) {
+            ids.add(readSchemaId(input, idGenerator));
+        }
+        return ids;
+    }
+
+    private static SchemaId readSchemaId(DataInput input, IdGenerator idGenerator) {
+        return idGenerator.getSchemaId(input.readBytes(input.readVInt()));
+    }
+
+    private static void writeSchemaIds(Set<SchemaId> ids, DataOutput output) {
+        output.writeVInt(ids.size());
+        for (SchemaId id : ids) {
+            writeSchemaId(id, output);
+        }
+    }
+
+    private static void writeSchemaId(SchemaId id, DataOutput output) {
+        byte[] bytes = id.getBytes();
+        output.writeVInt(bytes.length);
+        output.writeBytes(bytes);
+    }
+
+    /**
+     * Writes a nullable byte array, the length is stored incremented by one so that null can be
+     * distinguished from an empty array.
+     */
+    private static void writeNullableBytes(byte[] bytes, DataOutput output) {
+        if (bytes == null) {
+            output.writeVInt(0);
+        } else {
+            output.writeVInt(bytes.length + 1);
+            output.writeBytes(bytes);
+        }
+    }
+
+    private static byte[] readNullableBytes(DataInput input) {
+        int length = input.readVInt();
+        return length == 0 ? null : input.readBytes(length - 1);
+    }
+
+    private static void skipNullableBytes(DataInput input) {
+        int length = input.readVInt();
+        if (length > 0) {
+            skip(input, length - 1);
+        }
+    }
+
     public long getVersionCreated() {
         return versionCreated;
     }
@@ -254,6 +458,88 @@ public class RecordEvent {
         this.indexRecordFilterData = indexRecordFilterData;
     }
 
+    /**
+     * Serializes this event in the binary format, which is the format in which record events are
+     * stored in the payload column of the record table.
+     *
+     * <p>The fixed-size information and the updated fields are written first, so that these can be
+     * read without decoding the complete event.
+     */
+    public byte[] toBytes() {
+        DataOutput output = new DataOutputImpl(estimateBinarySize());
+        output.writeByte(BINARY_MARKER);
+        output.writeVInt(BINARY_VERSION);
+
+        // Type codes are the ordinal of the enum, so the order of the enum values should never change
+        output.writeByte(type == null ? (byte)-1 : (byte)type.ordinal());
+
+        boolean hasUpdatedFields = updatedFields != null && updatedFields.size() > 0;
+        boolean hasVtagsToIndex = vtagsToIndex != null && vtagsToIndex.size() > 0;
+        boolean hasAttributes = attributes != null && attributes.size() > 0;
+
+        int flags = 0;
+        if (recordTypeChanged) {
+            flags |= FLAG_RECORD_TYPE_CHANGED;
+        }
+        if (tableName != null) {
+            flags |= FLAG_TABLE_NAME;
+        }
+        if (hasUpdatedFields) {
+            flags |= FLAG_UPDATED_FIELDS;
+        }
+        if (hasVtagsToIndex) {
+            flags |= FLAG_VTAGS_TO_INDEX;
+        }
+        if (hasAttributes) {
+            flags |= FLAG_ATTRIBUTES;
+        }
+        if (indexRecordFilterData != null) {
+            flags |= FLAG_INDEX_FILTER_DATA;
+        }
+        output.writeVInt(flags);
+
+        output.writeVLong(versionCreated + 1);
+        output.writeVLong(versionUpdated + 1);
+
+        if (tableName != null) {
+            output.writeVUTF(tableName);
+        }
+
+        if (hasUpdatedFields) {
+            writeSchemaIds(updatedFields, output);
+        }
+
+        if (hasVtagsToIndex) {
+            writeSchemaIds(vtagsToIndex, output);
+        }
+
+        if (hasAttributes) {
+            output.writeVInt(attributes.size());
+            for (Map.Entry<String, String> entry : attributes.entrySet()) {
+                output.writeVUTF(entry.getKey());
+                output.writeVUTF(entry.getValue());
+            }
+        }
+
+        if (indexRecordFilterData != null) {
+            indexRecordFilterData.write(output);
+        }
+
+        return output.toByteArray();
+    }
+
+    private int estimateBinarySize() {
+        // Schema ids are 16 bytes (uuids), plus the length prefix
+        int size = 32;
+        if (updatedFields != null) {
+            size += updatedFields.size() * 17;
+        }
+        if (indexRecordFilterData != null && indexRecordFilterData.fieldChanges != null) {
+            size += indexRecordFilterData.fieldChanges.size() * 64;
+        }
+        return size;
+    }
+
     public void toJson(JsonGenerator gen) throws IOException {
 
         gen.writeStartObject();
@@ -476,6 +762,76 @@ public class RecordEvent {
             }
         }
 
+        private static final int FLAG_OLD_RECORD_EXISTS = 1;
+        private static final int FLAG_NEW_RECORD_EXISTS = 1 << 1;
+        private static final int FLAG_INCLUDE_SUBSCRIPTIONS = 1 << 2;
+        private static final int FLAG_NEW_RECORD_TYPE = 1 << 3;
+        private static final int FLAG_OLD_RECORD_TYPE = 1 << 4;
+        private static final int FLAG_FIELD_CHANGES = 1 << 5;
+        private static final int FLAG_SUBSCRIPTIONS = 1 << 6;
+
+        IndexRecordFilterData(DataInput input, IdGenerator idGenerator) {
+            int flags = input.readVInt();
+            oldRecordExists = (flags & FLAG_OLD_RECORD_EXISTS) != 0;
+            newRecordExists = (flags & FLAG_NEW_RECORD_EXISTS) != 0;
+            includeSubscriptions = (flags & FLAG_INCLUDE_SUBSCRIPTIONS) != 0;
+
+            if ((flags & FLAG_NEW_RECORD_TYPE) != 0) {
+                newRecordType = readSchemaId(input, idGenerator);
+            }
+            if ((flags & FLAG_OLD_RECORD_TYPE) != 0) {
+                oldRecordType = readSchemaId(input, idGenerator);
+            }
+            if ((flags & FLAG_FIELD_CHANGES) != 0) {
+                int count = input.readVInt();
+                fieldChanges = new ArrayList<FieldChange>(count);
+                for (int i = 0; i < count; i++) {
+                    fieldChanges.add(new FieldChange(input, idGenerator));
+                }
+            }
+            if ((flags & FLAG_SUBSCRIPTIONS) != 0) {
+                int count = input.readVInt();
+                indexSubscriptionIds = Sets.newHashSetWithExpectedSize(count);
+                for (int i = 0; i < count; i++) {
+                    indexSubscriptionIds.add(input.readVUTF());
+                }
+            }
+        }
+
+        /**
+         * Reads only the existence flags and the subscriptions, skipping the record types and field changes.
+         */
+        static IndexRecordFilterData readSubscriptions(DataInput input) {
+            IndexRecordFilterData filterData = new IndexRecordFilterData();
+            int flags = input.readVInt();
+            filterData.oldRecordExists = (flags & FLAG_OLD_RECORD_EXISTS) != 0;
+            filterData.newRecordExists = (flags & FLAG_NEW_RECORD_EXISTS) != 0;
+            filterData.includeSubscriptions = (flags & FLAG_INCLUDE_SUBSCRIPTIONS) != 0;
+
+            if ((flags & FLAG_NEW_RECORD_TYPE) != 0) {
+                skip(input, input.readVInt());
+            }
+            if ((flags & FLAG_OLD_RECORD_TYPE) != 0) {
+                skip(input, input.readVInt());
+            }
+            if ((flags & FLAG_FIELD_CHANGES) != 0) {
+                int count = input.readVInt();
+                for (int i = 0; i < count; i++) {
+                    skip(input, input.readVInt()); // the field type id
+                    skipNullableBytes(input);
+                    skipNullableBytes(input);
+                }
+            }
+            if ((flags & FLAG_SUBSCRIPTIONS) != 0) {
+                int count = input.readVInt();
+                filterData.indexSubscriptionIds = Sets.newHashSetWithExpectedSize(count);
+                for (int i = 0; i < count; i++) {
+                    filterData.indexSubscriptionIds.add(input.readVUTF());
+                }
+            }
+            return filterData;
+        }
+
         public boolean getNewRecordExists() {
             return newRecordExists;
         }
@@ -555,7 +911,50 @@ public class RecordEvent {
             gen.writeEndObject();
         }
 
+        void write(DataOutput output) {
+            int flags = 0;
+            if (oldRecordExists) {
+                flags |= FLAG_OLD_RECORD_EXISTS;
+            }
+            if (newRecordExists) {
+                flags |= FLAG_NEW_RECORD_EXISTS;
+            }
+            if (includeSubscriptions) {
+                flags |= FLAG_INCLUDE_SUBSCRIPTIONS;
+            }
+            if (newRecordType != null) {
+                flags |= FLAG_NEW_RECORD_TYPE;
+            }
+            if (oldRecordType != null) {
+                flags |= FLAG_OLD_RECORD_TYPE;
+            }
+            if (fieldChanges != null) {
+                flags |= FLAG_FIELD_CHANGES;
+            }
+            if (indexSubscriptionIds != null) {
+                flags |= FLAG_SUBSCRIPTIONS;
+            }
+            output.writeVInt(flags);
 
+            if (newRecordType != null) {
+                writeSchemaId(newRecordType, output);
+            }
+            if (oldRecordType != null) {
+                writeSchemaId(oldRecordType, output);
+            }
+            if (fieldChanges != null) {
+                output.writeVInt(fieldChanges.size());
+                for (FieldChange fieldChange : fieldChanges) {
+                    fieldChange.write(output);
+                }
+            }
+            if (indexSubscriptionIds != null) {
+                output.writeVInt(indexSubscriptionIds.size());
+                for (String subscriptionId : indexSubscriptionIds) {
+                    output.writeVUTF(subscriptionId);
+                }
+            }
+        }
 
         /**
          * Set the index subscription ids to be included when distributing the containing record
@@ -647,6 +1046,12 @@ public class RecordEvent {
             }
         }
 
+        FieldChange(DataInput input, IdGenerator idGenerator) {
+            this.id = readSchemaId(input, idGenerator);
+            this.oldValue = readNullableBytes(input);
+            this.newValue = readNullableBytes(input);
+        }
+
         public SchemaId getId() {
             return id;
         }
@@ -675,6 +1080,12 @@ public class RecordEvent {
             gen.writeEndObject();
         }
 
+        void write(DataOutput output) {
+            writeSchemaId(id, output);
+            writeNullableBytes(oldValue, output);
+            writeNullableBytes(newValue, output);
+        }
+
         @Override
         public boolean equals(Object obj) {
             return EqualsBuilder.reflectionEquals(this, obj);
@@ -15,6 +15,8 @@
  */
 package org.lilyproject.util.repo;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -54,6 +56,11 @@ public class VTaggedRecord {
 
     private Map<Long, Set<SchemaId>> tagsByVersion;
 
+    /**
+     * Records of versions other than the last one, as loaded by {@link #prefetchIdRecords}.
+     */
+    private Map<Long, IdRecord> versionRecords = Collections.emptyMap();
+
     private RecordEvent recordEvent;
 
     private RecordEventHelper recordEventHelper;
@@ -254,11 +261,43 @@ public class VTaggedRecord {
             return getNonVersionedRecord();
         } else if (record.getVersion() != null && version == record.getVersion()) {
             return record;
+        } else if (fields == null && versionRecords.containsKey(version)) {
+            return versionRecords.get(version);
         } else {
             return table.readWithIds(record.getId(), version, fields);
         }
     }
 
+    /**
+     * Loads the records of the versions pointed to by the given vtags in one repository read, so that the
+     * subsequent calls to {@link #getIdRecord} for these vtags don't each need a read of their own.
+     *
+     * <p>Only the versions that are not available yet are read, i.e. not the last version nor the non-versioned
+     * record. Nothing is read when only one version is missing, since that is served just as well by
+     * {@link #getIdRecord}.</p>
+     */
+    public void prefetchIdRecords(Collection<SchemaId> vtagIds) throws InterruptedException, RepositoryException {
+        Set<Long> versions = new HashSet<Long>();
+        for (SchemaId vtagId : vtagIds) {
+            Long version = getVTags().get(vtagId);
+            if (version != null && version != 0L && !version.equals(record.getVersion())
+                    && !versionRecords.containsKey(version)) {
+                versions.add(version);
+            }
+        }
+
+        if (versions.size() < 2) {
+            return;
+        }
+
+        if (versionRecords.isEmpty()) {
+            versionRecords = new HashMap<Long, IdRecord>();
+        }
+        for (IdRecord versionRecord : table.readVersionsWithIds(record.getId(), new ArrayList<Long>(versions), null)) {
+            versionRecords.put(versionRecord.getVersion(), versionRecord);
+        }
+    }
+
     /**
      * Removes any versioned information from the supplied record object.
      *
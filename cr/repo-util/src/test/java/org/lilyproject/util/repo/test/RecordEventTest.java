@@ -28,6 +28,7 @@ import org.lilyproject.repository.api.IdGenerator;
 import org.lilyproject.repository.api.SchemaId;
 import org.lilyproject.repository.impl.id.IdGeneratorImpl;
 import org.lilyproject.repository.impl.id.SchemaIdImpl;
+import org.lilyproject.util.repo.LazyRecordEvent;
 import org.lilyproject.util.repo.RecordEvent;
 import org.lilyproject.util.repo.RecordEvent.FieldChange;
 import org.lilyproject.util.repo.RecordEvent.IndexRecordFilterData;
@@ -170,6 +171,111 @@ public class RecordEventTest {
         assertEquals(filterData, doJsonRoundtrip(filterData));
     }
 
+    @Test
+    public void testRecordEvent_BinaryRoundtrip() throws IOException {
+        RecordEvent event = new RecordEvent();
+        byte[] data = event.toBytes();
+        assertEquals(event, new RecordEvent(data, idGenerator));
+
+        event.setType(RecordEvent.Type.UPDATE);
+        event.setTableName("record");
+        event.setVersionCreated(3);
+        event.setVersionUpdated(2);
+        event.setRecordTypeChanged(true);
+        event.addUpdatedField(idGenerator.getSchemaId(UUID.randomUUID()));
+        event.addUpdatedField(idGenerator.getSchemaId(UUID.randomUUID()));
+        event.addVTagToIndex(idGenerator.getSchemaId(UUID.randomUUID()));
+        event.getAttributes().put("key", "value");
+        event.getAttributes().put("empty", "");
+
+        IndexRecordFilterData filterData = new IndexRecordFilterData();
+        filterData.setOldRecordExists(true);
+        filterData.setNewRecordType(idGenerator.getSchemaId(UUID.randomUUID()));
+        filterData.addChangedField(idGenerator.getSchemaId(UUID.randomUUID()), null, new byte[0]);
+        filterData.addChangedField(idGenerator.getSchemaId(UUID.randomUUID()), Bytes.toBytes("foo1"), null);
+        filterData.setSubscriptionExclusions(Sets.newHashSet("indexA", "indexB"));
+        event.setIndexRecordFilterData(filterData);
+
+        data = event.toBytes();
+        RecordEvent deserialized = new RecordEvent(data, idGenerator);
+
+        assertEquals(event, deserialized);
+        assertEquals(filterData, deserialized.getIndexRecordFilterData());
+        assertNull(deserialized.getIndexRecordFilterData().getFieldChanges().get(0).getOldValue());
+        assertArrayEquals(new byte[0], deserialized.getIndexRecordFilterData().getFieldChanges().get(0).getNewValue());
+
+        // The binary format should be more compact than json
+        assertTrue(data.length < event.toJsonBytes().length);
+    }
+
+    @Test
+    public void testRecordEvent_JsonStillReadable() throws IOException {
+        RecordEvent event = new RecordEvent();
+        event.setType(RecordEvent.Type.CREATE);
+        event.setVersionCreated(1);
+        event.addUpdatedField(idGenerator.getSchemaId(UUID.randomUUID()));
+
+        assertEquals(event, new RecordEvent(event.toJsonBytes(), idGenerator));
+        assertEquals(event, new LazyRecordEvent(event.toJsonBytes(), idGenerator).getRecordEvent());
+    }
+
+    @Test
+    public void testLazyRecordEvent() throws IOException {
+        SchemaId fieldId = idGenerator.getSchemaId(UUID.randomUUID());
+        RecordEvent event = new RecordEvent();
+        event.setType(RecordEvent.Type.DELETE);
+        event.setTableName("record");
+        event.setVersionUpdated(5);
+        event.addUpdatedField(fieldId);
+        event.setIndexRecordFilterData(new IndexRecordFilterData());
+
+        for (byte[] data : new byte[][] {event.toBytes(), event.toJsonBytes()}) {
+            LazyRecordEvent lazyEvent = new LazyRecordEvent(data, idGenerator);
+            assertEquals(RecordEvent.Type.DELETE, lazyEvent.getType());
+            assertEquals("record", lazyEvent.getTableName());
+            assertEquals(-1L, lazyEvent.getVersionCreated());
+            assertEquals(5L, lazyEvent.getVersionUpdated());
+            assertFalse(lazyEvent.getRecordTypeChanged());
+            assertEquals(ImmutableSet.of(fieldId), lazyEvent.getUpdatedFields());
+            assertEquals(event, lazyEvent.getRecordEvent());
+        }
+    }
+
+    @Test
+    public void testLazyRecordEvent_Routing() throws IOException {
+        RecordEvent event = new RecordEvent();
+        event.setType(RecordEvent.Type.UPDATE);
+        event.setVersionCreated(2);
+        event.addUpdatedField(idGenerator.getSchemaId(UUID.randomUUID()));
+        event.addVTagToIndex(idGenerator.getSchemaId(UUID.randomUUID()));
+        event.getAttributes().put("key", "value");
+
+        IndexRecordFilterData filterData = new IndexRecordFilterData();
+        filterData.setNewRecordType(idGenerator.getSchemaId(UUID.randomUUID()));
+        filterData.setOldRecordType(idGenerator.getSchemaId(UUID.randomUUID()));
+        filterData.addChangedField(idGenerator.getSchemaId(UUID.randomUUID()), null, new byte[0]);
+        filterData.addChangedField(idGenerator.getSchemaId(UUID.randomUUID()), Bytes.toBytes("old"),
+                Bytes.toBytes("new"));
+        filterData.setSubscriptionExclusions(ImmutableSet.of("indexA"));
+        event.setIndexRecordFilterData(filterData);
+
+        for (byte[] data : new byte[][] {event.toBytes(), event.toJsonBytes()}) {
+            LazyRecordEvent lazyEvent = new LazyRecordEvent(data, idGenerator);
+            assertEquals("value", lazyEvent.getAttributes().get("key"));
+            assertTrue(lazyEvent.hasIndexRecordFilterData());
+            assertFalse(lazyEvent.appliesToSubscription("indexA"));
+            assertTrue(lazyEvent.appliesToSubscription("indexB"));
+            assertEquals(RecordEvent.Type.UPDATE, lazyEvent.getType());
+            assertEquals(2L, lazyEvent.getVersionCreated());
+            assertEquals(event, lazyEvent.getRecordEvent());
+        }
+
+        LazyRecordEvent lazyEvent = new LazyRecordEvent(new RecordEvent().toBytes(), idGenerator);
+        assertTrue(lazyEvent.getAttributes().isEmpty());
+        assertFalse(lazyEvent.hasIndexRecordFilterData());
+        assertFalse(lazyEvent.appliesToSubscription("indexA"));
+    }
+
     @Test
     public void testAppliesToSubscription_DefaultCase() {
         IndexRecordFilterData filterData = new IndexRecordFilterData();
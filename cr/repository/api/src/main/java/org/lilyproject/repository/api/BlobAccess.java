@@ -27,4 +27,10 @@ public interface BlobAccess {
      * The InputStream is only opened when this method is called.
      */
     InputStream getInputStream() throws BlobException;
+
+    /**
+     * Opens an InputStream which starts reading at the given offset, for reading a range of the blob. If the
+     * offset is beyond the end of the blob, the stream is empty.
+     */
+    InputStream getInputStream(long offset) throws BlobException;
 }
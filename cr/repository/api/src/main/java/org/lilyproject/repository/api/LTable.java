@@ -204,6 +204,24 @@ public interface LTable {
      */
     Record createOrUpdate(Record record, boolean useLatestRecordType) throws RepositoryException, InterruptedException;
 
+    /**
+     * Creates or updates a batch of records, see {@link #createOrUpdate(List, boolean)}.
+     */
+    List<RecordResult> createOrUpdate(List<Record> records) throws RepositoryException, InterruptedException;
+
+    /**
+     * Creates or updates a batch of records, with the same semantics as calling
+     * {@link #createOrUpdate(Record, boolean)} for each of them, but more efficiently: the current state of
+     * the records is read with one multi-get, after which the records are written in parallel per region.
+     *
+     * <p>A failure for one record does not stop the others from being written: the returned list corresponds
+     * position by position to the given records and contains, for each of them, either the resulting record
+     * or the exception that occurred. Records occurring more than once in the batch are written in the given
+     * order.
+     */
+    List<RecordResult> createOrUpdate(List<Record> records, boolean useLatestRecordType)
+            throws RepositoryException, InterruptedException;
+
     /**
      * @param recordId   the id of the record to read, null is not allowed
      * @param fieldNames list of names of the fields to read or null to read all fields
@@ -279,6 +297,19 @@ public interface LTable {
      */
     List<Record> read(List<RecordId> recordIds, QName... fieldNames) throws RepositoryException, InterruptedException;
 
+    /**
+     * Reads a batch of records, returning a list that corresponds position by position to the requested ids.
+     *
+     * <p>This is similar to {@link #read(List, QName...)}, but rather than leaving out the records that do not
+     * exist or have been deleted, the returned list contains null at their position. The requested records are
+     * fetched per region, larger batches are fetched in parallel.
+     *
+     * @param recordIds  recordIds to read, null is not allowed
+     * @param fieldNames names of the fields to read or null to read all fields
+     * @return list of the same size as recordIds, containing null for the records that are not found
+     */
+    List<Record> readBatch(List<RecordId> recordIds, QName... fieldNames) throws RepositoryException, InterruptedException;
+
     /**
      * @deprecated in favor of using varargs for the fieldNames. Please use {@link #read(RecordId, Long, QName...)}
      *             instead.
@@ -369,6 +400,20 @@ public interface LTable {
     IdRecord readWithIds(RecordId recordId, Long version, List<SchemaId> fieldIds)
             throws RepositoryException, InterruptedException;
 
+    /**
+     * Reads a number of versions of a record in one go, also returning the mapping from QNames to IDs.
+     *
+     * <p>This is the {@link IdRecord} counterpart of {@link #readVersions(RecordId, List, QName...)}: all versions
+     * are retrieved with a single read on the underlying storage.
+     *
+     * @param versions the list of versions to read, should not contain null values
+     * @param fieldIds load only the fields with these ids. optional, can be null.
+     * @return the records, sorted by version. The list can be smaller than the number of requested versions if
+     *         some requested versions have a higher number than the highest existing version.
+     */
+    List<IdRecord> readVersionsWithIds(RecordId recordId, List<Long> versions, List<SchemaId> fieldIds)
+            throws RepositoryException, InterruptedException;
+
     /**
      * Delete a {@link Record} from the repository.
      *
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.repository.api;
+
+/**
+ * The outcome for one record of a batch operation such as {@link LTable#createOrUpdate(java.util.List, boolean)}:
+ * either the resulting record, or the exception which occurred for that record.
+ */
+public class RecordResult {
+    private final Record record;
+    private final RepositoryException exception;
+
+    public RecordResult(Record record) {
+        this.record = record;
+        this.exception = null;
+    }
+
+    public RecordResult(RepositoryException exception) {
+        this.record = null;
+        this.exception = exception;
+    }
+
+    /**
+     * Returns true if the operation succeeded for this record.
+     */
+    public boolean isSuccess() {
+        return exception == null;
+    }
+
+    /**
+     * Returns the resulting record, as would be returned by the corresponding single-record operation,
+     * or null if the operation failed.
+     */
+    public Record getRecord() {
+        return record;
+    }
+
+    /**
+     * Returns the status of the record, or null if the operation failed.
+     */
+    public ResponseStatus getResponseStatus() {
+        return record != null ? record.getResponseStatus() : null;
+    }
+
+    /**
+     * Returns the exception which occurred for this record, or null if the operation succeeded.
+     */
+    public RepositoryException getException() {
+        return exception;
+    }
+}
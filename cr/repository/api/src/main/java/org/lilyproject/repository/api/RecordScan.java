@@ -31,6 +31,7 @@ public class RecordScan {
     private ReturnFields returnFields;
     private int caching = -1;
     private boolean cacheBlocks = true;
+    private boolean useFieldValueIndex = false;
 
     /**
      * @see #setStartRecordId(RecordId)
@@ -210,4 +211,23 @@ public class RecordScan {
     public void setCacheBlocks(boolean cacheBlocks) {
         this.cacheBlocks = cacheBlocks;
     }
+
+    /**
+     * @see #setUseFieldValueIndex(boolean)
+     */
+    public boolean getUseFieldValueIndex() {
+        return useFieldValueIndex;
+    }
+
+    /**
+     * Allow the scan to be answered from a field value index, when the repository server is configured with
+     * such indexes and the record filter selects on an indexed field or record type. By default this is false.
+     *
+     * <p>The records are then looked up in the index rather than by scanning the record table, and are
+     * returned in record ID order just like with a normal scan. Note that the field value indexes are updated
+     * asynchronously, so records which have been changed very recently might be missing from the result.</p>
+     */
+    public void setUseFieldValueIndex(boolean useFieldValueIndex) {
+        this.useFieldValueIndex = useFieldValueIndex;
+    }
 }
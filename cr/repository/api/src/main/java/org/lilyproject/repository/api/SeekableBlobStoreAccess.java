@@ -0,0 +1,38 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.repository.api;
+
+import java.io.InputStream;
+
+/**
+ * A {@link BlobStoreAccess} which can start reading a blob at an arbitrary position, without reading the bytes
+ * before it.
+ *
+ * <p>For blob stores which do not implement this interface, reading from a position is done by skipping
+ * over the bytes before it.</p>
+ */
+public interface SeekableBlobStoreAccess extends BlobStoreAccess {
+
+    /**
+     * Get an {@link InputStream} to read the bytes identified by the key, starting at the given offset.
+     *
+     * @param key a unique key identifying the written bytes on the blobstore, see {@link #getOutputStream(Blob)}
+     * @param offset the position of the first byte to read, if it is beyond the end of the blob the stream is empty
+     *
+     * @throws BlobException when an unexpected exception occurred (e.g. an IOException of the underlying blobstore)
+     */
+    InputStream getInputStream(byte[] key, long offset) throws BlobException;
+}
@@ -281,6 +281,27 @@ public interface TypeManager extends Closeable {
      */
     FieldType createOrUpdateFieldType(FieldType fieldType) throws RepositoryException, InterruptedException;
 
+    /**
+     * Creates or updates a set of field types and record types in one call, which is much more efficient
+     * than calling {@link #createOrUpdateFieldType(FieldType)} and {@link #createOrUpdateRecordType(RecordType)}
+     * for each of them when deploying a large schema.
+     *
+     * <p>Each type is handled with the same semantics as the corresponding createOrUpdate method. All field
+     * types are handled before the record types, the record types in the order in which they are supplied.
+     * Since the field type entries of a record type refer to field types by ID, record types which use new
+     * field types should be created in a next call, using the IDs of the field types returned by this one.</p>
+     *
+     * <p>The new field types are written with batched mutations, and the schema caches are only
+     * invalidated once, at the end of the call, rather than for each type.</p>
+     *
+     * <p>This method is not transactional: from the moment the create or update of a type fails, the
+     * method stops, the types handled before that remain created or updated.</p>
+     *
+     * @return the created or updated field types and record types, in the same order as supplied
+     */
+    Pair<List<FieldType>, List<RecordType>> createOrUpdateTypes(List<FieldType> fieldTypes,
+            List<RecordType> recordTypes) throws RepositoryException, InterruptedException;
+
     /**
      * Gets a FieldType from the repository.
      *
@@ -479,4 +500,13 @@ public interface TypeManager extends Closeable {
      * @return true when enabled
      */
     boolean isSchemaCacheRefreshEnabled() throws RepositoryException, InterruptedException;
+
+    /**
+     * Returns a number which changes each time types are added to or changed in the schema cache, including
+     * when the cache is refreshed with changes made elsewhere.
+     * <p>
+     * This allows to invalidate information derived from the schema, e.g. by remembering the value at the time
+     * the information was computed.
+     */
+    long getSchemaCacheChangeCount();
 }
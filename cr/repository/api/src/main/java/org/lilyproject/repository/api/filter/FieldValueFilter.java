@@ -21,8 +21,14 @@ import org.lilyproject.repository.api.QName;
 /**
  * Filters based on the value of a record field.
  *
- * <p>Only equals and not-equals comparisons are possible. This is because the comparison happens inside
- * the HBase region servers, on the bytes-encoded field values.</p>
+ * <p>The comparison happens inside the HBase region servers. Equals and not-equals comparisons are possible
+ * for fields of any value type. The other comparisons (less, greater, ...) are only possible for fields whose
+ * (deepest) value type is STRING, INTEGER, LONG, DOUBLE, DECIMAL, DATE, DATETIME or BOOLEAN, the values
+ * are then compared according to the natural order of their value type.</p>
+ *
+ * <p>For LIST or PATH fields, the field value is by default compared as a whole. By setting a
+ * {@link ListMatch}, the filter value is instead compared with each of the elements of the field value,
+ * the filter value should then be a single element value.</p>
  *
  * <p>For versioned fields, the filtering always happens based on the last version of the field values.</p>
  */
@@ -31,6 +37,17 @@ public class FieldValueFilter implements RecordFilter {
     private Object fieldValue;
     private CompareOp compareOp = CompareOp.EQUAL;
     private boolean filterIfMissing = true;
+    private ListMatch listMatch;
+
+    /**
+     * How the filter value is compared with the elements of LIST or PATH fields.
+     */
+    public enum ListMatch {
+        /** The record matches if at least one element of the field value satisfies the comparison. */
+        ANY,
+        /** The record matches if all elements of the field value satisfy the comparison. */
+        ALL
+    }
 
     public FieldValueFilter() {
     }
@@ -46,8 +63,7 @@ public class FieldValueFilter implements RecordFilter {
 
     /**
      * Constructs a filter comparing the specified field with the specified value,
-     * using the specified comparison operator. Only {@link CompareOp#EQUAL} and
-     * {@link CompareOp#NOT_EQUAL} are supported.
+     * using the specified comparison operator.
      */
     public FieldValueFilter(QName field, CompareOp compareOp, Object fieldValue) {
         this.field = field;
@@ -96,13 +112,28 @@ public class FieldValueFilter implements RecordFilter {
     }
 
     /**
-     * Sets the comparison operator, only {@link CompareOp#EQUAL} and
-     * {@link CompareOp#NOT_EQUAL} are supported.
+     * Sets the comparison operator. Only {@link CompareOp#EQUAL} and {@link CompareOp#NOT_EQUAL}
+     * are supported for all field types, see the class description.
      */
     public void setCompareOp(CompareOp compareOp) {
         this.compareOp = compareOp;
     }
 
+    /**
+     * @see #setListMatch(ListMatch)
+     */
+    public ListMatch getListMatch() {
+        return listMatch;
+    }
+
+    /**
+     * Sets how the filter value is compared with the elements of a LIST or PATH field. When null, which is
+     * the default, the field value is compared as a whole.
+     */
+    public void setListMatch(ListMatch listMatch) {
+        this.listMatch = listMatch;
+    }
+
     /**
      * Set whether the record should be filtered if the record does not have the field.
      *
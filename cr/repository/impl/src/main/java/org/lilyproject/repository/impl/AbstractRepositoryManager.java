@@ -33,6 +33,7 @@ import org.lilyproject.repository.api.RepositoryException;
 import org.lilyproject.repository.api.RepositoryManager;
 import org.lilyproject.repository.api.RepositoryUnavailableException;
 import org.lilyproject.repository.api.TypeManager;
+import org.lilyproject.repository.impl.valueindex.FieldValueIndexes;
 import org.lilyproject.repository.model.api.RepositoryModel;
 import org.lilyproject.util.hbase.LilyHBaseSchema;
 import org.lilyproject.util.hbase.LilyHBaseSchema.Table;
@@ -50,6 +51,9 @@ public abstract class AbstractRepositoryManager implements RepositoryManager {
     private final RecordFactory recordFactory;
     private final RepositoryModel repositoryModel;
     private final AuthorizationContextProvider authzCtxProvider = new DRAuthorizationContextProvider();
+    private volatile RecordCache recordCache;
+    private volatile FieldValueIndexes fieldValueIndexes;
+    private volatile boolean recordUpdateEndpointEnabled;
 
     /**
      * For NGDATA's hbase authorization layer: unique name for the application, in order to
@@ -94,6 +98,52 @@ public abstract class AbstractRepositoryManager implements RepositoryManager {
         return recordFactory;
     }
 
+    /**
+     * Returns the cache used by the repositories for reading records, null if no cache is used.
+     */
+    public RecordCache getRecordCache() {
+        return recordCache;
+    }
+
+    /**
+     * Sets the cache to be used by the repositories for reading records. The cache should be kept up to date
+     * by a {@link RecordCacheInvalidator}.
+     */
+    public void setRecordCache(RecordCache recordCache) {
+        this.recordCache = recordCache;
+    }
+
+    /**
+     * Returns the field value indexes used by the repositories to answer record scans, null if none are used.
+     */
+    public FieldValueIndexes getFieldValueIndexes() {
+        return fieldValueIndexes;
+    }
+
+    /**
+     * Sets the field value indexes to be used by the repositories to answer record scans. The indexes should be
+     * kept up to date by a {@link org.lilyproject.repository.impl.valueindex.FieldValueIndexUpdater}.
+     */
+    public void setFieldValueIndexes(FieldValueIndexes fieldValueIndexes) {
+        this.fieldValueIndexes = fieldValueIndexes;
+    }
+
+    /**
+     * Returns true if the repositories should perform record updates through the
+     * {@link org.lilyproject.repository.impl.hbase.RecordUpdateEndpoint}, when it is loaded on the region servers.
+     */
+    public boolean isRecordUpdateEndpointEnabled() {
+        return recordUpdateEndpointEnabled;
+    }
+
+    /**
+     * Enables or disables performing record updates through the
+     * {@link org.lilyproject.repository.impl.hbase.RecordUpdateEndpoint}.
+     */
+    public void setRecordUpdateEndpointEnabled(boolean recordUpdateEndpointEnabled) {
+        this.recordUpdateEndpointEnabled = recordUpdateEndpointEnabled;
+    }
+
     /**
      * Create a new Repository object for the repository cache.
      */
@@ -56,6 +56,7 @@ import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import javax.annotation.PreDestroy;
 
 
@@ -66,12 +67,15 @@ public abstract class AbstractSchemaCache implements SchemaCache {
 
     private final CacheRefresher cacheRefresher = new CacheRefresher();
 
-    private FieldTypes fieldTypesSnapshot;
     private FieldTypesCache fieldTypesCache = new FieldTypesCache();
-    private volatile boolean updatedFieldTypes = false;
 
     private RecordTypesCache recordTypes = new RecordTypesCache();
 
+    /**
+     * Incremented after each change to the field types or record types cache.
+     */
+    private final AtomicLong changeCount = new AtomicLong();
+
     private Set<CacheWatcher> cacheWatchers = Collections.synchronizedSet(new HashSet<CacheWatcher>());
     private Map<String, Integer> bucketVersions = new ConcurrentHashMap<String, Integer>();
     private ParentWatcher parentWatcher = new ParentWatcher();
@@ -208,25 +212,18 @@ public abstract class AbstractSchemaCache implements SchemaCache {
 
     @Override
     public FieldTypes getFieldTypesSnapshot() throws InterruptedException {
-        if (!updatedFieldTypes) {
-            return fieldTypesSnapshot;
-        }
-        synchronized (this) {
-            if (updatedFieldTypes) {
-                fieldTypesSnapshot = fieldTypesCache.getSnapshot();
-                updatedFieldTypes = false;
-            }
-            return fieldTypesSnapshot;
-        }
+        // The cache publishes immutable snapshots, so no copy needs to be taken
+        return fieldTypesCache.getSnapshot();
     }
 
     public void updateFieldType(FieldType fieldType) throws TypeException, InterruptedException {
         fieldTypesCache.update(fieldType);
-        updatedFieldTypes = true;
+        changeCount.incrementAndGet();
     }
 
     public void updateRecordType(RecordType recordType) throws TypeException, InterruptedException {
         recordTypes.update(recordType);
+        changeCount.incrementAndGet();
     }
 
     public Collection<RecordType> getRecordTypes() throws InterruptedException {
@@ -241,6 +238,11 @@ public abstract class AbstractSchemaCache implements SchemaCache {
         return recordTypes.getRecordType(id, version);
     }
 
+    @Override
+    public long getChangeCount() {
+        return changeCount.get();
+    }
+
     public FieldType getFieldType(QName name) throws InterruptedException, TypeException {
         return fieldTypesCache.getFieldType(name);
     }
@@ -345,8 +347,8 @@ public abstract class AbstractSchemaCache implements SchemaCache {
             // Read all types in one go
             Pair<List<FieldType>, List<RecordType>> types = getTypeManager().getTypesWithoutCache();
             fieldTypesCache.refreshFieldTypes(types.getV1());
-            updatedFieldTypes = true;
             recordTypes.refreshRecordTypes(types.getV2());
+            changeCount.incrementAndGet();
         } else {
             // Only the changed buckets need to be refreshed.
             // Upon a re-connection event it could be that some updates were
@@ -387,8 +389,8 @@ public abstract class AbstractSchemaCache implements SchemaCache {
                 bucketVersions.put(entry.getKey(), entry.getValue());
                 TypeBucket typeBucket = getTypeManager().getTypeBucketWithoutCache(entry.getKey());
                 fieldTypesCache.refreshFieldTypeBucket(typeBucket);
-                updatedFieldTypes = true;
                 recordTypes.refreshRecordTypeBucket(typeBucket);
+                changeCount.incrementAndGet();
             }
         }
     }
@@ -441,8 +443,8 @@ public abstract class AbstractSchemaCache implements SchemaCache {
             TypeBucket typeBucket = getTypeManager().getTypeBucketWithoutCache(bucketId);
             fieldTypesCache.refreshFieldTypeBucket(typeBucket);
             recordTypes.refreshRecordTypeBucket(typeBucket);
+            changeCount.incrementAndGet();
         }
-        updatedFieldTypes = true;
     }
 
     private void watchPathsForExistence() throws InterruptedException {
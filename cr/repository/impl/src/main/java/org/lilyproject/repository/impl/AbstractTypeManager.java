@@ -83,6 +83,11 @@ public abstract class AbstractTypeManager implements TypeManager {
         return schemaCache.getFieldTypesSnapshot();
     }
 
+    @Override
+    public long getSchemaCacheChangeCount() {
+        return schemaCache.getChangeCount();
+    }
+
     @Override
     abstract public List<FieldType> getFieldTypesWithoutCache() throws RepositoryException, InterruptedException;
 
@@ -19,13 +19,24 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.ServiceLoader;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import com.google.common.base.Preconditions;
+import com.ngdata.lily.security.hbase.client.AuthorizationContext;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.hbase.client.Get;
 import org.apache.hadoop.hbase.client.HTableInterface;
 import org.apache.hadoop.hbase.client.Result;
@@ -36,6 +47,8 @@ import org.apache.hadoop.hbase.filter.Filter;
 import org.apache.hadoop.hbase.filter.FilterList;
 import org.apache.hadoop.hbase.filter.SingleColumnValueFilter;
 import org.apache.hadoop.hbase.util.Bytes;
+import org.lilyproject.hbaseindex.QueryResult;
+import org.lilyproject.repository.api.AbsoluteRecordId;
 import org.lilyproject.repository.api.Blob;
 import org.lilyproject.repository.api.BlobAccess;
 import org.lilyproject.repository.api.BlobException;
@@ -65,12 +78,19 @@ import org.lilyproject.repository.api.TypeManager;
 import org.lilyproject.repository.api.VersionNotFoundException;
 import org.lilyproject.repository.api.filter.RecordFilter;
 import org.lilyproject.repository.impl.RepositoryMetrics.Action;
+import org.lilyproject.repository.impl.RepositoryMetrics.CacheAction;
+import org.lilyproject.repository.impl.hbase.LilyVersionsFilter;
+import org.lilyproject.repository.impl.valueindex.FieldValueIndexes;
+import org.lilyproject.repository.impl.valueindex.IndexedRecordResultScanner;
+import org.lilyproject.repository.spi.AuthorizationContextHolder;
 import org.lilyproject.repository.spi.HBaseRecordFilterFactory;
 import org.lilyproject.util.ArgumentValidator;
 import org.lilyproject.util.Pair;
+import org.lilyproject.util.concurrent.CustomThreadFactory;
 import org.lilyproject.util.hbase.LilyHBaseSchema;
 import org.lilyproject.util.hbase.LilyHBaseSchema.RecordCf;
 import org.lilyproject.util.hbase.LilyHBaseSchema.RecordColumn;
+import org.lilyproject.util.hbase.LocalHTable;
 import org.lilyproject.util.hbase.RepoAndTableUtil;
 
 public abstract class BaseRepository implements Repository {
@@ -85,6 +105,19 @@ public abstract class BaseRepository implements Repository {
     protected final RepoTableKey repoTableKey;
     protected final TableManager tableManager;
     protected RepositoryMetrics metrics;
+    private final Log log = LogFactory.getLog(getClass());
+
+    /**
+     * Maximum number of records fetched in one multi-get by {@link #readBatch}. Larger requests are split
+     * up (besides being split per region), so that they can be fetched and decoded in parallel.
+     */
+    private static final int READ_BATCH_SIZE = 50;
+
+    /**
+     * Executor shared by all repositories for processing batches of records in parallel. It has a bounded
+     * number of threads and a bounded queue, when it is saturated the batches are processed by the calling thread.
+     */
+    private static final ExecutorService BATCH_EXECUTOR;
 
     /**
      * Not all rows in the HBase record table are real records, this filter excludes non-valid
@@ -100,6 +133,13 @@ public abstract class BaseRepository implements Repository {
         REAL_RECORDS_FILTER = new SingleColumnValueFilter(RecordCf.DATA.bytes,
                 RecordColumn.DELETED.bytes, CompareFilter.CompareOp.NOT_EQUAL, Bytes.toBytes(true));
         REAL_RECORDS_FILTER.setFilterIfMissing(true);
+
+        int threads = Math.max(4, Runtime.getRuntime().availableProcessors() * 2);
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(1000), new CustomThreadFactory("lily-batch", null, true),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+        executor.allowCoreThreadTimeOut(true);
+        BATCH_EXECUTOR = executor;
     }
 
     protected BaseRepository(RepoTableKey repoTableKey, AbstractRepositoryManager repositoryManager,
@@ -286,6 +326,21 @@ public abstract class BaseRepository implements Repository {
             hbaseScan.addFamily(RecordCf.DATA.bytes);
         }
 
+        // Scans which ask for it, with a selective filter on an indexed field or record type, are answered
+        // from the field value index rather than by scanning all records
+        FieldValueIndexes fieldValueIndexes = repositoryManager.getFieldValueIndexes();
+        if (scan.getUseFieldValueIndex() && fieldValueIndexes != null && scan.getRecordFilter() != null) {
+            try {
+                QueryResult queryResult = fieldValueIndexes.query(repoTableKey.getRepositoryName(),
+                        repoTableKey.getTableName(), scan.getRecordFilter());
+                if (queryResult != null) {
+                    return new IndexedRecordResultScanner(queryResult, recordTable, hbaseScan);
+                }
+            } catch (IOException e) {
+                throw new RecordException("Error querying field value index", e);
+            }
+        }
+
         ResultScanner hbaseScanner;
         try {
             hbaseScanner = recordTable.getScanner(hbaseScan);
@@ -347,6 +402,23 @@ public abstract class BaseRepository implements Repository {
         return read(recordIds, fields, fieldTypes);
     }
 
+    @Override
+    public List<Record> readBatch(List<RecordId> recordIds, QName... fieldNames)
+            throws RepositoryException, InterruptedException {
+        FieldTypes fieldTypes = typeManager.getFieldTypesSnapshot();
+        List<FieldType> fields = getFieldTypesFromNames(fieldTypes, fieldNames);
+
+        long before = System.currentTimeMillis();
+        try {
+            ArgumentValidator.notNull(recordIds, "recordIds");
+            return Arrays.asList(readBatch(recordIds, fields, fieldTypes));
+        } finally {
+            if (metrics != null) {
+                metrics.report(Action.READ, System.currentTimeMillis() - before);
+            }
+        }
+    }
+
     @Override
     public Record read(RecordId recordId, Long version, List<QName> fieldNames)
             throws RepositoryException, InterruptedException {
@@ -359,6 +431,10 @@ public abstract class BaseRepository implements Repository {
         FieldTypes fieldTypes = typeManager.getFieldTypesSnapshot();
         List<FieldType> fields = getFieldTypesFromNames(fieldTypes, fieldNames);
 
+        if (isAllFields(fields) && getRecordCache() != null) {
+            // Complete records are read with ids, so that they can be shared with readWithIds in the cache
+            return readWithIds(recordId, version, fields, fieldTypes).getRecord();
+        }
         return read(recordId, version, fields, fieldTypes);
     }
 
@@ -377,6 +453,20 @@ public abstract class BaseRepository implements Repository {
         try {
             ArgumentValidator.notNull(recordId, "recordId");
 
+            RecordCache cache = isAllFields(fields) ? getRecordCache() : null;
+            AbsoluteRecordId absRecordId = null;
+            Long cacheVersion = requestedVersion;
+            long cacheStamp = 0;
+            if (cache != null) {
+                absRecordId = idGenerator.newAbsoluteRecordId(repoTableKey.getTableName(), recordId);
+                IdRecord cachedRecord = cache.get(repoTableKey.getRepositoryName(), absRecordId, cacheVersion);
+                reportCache(cachedRecord != null ? CacheAction.HIT : CacheAction.MISS, 1);
+                if (cachedRecord != null) {
+                    return cachedRecord;
+                }
+                cacheStamp = cache.getStamp(repoTableKey.getRepositoryName(), absRecordId);
+            }
+
             Result result = getRow(recordId, requestedVersion, 1, fields);
 
             Long latestVersion = recdec.getLatestVersion(result);
@@ -389,7 +479,13 @@ public abstract class BaseRepository implements Repository {
                     throw new VersionNotFoundException(recordId, requestedVersion);
                 }
             }
-            return recdec.decodeRecordWithIds(recordId, requestedVersion, result, fieldTypes);
+            IdRecord record = recdec.decodeRecordWithIds(recordId, requestedVersion, result, fieldTypes);
+
+            if (cache != null) {
+                cache.put(repoTableKey.getRepositoryName(), absRecordId, cacheVersion, record, result, cacheStamp);
+                reportCache(CacheAction.EVICTION, cache.drainEvictionCount());
+            }
+            return record;
         } finally {
             if (metrics != null) {
                 metrics.report(Action.READ, System.currentTimeMillis() - before);
@@ -397,6 +493,39 @@ public abstract class BaseRepository implements Repository {
         }
     }
 
+    /**
+     * Returns the record cache to use for the current read, or null if the cache should not be used.
+     */
+    private RecordCache getRecordCache() {
+        RecordCache cache = repositoryManager.getRecordCache();
+        // The cached records are shared by all users, hence they can't be used when authorization applies
+        if (cache == null || AuthorizationContextHolder.getCurrentContext() != null) {
+            return null;
+        }
+        return cache;
+    }
+
+    /**
+     * Removes the record from the record cache, to be called after the record has been changed.
+     */
+    protected void invalidateCachedRecord(RecordId recordId) {
+        RecordCache cache = repositoryManager.getRecordCache();
+        if (cache != null && recordId != null) {
+            cache.invalidate(repoTableKey.getRepositoryName(),
+                    idGenerator.newAbsoluteRecordId(repoTableKey.getTableName(), recordId));
+        }
+    }
+
+    private void reportCache(CacheAction action, long count) {
+        if (metrics != null && count > 0) {
+            metrics.reportCache(action, count);
+        }
+    }
+
+    private static boolean isAllFields(List<FieldType> fields) {
+        return fields == null || fields.isEmpty();
+    }
+
     private List<FieldType> getFieldTypesFromIds(List<SchemaId> fieldIds, FieldTypes fieldTypes)
             throws TypeException, InterruptedException {
         List<FieldType> fields = null;
@@ -469,18 +598,15 @@ public abstract class BaseRepository implements Repository {
         long before = System.currentTimeMillis();
         try {
             ArgumentValidator.notNull(recordIds, "recordIds");
-            List<Record> records = new ArrayList<Record>();
+            List<Record> records = new ArrayList<Record>(recordIds.size());
             if (recordIds.isEmpty()) {
                 return records;
             }
 
-            Map<RecordId, Result> results = getRows(recordIds, fields);
-
-            for (RecordId recordId : recordIds) {
-                Result result = results.get(recordId);
-                if (result != null){
-                    Long version = recdec.getLatestVersion(result);
-                    records.add(recdec.decodeRecord(recordId, version, null, result, fieldTypes));
+            for (Record record : readBatch(recordIds, fields, fieldTypes)) {
+                // Skip records which were not found (instead of throwing a RecordNotFoundException)
+                if (record != null) {
+                    records.add(record);
                 }
             }
             return records;
@@ -491,6 +617,172 @@ public abstract class BaseRepository implements Repository {
         }
     }
 
+    /**
+     * Reads the given records, the returned array is in the same order as the requested ids and contains
+     * null for records which do not exist.
+     *
+     * <p>The ids are grouped per region and, for larger requests, the per-region multi-gets are executed
+     * and decoded in parallel.</p>
+     */
+    private Record[] readBatch(final List<RecordId> recordIds, final List<FieldType> fields,
+            final FieldTypes fieldTypes) throws RepositoryException, InterruptedException {
+        final Record[] records = new Record[recordIds.size()];
+        runBatches(splitInBatches(recordIds, READ_BATCH_SIZE), new BatchTask() {
+            @Override
+            public void run(List<Integer> batch) throws RepositoryException, InterruptedException {
+                readBatch(recordIds, batch, fields, fieldTypes, records);
+            }
+        });
+        return records;
+    }
+
+    /**
+     * Task executed by {@link #runBatches} for each batch.
+     */
+    protected interface BatchTask {
+        void run(List<Integer> batch) throws RepositoryException, InterruptedException;
+    }
+
+    /**
+     * Runs the task for each of the batches, in parallel on the shared batch executor. The calling thread
+     * takes care of the first batch itself. The authorization context of the calling thread is passed on
+     * to the threads running the other batches.
+     */
+    protected void runBatches(List<List<Integer>> batches, final BatchTask task)
+            throws RepositoryException, InterruptedException {
+        if (batches.size() == 1) {
+            task.run(batches.get(0));
+            return;
+        }
+
+        final AuthorizationContext authzContext = AuthorizationContextHolder.getCurrentContext();
+        List<Future<Void>> futures = new ArrayList<Future<Void>>(batches.size() - 1);
+        try {
+            for (final List<Integer> batch : batches.subList(1, batches.size())) {
+                futures.add(BATCH_EXECUTOR.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        // When the executor is saturated, this runs in the calling thread itself
+                        AuthorizationContext previousContext = AuthorizationContextHolder.getCurrentContext();
+                        AuthorizationContextHolder.setCurrentContext(authzContext);
+                        try {
+                            task.run(batch);
+                        } finally {
+                            AuthorizationContextHolder.setCurrentContext(previousContext);
+                        }
+                        return null;
+                    }
+                }));
+            }
+
+            task.run(batches.get(0));
+
+            for (Future<Void> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof RepositoryException) {
+                        throw (RepositoryException)cause;
+                    } else if (cause instanceof InterruptedException) {
+                        throw (InterruptedException)cause;
+                    } else if (cause instanceof RuntimeException) {
+                        throw (RuntimeException)cause;
+                    } else if (cause instanceof Error) {
+                        throw (Error)cause;
+                    }
+                    throw new RecordException("Error processing batch of records", cause);
+                }
+            }
+        } finally {
+            // Only has effect if we got here through an exception
+            for (Future<Void> future : futures) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * Reads the records at the given indexes of recordIds with one multi-get, and stores the decoded records
+     * at the same indexes of the records array.
+     */
+    private void readBatch(List<RecordId> recordIds, List<Integer> indexes, List<FieldType> fields,
+            FieldTypes fieldTypes, Record[] records) throws RepositoryException, InterruptedException {
+        List<Get> gets = new ArrayList<Get>(indexes.size());
+        for (Integer index : indexes) {
+            Get get = new Get(recordIds.get(index).toBytes());
+            // Add the columns for the fields to get
+            addFieldsToGet(get, fields);
+            get.setMaxVersions(1); // Only retrieve the most recent version of each field
+            gets.add(get);
+        }
+
+        Result[] results;
+        try {
+            results = recordTable.get(gets);
+        } catch (IOException e) {
+            throw new RecordException("Exception occurred while retrieving records from HBase table", e);
+        }
+
+        for (int i = 0; i < results.length; i++) {
+            Result result = results[i];
+            if (result == null || result.isEmpty()) {
+                continue; // Leave this record null (instead of throwing a RecordNotFoundException)
+            }
+            // Check if the record was deleted
+            byte[] deleted = recdec.getLatest(result, RecordCf.DATA.bytes, RecordColumn.DELETED.bytes);
+            if ((deleted == null) || (Bytes.toBoolean(deleted))) {
+                continue;
+            }
+            int index = indexes.get(i);
+            Long version = recdec.getLatestVersion(result);
+            records[index] = recdec.decodeRecord(recordIds.get(index), version, null, result, fieldTypes);
+        }
+    }
+
+    /**
+     * Groups the indexes of the given record ids per region, and splits these groups further so that
+     * none of them is larger than batchSize.
+     */
+    protected List<List<Integer>> splitInBatches(List<RecordId> recordIds, int batchSize) {
+        Map<String, List<Integer>> indexesByRegion = new LinkedHashMap<String, List<Integer>>();
+        if (recordIds.size() > batchSize && nonAuthRecordTable instanceof LocalHTable) {
+            LocalHTable table = (LocalHTable)nonAuthRecordTable;
+            try {
+                for (int i = 0; i < recordIds.size(); i++) {
+                    String region = table.getRegionLocation(recordIds.get(i).toBytes()).getRegionInfo()
+                            .getEncodedName();
+                    List<Integer> indexes = indexesByRegion.get(region);
+                    if (indexes == null) {
+                        indexes = new ArrayList<Integer>();
+                        indexesByRegion.put(region, indexes);
+                    }
+                    indexes.add(i);
+                }
+            } catch (IOException e) {
+                // Not fatal: the split is only an optimization, HBase will anyway route each get correctly
+                log.warn("Error looking up region locations, processing records without grouping them per region", e);
+                indexesByRegion.clear();
+            }
+        }
+
+        if (indexesByRegion.isEmpty()) {
+            List<Integer> indexes = new ArrayList<Integer>(recordIds.size());
+            for (int i = 0; i < recordIds.size(); i++) {
+                indexes.add(i);
+            }
+            indexesByRegion.put("", indexes);
+        }
+
+        List<List<Integer>> batches = new ArrayList<List<Integer>>();
+        for (List<Integer> indexes : indexesByRegion.values()) {
+            for (int i = 0; i < indexes.size(); i += batchSize) {
+                batches.add(indexes.subList(i, Math.min(i + batchSize, indexes.size())));
+            }
+        }
+        return batches;
+    }
+
     // Retrieves the row from the table and check if it exists and has not been flagged as deleted
     protected Result getRow(RecordId recordId, Long version, int numberOfVersions, List<FieldType> fields)
             throws RecordException {
@@ -499,9 +791,22 @@ public abstract class BaseRepository implements Repository {
 
     protected Result getRow(RecordId recordId, Long version, int numberOfVersions, List<FieldType> fields,
             boolean disableAuth) throws RecordException {
+        return getRow(recordId, version, numberOfVersions, fields, disableAuth, null);
+    }
+
+    /**
+     * @param versionsFilter optional filter limiting the retrieved cells to those of specific versions
+     */
+    protected Result getRow(RecordId recordId, Long version, int numberOfVersions, List<FieldType> fields,
+            boolean disableAuth, LilyVersionsFilter versionsFilter) throws RecordException {
         Result result;
         Get get = new Get(recordId.toBytes());
-        get.setFilter(REAL_RECORDS_FILTER);
+        if (versionsFilter != null) {
+            // The deleted flag is checked before the versions filter can skip any cells
+            get.setFilter(new FilterList(FilterList.Operator.MUST_PASS_ALL, REAL_RECORDS_FILTER, versionsFilter));
+        } else {
+            get.setFilter(REAL_RECORDS_FILTER);
+        }
 
         try {
             // Add the columns for the fields to get
@@ -542,43 +847,6 @@ public abstract class BaseRepository implements Repository {
         }
     }
 
-    // Retrieves the row from the table and check if it exists and has not been flagged as deleted
-    protected Map<RecordId, Result> getRows(List<RecordId> recordIds, List<FieldType> fields)
-            throws RecordException {
-        Map<RecordId, Result> results = new HashMap<RecordId, Result>();
-
-        try {
-            List<Get> gets = new ArrayList<Get>();
-            for (RecordId recordId : recordIds) {
-                Get get = new Get(recordId.toBytes());
-                // Add the columns for the fields to get
-                addFieldsToGet(get, fields);
-                get.setMaxVersions(1); // Only retrieve the most recent version of each field
-                gets.add(get);
-            }
-
-            // Retrieve the data from the repository
-            int i = 0;
-            for (Result result : recordTable.get(gets)) {
-                if (result == null || result.isEmpty()) {
-                    i++; // Skip this recordId (instead of throwing a RecordNotFoundException)
-                    continue;
-                }
-                // Check if the record was deleted
-                byte[] deleted = recdec.getLatest(result, RecordCf.DATA.bytes, RecordColumn.DELETED.bytes);
-                if ((deleted == null) || (Bytes.toBoolean(deleted))) {
-                    i++; // Skip this recordId (instead of throwing a RecordNotFoundException)
-                    continue;
-                }
-                results.put(recordIds.get(i++), result);
-            }
-        } catch (IOException e) {
-            throw new RecordException("Exception occurred while retrieving records '" + recordIds
-                    + "' from HBase table", e);
-        }
-        return results;
-    }
-
     @Override
     public List<Record> readVersions(RecordId recordId, Long fromVersion, Long toVersion, List<QName> fieldNames)
             throws RepositoryException, InterruptedException {
@@ -644,7 +912,8 @@ public abstract class BaseRepository implements Repository {
         Long lowestRequestedVersion = versions.get(0);
         Long highestRequestedVersion = versions.get(versions.size() - 1);
         int numberOfVersionsToRetrieve = (int) (highestRequestedVersion - lowestRequestedVersion + 1);
-        Result result = getRow(recordId, highestRequestedVersion, numberOfVersionsToRetrieve, fields);
+        Result result = getRow(recordId, highestRequestedVersion, numberOfVersionsToRetrieve, fields, false,
+                new LilyVersionsFilter(versions));
         Long latestVersion = recdec.getLatestVersion(result);
 
         // Drop the versions that are higher than the latestVersion
@@ -658,6 +927,50 @@ public abstract class BaseRepository implements Repository {
         return recdec.decodeRecords(recordId, validVersions, result, fieldTypes);
     }
 
+    @Override
+    public List<IdRecord> readVersionsWithIds(RecordId recordId, List<Long> versions, List<SchemaId> fieldIds)
+            throws RepositoryException, InterruptedException {
+        long before = System.currentTimeMillis();
+        try {
+            ArgumentValidator.notNull(recordId, "recordId");
+            ArgumentValidator.notNull(versions, "versions");
+
+            if (versions.isEmpty()) {
+                return new ArrayList<IdRecord>();
+            }
+
+            List<Long> sortedVersions = new ArrayList<Long>(versions);
+            Collections.sort(sortedVersions);
+
+            FieldTypes fieldTypes = typeManager.getFieldTypesSnapshot();
+            List<FieldType> fields = getFieldTypesFromIds(fieldIds, fieldTypes);
+
+            Long lowestRequestedVersion = sortedVersions.get(0);
+            Long highestRequestedVersion = sortedVersions.get(sortedVersions.size() - 1);
+            int numberOfVersionsToRetrieve = (int) (highestRequestedVersion - lowestRequestedVersion + 1);
+            // Only the cells needed for the requested versions are returned, not those of the versions in between
+            Result result = getRow(recordId, highestRequestedVersion, numberOfVersionsToRetrieve, fields, false,
+                    new LilyVersionsFilter(sortedVersions));
+            Long latestVersion = recdec.getLatestVersion(result);
+
+            List<IdRecord> records = new ArrayList<IdRecord>(sortedVersions.size());
+            for (Long version : sortedVersions) {
+                // Drop the versions that are higher than the latestVersion
+                if (latestVersion == null || version > latestVersion) {
+                    break;
+                }
+                // Every version is decoded from the same multi-version result, since the fields of a version
+                // might have been stored at an older version
+                records.add(recdec.decodeRecordWithIds(recordId, version, result, fieldTypes));
+            }
+            return records;
+        } finally {
+            if (metrics != null) {
+                metrics.report(Action.READ, System.currentTimeMillis() - before);
+            }
+        }
+    }
+
     @Override
     public Record newRecord() throws RecordException {
         return recordFactory.newRecord();
@@ -15,12 +15,15 @@
  */
 package org.lilyproject.repository.impl;
 
+import java.io.IOException;
 import java.io.InputStream;
 
 import org.lilyproject.repository.api.Blob;
 import org.lilyproject.repository.api.BlobAccess;
 import org.lilyproject.repository.api.BlobException;
 import org.lilyproject.repository.api.BlobStoreAccess;
+import org.lilyproject.repository.api.SeekableBlobStoreAccess;
+import org.lilyproject.util.io.Closer;
 
 public class BlobAccessImpl implements BlobAccess {
     private Blob blob;
@@ -42,4 +45,31 @@ public class BlobAccessImpl implements BlobAccess {
     public InputStream getInputStream() throws BlobException {
         return blobStoreAccess.getInputStream(blobKey);
     }
+
+    @Override
+    public InputStream getInputStream(long offset) throws BlobException {
+        if (blobStoreAccess instanceof SeekableBlobStoreAccess) {
+            return ((SeekableBlobStoreAccess)blobStoreAccess).getInputStream(blobKey, offset);
+        }
+
+        InputStream is = blobStoreAccess.getInputStream(blobKey);
+        try {
+            long remaining = offset;
+            while (remaining > 0) {
+                long skipped = is.skip(remaining);
+                if (skipped <= 0) {
+                    // skip() is allowed to skip nothing, even before the end of the stream
+                    if (is.read() == -1) {
+                        break;
+                    }
+                    skipped = 1;
+                }
+                remaining -= skipped;
+            }
+        } catch (IOException e) {
+            Closer.close(is);
+            throw new BlobException("Failed to skip to offset " + offset + " of blob '" + blob + "'", e);
+        }
+        return is;
+    }
 }
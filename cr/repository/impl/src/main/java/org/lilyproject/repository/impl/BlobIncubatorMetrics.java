@@ -40,6 +40,8 @@ public class BlobIncubatorMetrics implements Updater {
 
     public MetricsTimeVaryingInt blobDeleteCount = new MetricsTimeVaryingInt("blob_delete_cnt", registry);
     public MetricsTimeVaryingInt refDeleteCount = new MetricsTimeVaryingInt("ref_delete_cnt", registry);
+    public MetricsTimeVaryingInt abandonedBlobDeleteCount =
+            new MetricsTimeVaryingInt("abandoned_blob_delete_cnt", registry);
 
     public BlobIncubatorMetrics() {
         context = MetricsUtil.getContext("blobIncubator");
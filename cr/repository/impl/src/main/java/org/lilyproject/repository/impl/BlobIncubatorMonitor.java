@@ -71,6 +71,7 @@ public class BlobIncubatorMonitor {
     private HTableInterface blobIncubatorTable;
     private HBaseTableFactory tableFactory;
     private TableManager tableManager;
+    private final HBaseBlobStoreAccess hbaseBlobStoreAccess;
     private final long runDelay;
 
     public BlobIncubatorMonitor(ZooKeeperItf zk, HBaseTableFactory tableFactory, TableManager tableManager,
@@ -86,6 +87,7 @@ public class BlobIncubatorMonitor {
 
         this.tableFactory = tableFactory;
         this.tableManager = tableManager;
+        this.hbaseBlobStoreAccess = new HBaseBlobStoreAccess(tableFactory);
     }
 
     public void start() throws LeaderElectionSetupException, IOException, InterruptedException, KeeperException {
@@ -213,6 +215,11 @@ public class BlobIncubatorMonitor {
                 }
             }
             Closer.close(scanner);
+
+            // Blobs of which the writing was abandoned never got incubated
+            if (!stopRequested) {
+                metrics.abandonedBlobDeleteCount.inc(hbaseBlobStoreAccess.deleteAbandonedChunks(minimalAge));
+            }
             metrics.runDuration.inc(System.currentTimeMillis() - monitorBegin);
             log.debug("Stop run blob incubator monitor");
         }
@@ -15,6 +15,7 @@
  */
 package org.lilyproject.repository.impl;
 
+import java.io.ByteArrayInputStream;
 import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
@@ -22,15 +23,17 @@ import java.io.OutputStream;
 import java.util.UUID;
 
 import org.apache.commons.codec.binary.Hex;
+import org.apache.hadoop.fs.FSDataInputStream;
 import org.apache.hadoop.fs.FSDataOutputStream;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.hbase.util.Bytes;
 import org.lilyproject.repository.api.Blob;
 import org.lilyproject.repository.api.BlobException;
-import org.lilyproject.repository.api.BlobStoreAccess;
+import org.lilyproject.repository.api.SeekableBlobStoreAccess;
+import org.lilyproject.util.io.Closer;
 
-public class DFSBlobStoreAccess implements BlobStoreAccess {
+public class DFSBlobStoreAccess implements SeekableBlobStoreAccess {
 
     private static final String ID = "HDFS";
 
@@ -76,6 +79,29 @@ public class DFSBlobStoreAccess implements BlobStoreAccess {
         }
     }
 
+    @Override
+    public InputStream getInputStream(byte[] blobKey, long offset) throws BlobException {
+        Path path = createPath(decode(blobKey));
+        try {
+            // Seeking beyond the end of a file fails
+            if (offset > 0 && offset >= fileSystem.getFileStatus(path).getLen()) {
+                return new ByteArrayInputStream(new byte[0]);
+            }
+            FSDataInputStream is = fileSystem.open(path);
+            if (offset > 0) {
+                try {
+                    is.seek(offset);
+                } catch (IOException e) {
+                    Closer.close(is);
+                    throw e;
+                }
+            }
+            return is;
+        } catch (IOException e) {
+            throw new BlobException("Failed to open an inputstream for blobkey '" + Hex.encodeHexString(blobKey) + "' on the DFS blobstore", e);
+        }
+    }
+
     private Path createPath(UUID uuid) {
         String fileName = uuid.toString();
         String dirLevel1 = fileName.substring(0, 2);
@@ -16,13 +16,14 @@
 package org.lilyproject.repository.impl;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.Set;
 
-import org.apache.commons.logging.Log;
-import org.apache.commons.logging.LogFactory;
 import org.lilyproject.repository.api.FieldType;
 import org.lilyproject.repository.api.FieldTypeNotFoundException;
 import org.lilyproject.repository.api.FieldTypes;
@@ -30,28 +31,101 @@ import org.lilyproject.repository.api.QName;
 import org.lilyproject.repository.api.SchemaId;
 import org.lilyproject.util.ArgumentValidator;
 
+/**
+ * An immutable set of field types.
+ *
+ * <p>Changed versions are derived with {@link #withFieldTypes}, which shares the buckets that are not affected
+ * by the change with this instance, so that a change to one field type does not copy all field types. The field
+ * types are bucketed both on their id and on their name.</p>
+ */
 public class FieldTypesImpl implements FieldTypes {
-    private Log log = LogFactory.getLog(getClass());
+    private static final int NAME_BUCKET_MASK = 0xFF;
 
-    // Always use getNameCache() instead of this variable directly, to make sure
-    // this is the up-to-date nameCache (in case of FieldTypesCache).
-    protected Map<QName, FieldType> nameCache;
-    protected Map<String, Map<SchemaId, FieldType>> buckets;
+    private final Map<Integer, Map<QName, FieldType>> nameBuckets;
+    private final Map<String, Map<SchemaId, FieldType>> buckets;
 
     public FieldTypesImpl() {
-        nameCache = new HashMap<QName, FieldType>();
-        buckets = new ConcurrentHashMap<String, Map<SchemaId, FieldType>>();
+        this(Collections.<String, Map<SchemaId, FieldType>>emptyMap(),
+                Collections.<Integer, Map<QName, FieldType>>emptyMap());
+    }
+
+    private FieldTypesImpl(Map<String, Map<SchemaId, FieldType>> buckets,
+            Map<Integer, Map<QName, FieldType>> nameBuckets) {
+        this.buckets = buckets;
+        this.nameBuckets = nameBuckets;
+    }
+
+    private static Integer nameBucketId(QName name) {
+        return name.hashCode() & NAME_BUCKET_MASK;
+    }
+
+    /**
+     * Returns a new instance which contains the field types of this instance, with the given field types added or
+     * replaced. The field types are taken as is, they should not be modified anymore afterwards.
+     */
+    FieldTypesImpl withFieldTypes(Collection<FieldType> fieldTypes) {
+        if (fieldTypes.isEmpty()) {
+            return this;
+        }
+
+        // Only the buckets which are changed are copied, the others are shared
+        Map<String, Map<SchemaId, FieldType>> newBuckets = new HashMap<String, Map<SchemaId, FieldType>>(buckets);
+        Map<Integer, Map<QName, FieldType>> newNameBuckets = new HashMap<Integer, Map<QName, FieldType>>(nameBuckets);
+        Set<String> copiedBuckets = new HashSet<String>();
+        Set<Integer> copiedNameBuckets = new HashSet<Integer>();
+        for (FieldType fieldType : fieldTypes) {
+            String bucketId = AbstractSchemaCache.encodeHex(fieldType.getId().getBytes());
+            Map<SchemaId, FieldType> bucket = newBuckets.get(bucketId);
+            if (copiedBuckets.add(bucketId)) {
+                bucket = bucket == null ? new HashMap<SchemaId, FieldType>(8)
+                        : new HashMap<SchemaId, FieldType>(bucket);
+                newBuckets.put(bucketId, bucket);
+            }
+
+            FieldType oldFieldType = bucket.put(fieldType.getId(), fieldType);
+            if (oldFieldType != null && !oldFieldType.getName().equals(fieldType.getName())) {
+                // The field type was renamed, its old name should no longer resolve to it
+                Map<QName, FieldType> oldNameBucket = getNameBucketCopy(oldFieldType.getName(), newNameBuckets,
+                        copiedNameBuckets);
+                FieldType byOldName = oldNameBucket.get(oldFieldType.getName());
+                if (byOldName != null && byOldName.getId().equals(fieldType.getId())) {
+                    oldNameBucket.remove(oldFieldType.getName());
+                }
+            }
+            getNameBucketCopy(fieldType.getName(), newNameBuckets, copiedNameBuckets)
+                    .put(fieldType.getName(), fieldType);
+        }
+
+        return new FieldTypesImpl(newBuckets, newNameBuckets);
+    }
+
+    /**
+     * Returns the name bucket for the given name from the new name buckets, after copying it if that was not done
+     * yet.
+     */
+    private static Map<QName, FieldType> getNameBucketCopy(QName name, Map<Integer, Map<QName, FieldType>> nameBuckets,
+            Set<Integer> copiedNameBuckets) {
+        Integer bucketId = nameBucketId(name);
+        Map<QName, FieldType> bucket = nameBuckets.get(bucketId);
+        if (copiedNameBuckets.add(bucketId)) {
+            bucket = bucket == null ? new HashMap<QName, FieldType>(8) : new HashMap<QName, FieldType>(bucket);
+            nameBuckets.put(bucketId, bucket);
+        }
+        return bucket;
     }
 
-    protected Map<QName, FieldType> getNameCache() throws InterruptedException {
-        return nameCache;
+    private FieldType getByName(QName name) {
+        Map<QName, FieldType> bucket = nameBuckets.get(nameBucketId(name));
+        return bucket != null ? bucket.get(name) : null;
     }
 
     @Override
     public List<FieldType> getFieldTypes() throws InterruptedException {
         List<FieldType> fieldTypes = new ArrayList<FieldType>();
-        for (FieldType fieldType : getNameCache().values()) {
-            fieldTypes.add(fieldType.clone());
+        for (Map<QName, FieldType> bucket : nameBuckets.values()) {
+            for (FieldType fieldType : bucket.values()) {
+                fieldTypes.add(fieldType.clone());
+            }
         }
         return fieldTypes;
     }
@@ -75,7 +149,7 @@ public class FieldTypesImpl implements FieldTypes {
     @Override
     public FieldType getFieldType(QName name) throws FieldTypeNotFoundException, InterruptedException {
         ArgumentValidator.notNull(name, "name");
-        FieldType fieldType = getNameCache().get(name);
+        FieldType fieldType = getByName(name);
         if (fieldType == null) {
             throw new FieldTypeNotFoundException(name);
         }
@@ -84,11 +158,11 @@ public class FieldTypesImpl implements FieldTypes {
 
     public FieldType getFieldTypeByNameReturnNull(QName name) throws InterruptedException {
         ArgumentValidator.notNull(name, "name");
-        FieldType fieldType = getNameCache().get(name);
+        FieldType fieldType = getByName(name);
         return fieldType != null ? fieldType.clone() : null;
     }
 
     public boolean fieldTypeExists(QName name) throws InterruptedException {
-        return getNameCache().containsKey(name);
+        return getByName(name) != null;
     }
 }
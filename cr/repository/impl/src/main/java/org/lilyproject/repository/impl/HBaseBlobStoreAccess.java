@@ -16,14 +16,17 @@
 package org.lilyproject.repository.impl;
 
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.Arrays;
 import java.util.UUID;
 
 import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.KeyValue;
 import org.apache.hadoop.hbase.HColumnDescriptor;
 import org.apache.hadoop.hbase.HTableDescriptor;
 import org.apache.hadoop.hbase.client.Delete;
@@ -31,23 +34,52 @@ import org.apache.hadoop.hbase.client.Get;
 import org.apache.hadoop.hbase.client.HTableInterface;
 import org.apache.hadoop.hbase.client.Put;
 import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.filter.KeyOnlyFilter;
 import org.apache.hadoop.hbase.util.Bytes;
 import org.lilyproject.repository.api.Blob;
 import org.lilyproject.repository.api.BlobException;
-import org.lilyproject.repository.api.BlobStoreAccess;
+import org.lilyproject.repository.api.SeekableBlobStoreAccess;
 import org.lilyproject.util.hbase.HBaseTableFactory;
 import org.lilyproject.util.hbase.HBaseTableFactoryImpl;
+import org.lilyproject.util.io.Closer;
 
-public class HBaseBlobStoreAccess implements BlobStoreAccess {
+/**
+ * Blob store storing the blobs in an HBase table.
+ *
+ * <p>A blob is stored in one row, split in chunks of a fixed size which are each stored in their own cell. The
+ * chunks are written as they fill up and read as they are needed, so that neither writing nor reading requires
+ * the complete blob in memory. Once all chunks are written, the size of the blob and the chunk size are written,
+ * which makes the blob readable. Blobs written before the chunked layout existed are stored in one cell.</p>
+ *
+ * <p>When writing a blob fails, its chunks are deleted. The chunks of blobs of which the writing was abandoned
+ * without closing the stream are deleted by {@link #deleteAbandonedChunks}.</p>
+ */
+public class HBaseBlobStoreAccess implements SeekableBlobStoreAccess {
+
+    private static final Log log = LogFactory.getLog(HBaseBlobStoreAccess.class);
 
     private static final byte[] BLOB_TABLE = Bytes.toBytes("blob");
     private static final String ID = "HBASE";
     private static final String BLOBS_COLUMN_FAMILY = "data";
     private static final byte[] BLOBS_COLUMN_FAMILY_BYTES = Bytes.toBytes(BLOBS_COLUMN_FAMILY);
+    /** Column of the blobs stored in one cell, the layout used before blobs were chunked. */
     private static final byte[] BLOB_COLUMN = Bytes.toBytes("b");
+    private static final byte[] SIZE_COLUMN = Bytes.toBytes("s");
+    private static final byte[] CHUNK_SIZE_COLUMN = Bytes.toBytes("cs");
+    private static final byte[] CHUNK_COLUMN_PREFIX = Bytes.toBytes("c");
+
+    public static final int DEFAULT_CHUNK_SIZE = 256 * 1024;
+
+    /**
+     * Number of chunks fetched at once when reading.
+     */
+    private static final int READ_AHEAD_CHUNKS = 4;
 
     private boolean clientMode = false;
     private HTableInterface table;
+    private final int chunkSize;
 
     public HBaseBlobStoreAccess(Configuration hbaseConf) throws IOException, InterruptedException {
         this(hbaseConf, false);
@@ -62,10 +94,23 @@ public class HBaseBlobStoreAccess implements BlobStoreAccess {
     }
 
     public HBaseBlobStoreAccess(HBaseTableFactory tableFactory, boolean clientMode) throws IOException, InterruptedException {
+        this(tableFactory, clientMode, DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * @param chunkSize size of the chunks in which newly written blobs are split, existing blobs keep the
+     *                  chunk size with which they were written
+     */
+    public HBaseBlobStoreAccess(HBaseTableFactory tableFactory, boolean clientMode, int chunkSize)
+            throws IOException, InterruptedException {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("chunkSize should be positive, got " + chunkSize);
+        }
         HTableDescriptor tableDescriptor = new HTableDescriptor(BLOB_TABLE);
         tableDescriptor.addFamily(new HColumnDescriptor(BLOBS_COLUMN_FAMILY));
 
         table = tableFactory.getTable(tableDescriptor, !clientMode);
+        this.chunkSize = chunkSize;
     }
 
     @Override
@@ -78,12 +123,19 @@ public class HBaseBlobStoreAccess implements BlobStoreAccess {
         UUID uuid = UUID.randomUUID();
         byte[] blobKey = Bytes.toBytes(uuid.getMostSignificantBits());
         blobKey = Bytes.add(blobKey, Bytes.toBytes(uuid.getLeastSignificantBits()));
-        return new HBaseBlobOutputStream(table, blobKey, blob);
+        return new HBaseBlobOutputStream(table, blobKey, blob, chunkSize);
     }
 
     @Override
     public InputStream getInputStream(byte[] blobKey) throws BlobException {
+        return getInputStream(blobKey, 0);
+    }
+
+    @Override
+    public InputStream getInputStream(byte[] blobKey, long offset) throws BlobException {
         Get get = new Get(blobKey);
+        get.addColumn(BLOBS_COLUMN_FAMILY_BYTES, SIZE_COLUMN);
+        get.addColumn(BLOBS_COLUMN_FAMILY_BYTES, CHUNK_SIZE_COLUMN);
         get.addColumn(BLOBS_COLUMN_FAMILY_BYTES, BLOB_COLUMN);
         Result result;
         try {
@@ -91,11 +143,19 @@ public class HBaseBlobStoreAccess implements BlobStoreAccess {
         } catch (IOException e) {
             throw new BlobException("Failed to open an inputstream for blobkey '" + Hex.encodeHexString(blobKey) + "' on the HBASE blobstore", e);
         }
+
         byte[] value = result.getValue(BLOBS_COLUMN_FAMILY_BYTES, BLOB_COLUMN);
-        if (value == null) {
+        if (value != null) {
+            int start = (int)Math.min(Math.max(offset, 0), value.length);
+            return new ByteArrayInputStream(value, start, value.length - start);
+        }
+
+        byte[] size = result.getValue(BLOBS_COLUMN_FAMILY_BYTES, SIZE_COLUMN);
+        byte[] blobChunkSize = result.getValue(BLOBS_COLUMN_FAMILY_BYTES, CHUNK_SIZE_COLUMN);
+        if (size == null || blobChunkSize == null) {
             throw new BlobException("Failed to open an inputstream for blobkey '" + Hex.encodeHexString(blobKey) + "' since no blob was found on the HBASE blobstore");
         }
-        return new ByteArrayInputStream(value);
+        return new HBaseBlobInputStream(table, blobKey, Bytes.toLong(size), Bytes.toInt(blobChunkSize), offset);
     }
 
     @Override
@@ -113,25 +173,223 @@ public class HBaseBlobStoreAccess implements BlobStoreAccess {
         return true;
     }
 
-    private class HBaseBlobOutputStream extends ByteArrayOutputStream {
+    /**
+     * Deletes the chunks of blobs which were never completed: rows without a size, of which nothing was written
+     * during the last minimalAge milliseconds. The minimal age should be well above the time it can take to
+     * write the next chunk of a blob.
+     *
+     * @return the number of abandoned blobs which were deleted
+     */
+    public int deleteAbandonedChunks(long minimalAge) throws IOException {
+        long maxStamp = System.currentTimeMillis() - minimalAge;
+        Scan scan = new Scan();
+        scan.addFamily(BLOBS_COLUMN_FAMILY_BYTES);
+        // only the column names and timestamps are needed
+        scan.setFilter(new KeyOnlyFilter());
+        scan.setCaching(100);
+
+        int deleted = 0;
+        ResultScanner scanner = table.getScanner(scan);
+        try {
+            for (Result result : scanner) {
+                if (result.containsColumn(BLOBS_COLUMN_FAMILY_BYTES, SIZE_COLUMN)
+                        || result.containsColumn(BLOBS_COLUMN_FAMILY_BYTES, BLOB_COLUMN)) {
+                    continue;
+                }
+                long lastWrite = 0;
+                for (KeyValue kv : result.raw()) {
+                    lastWrite = Math.max(lastWrite, kv.getTimestamp());
+                }
+                if (lastWrite < maxStamp) {
+                    // Only delete what we have seen, in case the writer turns out to be still alive
+                    table.delete(new Delete(result.getRow(), lastWrite));
+                    deleted++;
+                }
+            }
+        } finally {
+            Closer.close(scanner);
+        }
+        return deleted;
+    }
+
+    private static byte[] chunkColumn(int chunk) {
+        return Bytes.add(CHUNK_COLUMN_PREFIX, Bytes.toBytes(chunk));
+    }
+
+    private static class HBaseBlobOutputStream extends OutputStream {
 
         private final HTableInterface blobTable;
         private final byte[] blobKey;
         private final Blob blob;
-        HBaseBlobOutputStream(HTableInterface table, byte[] blobKey, Blob blob) {
-            super();
+        private final byte[] buffer;
+        private int count;
+        private int chunk;
+        private long size;
+        private boolean closed;
+
+        HBaseBlobOutputStream(HTableInterface table, byte[] blobKey, Blob blob, int chunkSize) {
             blobTable = table;
             this.blobKey = blobKey;
             this.blob = blob;
+            this.buffer = new byte[chunkSize];
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte)b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (closed) {
+                throw new IOException("Stream closed");
+            }
+            while (len > 0) {
+                int n = Math.min(len, buffer.length - count);
+                System.arraycopy(b, off, buffer, count, n);
+                count += n;
+                size += n;
+                off += n;
+                len -= n;
+                if (count == buffer.length) {
+                    Put put = new Put(blobKey);
+                    addChunk(put);
+                    put(put);
+                }
+            }
+        }
+
+        private void addChunk(Put put) {
+            put.add(BLOBS_COLUMN_FAMILY_BYTES, chunkColumn(chunk), Arrays.copyOf(buffer, count));
+            chunk++;
+            count = 0;
         }
+
         @Override
         public void close() throws IOException {
-            super.close();
-            byte[] bytes = toByteArray();
+            if (closed) {
+                return;
+            }
+            closed = true;
+
+            // The size is written last, only then the blob becomes readable
             Put put = new Put(blobKey);
-            put.add(BLOBS_COLUMN_FAMILY_BYTES, BLOB_COLUMN, bytes);
-            blobTable.put(put);
+            if (count > 0) {
+                addChunk(put);
+            }
+            put.add(BLOBS_COLUMN_FAMILY_BYTES, SIZE_COLUMN, Bytes.toBytes(size));
+            put.add(BLOBS_COLUMN_FAMILY_BYTES, CHUNK_SIZE_COLUMN, Bytes.toBytes(buffer.length));
+            put(put);
             blob.setValue(blobKey);
         }
+
+        /**
+         * Writes to the blob row, deleting the chunks written so far when this fails: the blob can not be
+         * completed anymore.
+         */
+        private void put(Put put) throws IOException {
+            try {
+                blobTable.put(put);
+            } catch (IOException e) {
+                closed = true;
+                try {
+                    blobTable.delete(new Delete(blobKey));
+                } catch (IOException deleteException) {
+                    log.warn("Failed to delete the chunks of incomplete blob with key '"
+                            + Hex.encodeHexString(blobKey) + "', these will be deleted as abandoned chunks.",
+                            deleteException);
+                }
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Reads a chunked blob, fetching {@link #READ_AHEAD_CHUNKS} chunks at a time.
+     */
+    private static class HBaseBlobInputStream extends InputStream {
+
+        private final HTableInterface blobTable;
+        private final byte[] blobKey;
+        private final long size;
+        private final int chunkSize;
+        private long position;
+        private byte[][] chunks = new byte[0][];
+        private int firstChunk;
+
+        HBaseBlobInputStream(HTableInterface table, byte[] blobKey, long size, int chunkSize, long offset) {
+            this.blobTable = table;
+            this.blobKey = blobKey;
+            this.size = size;
+            this.chunkSize = chunkSize;
+            this.position = Math.min(Math.max(offset, 0), size);
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (position >= size) {
+                return -1;
+            }
+            byte[] chunk = getChunk((int)(position / chunkSize));
+            int chunkOffset = (int)(position % chunkSize);
+            int n = Math.min(len, chunk.length - chunkOffset);
+            System.arraycopy(chunk, chunkOffset, b, off, n);
+            position += n;
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = Math.max(0, Math.min(n, size - position));
+            position += skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() throws IOException {
+            int chunk = (int)(position / chunkSize);
+            if (position >= size || chunk < firstChunk || chunk >= firstChunk + chunks.length) {
+                return 0;
+            }
+            return chunks[chunk - firstChunk].length - (int)(position % chunkSize);
+        }
+
+        @Override
+        public void close() throws IOException {
+            chunks = new byte[0][];
+        }
+
+        private byte[] getChunk(int chunk) throws IOException {
+            if (chunk < firstChunk || chunk >= firstChunk + chunks.length) {
+                int chunkCount = (int)((size + chunkSize - 1) / chunkSize);
+                int fetchCount = Math.min(READ_AHEAD_CHUNKS, chunkCount - chunk);
+                Get get = new Get(blobKey);
+                for (int i = 0; i < fetchCount; i++) {
+                    get.addColumn(BLOBS_COLUMN_FAMILY_BYTES, chunkColumn(chunk + i));
+                }
+                Result result = blobTable.get(get);
+
+                byte[][] fetched = new byte[fetchCount][];
+                for (int i = 0; i < fetchCount; i++) {
+                    fetched[i] = result.getValue(BLOBS_COLUMN_FAMILY_BYTES, chunkColumn(chunk + i));
+                    if (fetched[i] == null) {
+                        throw new IOException("Chunk " + (chunk + i) + " of blob with key '"
+                                + Hex.encodeHexString(blobKey) + "' is missing from the HBASE blobstore");
+                    }
+                }
+                chunks = fetched;
+                firstChunk = chunk;
+            }
+            return chunks[chunk - firstChunk];
+        }
     }
 }
@@ -16,6 +16,7 @@
 package org.lilyproject.repository.impl;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
@@ -47,6 +48,7 @@ import org.apache.hadoop.hbase.filter.FilterList;
 import org.apache.hadoop.hbase.filter.PrefixFilter;
 import org.apache.hadoop.hbase.filter.SingleColumnValueFilter;
 import org.apache.hadoop.hbase.filter.WritableByteArrayComparable;
+import org.apache.hadoop.hbase.ipc.HBaseRPC.UnknownProtocolException;
 import org.apache.hadoop.hbase.util.Bytes;
 import org.lilyproject.bytes.api.DataOutput;
 import org.lilyproject.bytes.impl.DataOutputImpl;
@@ -73,7 +75,9 @@ import org.lilyproject.repository.api.RecordExistsException;
 import org.lilyproject.repository.api.RecordFactory;
 import org.lilyproject.repository.api.RecordId;
 import org.lilyproject.repository.api.RecordNotFoundException;
+import org.lilyproject.repository.api.RecordResult;
 import org.lilyproject.repository.api.RecordType;
+import org.lilyproject.repository.api.RecordTypeNotFoundException;
 import org.lilyproject.repository.api.RepositoryException;
 import org.lilyproject.repository.api.TableManager;
 import org.lilyproject.repository.api.ResponseStatus;
@@ -84,6 +88,8 @@ import org.lilyproject.repository.api.ValueType;
 import org.lilyproject.repository.api.VersionNotFoundException;
 import org.lilyproject.repository.impl.RepositoryMetrics.Action;
 import org.lilyproject.repository.impl.hbase.ContainsValueComparator;
+import org.lilyproject.repository.impl.hbase.RecordUpdateEndpoint;
+import org.lilyproject.repository.impl.hbase.RecordUpdateProtocol;
 import org.lilyproject.repository.impl.id.SchemaIdImpl;
 import org.lilyproject.repository.impl.valuetype.BlobValueType;
 import org.lilyproject.repository.spi.AuthorizationContextHolder;
@@ -110,6 +116,29 @@ public class HBaseRepository extends BaseRepository {
 
     private static final Object METADATA_ONLY_UPDATE = new Object();
 
+    /**
+     * Per-thread reusable buffer for encoding field values, see {@link #borrowDataOutput}.
+     */
+    private static final ThreadLocal<DataOutputImpl> DATA_OUTPUTS = new ThreadLocal<DataOutputImpl>() {
+        @Override
+        protected DataOutputImpl initialValue() {
+            return new DataOutputImpl();
+        }
+    };
+
+    private static final int MAX_POOLED_OUTPUT_SIZE = 64 * 1024;
+
+    /**
+     * Maximum number of records written by one thread in a batch create-or-update, see {@link #createOrUpdate(List,
+     * boolean)}.
+     */
+    private static final int WRITE_BATCH_SIZE = 10;
+
+    /**
+     * Set to false once it turns out the {@link RecordUpdateEndpoint} is not loaded on the record table.
+     */
+    private volatile boolean recordUpdateEndpointAvailable = true;
+
     public HBaseRepository(RepoTableKey ttk, AbstractRepositoryManager repositoryManager, HTableInterface recordTable,
             HTableInterface nonAuthRecordTable, BlobManager blobManager, TableManager tableManager,
             RecordFactory recordFactory) throws IOException, InterruptedException {
@@ -187,8 +216,122 @@ public class HBaseRepository extends BaseRepository {
                 " attempts, toggling between create and update mode.");
     }
 
+    @Override
+    public List<RecordResult> createOrUpdate(List<Record> records) throws RepositoryException,
+            InterruptedException {
+        return createOrUpdate(records, true);
+    }
+
+    @Override
+    public List<RecordResult> createOrUpdate(final List<Record> records, final boolean useLatestRecordType)
+            throws RepositoryException, InterruptedException {
+        ArgumentValidator.notNull(records, "records");
+        final RecordResult[] results = new RecordResult[records.size()];
+
+        // Records occurring more than once are left out of the parallel part and written afterwards, in order
+        final List<Integer> batchIndexes = new ArrayList<Integer>(records.size());
+        final List<RecordId> recordIds = new ArrayList<RecordId>(records.size());
+        List<Integer> repeatedIndexes = new ArrayList<Integer>();
+        Set<RecordId> batchIds = new HashSet<RecordId>();
+        for (int i = 0; i < records.size(); i++) {
+            RecordId recordId = records.get(i).getId();
+            if (recordId == null) {
+                results[i] = new RecordResult(
+                        new RecordException("Record ID is mandatory when using create-or-update."));
+            } else if (!batchIds.add(recordId)) {
+                repeatedIndexes.add(i);
+            } else {
+                batchIndexes.add(i);
+                recordIds.add(recordId);
+            }
+        }
+
+        if (!recordIds.isEmpty()) {
+            // Read the current rows of all the records with one multi-get
+            List<Get> gets = new ArrayList<Get>(recordIds.size());
+            for (RecordId recordId : recordIds) {
+                Get get = new Get(recordId.toBytes());
+                get.addFamily(RecordCf.DATA.bytes);
+                get.setMaxVersions(1);
+                gets.add(get);
+            }
+            final Result[] rows;
+            try {
+                rows = recordTable.get(gets);
+            } catch (IOException e) {
+                throw new RecordException("Exception occurred while retrieving records from HBase table", e);
+            }
+
+            final FieldTypes fieldTypes = typeManager.getFieldTypesSnapshot();
+            runBatches(splitInBatches(recordIds, WRITE_BATCH_SIZE), new BatchTask() {
+                @Override
+                public void run(List<Integer> batch) throws RepositoryException, InterruptedException {
+                    for (Integer index : batch) {
+                        int recordIndex = batchIndexes.get(index);
+                        results[recordIndex] = createOrUpdate(records.get(recordIndex), useLatestRecordType,
+                                rows[index], fieldTypes);
+                    }
+                }
+            });
+        }
+
+        for (Integer index : repeatedIndexes) {
+            results[index] = createOrUpdate(records.get(index), useLatestRecordType, null, null);
+        }
+
+        return Arrays.asList(results);
+    }
+
+    /**
+     * Create-or-update of one record of a batch, starting from its row as read upfront. If the row changed
+     * in the meantime, this falls back to the regular {@link #createOrUpdate(Record, boolean)}.
+     */
+    private RecordResult createOrUpdate(Record record, boolean useLatestRecordType, Result row,
+            FieldTypes fieldTypes) throws InterruptedException {
+        try {
+            if (row != null) {
+                byte[] deleted = row.isEmpty() ? null :
+                        recdec.getLatest(row, RecordCf.DATA.bytes, RecordColumn.DELETED.bytes);
+                try {
+                    if ((deleted == null) || (Bytes.toBoolean(deleted))) {
+                        return new RecordResult(create(record, row));
+                    } else {
+                        return new RecordResult(updatePrefetched(record, useLatestRecordType, row, fieldTypes));
+                    }
+                } catch (RecordExistsException e) {
+                    // someone created the record since we read it
+                } catch (RecordNotFoundException e) {
+                    // someone deleted the record since we read it
+                } catch (ConcurrentRecordUpdateException e) {
+                    // someone updated the record since we read it
+                }
+            }
+            return new RecordResult(createOrUpdate(record, useLatestRecordType));
+        } catch (RepositoryException e) {
+            return new RecordResult(e);
+        }
+    }
+
+    private Record updatePrefetched(Record record, boolean useLatestRecordType, Result row, FieldTypes fieldTypes)
+            throws RepositoryException {
+        long before = System.currentTimeMillis();
+        try {
+            return updateRecord(record, useLatestRecordType, null, fieldTypes, row);
+        } finally {
+            invalidateCachedRecord(record.getId());
+            metrics.report(Action.UPDATE, System.currentTimeMillis() - before);
+        }
+    }
+
     @Override
     public Record create(Record record) throws RepositoryException {
+        return create(record, null);
+    }
+
+    /**
+     * @param row the current row of the record, if it has already been read, otherwise null
+     */
+    private Record create(Record record, Result row) throws RepositoryException {
 
         long before = System.currentTimeMillis();
         try {
@@ -209,11 +352,14 @@ public class HBaseRepository extends BaseRepository {
                 long newOcc = 1L;
                 // If the record existed it would have been deleted.
                 // The version numbering continues from where it has been deleted.
-                Get get = new Get(rowId);
-                get.addColumn(RecordCf.DATA.bytes, RecordColumn.DELETED.bytes);
-                get.addColumn(RecordCf.DATA.bytes, RecordColumn.VERSION.bytes);
-                get.addColumn(RecordCf.DATA.bytes, RecordColumn.OCC.bytes);
-                Result result = recordTable.get(get);
+                Result result = row;
+                if (result == null) {
+                    Get get = new Get(rowId);
+                    get.addColumn(RecordCf.DATA.bytes, RecordColumn.DELETED.bytes);
+                    get.addColumn(RecordCf.DATA.bytes, RecordColumn.VERSION.bytes);
+                    get.addColumn(RecordCf.DATA.bytes, RecordColumn.OCC.bytes);
+                    result = recordTable.get(get);
+                }
                 if (!result.isEmpty()) {
                     // If the record existed it should have been deleted
                     byte[] recordDeleted = result.getValue(RecordCf.DATA.bytes, RecordColumn.DELETED.bytes);
@@ -269,7 +415,7 @@ public class HBaseRepository extends BaseRepository {
                 // Reserve blobs so no other records can use them
                 reserveBlobs(null, referencedBlobs);
 
-                put.add(RecordCf.DATA.bytes, RecordColumn.PAYLOAD.bytes, recordEvent.toJsonBytes());
+                put.add(RecordCf.DATA.bytes, RecordColumn.PAYLOAD.bytes, recordEvent.toBytes());
                 boolean success = recordTable.checkAndPut(put.getRow(), RecordCf.DATA.bytes, RecordColumn.OCC.bytes,
                         oldOccBytes, put);
                 if (!success) {
@@ -391,22 +537,112 @@ public class HBaseRepository extends BaseRepository {
                     throw new RecordException("Exception occurred while updating record '" + record.getId() + "'",
                             e);
                 }
+            } else if (canUpdateThroughEndpoint(record, conditions, fieldTypes)) {
+                Record result = updateThroughEndpoint(record, useLatestRecordType, fieldTypes);
+                return result != null ? result : updateRecord(record, useLatestRecordType, conditions, fieldTypes);
             } else {
                 return updateRecord(record, useLatestRecordType, conditions, fieldTypes);
             }
         } finally {
+            invalidateCachedRecord(recordId);
             metrics.report(Action.UPDATE, System.currentTimeMillis() - before);
         }
     }
 
+    /**
+     * Checks if the update can be performed by the {@link RecordUpdateEndpoint}, which does not know about
+     * update hooks, mutation conditions, blobs or the authorization context.
+     */
+    private boolean canUpdateThroughEndpoint(Record record, List<MutationCondition> conditions,
+            FieldTypes fieldTypes) throws RepositoryException, InterruptedException {
+        if (!repositoryManager.isRecordUpdateEndpointEnabled() || !recordUpdateEndpointAvailable
+                || !updateHooks.isEmpty() || (conditions != null && !conditions.isEmpty())
+                || AuthorizationContextHolder.getCurrentContext() != null) {
+            return false;
+        }
+
+        Set<QName> fieldNames = new HashSet<QName>(record.getFields().keySet());
+        fieldNames.addAll(record.getFieldsToDelete());
+        for (QName fieldName : fieldNames) {
+            try {
+                if (fieldTypes.getFieldType(fieldName).getValueType().getDeepestValueType() instanceof BlobValueType) {
+                    return false;
+                }
+            } catch (FieldTypeNotFoundException e) {
+                // leave the reporting of this to the regular update
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Performs the update through the {@link RecordUpdateEndpoint}, which reads and writes the record within
+     * the region server under the row lock of the record.
+     *
+     * @return null if the update should be performed the regular way instead
+     */
+    private Record updateThroughEndpoint(Record record, boolean useLatestRecordType, FieldTypes fieldTypes)
+            throws RepositoryException, InterruptedException {
+        RecordId recordId = record.getId();
+        try {
+            byte[] response = recordTable.coprocessorProxy(RecordUpdateProtocol.class, recordId.toBytes())
+                    .update(repoTableKey.getRepositoryName(), getTableName(),
+                            RecordUpdateEndpoint.writeRequest(record, useLatestRecordType, fieldTypes));
+            Record newRecord = record.cloneRecord();
+            RecordUpdateEndpoint.readResponse(response, newRecord);
+            removeUnidirectionalState(newRecord);
+            return newRecord;
+        } catch (FieldTypeNotFoundException e) {
+            // The schema cache of the region server might not be up to date yet
+            return null;
+        } catch (RecordTypeNotFoundException e) {
+            return null;
+        } catch (IOException e) {
+            if (isUnknownProtocol(e)) {
+                log.warn("The record update endpoint is not loaded on table " + getTableName()
+                        + ", updates will be performed without it.");
+                recordUpdateEndpointAvailable = false;
+                return null;
+            }
+            throw new RecordException("Exception occurred while updating record '" + recordId
+                    + "' on HBase table", e);
+        }
+    }
+
+    private static boolean isUnknownProtocol(Throwable throwable) {
+        for (Throwable t = throwable; t != null; t = t.getCause()) {
+            // The exception might have been reconstructed from its remote counterpart by its message only
+            if (t instanceof UnknownProtocolException
+                    || (t.getMessage() != null && t.getMessage().contains(UnknownProtocolException.class.getName()))) {
+                return true;
+            }
+        }
+        return false;
+    }
 
     private Record updateRecord(Record record, boolean useLatestRecordType, List<MutationCondition> conditions,
                                 FieldTypes fieldTypes) throws RepositoryException {
+        return updateRecord(record, useLatestRecordType, conditions, fieldTypes, null);
+    }
+
+    /**
+     * @param row the current row of the record, if it has already been read, otherwise null
+     */
+    private Record updateRecord(Record record, boolean useLatestRecordType, List<MutationCondition> conditions,
+                                FieldTypes fieldTypes, Result row) throws RepositoryException {
 
         RecordId recordId = record.getId();
 
         try {
-            Pair<Record, byte[]> recordAndOcc = readWithOcc(record.getId(), null, null, fieldTypes);
+            Pair<Record, byte[]> recordAndOcc;
+            if (row != null) {
+                recordAndOcc = new Pair<Record, byte[]>(
+                        recdec.decodeRecord(recordId, recdec.getLatestVersion(row), null, row, fieldTypes),
+                        row.getValue(RecordCf.DATA.bytes, RecordColumn.OCC.bytes));
+            } else {
+                recordAndOcc = readWithOcc(record.getId(), null, null, fieldTypes);
+            }
             Record originalRecord = new UnmodifiableRecord(recordAndOcc.getV1());
 
             byte[] oldOccBytes = recordAndOcc.getV2();
@@ -445,7 +681,7 @@ public class HBaseRepository extends BaseRepository {
                 // Reserve blobs so no other records can use them
                 reserveBlobs(record.getId(), referencedBlobs);
 
-                put.add(RecordCf.DATA.bytes, RecordColumn.PAYLOAD.bytes, recordEvent.toJsonBytes());
+                put.add(RecordCf.DATA.bytes, RecordColumn.PAYLOAD.bytes, recordEvent.toBytes());
                 put.add(RecordCf.DATA.bytes, RecordColumn.OCC.bytes, 1L, nextOcc(oldOccBytes));
                 boolean occSuccess = recordTable.checkAndPut(put.getRow(), RecordCf.DATA.bytes, RecordColumn.OCC.bytes,
                         oldOccBytes, put);
@@ -854,11 +1090,33 @@ public class HBaseRepository extends BaseRepository {
 
 
     public static void writeMetadataWithLengthSuffix(Metadata metadata, DataOutput output) {
-        DataOutput tmp = new DataOutputImpl();
-        MetadataSerDeser.write(metadata, tmp);
-        byte[] metadataBytes = tmp.toByteArray();
-        output.writeBytes(metadataBytes);
-        output.writeInt(metadataBytes.length);
+        int start = output.getSize();
+        MetadataSerDeser.write(metadata, output);
+        output.writeInt(output.getSize() - start);
+    }
+
+    /**
+     * Returns an empty DataOutput from a per-thread pool, it should be given back with
+     * {@link #returnDataOutput} once its data has been copied.
+     */
+    private static DataOutputImpl borrowDataOutput() {
+        DataOutputImpl output = DATA_OUTPUTS.get();
+        if (output == null) {
+            // Nested use within the same thread
+            return new DataOutputImpl();
+        }
+        DATA_OUTPUTS.set(null);
+        return output;
+    }
+
+    private static void returnDataOutput(DataOutputImpl output) {
+        // Don't hold on to buffers that grew large because of a single large value (e.g. a big inline blob)
+        if (output.getBuffer().length <= MAX_POOLED_OUTPUT_SIZE) {
+            output.reset();
+            DATA_OUTPUTS.set(output);
+        } else {
+            DATA_OUTPUTS.set(new DataOutputImpl());
+        }
     }
 
     private boolean isDeleteMarker(Object fieldValue) {
@@ -988,7 +1246,7 @@ public class HBaseRepository extends BaseRepository {
                 // Reserve blobs so no other records can use them
                 reserveBlobs(record.getId(), referencedBlobs);
 
-                put.add(RecordCf.DATA.bytes, RecordColumn.PAYLOAD.bytes, 1L, recordEvent.toJsonBytes());
+                put.add(RecordCf.DATA.bytes, RecordColumn.PAYLOAD.bytes, 1L, recordEvent.toBytes());
                 put.add(RecordCf.DATA.bytes, RecordColumn.OCC.bytes, 1L, nextOcc(oldOccBytes));
                 boolean occSuccess = recordTable.checkAndPut(put.getRow(), RecordCf.DATA.bytes, RecordColumn.OCC.bytes,
                         oldOccBytes, put);
@@ -1131,7 +1389,7 @@ public class HBaseRepository extends BaseRepository {
 
             }
 
-            put.add(RecordCf.DATA.bytes, RecordColumn.PAYLOAD.bytes, recordEvent.toJsonBytes());
+            put.add(RecordCf.DATA.bytes, RecordColumn.PAYLOAD.bytes, recordEvent.toBytes());
             put.add(RecordCf.DATA.bytes, RecordColumn.OCC.bytes, 1L, nextOcc(oldOcc));
 
             // Hint towards the NGDATA HBase authorization coprocessor: for deletes, we need write access to all
@@ -1154,6 +1412,7 @@ public class HBaseRepository extends BaseRepository {
             Thread.currentThread().interrupt();
             throw new RecordException("Exception occurred while deleting record '" + recordId + "' on HBase table", e);
         } finally {
+            invalidateCachedRecord(recordId);
             long after = System.currentTimeMillis();
             metrics.report(Action.DELETE, (after - before));
         }
@@ -1415,16 +1674,30 @@ public class HBaseRepository extends BaseRepository {
         }
 
         public FieldValueWriter addFieldValue(FieldType fieldType, Object value, Metadata metadata, long version) throws RepositoryException, InterruptedException {
-            byte[] encodedFieldValue = encodeFieldValue(parentRecord, fieldType, value, metadata);
-            put.add(RecordCf.DATA.bytes, ((FieldTypeImpl)fieldType).getQualifier(), version, encodedFieldValue);
+            byte[] qualifier = ((FieldTypeImpl)fieldType).getQualifier();
+            if (isDeleteMarker(value)) {
+                put.add(RecordCf.DATA.bytes, qualifier, version, FieldFlags.getDeleteMarker());
+                return this;
+            }
+
+            DataOutputImpl dataOutput = borrowDataOutput();
+            try {
+                encodeFieldValue(parentRecord, fieldType, value, metadata, dataOutput);
+                // The KeyValue copies the value from the (reused) buffer, avoiding an intermediate byte[]
+                byte[] row = put.getRow();
+                put.add(new KeyValue(row, 0, row.length, RecordCf.DATA.bytes, 0, RecordCf.DATA.bytes.length,
+                        qualifier, 0, qualifier.length, version, KeyValue.Type.Put,
+                        dataOutput.getBuffer(), 0, dataOutput.getSize()));
+            } catch (IOException e) {
+                throw new RepositoryException("Error adding value for field " + fieldType.getName(), e);
+            } finally {
+                returnDataOutput(dataOutput);
+            }
             return this;
         }
 
-        private byte[] encodeFieldValue(Record parentRecord, FieldType fieldType, Object fieldValue, Metadata metadata)
-                throws RepositoryException, InterruptedException {
-            if (isDeleteMarker(fieldValue)) {
-                return FieldFlags.getDeleteMarker();
-            }
+        private void encodeFieldValue(Record parentRecord, FieldType fieldType, Object fieldValue, Metadata metadata,
+                DataOutput dataOutput) throws RepositoryException, InterruptedException {
             ValueType valueType = fieldType.getValueType();
 
             // fieldValue should never be null by the time we get here, but check anyway
@@ -1438,7 +1711,6 @@ public class HBaseRepository extends BaseRepository {
                         fieldValue.getClass().getName()));
             }
 
-            DataOutput dataOutput = new DataOutputImpl();
             boolean hasMetadata = metadata != null && !metadata.getMap().isEmpty();
 
             dataOutput.writeByte(hasMetadata ? FieldFlags.METADATA_V1 : FieldFlags.DEFAULT);
@@ -1460,8 +1732,6 @@ public class HBaseRepository extends BaseRepository {
                 }
                 writeMetadataWithLengthSuffix(metadata, dataOutput);
             }
-
-            return dataOutput.toByteArray();
         }
 
     }
@@ -21,6 +21,7 @@ import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hbase.KeyValue;
 import org.apache.hadoop.hbase.client.Get;
 import org.apache.hadoop.hbase.client.HTableInterface;
+import org.apache.hadoop.hbase.client.Increment;
 import org.apache.hadoop.hbase.client.Put;
 import org.apache.hadoop.hbase.client.Result;
 import org.apache.hadoop.hbase.client.ResultScanner;
@@ -65,6 +66,8 @@ import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Deque;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -84,6 +87,10 @@ public class HBaseTypeManager extends AbstractTypeManager implements TypeManager
 
     private HTableInterface typeTable;
 
+    // Set while createOrUpdateTypes runs on the current thread: collects the row keys of the changed types,
+    // the refresh of the other schema caches is then triggered once at the end of the call
+    private final ThreadLocal<List<byte[]>> deferredCacheRefreshes = new ThreadLocal<List<byte[]>>();
+
     public HBaseTypeManager(IdGenerator idGenerator, Configuration configuration, ZooKeeperItf zooKeeper,
             HBaseTableFactory hbaseTableFactory)
             throws IOException, InterruptedException, KeeperException, RepositoryException {
@@ -761,6 +768,120 @@ public class HBaseTypeManager extends AbstractTypeManager implements TypeManager
         }
     }
 
+    @Override
+    public Pair<List<FieldType>, List<RecordType>> createOrUpdateTypes(List<FieldType> fieldTypes,
+            List<RecordType> recordTypes) throws RepositoryException, InterruptedException {
+        ArgumentValidator.notNull(fieldTypes, "fieldTypes");
+        ArgumentValidator.notNull(recordTypes, "recordTypes");
+
+        List<byte[]> changedTypes = new ArrayList<byte[]>();
+        deferredCacheRefreshes.set(changedTypes);
+        try {
+            List<FieldType> newFieldTypes = createOrUpdateFieldTypes(fieldTypes);
+
+            List<RecordType> newRecordTypes = new ArrayList<RecordType>(recordTypes.size());
+            for (RecordType recordType : recordTypes) {
+                newRecordTypes.add(createOrUpdateRecordType(recordType));
+            }
+
+            return new Pair<List<FieldType>, List<RecordType>>(newFieldTypes, newRecordTypes);
+        } finally {
+            deferredCacheRefreshes.remove();
+            // Also when failing half-way, the types changed so far should reach the other caches
+            ((LocalSchemaCache) schemaCache).triggerRefresh(changedTypes);
+        }
+    }
+
+    /**
+     * The field types which are identified by name only and do not exist yet are created in batch, the
+     * other ones go through {@link #createOrUpdateFieldType(FieldType)}.
+     */
+    private List<FieldType> createOrUpdateFieldTypes(List<FieldType> fieldTypes)
+            throws RepositoryException, InterruptedException {
+        List<FieldType> toCreate = new ArrayList<FieldType>();
+        Set<QName> namesToCreate = new HashSet<QName>();
+        for (FieldType fieldType : fieldTypes) {
+            ArgumentValidator.notNull(fieldType, "fieldType");
+            if (fieldType.getId() == null && fieldType.getName() != null && fieldType.getValueType() != null
+                    && fieldType.getScope() != null && !schemaCache.fieldTypeExists(fieldType.getName())
+                    && namesToCreate.add(fieldType.getName())) {
+                toCreate.add(fieldType);
+            }
+        }
+
+        Map<FieldType, FieldType> created = new IdentityHashMap<FieldType, FieldType>();
+        if (!toCreate.isEmpty()) {
+            List<FieldType> newFieldTypes = createFieldTypes(toCreate);
+            for (int i = 0; i < toCreate.size(); i++) {
+                created.put(toCreate.get(i), newFieldTypes.get(i));
+            }
+        }
+
+        List<FieldType> result = new ArrayList<FieldType>(fieldTypes.size());
+        for (FieldType fieldType : fieldTypes) {
+            FieldType newFieldType = created.get(fieldType);
+            // A name which occurs more than once is created for its first occurrence, the other ones
+            // then need to correspond to the created field type, as checked by createOrUpdateFieldType
+            result.add(newFieldType != null ? newFieldType : createOrUpdateFieldType(fieldType));
+        }
+        return result;
+    }
+
+    /**
+     * Creates the given field types, which should all have a different name and no ID. This does the same
+     * as {@link #createFieldType(FieldType)}, but with batched requests to HBase where possible.
+     */
+    private List<FieldType> createFieldTypes(List<FieldType> fieldTypes) throws RepositoryException,
+            InterruptedException {
+        List<QName> names = new ArrayList<QName>(fieldTypes.size());
+        List<byte[]> namesBytes = new ArrayList<byte[]>(fieldTypes.size());
+        for (FieldType fieldType : fieldTypes) {
+            names.add(fieldType.getName());
+            namesBytes.add(encodeName(fieldType.getName()));
+        }
+
+        List<FieldType> newFieldTypes = new ArrayList<FieldType>(fieldTypes.size());
+        long now = System.currentTimeMillis();
+        List<byte[]> reservedNames = new ArrayList<byte[]>(fieldTypes.size());
+        try {
+            List<SchemaId> ids = getValidIds(fieldTypes.size());
+
+            List<Put> puts = new ArrayList<Put>(fieldTypes.size());
+            for (int i = 0; i < fieldTypes.size(); i++) {
+                FieldType fieldType = fieldTypes.get(i);
+                Put put = new Put(ids.get(i).getBytes());
+                put.add(TypeCf.DATA.bytes, TypeColumn.FIELDTYPE_VALUETYPE.bytes,
+                        encodeValueType(fieldType.getValueType()));
+                put.add(TypeCf.DATA.bytes, TypeColumn.FIELDTYPE_SCOPE.bytes,
+                        Bytes.toBytes(fieldType.getScope().name()));
+                put.add(TypeCf.DATA.bytes, TypeColumn.FIELDTYPE_NAME.bytes, namesBytes.get(i));
+                puts.add(put);
+
+                FieldType newFieldType = fieldType.clone();
+                newFieldType.setId(ids.get(i));
+                newFieldTypes.add(newFieldType);
+            }
+
+            checkConcurrency(names, namesBytes, now, reservedNames);
+
+            // Create the actual field types
+            getTypeTable().put(puts);
+
+            // Refresh the caches
+            for (FieldType newFieldType : newFieldTypes) {
+                updateFieldTypeCache(newFieldType);
+            }
+        } catch (IOException e) {
+            throw new TypeException("Exception occurred while creating " + fieldTypes.size()
+                    + " field types on HBase", e);
+        } finally {
+            for (byte[] nameBytes : reservedNames) {
+                clearConcurrency(nameBytes, now);
+            }
+        }
+        return newFieldTypes;
+    }
+
     private void checkImmutableFieldsCorrespond(FieldType userFieldType, FieldType latestFieldType)
             throws FieldTypeUpdateException {
 
@@ -827,6 +948,43 @@ public class HBaseTypeManager extends AbstractTypeManager implements TypeManager
         }
     }
 
+    /**
+     * Does the same as {@link #checkConcurrency(QName, byte[], long)} for a set of names. The timestamps are
+     * read with one multi-get, but since HBase has no batched check-and-put, the names are reserved one by one.
+     *
+     * @param reservedNames the names which got reserved are added to this list, also when an exception is thrown,
+     *                      so that the caller can clear them
+     */
+    private void checkConcurrency(List<QName> names, List<byte[]> namesBytes, long now, List<byte[]> reservedNames)
+            throws IOException, ConcurrentUpdateTypeException {
+        List<Get> gets = new ArrayList<Get>(namesBytes.size());
+        for (byte[] nameBytes : namesBytes) {
+            Get get = new Get(nameBytes);
+            get.addColumn(TypeCf.DATA.bytes, TypeColumn.CONCURRENT_TIMESTAMP.bytes);
+            gets.add(get);
+        }
+        Result[] results = getTypeTable().get(gets);
+
+        for (int i = 0; i < namesBytes.size(); i++) {
+            byte[] nameBytes = namesBytes.get(i);
+            byte[] originalTimestampBytes = null;
+            if (results[i] != null && !results[i].isEmpty()) {
+                originalTimestampBytes = results[i].getValue(TypeCf.DATA.bytes, TypeColumn.CONCURRENT_TIMESTAMP.bytes);
+                if (originalTimestampBytes != null && originalTimestampBytes.length != 0
+                        && (Bytes.toLong(originalTimestampBytes) + CONCURRENT_TIMEOUT) >= now) {
+                    throw new ConcurrentUpdateTypeException(names.get(i).toString());
+                }
+            }
+            Put put = new Put(nameBytes);
+            put.add(TypeCf.DATA.bytes, TypeColumn.CONCURRENT_TIMESTAMP.bytes, Bytes.toBytes(now));
+            if (!getTypeTable().checkAndPut(nameBytes, TypeCf.DATA.bytes, TypeColumn.CONCURRENT_TIMESTAMP.bytes,
+                    originalTimestampBytes, put)) {
+                throw new ConcurrentUpdateTypeException(names.get(i).toString());
+            }
+            reservedNames.add(nameBytes);
+        }
+    }
+
     /**
      * Clears the timestamp from the row with nameBytes as key.
      *
@@ -1066,6 +1224,35 @@ public class HBaseTypeManager extends AbstractTypeManager implements TypeManager
         return id;
     }
 
+    /**
+     * Generates the given number of SchemaIds, the same way as {@link #getValidId()} but with batched increments.
+     * The exists check is left out: an existing type row already has its counter set, so the increment
+     * detects it as well.
+     */
+    private List<SchemaId> getValidIds(int count) throws IOException, InterruptedException {
+        List<SchemaId> ids = new ArrayList<SchemaId>(count);
+        while (ids.size() < count) {
+            List<SchemaId> candidates = new ArrayList<SchemaId>(count - ids.size());
+            List<Increment> increments = new ArrayList<Increment>(count - ids.size());
+            for (int i = ids.size(); i < count; i++) {
+                SchemaId id = new SchemaIdImpl(UUID.randomUUID());
+                Increment increment = new Increment(id.getBytes());
+                increment.addColumn(TypeCf.DATA.bytes, TypeColumn.CONCURRENT_COUNTER.bytes, 1L);
+                candidates.add(id);
+                increments.add(increment);
+            }
+            Object[] results = getTypeTable().batch(increments);
+            for (int i = 0; i < results.length; i++) {
+                byte[] counter = ((Result) results[i]).getValue(TypeCf.DATA.bytes,
+                        TypeColumn.CONCURRENT_COUNTER.bytes);
+                if (counter != null && Bytes.toLong(counter) == 1L) {
+                    ids.add(candidates.get(i));
+                }
+            }
+        }
+        return ids;
+    }
+
     protected HTableInterface getTypeTable() {
         return typeTable;
     }
@@ -1117,6 +1304,28 @@ public class HBaseTypeManager extends AbstractTypeManager implements TypeManager
         return ((LocalSchemaCache) schemaCache).isRefreshEnabled();
     }
 
+    @Override
+    protected void updateFieldTypeCache(FieldType fieldType) throws TypeException, InterruptedException {
+        List<byte[]> deferred = deferredCacheRefreshes.get();
+        if (deferred == null) {
+            super.updateFieldTypeCache(fieldType);
+        } else {
+            ((LocalSchemaCache) schemaCache).updateFieldType(fieldType, false);
+            deferred.add(fieldType.getId().getBytes());
+        }
+    }
+
+    @Override
+    protected void updateRecordTypeCache(RecordType recordType) throws TypeException, InterruptedException {
+        List<byte[]> deferred = deferredCacheRefreshes.get();
+        if (deferred == null) {
+            super.updateRecordTypeCache(recordType);
+        } else {
+            ((LocalSchemaCache) schemaCache).updateRecordType(recordType, false);
+            deferred.add(recordType.getId().getBytes());
+        }
+    }
+
     public TypeManagerMBean getMBean() {
         return new TypeManagerMBeanImpl();
     }
@@ -23,9 +23,9 @@ import java.io.OutputStream;
 
 import org.lilyproject.repository.api.Blob;
 import org.lilyproject.repository.api.BlobException;
-import org.lilyproject.repository.api.BlobStoreAccess;
+import org.lilyproject.repository.api.SeekableBlobStoreAccess;
 
-public class InlineBlobStoreAccess implements BlobStoreAccess {
+public class InlineBlobStoreAccess implements SeekableBlobStoreAccess {
 
     private static final String ID = "INLINE";
 
@@ -48,6 +48,12 @@ public class InlineBlobStoreAccess implements BlobStoreAccess {
         return new ByteArrayInputStream(blobKey);
     }
 
+    @Override
+    public InputStream getInputStream(byte[] blobKey, long offset) throws BlobException {
+        int start = (int)Math.min(offset, blobKey.length);
+        return new ByteArrayInputStream(blobKey, start, blobKey.length - start);
+    }
+
     @Override
     public void delete(byte[] blobKey) {
         // no-op
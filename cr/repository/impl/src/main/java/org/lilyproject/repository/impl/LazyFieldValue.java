@@ -0,0 +1,60 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.repository.impl;
+
+import org.lilyproject.bytes.impl.DataInputImpl;
+import org.lilyproject.repository.api.QName;
+import org.lilyproject.repository.api.RecordException;
+import org.lilyproject.repository.api.ValueType;
+
+/**
+ * The still encoded value of a field, as stored in a {@link RecordImpl} by the {@link RecordDecoder}. The value
+ * is only deserialized when it is accessed.
+ *
+ * <p>Instances are immutable (the bytes are never modified), so they can be shared between record clones.</p>
+ */
+final class LazyFieldValue {
+    private final ValueType valueType;
+    private final byte[] data;
+    private final int offset;
+    private final int length;
+
+    LazyFieldValue(ValueType valueType, byte[] data, int offset, int length) {
+        this.valueType = valueType;
+        this.data = data;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    Object decode(QName fieldName) throws RecordException {
+        DataInputImpl input = RecordDecoder.borrowDataInput(data, offset, length);
+        try {
+            return valueType.read(input);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RecordException("Interrupted while decoding the value of field " + fieldName, e);
+        } catch (Exception e) {
+            throw new RecordException("Error decoding the value of field " + fieldName, e);
+        } finally {
+            RecordDecoder.returnDataInput(input);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "LazyFieldValue [valueType=" + valueType.getName() + ", length=" + length + "]";
+    }
+}
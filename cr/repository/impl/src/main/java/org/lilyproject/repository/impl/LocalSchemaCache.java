@@ -15,6 +15,10 @@
  */
 package org.lilyproject.repository.impl;
 
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
 import org.apache.zookeeper.KeeperException;
 import org.apache.zookeeper.WatchedEvent;
 import org.apache.zookeeper.Watcher;
@@ -42,13 +46,52 @@ public class LocalSchemaCache extends AbstractSchemaCache implements SchemaCache
     }
 
     public synchronized void updateFieldType(FieldType fieldType) throws TypeException, InterruptedException {
+        updateFieldType(fieldType, true);
+    }
+
+    /**
+     * @param triggerRefresh if false, only this cache is updated, the caller is then responsible to trigger
+     *                       the refresh of the other caches, see {@link #triggerRefresh(Collection)}.
+     */
+    public synchronized void updateFieldType(FieldType fieldType, boolean triggerRefresh) throws TypeException,
+            InterruptedException {
         super.updateFieldType(fieldType);
-        triggerRefresh(fieldType.getId().getBytes(), false);
+        if (triggerRefresh) {
+            triggerRefresh(fieldType.getId().getBytes(), false);
+        }
     }
 
     public synchronized void updateRecordType(RecordType recordType) throws TypeException, InterruptedException {
+        updateRecordType(recordType, true);
+    }
+
+    /**
+     * @param triggerRefresh if false, only this cache is updated, the caller is then responsible to trigger
+     *                       the refresh of the other caches, see {@link #triggerRefresh(Collection)}.
+     */
+    public synchronized void updateRecordType(RecordType recordType, boolean triggerRefresh) throws TypeException,
+            InterruptedException {
         super.updateRecordType(recordType);
-        triggerRefresh(recordType.getId().getBytes(), false);
+        if (triggerRefresh) {
+            triggerRefresh(recordType.getId().getBytes(), false);
+        }
+    }
+
+    /**
+     * Triggers the caches to refresh the types with the given row keys. If these belong to more than one
+     * bucket, a single refresh of all types is triggered rather than one per bucket, as each bucket
+     * refresh causes a watcher event on every cache.
+     */
+    public void triggerRefresh(Collection<byte[]> rowKeys) throws TypeException, InterruptedException {
+        Set<String> bucketIds = new HashSet<String>();
+        for (byte[] rowKey : rowKeys) {
+            bucketIds.add(encodeHex(rowKey));
+        }
+        if (bucketIds.size() == 1) {
+            triggerRefresh(rowKeys.iterator().next(), false);
+        } else if (bucketIds.size() > 1) {
+            triggerRefresh(null, false);
+        }
     }
 
     /**
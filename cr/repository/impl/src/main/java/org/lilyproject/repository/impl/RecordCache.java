@@ -0,0 +1,247 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.repository.impl;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.cache.Weigher;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.Result;
+import org.lilyproject.repository.api.AbsoluteRecordId;
+import org.lilyproject.repository.api.IdRecord;
+import org.lilyproject.util.ArgumentValidator;
+
+/**
+ * A size-bounded cache of decoded records, used by {@link BaseRepository} to avoid repeatedly reading the same
+ * records from HBase.
+ *
+ * <p>The cache is bounded by the (estimated) number of bytes of the cached records rather than by the number
+ * of records. Only complete records (read with all fields) are cached, per version, where the null version
+ * stands for the latest state of the record.</p>
+ *
+ * <p>The cache is not kept up to date by the repository itself, except for the changes made through the
+ * repositories of the same process. Changes made elsewhere are picked up through the SEP, by
+ * {@link RecordCacheInvalidator}. Hence reads can return stale records for as long as it takes for the events
+ * to be delivered.</p>
+ *
+ * <p>Records are only cached when no authorization context is active, since the cached records are shared
+ * between all users.</p>
+ */
+public class RecordCache {
+    /**
+     * Rough estimate of the memory used by the decoded record on top of the size of the KeyValues it
+     * was decoded from.
+     */
+    private static final int RECORD_OVERHEAD = 200;
+
+    private static final int STRIPES = 1024;
+
+    private final Cache<Key, Versions> cache;
+
+    /**
+     * Counters which are incremented each time records are invalidated, striped by record. They allow to
+     * detect that a record was changed while it was being read from HBase, in which case it should not be
+     * put in the cache.
+     */
+    private final AtomicLongArray invalidations = new AtomicLongArray(STRIPES);
+
+    private final AtomicLong evictions = new AtomicLong();
+
+    public RecordCache(long maxBytes) {
+        cache = CacheBuilder.newBuilder()
+                .maximumWeight(maxBytes)
+                .weigher(new Weigher<Key, Versions>() {
+                    @Override
+                    public int weigh(Key key, Versions versions) {
+                        return versions.weight;
+                    }
+                })
+                .removalListener(new RemovalListener<Key, Versions>() {
+                    @Override
+                    public void onRemoval(RemovalNotification<Key, Versions> notification) {
+                        if (notification.wasEvicted()) {
+                            evictions.incrementAndGet();
+                        }
+                    }
+                })
+                .build();
+    }
+
+    /**
+     * Returns a copy of the cached record, or null if it is not in the cache.
+     *
+     * @param version the version of the record, or null for the latest version
+     */
+    public IdRecord get(String repositoryName, AbsoluteRecordId recordId, Long version) {
+        Versions versions = cache.getIfPresent(new Key(repositoryName, recordId));
+        if (versions == null) {
+            return null;
+        }
+        IdRecord record = versions.records.get(version);
+        return record != null ? record.clone() : null;
+    }
+
+    /**
+     * Returns a stamp which should be taken before reading a record from HBase, and passed on to
+     * {@link #put} afterwards.
+     */
+    public long getStamp(String repositoryName, AbsoluteRecordId recordId) {
+        return invalidations.get(stripe(new Key(repositoryName, recordId)));
+    }
+
+    /**
+     * Adds a record to the cache, unless it has been invalidated since the stamp was taken.
+     *
+     * @param version the version that was requested, null for the latest version
+     * @param result the HBase result from which the record was decoded, used to estimate its size
+     */
+    public void put(String repositoryName, AbsoluteRecordId recordId, Long version, IdRecord record, Result result,
+            long stamp) {
+        ArgumentValidator.notNull(record, "record");
+
+        Key key = new Key(repositoryName, recordId);
+        int stripe = stripe(key);
+        if (invalidations.get(stripe) != stamp) {
+            return;
+        }
+
+        record = record.clone();
+        int weight = estimateSize(result);
+        ConcurrentMap<Key, Versions> map = cache.asMap();
+        while (true) {
+            Versions current = map.get(key);
+            if (current == null) {
+                if (map.putIfAbsent(key, new Versions(version, record, weight)) == null) {
+                    break;
+                }
+            } else if (map.replace(key, current, current.with(version, record, weight))) {
+                break;
+            }
+        }
+
+        // The record might have been invalidated while we were adding it
+        if (invalidations.get(stripe) != stamp) {
+            cache.invalidate(key);
+        }
+    }
+
+    /**
+     * Removes all versions of the given record from the cache.
+     */
+    public void invalidate(String repositoryName, AbsoluteRecordId recordId) {
+        Key key = new Key(repositoryName, recordId);
+        invalidations.incrementAndGet(stripe(key));
+        cache.invalidate(key);
+    }
+
+    public void invalidateAll() {
+        for (int i = 0; i < STRIPES; i++) {
+            invalidations.incrementAndGet(i);
+        }
+        cache.invalidateAll();
+    }
+
+    /**
+     * Returns the number of records evicted from the cache (because of its size limit) since the previous
+     * call of this method.
+     */
+    public long drainEvictionCount() {
+        return evictions.getAndSet(0);
+    }
+
+    public long size() {
+        return cache.size();
+    }
+
+    private int stripe(Key key) {
+        return (key.hashCode() & Integer.MAX_VALUE) % STRIPES;
+    }
+
+    private static int estimateSize(Result result) {
+        long size = RECORD_OVERHEAD;
+        KeyValue[] kvs = result.raw();
+        if (kvs != null) {
+            for (KeyValue kv : kvs) {
+                size += kv.getLength();
+            }
+        }
+        return (int)Math.min(size, Integer.MAX_VALUE);
+    }
+
+    private static final class Key {
+        private final String repositoryName;
+        private final AbsoluteRecordId recordId;
+
+        private Key(String repositoryName, AbsoluteRecordId recordId) {
+            this.repositoryName = repositoryName;
+            this.recordId = recordId;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key)obj;
+            return repositoryName.equals(other.repositoryName) && recordId.equals(other.recordId);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * repositoryName.hashCode() + recordId.hashCode();
+        }
+    }
+
+    /**
+     * The cached versions of one record. Instances are never modified, adding a version creates a new instance.
+     */
+    private static final class Versions {
+        private final Map<Long, IdRecord> records;
+        private final Map<Long, Integer> weights;
+        private final int weight;
+
+        private Versions(Long version, IdRecord record, int weight) {
+            this(Collections.singletonMap(version, record), Collections.singletonMap(version, weight), weight);
+        }
+
+        private Versions(Map<Long, IdRecord> records, Map<Long, Integer> weights, int weight) {
+            this.records = records;
+            this.weights = weights;
+            this.weight = weight;
+        }
+
+        private Versions with(Long version, IdRecord record, int recordWeight) {
+            Map<Long, IdRecord> newRecords = new HashMap<Long, IdRecord>(records);
+            Map<Long, Integer> newWeights = new HashMap<Long, Integer>(weights);
+            newRecords.put(version, record);
+            Integer oldWeight = newWeights.put(version, recordWeight);
+            long newWeight = (long)weight + recordWeight - (oldWeight != null ? oldWeight : 0);
+            return new Versions(newRecords, newWeights, (int)Math.min(newWeight, Integer.MAX_VALUE));
+        }
+    }
+}
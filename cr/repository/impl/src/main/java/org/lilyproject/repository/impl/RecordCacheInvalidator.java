@@ -0,0 +1,59 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.repository.impl;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.lilyproject.repository.api.RepositoryManager;
+import org.lilyproject.sep.LilyEventListener;
+import org.lilyproject.sep.LilySepEvent;
+import org.lilyproject.util.repo.RecordEvent;
+
+/**
+ * Removes the records which are created, updated or deleted from a {@link RecordCache}.
+ *
+ * <p>Each process that has a record cache should run this listener with its own SEP subscription,
+ * since every process needs to see all the events.</p>
+ */
+public class RecordCacheInvalidator extends LilyEventListener {
+    private final RecordCache recordCache;
+    private final Log log = LogFactory.getLog(getClass());
+
+    public RecordCacheInvalidator(RepositoryManager repositoryManager, RecordCache recordCache) {
+        super(repositoryManager);
+        this.recordCache = recordCache;
+    }
+
+    @Override
+    public void processLilyEvents(List<LilySepEvent> events) {
+        for (LilySepEvent event : events) {
+            try {
+                // Only the header of the event is decoded, which is cheap for the binary format
+                RecordEvent.Type type = event.getLazyRecordEvent().getType();
+                if (type == RecordEvent.Type.INDEX) {
+                    // Reindex requests do not change the record
+                    continue;
+                }
+            } catch (IOException e) {
+                log.warn("Error reading record event, invalidating the record anyway", e);
+            }
+            recordCache.invalidate(event.getLilyRepositoryName(), event.getAbsoluteRecordId());
+        }
+    }
+}
@@ -16,6 +16,7 @@
 package org.lilyproject.repository.impl;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.EnumMap;
 import java.util.EnumSet;
 import java.util.HashMap;
@@ -24,6 +25,8 @@ import java.util.Map;
 import java.util.NavigableMap;
 import java.util.Set;
 
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.KeyValue;
 import org.apache.hadoop.hbase.client.Get;
 import org.apache.hadoop.hbase.client.Result;
 import org.apache.hadoop.hbase.client.Scan;
@@ -73,6 +76,16 @@ public class RecordDecoder {
 
     public static final List<byte[]> SYSTEM_FIELDS = new ArrayList<byte[]>();
 
+    /**
+     * Per-thread reusable DataInput, see {@link #borrowDataInput}.
+     */
+    private static final ThreadLocal<DataInputImpl> DATA_INPUTS = new ThreadLocal<DataInputImpl>() {
+        @Override
+        protected DataInputImpl initialValue() {
+            return new DataInputImpl((byte[])null, 0, 0);
+        }
+    };
+
     static {
         SYSTEM_FIELDS.add(RecordColumn.OCC.bytes);
         SYSTEM_FIELDS.add(RecordColumn.DELETED.bytes);
@@ -112,32 +125,43 @@ public class RecordDecoder {
                                Result result, FieldTypes fieldTypes) throws InterruptedException, RepositoryException {
         Record record = recordFactory.newRecord(recordId);
         record.setVersion(requestedVersion);
+        // Field values are only deserialized when they are accessed, if the record implementation supports it
+        boolean lazy = record instanceof RecordImpl;
 
         // If the version is null, this means the record has no version an thus only contains non-versioned fields (if any)
         // All non-versioned fields are stored at version 1, so we extract the fields at version 1
         Long versionToRead = (requestedVersion == null) ? 1L : requestedVersion;
 
-        // Get a map of all fields with their values for each (cell-)version
-        NavigableMap<byte[], NavigableMap<Long, byte[]>> mapWithVersions = result.getMap().get(RecordCf.DATA.bytes);
-        if (mapWithVersions != null) {
-            // Iterate over all columns
-            for (Map.Entry<byte[], NavigableMap<Long, byte[]>> columnWithAllVersions : mapWithVersions.entrySet()) {
+        // Iterate directly over the KeyValues rather than using Result.getMap(), which would copy all values.
+        // The KeyValues are sorted by column, and per column from the highest to the lowest version.
+        KeyValue[] kvs = result.raw();
+        if (kvs != null) {
+            KeyValue lastExtracted = null;
+            for (KeyValue kv : kvs) {
                 // Check if the retrieved column is from a data field, and not a system field
-                byte[] key = columnWithAllVersions.getKey();
-                if (key[0] == LilyHBaseSchema.RecordColumn.DATA_PREFIX) {
-                    NavigableMap<Long, byte[]> allValueVersions = columnWithAllVersions.getValue();
-                    // Get the entry for the version (can be a cell with a lower version number if the field was not changed)
-                    Map.Entry<Long, byte[]> ceilingEntry = allValueVersions.ceilingEntry(versionToRead);
-                    if (ceilingEntry != null) {
-                        // Extract and decode the value of the field
-                        ExtractedField field =
-                                extractField(key, ceilingEntry.getValue(), readContext, fieldTypes);
-                        if (field != null) {
-                            record.setField(field.type.getName(), field.value);
-                            if (field.metadata != null) {
-                                record.setMetadata(field.type.getName(), field.metadata);
-                            }
-                        }
+                if (!kv.matchingFamily(RecordCf.DATA.bytes) || kv.getQualifierLength() == 0
+                        || kv.getBuffer()[kv.getQualifierOffset()] != RecordColumn.DATA_PREFIX) {
+                    continue;
+                }
+                // Use the cell for the version (can be a cell with a lower version number if the field was not
+                // changed), which is the first one with a version not higher than the one to read
+                if (kv.getTimestamp() > versionToRead
+                        || (lastExtracted != null && lastExtracted.matchingQualifier(kv))) {
+                    continue;
+                }
+                lastExtracted = kv;
+
+                // Extract and decode the value of the field
+                ExtractedField field = extractField(kv.getBuffer(), kv.getQualifierOffset(), kv.getQualifierLength(), kv.getBuffer(),
+                        kv.getValueOffset(), kv.getValueLength(), readContext, fieldTypes, lazy);
+                if (field != null) {
+                    if (lazy) {
+                        ((RecordImpl)record).setLazyField(field.type.getName(), (LazyFieldValue)field.value);
+                    } else {
+                        record.setField(field.type.getName(), field.value);
+                    }
+                    if (field.metadata != null) {
+                        record.setMetadata(field.type.getName(), field.metadata);
                     }
                 }
             }
@@ -237,7 +261,9 @@ public class RecordDecoder {
                                     !lastDecodedFieldVersion.equals(ceilingEntry.getKey())) {
                                 // Not yet decoded, do it now
                                 lastDecodedFieldVersion = ceilingEntry.getKey();
-                                lastDecodedField = extractField(key, ceilingEntry.getValue(), null, fieldTypes);
+                                byte[] value = ceilingEntry.getValue();
+                                lastDecodedField = extractField(key, 0, key.length, value, 0, value.length,
+                                        null, fieldTypes, false);
                             }
                             if (lastDecodedField != null) {
                                 record.setField(lastDecodedField.type.getName(), lastDecodedField.value);
@@ -288,39 +314,81 @@ public class RecordDecoder {
         }
     }
 
-    private ExtractedField extractField(byte[] key, byte[] prefixedValue, ReadContext context,
-                                                 FieldTypes fieldTypes)
+    /**
+     * Extracts a field from its HBase cell. When lazy is true, the value of the returned field is a
+     * {@link LazyFieldValue} rather than the deserialized value.
+     */
+    private ExtractedField extractField(byte[] keyBuffer, int keyOffset, int keyLength, byte[] valueBuffer,
+            int valueOffset, int valueLength, ReadContext context, FieldTypes fieldTypes, boolean lazy)
             throws RepositoryException, InterruptedException {
-        byte flags = prefixedValue[0];
+        byte flags = valueBuffer[valueOffset];
         if (FieldFlags.isDeletedField(flags)) {
             return null;
         }
-        FieldType fieldType = fieldTypes.getFieldType(new SchemaIdImpl(Bytes.tail(key, key.length - 1)));
+        // The key is the field type id, prefixed with DATA_PREFIX
+        byte[] fieldId = new byte[keyLength - 1];
+        System.arraycopy(keyBuffer, keyOffset + 1, fieldId, 0, fieldId.length);
+        FieldType fieldType = fieldTypes.getFieldType(new SchemaIdImpl(fieldId));
         if (context != null) {
             context.addFieldType(fieldType);
         }
         ValueType valueType = fieldType.getValueType();
 
+        int valueEnd = valueOffset + valueLength;
         Metadata metadata = null;
         int metadataSpace = 0; // space taken up by metadata (= metadata itself + length suffix)
         int metadataEncodingVersion = FieldFlags.getFieldMetadataVersion(flags);
         if (metadataEncodingVersion == 0) {
             // there is no metadata
         } else if (metadataEncodingVersion == 1) {
-            int metadataSize = Bytes.toInt(prefixedValue, prefixedValue.length - Bytes.SIZEOF_INT, Bytes.SIZEOF_INT);
+            int metadataSize = Bytes.toInt(valueBuffer, valueEnd - Bytes.SIZEOF_INT, Bytes.SIZEOF_INT);
             metadataSpace = metadataSize + Bytes.SIZEOF_INT;
-            metadata = MetadataSerDeser.read(
-                    new DataInputImpl(prefixedValue, prefixedValue.length - metadataSpace, metadataSize));
+            DataInputImpl input = borrowDataInput(valueBuffer, valueEnd - metadataSpace, metadataSize);
+            try {
+                metadata = MetadataSerDeser.read(input);
+            } finally {
+                returnDataInput(input);
+            }
         } else {
             throw new RuntimeException("Unsupported field metadata encoding version: " + metadataEncodingVersion);
         }
 
-        Object value = valueType.read(new DataInputImpl(prefixedValue, FieldFlags.SIZE_OF_FIELD_FLAGS,
-                prefixedValue.length - FieldFlags.SIZE_OF_FIELD_FLAGS - metadataSpace));
+        int dataOffset = valueOffset + FieldFlags.SIZE_OF_FIELD_FLAGS;
+        int dataLength = valueLength - FieldFlags.SIZE_OF_FIELD_FLAGS - metadataSpace;
+        Object value;
+        if (lazy) {
+            value = new LazyFieldValue(valueType, valueBuffer, dataOffset, dataLength);
+        } else {
+            DataInputImpl input = borrowDataInput(valueBuffer, dataOffset, dataLength);
+            try {
+                value = valueType.read(input);
+            } finally {
+                returnDataInput(input);
+            }
+        }
 
         return new ExtractedField(fieldType, value, metadata);
     }
 
+    /**
+     * Returns a DataInput reading from the given part of the buffer. The instance is taken from a per-thread pool,
+     * and should be given back with {@link #returnDataInput} once it is no longer used.
+     */
+    static DataInputImpl borrowDataInput(byte[] buffer, int offset, int length) {
+        DataInputImpl input = DATA_INPUTS.get();
+        if (input == null) {
+            // Nested use within the same thread, or first use
+            return new DataInputImpl(buffer, offset, length);
+        }
+        DATA_INPUTS.set(null);
+        return input.reset(buffer, offset, length);
+    }
+
+    static void returnDataInput(DataInputImpl input) {
+        // Don't keep a reference to the buffer
+        DATA_INPUTS.set(input.reset(null, 0, 0));
+    }
+
     /**
      * Extracts the latest record type for a specific scope from the Result.
      */
@@ -334,29 +402,40 @@ public class RecordDecoder {
     }
 
     /**
-     * Gets the latest value for a family/qualifier from a Result object, using its
-     * getMap(). Most of the time this will be more efficient than using
-     * Result.getValue() since the map will need to built anyway when reading the
-     * record.
+     * Gets the value of the last cell (in the order of Result.getMap(), so the one with the lowest timestamp)
+     * for a family/qualifier from a Result object. This searches the KeyValues of the Result directly, so that
+     * only the requested value is copied.
      */
     public byte[] getLatest(Result result, byte[] family, byte[] qualifier) {
-        NavigableMap<byte[], NavigableMap<byte[], NavigableMap<Long, byte[]>>> map = result.getMap();
-        if (map == null) {
+        KeyValue[] kvs = result.raw();
+        int pos = findColumnCell(kvs, family, qualifier, HConstants.LATEST_TIMESTAMP);
+        if (pos == -1) {
             return null;
         }
-
-        NavigableMap<byte[], NavigableMap<Long, byte[]>> qualifiers = map.get(family);
-        if (qualifiers == null) {
-            return null;
+        while (pos + 1 < kvs.length && kvs[pos + 1].matchingColumn(family, qualifier)) {
+            pos++;
         }
+        return kvs[pos].getValue();
+    }
 
-        NavigableMap<Long, byte[]> timestamps = qualifiers.get(qualifier);
-        if (timestamps == null) {
-            return null;
+    /**
+     * Searches the position of the cell with the highest timestamp not higher than the given version
+     * (= the ceiling entry in the descending version maps of Result.getMap()), returns -1 if there is none.
+     */
+    private static int findColumnCell(KeyValue[] kvs, byte[] family, byte[] qualifier, long version) {
+        if (kvs == null || kvs.length == 0) {
+            return -1;
         }
-
-        Map.Entry<Long, byte[]> entry = timestamps.lastEntry();
-        return entry == null ? null : entry.getValue();
+        // Type.Maximum sorts before any real cell with the same coordinates
+        KeyValue searchKey = new KeyValue(kvs[0].getRow(), family, qualifier, version, KeyValue.Type.Maximum);
+        int pos = Arrays.binarySearch(kvs, searchKey, KeyValue.COMPARATOR);
+        if (pos < 0) {
+            pos = -(pos + 1);
+        }
+        if (pos < kvs.length && kvs[pos].matchingColumn(family, qualifier)) {
+            return pos;
+        }
+        return -1;
     }
 
     /**
@@ -389,35 +468,24 @@ public class RecordDecoder {
      * Extracts the record type for a specific version and a specific scope
      */
     public Pair<SchemaId, Long> extractVersionRecordType(Scope scope, Result result, Long version) {
-        NavigableMap<byte[], NavigableMap<byte[], NavigableMap<Long, byte[]>>> allVersionsMap = result.getMap();
-        NavigableMap<byte[], NavigableMap<Long, byte[]>> allColumnsAllVersionsMap = allVersionsMap
-                .get(RecordCf.DATA.bytes);
+        KeyValue[] kvs = result.raw();
 
         byte[] recordTypeIdColumnName = RECORD_TYPE_ID_QUALIFIERS.get(scope);
         byte[] recordTypeVersionColumnName = RECORD_TYPE_VERSION_QUALIFIERS.get(scope);
         // Get recordTypeId
-        Map.Entry<Long, byte[]> idCeilingEntry = null;
-        NavigableMap<Long, byte[]> recordTypeIdMap = allColumnsAllVersionsMap.get(recordTypeIdColumnName);
-        if (recordTypeIdMap != null) {
-            idCeilingEntry = recordTypeIdMap.ceilingEntry(version);
-        }
-        SchemaId recordTypeId;
-        if (idCeilingEntry == null) {
+        int idPos = findColumnCell(kvs, RecordCf.DATA.bytes, recordTypeIdColumnName, version);
+        if (idPos == -1) {
             return null; // No record type was found
         }
-        recordTypeId = new SchemaIdImpl(idCeilingEntry.getValue());
+        SchemaId recordTypeId = new SchemaIdImpl(kvs[idPos].getValue());
 
         // Get recordTypeVersion
-        Long recordTypeVersion;
-        Map.Entry<Long, byte[]> versionCeilingEntry = null;
-        NavigableMap<Long, byte[]> recordTypeVersionMap = allColumnsAllVersionsMap.get(recordTypeVersionColumnName);
-        if (recordTypeVersionMap != null) {
-            versionCeilingEntry = recordTypeVersionMap.ceilingEntry(version);
-        }
-        if (versionCeilingEntry == null) {
+        int versionPos = findColumnCell(kvs, RecordCf.DATA.bytes, recordTypeVersionColumnName, version);
+        if (versionPos == -1) {
             return null; // No record type was found, we should never get here: if there is an id there should also be a version
         }
-        recordTypeVersion = Bytes.toLong(versionCeilingEntry.getValue());
+        KeyValue versionKv = kvs[versionPos];
+        Long recordTypeVersion = Bytes.toLong(versionKv.getBuffer(), versionKv.getValueOffset());
         return new Pair<SchemaId, Long>(recordTypeId, recordTypeVersion);
     }
 
@@ -33,6 +33,7 @@ import org.lilyproject.repository.api.Record;
 import org.lilyproject.repository.api.RecordException;
 import org.lilyproject.repository.api.RecordId;
 import org.lilyproject.repository.api.Repository;
+import org.lilyproject.repository.api.RepositoryRuntimeException;
 import org.lilyproject.repository.api.ResponseStatus;
 import org.lilyproject.repository.api.Scope;
 import org.lilyproject.util.ArgumentValidator;
@@ -53,6 +54,14 @@ public class RecordImpl implements Record, Cloneable {
 
     private Map<QName, Metadata> metadatas;
 
+    /**
+     * True if the fields map might contain {@link LazyFieldValue}s, which need to be decoded before
+     * they are handed out. Decoding is done while synchronized on the record, so that a record which
+     * is only read can still be shared between threads. Once this is false, the fields map is no longer
+     * modified by reads.
+     */
+    private volatile boolean hasLazyFields;
+
     /**
      * This constructor should not be called directly.
      * @use {@link Repository#newRecord} instead
@@ -137,13 +146,66 @@ public class RecordImpl implements Record, Cloneable {
 
     @Override
     public <T> T getField(QName name) throws FieldNotFoundException {
-        Object field = fields.get(name);
+        Object field;
+        if (hasLazyFields) {
+            field = getAndDecodeField(name);
+        } else {
+            field = fields.get(name);
+        }
         if (field == null) {
             throw new FieldNotFoundException(name);
         }
         return (T)field;
     }
 
+    private synchronized Object getAndDecodeField(QName name) {
+        Object field = fields.get(name);
+        if (field instanceof LazyFieldValue) {
+            field = decode(name, (LazyFieldValue)field);
+            fields.put(name, field);
+        }
+        return field;
+    }
+
+    /**
+     * Decoding errors are reported as a {@link RecordException}, wrapped in a runtime exception since the
+     * field accessors of {@link Record} do not throw checked exceptions.
+     */
+    private static Object decode(QName name, LazyFieldValue value) {
+        try {
+            return value.decode(name);
+        } catch (RecordException e) {
+            throw new RepositoryRuntimeException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Sets a field whose value will only be decoded when it is first accessed. Used by the {@link RecordDecoder}.
+     */
+    void setLazyField(QName name, LazyFieldValue value) {
+        fields.put(name, value);
+        fieldsToDelete.remove(name);
+        hasLazyFields = true;
+    }
+
+    /**
+     * Decodes all field values which have not been decoded yet.
+     */
+    private void decodeLazyFields() {
+        if (hasLazyFields) {
+            synchronized (this) {
+                if (hasLazyFields) {
+                    for (Entry<QName, Object> entry : fields.entrySet()) {
+                        if (entry.getValue() instanceof LazyFieldValue) {
+                            entry.setValue(decode(entry.getKey(), (LazyFieldValue)entry.getValue()));
+                        }
+                    }
+                    hasLazyFields = false;
+                }
+            }
+        }
+    }
+
     @Override
     public boolean hasField(QName fieldName) {
         return fields.containsKey(fieldName);
@@ -151,6 +213,8 @@ public class RecordImpl implements Record, Cloneable {
 
     @Override
     public Map<QName, Object> getFields() {
+        // The map is handed out as is, so it can not contain any undecoded values
+        decodeLazyFields();
         return fields;
     }
 
@@ -215,8 +279,13 @@ public class RecordImpl implements Record, Cloneable {
         record.version = version;
         record.recordTypes.putAll(recordTypes);
         parentRecords.push(this);
-        for (Entry<QName, Object> entry : fields.entrySet()) {
-            record.fields.put(entry.getKey(), tryCloneValue(parentRecords, entry));
+        // Synchronized since fields might get decoded concurrently
+        synchronized (this) {
+            for (Entry<QName, Object> entry : fields.entrySet()) {
+                // Undecoded values are immutable and are copied as such
+                record.fields.put(entry.getKey(), tryCloneValue(parentRecords, entry));
+            }
+            record.hasLazyFields = hasLazyFields;
         }
         parentRecords.pop();
         if (fieldsToDelete.size() > 0) { // addAll seems expensive even when list is empty
@@ -314,6 +383,7 @@ public class RecordImpl implements Record, Cloneable {
 
     @Override
     public int hashCode() {
+        decodeLazyFields();
         final int prime = 31;
         int result = 1;
         result = prime * result + ((fields == null) ? 0 : fields.hashCode());
@@ -376,6 +446,8 @@ public class RecordImpl implements Record, Cloneable {
             return false;
         }
         RecordImpl other = (RecordImpl) obj;
+        decodeLazyFields();
+        other.decodeLazyFields();
 
         if (fields == null) {
             if (other.fields != null) {
@@ -413,6 +485,7 @@ public class RecordImpl implements Record, Cloneable {
 
     @Override
     public String toString() {
+        decodeLazyFields();
         return "RecordImpl [id=" + id + ", version=" + version + ", recordTypes=" + recordTypes
                         + ", fields=" + fields + ", fieldsToDelete="
                         + fieldsToDelete + "]";
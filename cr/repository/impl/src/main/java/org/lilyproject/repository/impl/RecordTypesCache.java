@@ -15,8 +15,6 @@
  */
 package org.lilyproject.repository.impl;
 
-import org.apache.commons.logging.Log;
-import org.apache.commons.logging.LogFactory;
 import org.lilyproject.repository.api.QName;
 import org.lilyproject.repository.api.RecordType;
 import org.lilyproject.repository.api.SchemaId;
@@ -29,175 +27,39 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.NavigableMap;
 import java.util.Set;
-import java.util.TreeSet;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.TreeMap;
 
+/**
+ * Cache of the record types.
+ *
+ * <p>The record types are kept in an immutable snapshot, which is replaced by a new one on each change. Readers
+ * only read the current snapshot and never block, only the (rare) changes are serialized. A new snapshot shares
+ * the buckets which are not affected by the change with the previous one.</p>
+ */
 public class RecordTypesCache {
-    private Log log = LogFactory.getLog(getClass());
-
-    // A lock on the monitor needs to be taken when changes are to be made on
-    // the nameCache, on the count variable, on the nameCacheOutOfDate boolean
-    // or if a bucket monitor needs to be added.
+    // A lock on the monitor needs to be taken when a new snapshot is to be
+    // published or when the localUpdates are accessed.
     private final Object monitor = new Object();
-    // A lock on a bucket monitor needs to be taken when changes are to be made
-    // on a bucket.
-    private final Map<String, Object> bucketMonitors = new HashMap<String, Object>();
-    // The nameCacheOutOfData should be set to true when an update happens on
-    // a bucket. This means that if the nameCache is requested, it should be
-    // refreshed first. Once it is refreshed it can be put back to false.
-    private volatile boolean nameCacheOutOfDate = false;
-    private volatile boolean childRecordTypesOutOfDate = false;
-    // The count indicates how many buckets are being updated. As long as the
-    // count is higher than 0, the nameCache can not be updated since this could
-    // lead to an inconsistent state (two types could get the same name).
-    private volatile int count = 0;
-
-    /**
-     * name -> record type version -> record type
-     */
-    private Map<QName, Map<Long, RecordType>> nameCache;
-
-    /**
-     * Normally a record type points to the record types from which it extends, i.e. to their parent type.
-     * This map allows to traverse the reverse relation: from parent to child.
-     */
-    private Map<SchemaId, Set<SchemaId>> childRecordTypes;
-
-    /**
-     * bucket -> record type id -> record type version -> record type
-     */
-    private Map<String, Map<SchemaId, Map<Long, RecordType>>> buckets;
-
-    private ConcurrentHashMap<String, Map<SchemaId, Map<Long, RecordType>>> localUpdateBuckets =
-            new ConcurrentHashMap<String, Map<SchemaId, Map<Long, RecordType>>>();
-
-    public RecordTypesCache() {
-        nameCache = new HashMap<QName, Map<Long, RecordType>>();
-        buckets = new ConcurrentHashMap<String, Map<SchemaId, Map<Long, RecordType>>>();
-    }
-
-    private Map<QName, Map<Long, RecordType>> getNameCache() throws InterruptedException {
-        // First check if the name cache is out of date
-        if (nameCacheOutOfDate) {
-            synchronized (monitor) {
-                // Wait until no buckets are being updated
-                while (count > 0) {
-                    monitor.wait();
-                }
-                if (nameCacheOutOfDate) {
-                    // Re-initialize the nameCache
-                    Map<QName, Map<Long, RecordType>> newNameCache = new HashMap<QName, Map<Long, RecordType>>();
-                    for (Map<SchemaId, Map<Long, RecordType>> bucket : buckets.values()) {
-                        for (Map<Long, RecordType> recordTypesByVersion : bucket.values()) {
-                            for (RecordType recordType : recordTypesByVersion.values()) {
-                                if (!newNameCache.containsKey(recordType.getName())) {
-                                    newNameCache.put(recordType.getName(), new HashMap<Long, RecordType>());
-                                }
-                                newNameCache.get(recordType.getName()).put(recordType.getVersion(), recordType);
-                            }
-                        }
-                    }
-                    nameCache = newNameCache;
-                    nameCacheOutOfDate = false;
-                }
-            }
-        }
-        return nameCache;
-    }
-
-    private Map<SchemaId, Set<SchemaId>> getChildRecordTypes() throws InterruptedException {
-        // First check if the childRecordTypes is out of date
-        if (childRecordTypesOutOfDate) {
-            synchronized (monitor) {
-                // Wait until no buckets are being updated
-                while (count > 0) {
-                    monitor.wait();
-                }
-                if (childRecordTypesOutOfDate) {
-                    // Re-initialize the childRecordTypes
-                    Map<SchemaId, Set<SchemaId>> newChildRecordTypes = new HashMap<SchemaId, Set<SchemaId>>() {
-                        @Override
-                        public Set<SchemaId> get(Object key) {
-                            Set<SchemaId> set = super.get(key);
-                            if (set == null) {
-                                set = new HashSet<SchemaId>();
-                                super.put((SchemaId) key, set);
-                            }
-                            return set;
-                        }
-                    };
-                    for (Map<SchemaId, Map<Long, RecordType>> bucket : buckets.values()) {
-                        for (Map<Long, RecordType> recordTypeByVersion : bucket.values()) {
-                            // TODO: we only look at the last record type here, not sure why
-                            RecordType lastRecordType = getRecordTypeWithVersion(recordTypeByVersion, null);
-                            for (SchemaId parent : lastRecordType.getSupertypes().keySet()) {
-                                newChildRecordTypes.get(parent).add(lastRecordType.getId());
-                            }
-                        }
-                    }
-                    childRecordTypes = newChildRecordTypes;
-                    childRecordTypesOutOfDate = false;
-                }
-            }
-        }
-        return childRecordTypes;
-    }
 
-    /**
-     * Increment the number of buckets being updated
-     */
-    private void incCount() {
-        synchronized (monitor) {
-            count++;
-            monitor.notify();
-        }
-    }
+    private volatile Snapshot snapshot = new Snapshot();
 
     /**
-     * Decrement the number of buckets being updated and mark the nameCache out
-     * of date.
+     * record type id -> versions of the record type that have been updated locally
      */
-    private void decCount() {
-        synchronized (monitor) {
-            count--;
-            nameCacheOutOfDate = true;
-            childRecordTypesOutOfDate = true;
-            monitor.notify();
-        }
-    }
+    private final Map<SchemaId, Set<Long>> localUpdates = new HashMap<SchemaId, Set<Long>>();
 
     /**
-     * Return the monitor of a bucket and create it if it does not exist yet.
+     * Return all record types in the cache.
      */
-    private Object getBucketMonitor(String bucketId) {
-        Object bucketMonitor = bucketMonitors.get(bucketId);
-        if (bucketMonitor == null) {
-            // If the bucket does not exist yet we need to create it
-            // Take the lock on the monitor to avoid that another call would
-            // created it at the same time
-            synchronized (monitor) {
-                // Make sure it hasn't been created meanwhile (= between
-                // checking for null and taking the lock on the monitor)
-                bucketMonitor = bucketMonitors.get(bucketId);
-                if (bucketMonitor == null) {
-                    bucketMonitor = new Object();
-                    bucketMonitors.put(bucketId, bucketMonitor);
-                }
-            }
-        }
-        return bucketMonitor;
-    }
-
-    /**
-     * Return all record types in the cache. To avoid inconsistencies between
-     * buckets, we get the nameCache first.
-     */
-    public Collection<RecordType> getRecordTypes() throws InterruptedException {
+    public Collection<RecordType> getRecordTypes() {
         List<RecordType> recordTypes = new ArrayList<RecordType>();
-        for (Map<Long, RecordType> recordTypesByVersion : getNameCache().values()) {
-            for (RecordType recordType : recordTypesByVersion.values()) {
-                recordTypes.add(recordType.clone());
+        for (Map<QName, NavigableMap<Long, RecordType>> nameBucket : snapshot.nameBuckets.values()) {
+            for (Map<Long, RecordType> recordTypesByVersion : nameBucket.values()) {
+                for (RecordType recordType : recordTypesByVersion.values()) {
+                    recordTypes.add(recordType.clone());
+                }
             }
         }
         return recordTypes;
@@ -206,13 +68,13 @@ public class RecordTypesCache {
     /**
      * Return the record type based on its name
      */
-    public RecordType getRecordType(QName name, Long version) throws InterruptedException {
-        Map<Long, RecordType> recordTypesByVersion = getNameCache().get(name);
+    public RecordType getRecordType(QName name, Long version) {
+        NavigableMap<Long, RecordType> recordTypesByVersion = snapshot.getByName(name);
         return getRecordTypeWithVersion(recordTypesByVersion, version);
     }
 
-    public Set<SchemaId> findDirectSubTypes(SchemaId recordTypeId) throws InterruptedException {
-        Set<SchemaId> childTypes = getChildRecordTypes().get(recordTypeId);
+    public Set<SchemaId> findDirectSubTypes(SchemaId recordTypeId) {
+        Set<SchemaId> childTypes = snapshot.getChildRecordTypes().get(recordTypeId);
         return childTypes != null ? childTypes : Collections.<SchemaId>emptySet();
     }
 
@@ -221,92 +83,54 @@ public class RecordTypesCache {
      */
     public RecordType getRecordType(SchemaId id, Long version) {
         String bucketId = AbstractSchemaCache.encodeHex(id.getBytes());
-        Map<SchemaId, Map<Long, RecordType>> bucket = buckets.get(bucketId);
+        Map<SchemaId, NavigableMap<Long, RecordType>> bucket = snapshot.buckets.get(bucketId);
         if (bucket == null) {
             return null;
         }
-        Map<Long, RecordType> recordTypesByVersion = bucket.get(id);
+        NavigableMap<Long, RecordType> recordTypesByVersion = bucket.get(id);
         return getRecordTypeWithVersion(recordTypesByVersion, version);
     }
 
-    private RecordType getRecordTypeWithVersion(Map<Long, RecordType> recordTypesByVersion, Long version) {
+    private static RecordType getRecordTypeWithVersion(NavigableMap<Long, RecordType> recordTypesByVersion,
+            Long version) {
         if (recordTypesByVersion == null)
             return null;
         else if (version != null)
             return recordTypesByVersion.get(version);
         else
-            return recordTypesByVersion.get(new TreeSet<Long>(recordTypesByVersion.keySet()).last());
+            return recordTypesByVersion.lastEntry().getValue();
     }
 
     /**
      * Refreshes the whole cache to contain the given list of record types.
      */
-    public void refreshRecordTypes(List<RecordType> recordTypes) throws InterruptedException {
-        // Since we will update all buckets, we take the lock on the monitor for
-        // the whole operation
-        synchronized (monitor) {
-            while (count > 0) {
-                monitor.wait();
-            }
-            nameCacheOutOfDate = true;
-            childRecordTypesOutOfDate = true;
-            // One would expect that existing buckets need to be cleared first.
-            // But since record types cannot be deleted we will just overwrite
-            // them.
-            for (RecordType recordType : recordTypes) {
-                String bucketId = AbstractSchemaCache.encodeHex(recordType.getId().getBytes());
-                // Only update if it was not updated locally
-                // If it was updated locally either this is the refresh of that
-                // update,
-                // or the refresh for this update will follow.
-                if (!removeFromLocalUpdateBucket(recordType, bucketId)) {
-                    Map<SchemaId, Map<Long, RecordType>> bucket = buckets.get(bucketId);
-                    if (bucket == null) {
-                        bucket = new ConcurrentHashMap<SchemaId, Map<Long, RecordType>>();
-                        buckets.put(bucketId, bucket);
-                    }
-                    putRecordTypeInBucket(bucket, recordType);
-                }
-            }
-        }
+    public void refreshRecordTypes(List<RecordType> recordTypes) {
+        refresh(recordTypes);
     }
 
     /**
      * Refresh one bucket with the record types contained in the TypeBucket
      */
     public void refreshRecordTypeBucket(TypeBucket typeBucket) {
-        String bucketId = typeBucket.getBucketId();
-
-        // First increment the number of buckets that are being updated
-        incCount();
-        // Get a lock on the bucket to be updated
-        synchronized (getBucketMonitor(bucketId)) {
-            List<RecordType> recordTypes = typeBucket.getRecordTypes();
-            Map<SchemaId, Map<Long, RecordType>> bucket = buckets.get(bucketId);
-            // One would expect that an existing bucket need to be cleared
-            // first.
-            // But since record types cannot be deleted we will just overwrite
-            // them.
-            if (bucket == null) {
-                bucket = new ConcurrentHashMap<SchemaId, Map<Long, RecordType>>(Math.min(recordTypes.size(), 8), .75f, 1);
-                buckets.put(bucketId, bucket);
-            }
-            // Fill the bucket with the new record types
+        refresh(typeBucket.getRecordTypes());
+    }
+
+    private void refresh(List<RecordType> recordTypes) {
+        synchronized (monitor) {
+            // One would expect that existing record types need to be removed
+            // first. But since record types cannot be deleted we will just
+            // overwrite them.
+            List<RecordType> refreshedRecordTypes = new ArrayList<RecordType>(recordTypes.size());
             for (RecordType recordType : recordTypes) {
-                if (!removeFromLocalUpdateBucket(recordType, bucketId)) {
-                    putRecordTypeInBucket(bucket, recordType);
+                // Only update if it was not updated locally
+                // If it was updated locally either this is the refresh of that
+                // update, or the refresh for this update will follow.
+                if (!removeFromLocalUpdates(recordType)) {
+                    refreshedRecordTypes.add(recordType);
                 }
             }
+            snapshot = snapshot.withRecordTypes(refreshedRecordTypes);
         }
-        // Decrement the number of buckets that are being updated again.
-        decCount();
-    }
-
-    private void putRecordTypeInBucket(Map<SchemaId, Map<Long, RecordType>> bucket, RecordType recordType) {
-        if (!bucket.containsKey(recordType.getId())) {
-            bucket.put(recordType.getId(), new HashMap<Long, RecordType>());
-        }
-        bucket.get(recordType.getId()).put(recordType.getVersion(), recordType);
     }
 
     /**
@@ -315,69 +139,197 @@ public class RecordTypesCache {
     public void update(RecordType recordType) {
         // Clone the RecordType to avoid changes to it while it is in the cache
         RecordType rtToCache = recordType.clone();
-        SchemaId id = rtToCache.getId();
-        String bucketId = AbstractSchemaCache.encodeHex(id.getBytes());
-        // First increment the number of buckets that are being updated
-        incCount();
-        // Get a lock on the bucket to be updated
-        synchronized (getBucketMonitor(bucketId)) {
-            Map<SchemaId, Map<Long, RecordType>> bucket = buckets.get(bucketId);
-            // If the bucket does not exist yet, create it
-            if (bucket == null) {
-                bucket = new ConcurrentHashMap<SchemaId, Map<Long, RecordType>>(8, .75f, 1);
-                buckets.put(bucketId, bucket);
-            }
-            putRecordTypeInBucket(bucket, rtToCache);
+        synchronized (monitor) {
+            snapshot = snapshot.withRecordTypes(Collections.singletonList(rtToCache));
             // Mark that this recordType is updated locally
             // and that the next refresh can be ignored
             // since this refresh can contain an old recordType
-            addToLocalUpdateBucket(recordType, bucketId);
+            Set<Long> versions = localUpdates.get(rtToCache.getId());
+            if (versions == null) {
+                versions = new HashSet<Long>();
+                localUpdates.put(rtToCache.getId(), versions);
+            }
+            versions.add(rtToCache.getVersion());
         }
-        // Decrement the number of buckets that are being updated again.
-        decCount();
     }
 
-    // Add the id of a record type that has been updated locally
-    // in a bucket. This record type will be skipped in a next
-    // cache refresh sequence.
+    // Check if the record type has been updated locally.
+    // If so, return true and remove it, in which case the refresh
+    // should skip it to avoid replacing the record type with old data.
     // This avoids that a locally updated record type will be
     // overwritten by old data by a cache refresh.
-    private void addToLocalUpdateBucket(RecordType recordType, String bucketId) {
-        Map<SchemaId, Map<Long, RecordType>> localUpdateBucket = localUpdateBuckets.get(bucketId);
-        if (localUpdateBucket == null) {
-            localUpdateBucket = new HashMap<SchemaId, Map<Long, RecordType>>();
-            localUpdateBuckets.put(bucketId, localUpdateBucket);
+    private boolean removeFromLocalUpdates(RecordType recordType) {
+        Set<Long> versions = localUpdates.get(recordType.getId());
+        if (versions == null) {
+            return false;
+        }
+        boolean removed = versions.remove(recordType.getVersion());
+        if (versions.isEmpty()) {
+            localUpdates.remove(recordType.getId());
         }
-        putRecordTypeInBucket(localUpdateBucket, recordType);
+        return removed;
     }
 
-    // Check if the record type is present in the local update bucket.
-    // If so, return true and remove it, in which case the refresh
-    // should skip it to avoid replacing the record type with old data.
-    private boolean removeFromLocalUpdateBucket(RecordType recordType, String bucketId) {
-        Map<SchemaId, Map<Long, RecordType>> localUpdateBucket = localUpdateBuckets.get(bucketId);
-        if (localUpdateBucket == null) {
-            return false;
+    public void clear() {
+        synchronized (monitor) {
+            snapshot = new Snapshot();
+            localUpdates.clear();
         }
-        Map<Long, RecordType> recordTypesByVersion = localUpdateBucket.get(recordType.getId());
-        if (recordTypesByVersion == null) {
-            return false;
+    }
+
+    /**
+     * An immutable state of the cache. The maps it contains are never modified once the snapshot is published.
+     */
+    private static final class Snapshot {
+        private static final int NAME_BUCKET_MASK = 0xFF;
+
+        /**
+         * bucket -> record type id -> record type version -> record type
+         */
+        private final Map<String, Map<SchemaId, NavigableMap<Long, RecordType>>> buckets;
+
+        /**
+         * name bucket -> name -> record type version -> record type
+         */
+        private final Map<Integer, Map<QName, NavigableMap<Long, RecordType>>> nameBuckets;
+
+        /**
+         * Normally a record type points to the record types from which it extends, i.e. to their parent type.
+         * This map allows to traverse the reverse relation: from parent to child. It is only computed when
+         * needed.
+         */
+        private volatile Map<SchemaId, Set<SchemaId>> childRecordTypes;
+
+        Snapshot() {
+            this(Collections.<String, Map<SchemaId, NavigableMap<Long, RecordType>>>emptyMap(),
+                    Collections.<Integer, Map<QName, NavigableMap<Long, RecordType>>>emptyMap());
         }
 
-        RecordType localRt = recordTypesByVersion.remove(recordType.getVersion());
-        return localRt != null;
-    }
+        Snapshot(Map<String, Map<SchemaId, NavigableMap<Long, RecordType>>> buckets,
+                Map<Integer, Map<QName, NavigableMap<Long, RecordType>>> nameBuckets) {
+            this.buckets = buckets;
+            this.nameBuckets = nameBuckets;
+        }
 
-    public void clear() {
-        nameCache.clear();
+        private static Integer nameBucketId(QName name) {
+            return name.hashCode() & NAME_BUCKET_MASK;
+        }
 
-        for (Map bucket : buckets.values()) {
-            bucket.clear();
+        NavigableMap<Long, RecordType> getByName(QName name) {
+            return getByName(nameBuckets, name);
         }
 
-        for (Map<SchemaId, Map<Long, RecordType>> bucket : localUpdateBuckets.values()) {
-            bucket.clear();
+        private static NavigableMap<Long, RecordType> getByName(
+                Map<Integer, Map<QName, NavigableMap<Long, RecordType>>> nameBuckets, QName name) {
+            Map<QName, NavigableMap<Long, RecordType>> nameBucket = nameBuckets.get(nameBucketId(name));
+            return nameBucket != null ? nameBucket.get(name) : null;
         }
-    }
 
+        /**
+         * Returns a new snapshot with the given record types added or replaced. Only the buckets, name buckets
+         * and versions maps affected by the record types are copied.
+         */
+        Snapshot withRecordTypes(List<RecordType> recordTypes) {
+            if (recordTypes.isEmpty()) {
+                return this;
+            }
+
+            Map<String, Map<SchemaId, NavigableMap<Long, RecordType>>> newBuckets =
+                    new HashMap<String, Map<SchemaId, NavigableMap<Long, RecordType>>>(buckets);
+            Map<Integer, Map<QName, NavigableMap<Long, RecordType>>> newNameBuckets =
+                    new HashMap<Integer, Map<QName, NavigableMap<Long, RecordType>>>(nameBuckets);
+            Set<String> copiedBuckets = new HashSet<String>();
+            Set<Integer> copiedNameBuckets = new HashSet<Integer>();
+            Set<SchemaId> copiedIds = new HashSet<SchemaId>();
+            Set<QName> copiedNames = new HashSet<QName>();
+
+            for (RecordType recordType : recordTypes) {
+                String bucketId = AbstractSchemaCache.encodeHex(recordType.getId().getBytes());
+                Map<SchemaId, NavigableMap<Long, RecordType>> bucket = newBuckets.get(bucketId);
+                if (copiedBuckets.add(bucketId)) {
+                    bucket = bucket == null ? new HashMap<SchemaId, NavigableMap<Long, RecordType>>(8)
+                            : new HashMap<SchemaId, NavigableMap<Long, RecordType>>(bucket);
+                    newBuckets.put(bucketId, bucket);
+                }
+                NavigableMap<Long, RecordType> byVersion = copyOnce(bucket, recordType.getId(), copiedIds);
+                RecordType oldRecordType = byVersion.put(recordType.getVersion(), recordType);
+
+                if (oldRecordType != null && !oldRecordType.getName().equals(recordType.getName())) {
+                    // The old name should no longer resolve to this record type version
+                    QName oldName = oldRecordType.getName();
+                    NavigableMap<Long, RecordType> byOldName = getByName(newNameBuckets, oldName);
+                    RecordType withOldName = byOldName != null ? byOldName.get(oldRecordType.getVersion()) : null;
+                    if (withOldName != null && withOldName.getId().equals(recordType.getId())) {
+                        Map<QName, NavigableMap<Long, RecordType>> oldNameBucket =
+                                getNameBucketCopy(oldName, newNameBuckets, copiedNameBuckets);
+                        byOldName = copyOnce(oldNameBucket, oldName, copiedNames);
+                        byOldName.remove(oldRecordType.getVersion());
+                        if (byOldName.isEmpty()) {
+                            oldNameBucket.remove(oldName);
+                            copiedNames.remove(oldName);
+                        }
+                    }
+                }
+                copyOnce(getNameBucketCopy(recordType.getName(), newNameBuckets, copiedNameBuckets),
+                        recordType.getName(), copiedNames).put(recordType.getVersion(), recordType);
+            }
+
+            return new Snapshot(newBuckets, newNameBuckets);
+        }
+
+        /**
+         * Returns the name bucket for the given name, which is copied (or created) the first time it is requested
+         * for a new snapshot.
+         */
+        private static Map<QName, NavigableMap<Long, RecordType>> getNameBucketCopy(QName name,
+                Map<Integer, Map<QName, NavigableMap<Long, RecordType>>> nameBuckets, Set<Integer> copiedNameBuckets) {
+            Integer bucketId = nameBucketId(name);
+            Map<QName, NavigableMap<Long, RecordType>> bucket = nameBuckets.get(bucketId);
+            if (copiedNameBuckets.add(bucketId)) {
+                bucket = bucket == null ? new HashMap<QName, NavigableMap<Long, RecordType>>(8)
+                        : new HashMap<QName, NavigableMap<Long, RecordType>>(bucket);
+                nameBuckets.put(bucketId, bucket);
+            }
+            return bucket;
+        }
+
+        /**
+         * Returns the versions map for the given key, which is copied (or created) the first time it is requested
+         * for a new snapshot, so that the map of the previous snapshot is left untouched.
+         */
+        private static <K> NavigableMap<Long, RecordType> copyOnce(Map<K, NavigableMap<Long, RecordType>> map,
+                K key, Set<K> copiedKeys) {
+            NavigableMap<Long, RecordType> byVersion = map.get(key);
+            if (copiedKeys.add(key)) {
+                byVersion = byVersion == null ? new TreeMap<Long, RecordType>()
+                        : new TreeMap<Long, RecordType>(byVersion);
+                map.put(key, byVersion);
+            }
+            return byVersion;
+        }
+
+        Map<SchemaId, Set<SchemaId>> getChildRecordTypes() {
+            Map<SchemaId, Set<SchemaId>> result = childRecordTypes;
+            if (result == null) {
+                // Concurrent readers might both compute it, which is harmless since the snapshot does not change
+                result = new HashMap<SchemaId, Set<SchemaId>>();
+                for (Map<SchemaId, NavigableMap<Long, RecordType>> bucket : buckets.values()) {
+                    for (NavigableMap<Long, RecordType> recordTypeByVersion : bucket.values()) {
+                        // TODO: we only look at the last record type here, not sure why
+                        RecordType lastRecordType = recordTypeByVersion.lastEntry().getValue();
+                        for (SchemaId parent : lastRecordType.getSupertypes().keySet()) {
+                            Set<SchemaId> children = result.get(parent);
+                            if (children == null) {
+                                children = new HashSet<SchemaId>();
+                                result.put(parent, children);
+                            }
+                            children.add(lastRecordType.getId());
+                        }
+                    }
+                }
+                childRecordTypes = result;
+            }
+            return result;
+        }
+    }
 }
@@ -25,6 +25,7 @@ import org.apache.hadoop.metrics.Updater;
 import org.apache.hadoop.metrics.util.MetricsBase;
 import org.apache.hadoop.metrics.util.MetricsLongValue;
 import org.apache.hadoop.metrics.util.MetricsRegistry;
+import org.apache.hadoop.metrics.util.MetricsTimeVaryingLong;
 import org.apache.hadoop.metrics.util.MetricsTimeVaryingRate;
 import org.lilyproject.util.hbase.metrics.MBeanUtil;
 import org.lilyproject.util.hbase.metrics.MetricsDynamicMBeanBase;
@@ -34,12 +35,16 @@ public class RepositoryMetrics implements Updater {
 
     public enum HBaseAction{PUT, GET, LOCK, UNLOCK}
 
+    public enum CacheAction{HIT, MISS, EVICTION}
+
     private final MetricsRegistry registry = new MetricsRegistry();
     private final MetricsRecord metricsRecord;
     private final MetricsContext context;
     private final EnumMap<Action, MetricsTimeVaryingRate> rates = new EnumMap<Action, MetricsTimeVaryingRate>(Action.class);
     private final EnumMap<HBaseAction, MetricsTimeVaryingRate> hbaseRates =
                 new EnumMap<HBaseAction, MetricsTimeVaryingRate>(HBaseAction.class);
+    private final EnumMap<CacheAction, MetricsTimeVaryingLong> cacheCounts =
+                new EnumMap<CacheAction, MetricsTimeVaryingLong>(CacheAction.class);
     private final MetricsLongValue lastMutationEventTimestamp;
     private final RepositoryMetricsMXBean mbean;
     private final String recordName;
@@ -53,6 +58,10 @@ public class RepositoryMetrics implements Updater {
         for (HBaseAction action : HBaseAction.values()) {
             hbaseRates.put(action, new MetricsTimeVaryingRate(action.name().toLowerCase(), registry));
         }
+
+        for (CacheAction action : CacheAction.values()) {
+            cacheCounts.put(action, new MetricsTimeVaryingLong("recordCache_" + action.name().toLowerCase(), registry));
+        }
         lastMutationEventTimestamp = new MetricsLongValue("timestampLastMutation", registry);
         context = MetricsUtil.getContext("repository");
         metricsRecord = MetricsUtil.createRecord(context, recordName);
@@ -86,6 +95,10 @@ public class RepositoryMetrics implements Updater {
         hbaseRates.get(action).inc(duration);
     }
 
+    void reportCache(CacheAction action, long count) {
+        cacheCounts.get(action).inc(count);
+    }
+
     public class RepositoryMetricsMXBean extends MetricsDynamicMBeanBase {
         private final ObjectName mbeanName;
 
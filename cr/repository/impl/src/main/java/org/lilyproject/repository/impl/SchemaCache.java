@@ -123,4 +123,9 @@ public interface SchemaCache {
     boolean fieldTypeExists(QName name) throws InterruptedException;
 
     FieldType getFieldTypeByNameReturnNull(QName name) throws InterruptedException;
+
+    /**
+     * See {@link TypeManager#getSchemaCacheChangeCount()}.
+     */
+    long getChangeCount();
 }
@@ -23,10 +23,13 @@ import org.lilyproject.repository.api.FieldType;
 import org.lilyproject.repository.api.IdentityRecordStack;
 import org.lilyproject.repository.api.LRepository;
 import org.lilyproject.repository.api.RepositoryException;
+import org.lilyproject.repository.api.ValueType;
 import org.lilyproject.repository.api.filter.FieldValueFilter;
+import org.lilyproject.repository.api.filter.FieldValueFilter.ListMatch;
 import org.lilyproject.repository.api.filter.RecordFilter;
 import org.lilyproject.repository.impl.FieldTypeImpl;
 import org.lilyproject.repository.impl.hbase.LilyFieldSingleColumnValueFilter;
+import org.lilyproject.repository.impl.hbase.LilyFieldValueCompareFilter;
 import org.lilyproject.repository.spi.HBaseRecordFilterFactory;
 import org.lilyproject.util.hbase.LilyHBaseSchema.RecordCf;
 
@@ -50,19 +53,45 @@ public class HBaseFieldValueFilter implements HBaseRecordFilterFactory {
         }
 
         CompareOp compareOp = filter.getCompareOp() != null ? filter.getCompareOp() : CompareOp.EQUAL;
-        if (compareOp != CompareOp.EQUAL && compareOp != CompareOp.NOT_EQUAL) {
-            throw new IllegalArgumentException("FieldValueFilter does not support this compare operator: " + compareOp);
+        FieldType fieldType = repository.getTypeManager().getFieldTypeByName(filter.getField());
+        ValueType valueType = fieldType.getValueType();
+        byte[] qualifier = ((FieldTypeImpl)fieldType).getQualifier();
+
+        if (filter.getListMatch() == null && (compareOp == CompareOp.EQUAL || compareOp == CompareOp.NOT_EQUAL)) {
+            // Equality can be checked on the encoded bytes, no need to decode the field values
+            LilyFieldSingleColumnValueFilter hbaseFilter = new LilyFieldSingleColumnValueFilter(RecordCf.DATA.bytes,
+                    qualifier, HBaseRecordFilterUtil.translateCompareOp(compareOp),
+                    encode(filter.getFieldValue(), valueType));
+            hbaseFilter.setFilterIfMissing(filter.getFilterIfMissing());
+            return hbaseFilter;
         }
 
-        FieldType fieldType = repository.getTypeManager().getFieldTypeByName(filter.getField());
-        DataOutput dataOutput = new DataOutputImpl();
-        fieldType.getValueType().write(filter.getFieldValue(), dataOutput, new IdentityRecordStack());
-        byte[] fieldValue = dataOutput.toByteArray();
+        if (filter.getListMatch() != null && valueType.getNestingLevel() == 0) {
+            throw new IllegalArgumentException("FieldValueFilter: a list match can only be used for LIST or PATH " +
+                    "fields, not for " + valueType.getName());
+        } else if (filter.getListMatch() == null && valueType.getNestingLevel() > 0) {
+            throw new IllegalArgumentException("FieldValueFilter: compare operator " + compareOp + " can only be " +
+                    "used for " + valueType.getName() + " fields in combination with a list match");
+        }
 
-        LilyFieldSingleColumnValueFilter hbaseFilter = new LilyFieldSingleColumnValueFilter(RecordCf.DATA.bytes,
-                ((FieldTypeImpl)fieldType).getQualifier(), HBaseRecordFilterUtil.translateCompareOp(compareOp), fieldValue);
+        ValueType deepestValueType = valueType.getDeepestValueType();
+        if (!LilyFieldValueCompareFilter.isSupportedValueType(deepestValueType.getBaseName())) {
+            throw new IllegalArgumentException("FieldValueFilter does not support this compare operator: " +
+                    compareOp + ", for fields of type " + valueType.getName());
+        }
+
+        LilyFieldValueCompareFilter hbaseFilter = new LilyFieldValueCompareFilter(RecordCf.DATA.bytes, qualifier,
+                deepestValueType.getBaseName(), valueType.getNestingLevel(),
+                HBaseRecordFilterUtil.translateCompareOp(compareOp),
+                encode(filter.getFieldValue(), deepestValueType), filter.getListMatch() == ListMatch.ALL);
         hbaseFilter.setFilterIfMissing(filter.getFilterIfMissing());
 
         return hbaseFilter;
     }
+
+    private byte[] encode(Object value, ValueType valueType) throws RepositoryException, InterruptedException {
+        DataOutput dataOutput = new DataOutputImpl();
+        valueType.write(value, dataOutput, new IdentityRecordStack());
+        return dataOutput.toByteArray();
+    }
 }
@@ -0,0 +1,274 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.repository.impl.hbase;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.filter.CompareFilter;
+import org.apache.hadoop.hbase.filter.FilterBase;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.lilyproject.bytes.impl.DataInputImpl;
+import org.lilyproject.repository.api.ValueType;
+import org.lilyproject.repository.impl.FieldFlags;
+import org.lilyproject.repository.impl.valuetype.BooleanValueType;
+import org.lilyproject.repository.impl.valuetype.DateTimeValueType;
+import org.lilyproject.repository.impl.valuetype.DateValueType;
+import org.lilyproject.repository.impl.valuetype.DecimalValueType;
+import org.lilyproject.repository.impl.valuetype.DoubleValueType;
+import org.lilyproject.repository.impl.valuetype.IntegerValueType;
+import org.lilyproject.repository.impl.valuetype.LongValueType;
+import org.lilyproject.repository.impl.valuetype.StringValueType;
+
+/**
+ * Filters rows based on the value of a Lily field, comparing the decoded field value rather than its bytes.
+ *
+ * <p>The stored field values are not byte-order comparable, therefore {@link LilyFieldSingleColumnValueFilter}
+ * can only be used for equality checks. This filter decodes the value inside the region server, using the
+ * natural order of the value type, so that also range comparisons can be evaluated server-side.</p>
+ *
+ * <p>Only value types which can be decoded without the type manager are supported, see
+ * {@link #isSupportedValueType}. For LIST and PATH fields (nestingLevel &gt; 0), the value is compared with each
+ * of the (deepest) elements, and the row matches if any or all of them satisfy the comparison.</p>
+ *
+ * <p>Like {@link LilyFieldSingleColumnValueFilter} (with latestVersionOnly), only the latest version of the
+ * field is tested, and a field with a delete marker is considered as missing.</p>
+ *
+ * <p>IMPORTANT: This implementation depends on the byte encodings of the value types, ListValueType and
+ * PathValueType. Any changes there have an impact on this implementation.</p>
+ */
+public class LilyFieldValueCompareFilter extends FilterBase {
+    private static final Map<String, ValueType> SUPPORTED_VALUE_TYPES = new HashMap<String, ValueType>();
+
+    static {
+        SUPPORTED_VALUE_TYPES.put(StringValueType.NAME, new StringValueType());
+        SUPPORTED_VALUE_TYPES.put(IntegerValueType.NAME, new IntegerValueType());
+        SUPPORTED_VALUE_TYPES.put(LongValueType.NAME, new LongValueType());
+        SUPPORTED_VALUE_TYPES.put(DoubleValueType.NAME, new DoubleValueType());
+        SUPPORTED_VALUE_TYPES.put(DecimalValueType.NAME, new DecimalValueType());
+        SUPPORTED_VALUE_TYPES.put(DateValueType.NAME, new DateValueType());
+        SUPPORTED_VALUE_TYPES.put(DateTimeValueType.NAME, new DateTimeValueType());
+        SUPPORTED_VALUE_TYPES.put(BooleanValueType.NAME, new BooleanValueType());
+    }
+
+    private byte[] columnFamily;
+    private byte[] columnQualifier;
+    private String valueTypeName;
+    private int nestingLevel;
+    private CompareFilter.CompareOp compareOp;
+    private byte[] value;
+    private boolean matchAll;
+    private boolean filterIfMissing;
+
+    // Derived from the above, initialized lazily after deserialization
+    private ValueType valueType;
+    private Comparator<Object> comparator;
+    private Object decodedValue;
+
+    private boolean foundColumn = false;
+    private boolean matchedColumn = false;
+
+    /**
+     * Writable constructor, do not use.
+     */
+    public LilyFieldValueCompareFilter() {
+    }
+
+    /**
+     * @param valueTypeName the base name of the (deepest) value type of the field
+     * @param nestingLevel the number of LIST or PATH levels around the value type
+     * @param value the value to compare with, encoded with the value type (without field flags)
+     * @param matchAll for nested values, whether all elements (rather than any element) should match
+     */
+    public LilyFieldValueCompareFilter(byte[] family, byte[] qualifier, String valueTypeName, int nestingLevel,
+            CompareFilter.CompareOp compareOp, byte[] value, boolean matchAll) {
+        if (!isSupportedValueType(valueTypeName)) {
+            throw new IllegalArgumentException("Unsupported value type: " + valueTypeName);
+        }
+        this.columnFamily = family;
+        this.columnQualifier = qualifier;
+        this.valueTypeName = valueTypeName;
+        this.nestingLevel = nestingLevel;
+        this.compareOp = compareOp;
+        this.value = value;
+        this.matchAll = matchAll;
+    }
+
+    /**
+     * Returns true if values of the value type with the given base name can be compared by this filter.
+     */
+    public static boolean isSupportedValueType(String valueTypeName) {
+        return SUPPORTED_VALUE_TYPES.containsKey(valueTypeName);
+    }
+
+    public boolean getFilterIfMissing() {
+        return filterIfMissing;
+    }
+
+    /**
+     * Set whether the entire row should be filtered if the field is not found (or is deleted).
+     */
+    public void setFilterIfMissing(boolean filterIfMissing) {
+        this.filterIfMissing = filterIfMissing;
+    }
+
+    @Override
+    public ReturnCode filterKeyValue(KeyValue keyValue) {
+        if (matchedColumn) {
+            // We already found and matched the field, all keys now pass
+            return ReturnCode.INCLUDE;
+        } else if (foundColumn) {
+            // We found but did not match the field, skip to next row
+            return ReturnCode.NEXT_ROW;
+        }
+        if (!keyValue.matchingColumn(columnFamily, columnQualifier)) {
+            return ReturnCode.INCLUDE;
+        }
+        foundColumn = true;
+        if (filterColumnValue(keyValue.getBuffer(), keyValue.getValueOffset(), keyValue.getValueLength())) {
+            return ReturnCode.NEXT_ROW;
+        }
+        matchedColumn = true;
+        return ReturnCode.INCLUDE;
+    }
+
+    /**
+     * Returns true if the row should be filtered out because of this field value.
+     */
+    private boolean filterColumnValue(byte[] data, int offset, int length) {
+        if (!FieldFlags.exists(data[offset])) {
+            // a field with deleted marker is the same as a missing field
+            return filterIfMissing;
+        }
+
+        // Leave out the field flags and the metadata appended to the value, if any
+        int metadataEncodingVersion = FieldFlags.getFieldMetadataVersion(data[offset]);
+        int valueLength;
+        if (metadataEncodingVersion == 0) {
+            valueLength = length - FieldFlags.SIZE_OF_FIELD_FLAGS;
+        } else if (metadataEncodingVersion == 1) {
+            int metadataSize = Bytes.toInt(data, offset + length - Bytes.SIZEOF_INT, Bytes.SIZEOF_INT);
+            valueLength = length - FieldFlags.SIZE_OF_FIELD_FLAGS - metadataSize - Bytes.SIZEOF_INT;
+        } else {
+            throw new RuntimeException("Unsupported field metadata encoding version: " + metadataEncodingVersion);
+        }
+
+        init();
+        DataInputImpl dataInput = new DataInputImpl(data, offset + FieldFlags.SIZE_OF_FIELD_FLAGS, valueLength);
+        return !matches(dataInput, nestingLevel);
+    }
+
+    private boolean matches(DataInputImpl dataInput, int nestingLevel) {
+        if (nestingLevel == 0) {
+            return satisfiesCompareOp(comparator.compare(read(dataInput), decodedValue));
+        }
+
+        // All elements are read, also when the outcome is known, to end up after this value in the input
+        int count = dataInput.readInt();
+        boolean result = matchAll;
+        for (int i = 0; i < count; i++) {
+            boolean elementMatches = matches(dataInput, nestingLevel - 1);
+            result = matchAll ? result && elementMatches : result || elementMatches;
+        }
+        return result;
+    }
+
+    private boolean satisfiesCompareOp(int compareResult) {
+        switch (compareOp) {
+            case LESS:
+                return compareResult < 0;
+            case LESS_OR_EQUAL:
+                return compareResult <= 0;
+            case EQUAL:
+                return compareResult == 0;
+            case NOT_EQUAL:
+                return compareResult != 0;
+            case GREATER_OR_EQUAL:
+                return compareResult >= 0;
+            case GREATER:
+                return compareResult > 0;
+            default:
+                throw new RuntimeException("Unknown Compare op " + compareOp.name());
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void init() {
+        if (valueType == null) {
+            valueType = SUPPORTED_VALUE_TYPES.get(valueTypeName);
+            comparator = valueType.getComparator();
+            decodedValue = read(new DataInputImpl(value));
+        }
+    }
+
+    private Object read(DataInputImpl dataInput) {
+        try {
+            return valueType.read(dataInput);
+        } catch (Exception e) {
+            // The supported value types don't need the repository to decode their values
+            throw new RuntimeException("Error decoding value of type " + valueTypeName, e);
+        }
+    }
+
+    @Override
+    public boolean filterRow() {
+        // If column was found, return false if it was matched, true if it was not
+        // If column not found, return true if we filter if missing, false if not
+        return foundColumn ? !matchedColumn : filterIfMissing;
+    }
+
+    @Override
+    public void reset() {
+        foundColumn = false;
+        matchedColumn = false;
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+        columnFamily = Bytes.readByteArray(in);
+        columnQualifier = Bytes.readByteArray(in);
+        valueTypeName = in.readUTF();
+        nestingLevel = in.readInt();
+        compareOp = CompareFilter.CompareOp.valueOf(in.readUTF());
+        value = Bytes.readByteArray(in);
+        matchAll = in.readBoolean();
+        filterIfMissing = in.readBoolean();
+    }
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+        Bytes.writeByteArray(out, columnFamily);
+        Bytes.writeByteArray(out, columnQualifier);
+        out.writeUTF(valueTypeName);
+        out.writeInt(nestingLevel);
+        out.writeUTF(compareOp.name());
+        Bytes.writeByteArray(out, value);
+        out.writeBoolean(matchAll);
+        out.writeBoolean(filterIfMissing);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s (%s, %s, %s, %s, %s, %s)", getClass().getSimpleName(),
+                Bytes.toStringBinary(columnFamily), Bytes.toStringBinary(columnQualifier), valueTypeName,
+                nestingLevel, compareOp.name(), Bytes.toStringBinary(value));
+    }
+}
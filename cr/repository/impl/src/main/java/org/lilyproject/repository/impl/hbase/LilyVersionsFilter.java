@@ -0,0 +1,107 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.repository.impl.hbase;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.filter.FilterBase;
+import org.lilyproject.util.ArgumentValidator;
+
+/**
+ * HBase filter which only returns the cells needed to read a given set of record versions. Since a field which
+ * is not changed by an update keeps its cell of an older version, the cell needed to read a version is, per
+ * column, the one with the highest timestamp (= version) which is not higher than that version.
+ *
+ * <p>This allows to read a few versions which are far apart without transferring all the versions in
+ * between. The get or scan should still be limited to the time range and number of versions between the
+ * lowest and highest requested version.</p>
+ */
+public class LilyVersionsFilter extends FilterBase {
+    /** The requested versions, from high to low. */
+    private long[] versions;
+    /** The column of the previous cell. */
+    private KeyValue column;
+    /** Index of the highest version for which the cell of the current column was not found yet. */
+    private int position;
+
+    public LilyVersionsFilter(Collection<Long> versions) {
+        ArgumentValidator.notNull(versions, "versions");
+
+        long[] sorted = new long[versions.size()];
+        int i = 0;
+        for (Long version : versions) {
+            sorted[i++] = version;
+        }
+        Arrays.sort(sorted);
+        this.versions = new long[sorted.length];
+        for (i = 0; i < sorted.length; i++) {
+            this.versions[i] = sorted[sorted.length - 1 - i];
+        }
+    }
+
+    public LilyVersionsFilter() {
+        // for hbase readFields
+    }
+
+    @Override
+    public ReturnCode filterKeyValue(KeyValue kv) {
+        if (column == null || !column.matchingFamily(kv) || !column.matchingQualifier(kv)) {
+            // The cells of a column are ordered from the highest to the lowest timestamp
+            column = kv;
+            position = 0;
+        }
+
+        long timestamp = kv.getTimestamp();
+        if (position >= versions.length) {
+            return ReturnCode.NEXT_COL;
+        } else if (timestamp > versions[position]) {
+            return ReturnCode.SKIP;
+        }
+
+        // This cell is the one to read for all remaining versions starting from its timestamp
+        while (position < versions.length && versions[position] >= timestamp) {
+            position++;
+        }
+        return ReturnCode.INCLUDE;
+    }
+
+    @Override
+    public void reset() {
+        column = null;
+        position = 0;
+    }
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+        out.writeInt(versions.length);
+        for (long version : versions) {
+            out.writeLong(version);
+        }
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+        versions = new long[in.readInt()];
+        for (int i = 0; i < versions.length; i++) {
+            versions[i] = in.readLong();
+        }
+    }
+}
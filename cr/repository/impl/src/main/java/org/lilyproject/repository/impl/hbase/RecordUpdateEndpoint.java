@@ -0,0 +1,466 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.repository.impl.hbase;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.lang.reflect.Constructor;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.CoprocessorEnvironment;
+import org.apache.hadoop.hbase.client.RowLock;
+import org.apache.hadoop.hbase.coprocessor.BaseEndpointCoprocessor;
+import org.apache.hadoop.hbase.coprocessor.RegionCoprocessorEnvironment;
+import org.apache.hadoop.hbase.zookeeper.ZKConfig;
+import org.lilyproject.bytes.api.DataInput;
+import org.lilyproject.bytes.api.DataOutput;
+import org.lilyproject.bytes.impl.DataInputImpl;
+import org.lilyproject.bytes.impl.DataOutputImpl;
+import org.lilyproject.repository.api.Blob;
+import org.lilyproject.repository.api.BlobAccess;
+import org.lilyproject.repository.api.BlobException;
+import org.lilyproject.repository.api.BlobManager;
+import org.lilyproject.repository.api.BlobReference;
+import org.lilyproject.repository.api.BlobStoreAccess;
+import org.lilyproject.repository.api.FieldType;
+import org.lilyproject.repository.api.FieldTypes;
+import org.lilyproject.repository.api.IdGenerator;
+import org.lilyproject.repository.api.IdentityRecordStack;
+import org.lilyproject.repository.api.LRepository;
+import org.lilyproject.repository.api.Metadata;
+import org.lilyproject.repository.api.QName;
+import org.lilyproject.repository.api.Record;
+import org.lilyproject.repository.api.RecordException;
+import org.lilyproject.repository.api.RecordId;
+import org.lilyproject.repository.api.Repository;
+import org.lilyproject.repository.api.RepositoryException;
+import org.lilyproject.repository.api.ResponseStatus;
+import org.lilyproject.repository.api.Scope;
+import org.lilyproject.repository.api.TypeManager;
+import org.lilyproject.repository.api.ValueType;
+import org.lilyproject.repository.impl.AbstractRepositoryManager;
+import org.lilyproject.repository.impl.HBaseRepository;
+import org.lilyproject.repository.impl.HBaseTypeManager;
+import org.lilyproject.repository.impl.MetadataSerDeser;
+import org.lilyproject.repository.impl.RecordFactoryImpl;
+import org.lilyproject.repository.impl.RepoTableKey;
+import org.lilyproject.repository.impl.id.IdGeneratorImpl;
+import org.lilyproject.repository.model.api.RepositoryModel;
+import org.lilyproject.repository.model.impl.RepositoryModelImpl;
+import org.lilyproject.util.exception.ExceptionUtil;
+import org.lilyproject.util.hbase.HBaseTableFactoryImpl;
+import org.lilyproject.util.io.Closer;
+import org.lilyproject.util.zookeeper.ZkUtil;
+import org.lilyproject.util.zookeeper.ZooKeeperItf;
+
+/**
+ * Coprocessor endpoint which performs record updates inside the region hosting the record.
+ *
+ * <p>A regular update reads the record, calculates the changes and writes them with a check-and-put on the
+ * OCC column, failing with a {@link org.lilyproject.repository.api.ConcurrentRecordUpdateException} when another
+ * update got in between. This endpoint takes the row lock of the record, and then runs the same update code
+ * against the region itself (see {@link RegionRecordTable}): the read, the diff, the versioning, the payload
+ * generation and the write all happen under that row lock, in one call from the client. Since regular writes
+ * to the row wait on the same lock, the update cannot conflict with any other update.</p>
+ *
+ * <p>The endpoint only supports updates which can be performed without anything of the Lily server: no
+ * {@link org.lilyproject.repository.spi.RecordUpdateHook}s, mutation conditions, blobs or authorization
+ * context, see {@link HBaseRepository}. For the schema, the endpoint uses a type manager shared by all the regions
+ * of the region server, which only answers from its cache while updating. It connects to the ZooKeeper of HBase,
+ * unless another one is configured with {@link #ZK_CONNECT_STRING}.</p>
+ *
+ * <p>The endpoint should be loaded on the record tables, for example by adding it to
+ * hbase.coprocessor.region.classes, which requires lily-repository-impl on the region server classpath.</p>
+ */
+public class RecordUpdateEndpoint extends BaseEndpointCoprocessor implements RecordUpdateProtocol {
+    public static final String ZK_CONNECT_STRING = "lily.zookeeper.connectString";
+    public static final String ZK_SESSION_TIMEOUT = "lily.zookeeper.sessionTimeout";
+
+    private static final byte RESPONSE_RECORD = 0;
+    private static final byte RESPONSE_EXCEPTION = 1;
+    private static final byte NULL_MARKER = 0;
+    private static final byte NOT_NULL_MARKER = 1;
+
+    // The schema is shared by all instances of the endpoint, and only set up on first use since the Lily
+    // tables might not be available yet when the regions are opened.
+    private static final Object SCHEMA_LOCK = new Object();
+    private static int instanceCount;
+    private static EndpointSchema schema;
+
+    private Configuration conf;
+    private RegionRecordTable recordTable;
+    private RegionRepositoryManager repositoryManager;
+
+    @Override
+    public void start(CoprocessorEnvironment env) {
+        super.start(env);
+        conf = env.getConfiguration();
+        recordTable = new RegionRecordTable(((RegionCoprocessorEnvironment)env).getRegion());
+        synchronized (SCHEMA_LOCK) {
+            instanceCount++;
+        }
+    }
+
+    @Override
+    public void stop(CoprocessorEnvironment env) {
+        synchronized (SCHEMA_LOCK) {
+            instanceCount--;
+            if (instanceCount == 0 && schema != null) {
+                schema.close();
+                schema = null;
+            }
+        }
+        super.stop(env);
+    }
+
+    @Override
+    public byte[] update(String repositoryName, String tableName, byte[] request) throws IOException {
+        DataOutput output = new DataOutputImpl();
+        try {
+            Repository repository = getRepositoryManager().getRepository(repositoryName, tableName);
+            DataInput input = new DataInputImpl(request);
+            boolean useLatestRecordType = input.readBoolean();
+            Record record = readRecord(input, repository);
+
+            Record result;
+            RowLock rowLock = recordTable.lockRow(record.getId().toBytes());
+            try {
+                result = repository.update(record, false, useLatestRecordType);
+            } finally {
+                recordTable.unlockRow(rowLock);
+            }
+
+            output.writeByte(RESPONSE_RECORD);
+            writeResult(result, output);
+        } catch (RepositoryException e) {
+            output = new DataOutputImpl();
+            output.writeByte(RESPONSE_EXCEPTION);
+            writeException(e, output);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while updating record");
+        }
+        return output.toByteArray();
+    }
+
+    private synchronized RegionRepositoryManager getRepositoryManager() throws IOException {
+        if (repositoryManager == null) {
+            EndpointSchema endpointSchema;
+            synchronized (SCHEMA_LOCK) {
+                if (schema == null) {
+                    schema = new EndpointSchema(conf);
+                }
+                endpointSchema = schema;
+            }
+            repositoryManager = new RegionRepositoryManager(endpointSchema, recordTable);
+        }
+        return repositoryManager;
+    }
+
+    /**
+     * Serializes an update request for {@link #update}. The field values are written with the value types of the
+     * given field types, the endpoint reads them with the value types of the region server's schema.
+     */
+    public static byte[] writeRequest(Record record, boolean useLatestRecordType, FieldTypes fieldTypes)
+            throws RepositoryException, InterruptedException {
+        DataOutput output = new DataOutputImpl();
+        output.writeBoolean(useLatestRecordType);
+
+        byte[] idBytes = record.getId().toBytes();
+        output.writeVInt(idBytes.length);
+        output.writeBytes(idBytes);
+        writeNullOrQName(record.getRecordTypeName(), output);
+        writeNullOrVLong(record.getRecordTypeVersion(), output);
+
+        output.writeVInt(record.getFields().size());
+        for (Map.Entry<QName, Object> entry : record.getFields().entrySet()) {
+            ValueType valueType = fieldTypes.getFieldType(entry.getKey()).getValueType();
+            writeQName(entry.getKey(), output);
+            output.writeUTF(valueType.getName());
+            try {
+                valueType.write(entry.getValue(), output, new IdentityRecordStack());
+            } catch (Exception e) {
+                ExceptionUtil.handleInterrupt(e);
+                throw new RecordException("Error serializing field " + entry.getKey(), e);
+            }
+        }
+
+        output.writeVInt(record.getFieldsToDelete().size());
+        for (QName name : record.getFieldsToDelete()) {
+            writeQName(name, output);
+        }
+
+        Map<String, String> attributes = record.hasAttributes() ? record.getAttributes() : null;
+        output.writeVInt(attributes == null ? 0 : attributes.size());
+        if (attributes != null) {
+            for (Map.Entry<String, String> entry : attributes.entrySet()) {
+                output.writeUTF(entry.getKey());
+                output.writeUTF(entry.getValue());
+            }
+        }
+
+        Map<QName, Metadata> metadatas = record.getMetadataMap();
+        output.writeVInt(metadatas.size());
+        for (Map.Entry<QName, Metadata> entry : metadatas.entrySet()) {
+            writeQName(entry.getKey(), output);
+            MetadataSerDeser.write(entry.getValue(), output);
+        }
+
+        return output.toByteArray();
+    }
+
+    private static Record readRecord(DataInput input, LRepository repository)
+            throws RepositoryException, InterruptedException {
+        Record record = repository.getRecordFactory().newRecord();
+        record.setId(repository.getIdGenerator().fromBytes(input.readBytes(input.readVInt())));
+        QName recordTypeName = readNullOrQName(input);
+        Long recordTypeVersion = readNullOrVLong(input);
+        if (recordTypeName != null) {
+            record.setRecordType(recordTypeName, recordTypeVersion);
+        }
+
+        TypeManager typeManager = repository.getTypeManager();
+        int size = input.readVInt();
+        for (int i = 0; i < size; i++) {
+            QName name = readQName(input);
+            ValueType valueType = typeManager.getValueType(input.readUTF());
+            Object value = valueType.read(input);
+            record.setField(name, value);
+        }
+
+        size = input.readVInt();
+        for (int i = 0; i < size; i++) {
+            record.getFieldsToDelete().add(readQName(input));
+        }
+
+        size = input.readVInt();
+        for (int i = 0; i < size; i++) {
+            record.getAttributes().put(input.readUTF(), input.readUTF());
+        }
+
+        size = input.readVInt();
+        for (int i = 0; i < size; i++) {
+            QName fieldName = readQName(input);
+            record.setMetadata(fieldName, MetadataSerDeser.read(input));
+        }
+
+        return record;
+    }
+
+    /**
+     * Writes what the update changed on the record: the client already has everything else.
+     */
+    private static void writeResult(Record result, DataOutput output) {
+        output.writeVInt(result.getResponseStatus().ordinal());
+        writeNullOrVLong(result.getVersion(), output);
+        for (Scope scope : Scope.values()) {
+            writeNullOrQName(result.getRecordTypeName(scope), output);
+            writeNullOrVLong(result.getRecordTypeVersion(scope), output);
+        }
+    }
+
+    private static void writeException(RepositoryException exception, DataOutput output) {
+        output.writeUTF(exception.getClass().getName());
+        output.writeUTF(exception.getMessage());
+        Map<String, String> state = exception.getState();
+        output.writeVInt(state == null ? 0 : state.size());
+        if (state != null) {
+            for (Map.Entry<String, String> entry : state.entrySet()) {
+                output.writeUTF(entry.getKey());
+                output.writeUTF(entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * Reads the response of {@link #update}: applies the outcome of the update to the given copy of the record
+     * that was sent, or throws the exception that occurred in the region server.
+     */
+    public static void readResponse(byte[] response, Record record) throws RepositoryException {
+        DataInput input = new DataInputImpl(response);
+        if (input.readByte() == RESPONSE_RECORD) {
+            record.setResponseStatus(ResponseStatus.values()[input.readVInt()]);
+            record.setVersion(readNullOrVLong(input));
+            for (Scope scope : Scope.values()) {
+                QName recordTypeName = readNullOrQName(input);
+                Long recordTypeVersion = readNullOrVLong(input);
+                record.setRecordType(scope, recordTypeName, recordTypeVersion);
+            }
+            return;
+        }
+
+        String exceptionClass = input.readUTF();
+        String message = input.readUTF();
+        int stateSize = input.readVInt();
+        Map<String, String> state = new HashMap<String, String>();
+        for (int i = 0; i < stateSize; i++) {
+            state.put(input.readUTF(), input.readUTF());
+        }
+        // Same way of restoring the exception as done by the AvroConverter
+        try {
+            Constructor constructor = Class.forName(exceptionClass).getConstructor(String.class, Map.class);
+            throw (RepositoryException)constructor.newInstance(message, state);
+        } catch (RepositoryException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new RepositoryException(exceptionClass + ": " + message);
+        }
+    }
+
+    private static void writeQName(QName name, DataOutput output) {
+        output.writeUTF(name.getNamespace());
+        output.writeUTF(name.getName());
+    }
+
+    private static QName readQName(DataInput input) {
+        String namespace = input.readUTF();
+        String name = input.readUTF();
+        return new QName(namespace, name);
+    }
+
+    private static void writeNullOrQName(QName name, DataOutput output) {
+        if (name == null) {
+            output.writeByte(NULL_MARKER);
+        } else {
+            output.writeByte(NOT_NULL_MARKER);
+            writeQName(name, output);
+        }
+    }
+
+    private static QName readNullOrQName(DataInput input) {
+        return input.readByte() == NULL_MARKER ? null : readQName(input);
+    }
+
+    private static void writeNullOrVLong(Long value, DataOutput output) {
+        if (value == null) {
+            output.writeByte(NULL_MARKER);
+        } else {
+            output.writeByte(NOT_NULL_MARKER);
+            output.writeVLong(value);
+        }
+    }
+
+    private static Long readNullOrVLong(DataInput input) {
+        return input.readByte() == NULL_MARKER ? null : input.readVLong();
+    }
+
+    /**
+     * The schema used by the endpoint, comparable to the one used by the bulk import.
+     */
+    private static class EndpointSchema {
+        private final ZooKeeperItf zk;
+        private final RepositoryModel repositoryModel;
+        private final IdGenerator idGenerator;
+        private final TypeManager typeManager;
+
+        EndpointSchema(Configuration conf) throws IOException {
+            String zkConnectString = conf.get(ZK_CONNECT_STRING, ZKConfig.getZKQuorumServersString(conf));
+            ZooKeeperItf zk = null;
+            RepositoryModel repositoryModel = null;
+            try {
+                zk = ZkUtil.connect(zkConnectString, conf.getInt(ZK_SESSION_TIMEOUT, 30000));
+                repositoryModel = new RepositoryModelImpl(zk);
+                idGenerator = new IdGeneratorImpl();
+                typeManager = new HBaseTypeManager(idGenerator, conf, zk, new HBaseTableFactoryImpl(conf));
+            } catch (Exception e) {
+                Closer.close(repositoryModel);
+                Closer.close(zk);
+                ExceptionUtil.handleInterrupt(e);
+                throw new IOException("Error setting up the schema of the record update endpoint", e);
+            }
+            this.zk = zk;
+            this.repositoryModel = repositoryModel;
+        }
+
+        void close() {
+            Closer.close(typeManager);
+            Closer.close(repositoryModel);
+            Closer.close(zk);
+        }
+    }
+
+    /**
+     * Creates the repositories which read and write the records of one region.
+     */
+    private static class RegionRepositoryManager extends AbstractRepositoryManager {
+        private static final BlobManager BLOB_MANAGER = new BlobsNotSupportedBlobManager();
+
+        private final RegionRecordTable recordTable;
+
+        RegionRepositoryManager(EndpointSchema schema, RegionRecordTable recordTable) {
+            super(schema.typeManager, schema.idGenerator, new RecordFactoryImpl(), schema.repositoryModel);
+            this.recordTable = recordTable;
+        }
+
+        @Override
+        protected Repository createRepository(RepoTableKey key) throws InterruptedException, RepositoryException {
+            try {
+                return new HBaseRepository(key, this, recordTable, recordTable, BLOB_MANAGER, null,
+                        getRecordFactory());
+            } catch (IOException e) {
+                throw new RepositoryException(e);
+            }
+        }
+    }
+
+    /**
+     * Updates involving blobs are not sent to the endpoint.
+     */
+    private static class BlobsNotSupportedBlobManager implements BlobManager {
+        private static final String NOT_SUPPORTED_MESSAGE = "Blobs are not supported by the record update endpoint";
+
+        @Override
+        public void incubateBlob(byte[] blobKey) throws IOException {
+            throw new UnsupportedOperationException(NOT_SUPPORTED_MESSAGE);
+        }
+
+        @Override
+        public Set<BlobReference> reserveBlobs(Set<BlobReference> blobs) throws IOException {
+            throw new UnsupportedOperationException(NOT_SUPPORTED_MESSAGE);
+        }
+
+        @Override
+        public void handleBlobReferences(RecordId recordId, Set<BlobReference> referencedBlobs,
+                Set<BlobReference> unReferencedBlobs) {
+            // no op
+        }
+
+        @Override
+        public OutputStream getOutputStream(Blob blob) throws BlobException {
+            throw new UnsupportedOperationException(NOT_SUPPORTED_MESSAGE);
+        }
+
+        @Override
+        public BlobAccess getBlobAccess(Record record, QName fieldName, FieldType fieldType, int... indexes)
+                throws BlobException {
+            throw new UnsupportedOperationException(NOT_SUPPORTED_MESSAGE);
+        }
+
+        @Override
+        public void register(BlobStoreAccess blobStoreAccess) {
+            throw new UnsupportedOperationException(NOT_SUPPORTED_MESSAGE);
+        }
+
+        @Override
+        public void delete(byte[] blobKey) throws BlobException {
+            throw new UnsupportedOperationException(NOT_SUPPORTED_MESSAGE);
+        }
+    }
+}
@@ -0,0 +1,34 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.repository.impl.hbase;
+
+import java.io.IOException;
+
+import org.apache.hadoop.hbase.ipc.CoprocessorProtocol;
+
+/**
+ * Protocol of the {@link RecordUpdateEndpoint}.
+ */
+public interface RecordUpdateProtocol extends CoprocessorProtocol {
+    /**
+     * Updates a record, with the same semantics as {@link org.lilyproject.repository.api.LTable#update(
+     * org.lilyproject.repository.api.Record, boolean, boolean)} with updateVersion false.
+     *
+     * @param request the record to update, serialized with {@link RecordUpdateEndpoint#writeRequest}
+     * @return the response, to be read with {@link RecordUpdateEndpoint#readResponse}
+     */
+    byte[] update(String repositoryName, String tableName, byte[] request) throws IOException;
+}
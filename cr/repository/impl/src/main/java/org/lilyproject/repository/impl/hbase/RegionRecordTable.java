@@ -0,0 +1,254 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.repository.impl.hbase;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.HTableDescriptor;
+import org.apache.hadoop.hbase.client.Append;
+import org.apache.hadoop.hbase.client.Delete;
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.HTableInterface;
+import org.apache.hadoop.hbase.client.Increment;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Row;
+import org.apache.hadoop.hbase.client.RowLock;
+import org.apache.hadoop.hbase.client.RowMutations;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.client.coprocessor.Batch;
+import org.apache.hadoop.hbase.filter.BinaryComparator;
+import org.apache.hadoop.hbase.filter.CompareFilter.CompareOp;
+import org.apache.hadoop.hbase.ipc.CoprocessorProtocol;
+import org.apache.hadoop.hbase.regionserver.HRegion;
+import org.apache.hadoop.hbase.util.Bytes;
+
+/**
+ * Record table which directly accesses the region hosting a record, used by the {@link RecordUpdateEndpoint}
+ * to run the regular record update code inside the region server.
+ *
+ * <p>Only the operations needed for updating a record are supported, and only on the row locked by the current
+ * thread through {@link #lockRow}: the read of the record and the check-and-put of the changes then happen
+ * under the same row lock, without any RPC.</p>
+ */
+public class RegionRecordTable implements HTableInterface {
+    private final HRegion region;
+    private final ThreadLocal<RowLock> rowLock = new ThreadLocal<RowLock>();
+
+    public RegionRecordTable(HRegion region) {
+        this.region = region;
+    }
+
+    @Override
+    public RowLock lockRow(byte[] row) throws IOException {
+        if (rowLock.get() != null) {
+            throw new IllegalStateException("A row is already locked by this thread");
+        }
+        Integer lockId = region.obtainRowLock(row);
+        RowLock lock = new RowLock(row, lockId);
+        rowLock.set(lock);
+        return lock;
+    }
+
+    @Override
+    public void unlockRow(RowLock lock) throws IOException {
+        rowLock.remove();
+        region.releaseRowLock((int)lock.getLockId());
+    }
+
+    private RowLock checkLocked(byte[] row) throws IOException {
+        RowLock lock = rowLock.get();
+        if (lock == null || !Arrays.equals(lock.getRow(), row)) {
+            throw new IOException("Row is not locked by this thread: " + Bytes.toStringBinary(row));
+        }
+        return lock;
+    }
+
+    @Override
+    public Result get(Get get) throws IOException {
+        checkLocked(get.getRow());
+        return region.get(get);
+    }
+
+    @Override
+    public boolean checkAndPut(byte[] row, byte[] family, byte[] qualifier, byte[] value, Put put)
+            throws IOException {
+        RowLock lock = checkLocked(row);
+        // Same comparison as a check-and-put through the region server: a null value checks for absence
+        return region.checkAndMutate(row, family, qualifier, CompareOp.EQUAL, new BinaryComparator(value), put,
+                (int)lock.getLockId(), put.getWriteToWAL());
+    }
+
+    @Override
+    public byte[] getTableName() {
+        return region.getTableDesc().getName();
+    }
+
+    @Override
+    public Configuration getConfiguration() {
+        return region.getConf();
+    }
+
+    @Override
+    public HTableDescriptor getTableDescriptor() throws IOException {
+        return region.getTableDesc();
+    }
+
+    @Override
+    public void close() throws IOException {
+        // the region is not ours to close
+    }
+
+    @Override
+    public boolean exists(Get get) throws IOException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void batch(List<? extends Row> actions, Object[] results) throws IOException, InterruptedException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Object[] batch(List<? extends Row> actions) throws IOException, InterruptedException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Result[] get(List<Get> gets) throws IOException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Result getRowOrBefore(byte[] row, byte[] family) throws IOException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public ResultScanner getScanner(Scan scan) throws IOException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public ResultScanner getScanner(byte[] family) throws IOException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public ResultScanner getScanner(byte[] family, byte[] qualifier) throws IOException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void put(Put put) throws IOException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void put(List<Put> puts) throws IOException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void delete(Delete delete) throws IOException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void delete(List<Delete> deletes) throws IOException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean checkAndDelete(byte[] row, byte[] family, byte[] qualifier, byte[] value, Delete delete)
+            throws IOException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void mutateRow(RowMutations rm) throws IOException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Result append(Append append) throws IOException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Result increment(Increment increment) throws IOException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public long incrementColumnValue(byte[] row, byte[] family, byte[] qualifier, long amount) throws IOException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public long incrementColumnValue(byte[] row, byte[] family, byte[] qualifier, long amount, boolean writeToWAL)
+            throws IOException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean isAutoFlush() {
+        return true;
+    }
+
+    @Override
+    public void flushCommits() throws IOException {
+    }
+
+    @Override
+    public <T extends CoprocessorProtocol> T coprocessorProxy(Class<T> protocol, byte[] row) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public <T extends CoprocessorProtocol, R> Map<byte[], R> coprocessorExec(Class<T> protocol, byte[] startKey,
+            byte[] endKey, Batch.Call<T, R> callable) throws IOException, Throwable {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public <T extends CoprocessorProtocol, R> void coprocessorExec(Class<T> protocol, byte[] startKey, byte[] endKey,
+            Batch.Call<T, R> callable, Batch.Callback<R> callback) throws IOException, Throwable {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void setAutoFlush(boolean autoFlush) {
+    }
+
+    @Override
+    public void setAutoFlush(boolean autoFlush, boolean clearBufferOnFail) {
+    }
+
+    @Override
+    public long getWriteBufferSize() {
+        return 0;
+    }
+
+    @Override
+    public void setWriteBufferSize(long writeBufferSize) throws IOException {
+    }
+}
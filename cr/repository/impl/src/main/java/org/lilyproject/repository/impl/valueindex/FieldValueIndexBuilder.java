@@ -0,0 +1,163 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.repository.impl.valueindex;
+
+import java.io.IOException;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.zookeeper.KeeperException;
+import org.lilyproject.repository.api.LRepository;
+import org.lilyproject.repository.api.RepositoryManager;
+import org.lilyproject.repository.api.RepositoryTable;
+import org.lilyproject.repository.model.api.RepositoryDefinition;
+import org.lilyproject.repository.model.api.RepositoryModel;
+import org.lilyproject.util.Logs;
+import org.lilyproject.util.zookeeper.LeaderElection;
+import org.lilyproject.util.zookeeper.LeaderElectionCallback;
+import org.lilyproject.util.zookeeper.LeaderElectionSetupException;
+import org.lilyproject.util.zookeeper.ZooKeeperItf;
+
+/**
+ * Builds the {@link FieldValueIndexes} of the tables for which they have not been built yet, see
+ * {@link FieldValueIndexes#build}.
+ *
+ * <p>This runs on one Lily server at a time, chosen through a leader election. It periodically checks all
+ * repository tables, so that new tables and newly created indexed fields are also built.</p>
+ */
+public class FieldValueIndexBuilder {
+    private final Log log = LogFactory.getLog(getClass());
+    private final ZooKeeperItf zk;
+    private final RepositoryManager repositoryManager;
+    private final RepositoryModel repositoryModel;
+    private final FieldValueIndexes indexes;
+    private final long runDelay;
+    private LeaderElection leaderElection;
+    private BuilderThread builderThread;
+
+    /**
+     * @param runDelay time in ms between two checks for indexes to be built
+     */
+    public FieldValueIndexBuilder(ZooKeeperItf zk, RepositoryManager repositoryManager,
+            RepositoryModel repositoryModel, FieldValueIndexes indexes, long runDelay) {
+        this.zk = zk;
+        this.repositoryManager = repositoryManager;
+        this.repositoryModel = repositoryModel;
+        this.indexes = indexes;
+        this.runDelay = runDelay;
+    }
+
+    public void start() throws LeaderElectionSetupException, IOException, InterruptedException, KeeperException {
+        leaderElection = new LeaderElection(zk, "Field Value Index Builder",
+                "/lily/repository/fieldvalueindexbuilder", new MyLeaderElectionCallback());
+    }
+
+    public void stop() {
+        if (leaderElection != null) {
+            try {
+                leaderElection.stop();
+                leaderElection = null;
+            } catch (InterruptedException e) {
+                log.info("Interrupted while shutting down leader election.");
+            }
+        }
+    }
+
+    private synchronized void startBuilding() {
+        builderThread = new BuilderThread();
+        builderThread.start();
+    }
+
+    private synchronized void stopBuilding() {
+        if (builderThread != null) {
+            builderThread.shutdown();
+            try {
+                if (builderThread.isAlive()) {
+                    Logs.logThreadJoin(builderThread);
+                    builderThread.join();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            builderThread = null;
+        }
+    }
+
+    /**
+     * Builds the indexes of all tables of all active repositories which are not built yet.
+     */
+    void buildAll() throws Exception {
+        for (RepositoryDefinition repositoryDef : repositoryModel.getRepositories()) {
+            if (repositoryDef.getLifecycleState() != RepositoryDefinition.RepositoryLifecycleState.ACTIVE) {
+                continue;
+            }
+            LRepository repository = repositoryManager.getRepository(repositoryDef.getName());
+            for (RepositoryTable table : repository.getTableManager().getTables()) {
+                indexes.clearObsoleteBuildStates(repositoryDef.getName(), table.getName());
+                if (!indexes.isBuilt(repositoryDef.getName(), table.getName())) {
+                    indexes.build(repository, table.getName());
+                }
+            }
+        }
+    }
+
+    private class MyLeaderElectionCallback implements LeaderElectionCallback {
+        @Override
+        public void activateAsLeader() throws Exception {
+            startBuilding();
+        }
+
+        @Override
+        public void deactivateAsLeader() throws Exception {
+            stopBuilding();
+        }
+    }
+
+    private class BuilderThread extends Thread {
+        private volatile boolean stopRequested = false;
+
+        BuilderThread() {
+            super("FieldValueIndexBuilder");
+        }
+
+        public void shutdown() {
+            stopRequested = true;
+            interrupt();
+        }
+
+        @Override
+        public void run() {
+            while (!stopRequested) {
+                try {
+                    try {
+                        buildAll();
+                    } catch (InterruptedException e) {
+                        break;
+                    } catch (Exception e) {
+                        // Retried on the next run
+                        log.error("Error building field value indexes", e);
+                    }
+                    if (stopRequested) {
+                        break;
+                    }
+                    Thread.sleep(runDelay);
+                } catch (InterruptedException e) {
+                    break;
+                }
+            }
+        }
+    }
+}
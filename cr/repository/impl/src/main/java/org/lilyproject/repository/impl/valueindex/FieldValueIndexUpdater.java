@@ -0,0 +1,77 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.repository.impl.valueindex;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.lilyproject.repository.api.IdGenerator;
+import org.lilyproject.repository.api.RepositoryManager;
+import org.lilyproject.sep.LilyEventListener;
+import org.lilyproject.sep.LilySepEvent;
+import org.lilyproject.util.exception.ExceptionUtil;
+import org.lilyproject.util.repo.RecordEvent;
+
+/**
+ * Keeps the {@link FieldValueIndexes} up to date when changes happen to records.
+ *
+ * <p>Rather than relying on the changes described in the event, the current state of the record is read and
+ * compared with what is in the forward index, so that the processing of an event can safely be repeated.</p>
+ */
+public class FieldValueIndexUpdater extends LilyEventListener {
+    private final RepositoryManager repositoryManager;
+    private final FieldValueIndexes indexes;
+    private final Log log = LogFactory.getLog(getClass());
+
+    /**
+     * @param threads the number of threads used to process the events of one SEP batch, see
+     *                {@link LilyEventListener}
+     */
+    public FieldValueIndexUpdater(RepositoryManager repositoryManager, FieldValueIndexes indexes,
+            IdGenerator idGenerator, int threads) {
+        super(repositoryManager, idGenerator, threads);
+        this.repositoryManager = repositoryManager;
+        this.indexes = indexes;
+    }
+
+    @Override
+    public void processLilyEvents(List<LilySepEvent> events) {
+        for (LilySepEvent event : events) {
+            RecordEvent.Type type;
+            try {
+                type = event.getLazyRecordEvent().getType();
+            } catch (IOException e) {
+                log.error("Error reading record event, processing of message cancelled", e);
+                continue;
+            }
+            if (type == RecordEvent.Type.INDEX) {
+                // Reindex requests do not change the record
+                continue;
+            }
+
+            try {
+                indexes.reindex(repositoryManager.getRepository(event.getLilyRepositoryName()),
+                        event.getAbsoluteRecordId(), type == RecordEvent.Type.DELETE);
+            } catch (Exception e) {
+                // Throw the exception through so that it is retried later by the SEP
+                ExceptionUtil.handleInterrupt(e);
+                throw new RuntimeException(e);
+            }
+        }
+    }
+}
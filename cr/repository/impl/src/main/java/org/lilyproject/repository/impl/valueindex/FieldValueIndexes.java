@@ -0,0 +1,619 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.repository.impl.valueindex;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.joda.time.LocalDate;
+import org.lilyproject.bytes.api.DataOutput;
+import org.lilyproject.bytes.impl.DataInputImpl;
+import org.lilyproject.bytes.impl.DataOutputImpl;
+import org.lilyproject.hbaseindex.Index;
+import org.lilyproject.hbaseindex.IndexDefinition;
+import org.lilyproject.hbaseindex.IndexEntry;
+import org.lilyproject.hbaseindex.IndexManager;
+import org.lilyproject.hbaseindex.IndexNotFoundException;
+import org.lilyproject.hbaseindex.Query;
+import org.lilyproject.hbaseindex.QueryResult;
+import org.lilyproject.repository.api.AbsoluteRecordId;
+import org.lilyproject.repository.api.CompareOp;
+import org.lilyproject.repository.api.FieldType;
+import org.lilyproject.repository.api.FieldTypeNotFoundException;
+import org.lilyproject.repository.api.IdGenerator;
+import org.lilyproject.repository.api.IdRecord;
+import org.lilyproject.repository.api.IdentityRecordStack;
+import org.lilyproject.repository.api.LRepository;
+import org.lilyproject.repository.api.LTable;
+import org.lilyproject.repository.api.QName;
+import org.lilyproject.repository.api.Record;
+import org.lilyproject.repository.api.RecordNotFoundException;
+import org.lilyproject.repository.api.RecordScan;
+import org.lilyproject.repository.api.RecordScanner;
+import org.lilyproject.repository.api.RecordType;
+import org.lilyproject.repository.api.RepositoryException;
+import org.lilyproject.repository.api.ReturnFields;
+import org.lilyproject.repository.api.SchemaId;
+import org.lilyproject.repository.api.Scope;
+import org.lilyproject.repository.api.TypeManager;
+import org.lilyproject.repository.api.filter.FieldValueFilter;
+import org.lilyproject.repository.api.filter.RecordFilter;
+import org.lilyproject.repository.api.filter.RecordFilterList;
+import org.lilyproject.repository.api.filter.RecordTypeFilter;
+import org.lilyproject.util.hbase.RepoAndTableUtil;
+import org.lilyproject.util.io.Closer;
+
+/**
+ * Secondary indexes on the values of a configured set of fields, and optionally on the record type, which allow
+ * to answer selective record scans without scanning the complete record table.
+ *
+ * <p>Per repository, there is an index for each indexed field, in which the entries consist of the Lily table
+ * name and the field value, with the record id as identifier. Likewise for the record type. A forward index
+ * keeps track of the indexed values of each record, so that the old entries can be removed when a record
+ * changes.</p>
+ *
+ * <p>The indexes are maintained asynchronously by the {@link FieldValueIndexUpdater}, hence a scan answered
+ * from an index can miss the most recent changes. Entries which became stale are harmless since the scan
+ * filter is evaluated again on the records that are read. Only non-versioned fields of which the value
+ * type is STRING, INTEGER, LONG, DECIMAL, DATE or DATETIME can be indexed.</p>
+ *
+ * <p>The updater only indexes the records which change, the records which existed before are added by
+ * {@link #build}, typically run by the {@link FieldValueIndexBuilder}. Once built, this is recorded in a state
+ * index, per table and indexed field (or record type). An index is only used to answer queries once it is
+ * built.</p>
+ */
+public class FieldValueIndexes {
+    private static final Set<String> SUPPORTED_VALUE_TYPES = Collections.unmodifiableSet(new LinkedHashSet<String>(
+            Arrays.asList("STRING", "INTEGER", "LONG", "DECIMAL", "DATE", "DATETIME")));
+
+    /** Key of the record type in the forward index, the fields are keyed by their id. */
+    private static final byte[] RECORD_TYPE_KEY = Bytes.toBytes("rt");
+    private static final byte[] VALUE_DATA_KEY = Bytes.toBytes("v");
+    private static final int SCHEMA_ID_LENGTH = 16; // see SchemaIdImpl
+
+    private final IndexManager indexManager;
+    private final TypeManager typeManager;
+    private final IdGenerator idGenerator;
+    private final Set<String> indexedFieldNames;
+    private final boolean recordTypeIndexed;
+    private final ConcurrentMap<String, Index> indexes = new ConcurrentHashMap<String, Index>();
+    private final Log log = LogFactory.getLog(getClass());
+
+    /**
+     * @param indexedFields the fields to index, in the {namespace}name notation
+     * @param recordTypeIndexed whether records should be indexed on their record type
+     */
+    public FieldValueIndexes(IndexManager indexManager, TypeManager typeManager, IdGenerator idGenerator,
+            Set<String> indexedFields, boolean recordTypeIndexed) {
+        this.indexManager = indexManager;
+        this.typeManager = typeManager;
+        this.idGenerator = idGenerator;
+        this.indexedFieldNames = indexedFields;
+        this.recordTypeIndexed = recordTypeIndexed;
+    }
+
+    /**
+     * Returns the indexed fields which currently exist and can be indexed.
+     */
+    public List<FieldType> getIndexedFields() throws RepositoryException, InterruptedException {
+        List<FieldType> fieldTypes = new ArrayList<FieldType>(indexedFieldNames.size());
+        for (String name : indexedFieldNames) {
+            FieldType fieldType = getIndexedField(name);
+            if (fieldType != null) {
+                fieldTypes.add(fieldType);
+            }
+        }
+        return fieldTypes;
+    }
+
+    private FieldType getIndexedField(String name) throws RepositoryException, InterruptedException {
+        FieldType fieldType;
+        try {
+            fieldType = typeManager.getFieldTypeByName(QName.fromString(name));
+        } catch (FieldTypeNotFoundException e) {
+            // The field might be created later on
+            return null;
+        }
+        if (!isIndexable(fieldType)) {
+            log.warn("Field " + name + " can not be indexed, only non-versioned fields of the types "
+                    + SUPPORTED_VALUE_TYPES + " are supported.");
+            return null;
+        }
+        return fieldType;
+    }
+
+    private boolean isIndexable(FieldType fieldType) {
+        return fieldType.getScope() == Scope.NON_VERSIONED
+                && SUPPORTED_VALUE_TYPES.contains(fieldType.getValueType().getName());
+    }
+
+    private boolean isIndexed(FieldType fieldType) {
+        return isIndexable(fieldType) && indexedFieldNames.contains(fieldType.getName().toString());
+    }
+
+    /**
+     * Returns the indexed values of a record: the values of the indexed fields, keyed by field id, and its
+     * record type, keyed by {@link #RECORD_TYPE_KEY}. The values are encoded as they are stored in the forward
+     * index.
+     */
+    Map<ByteKey, byte[]> getIndexedValues(IdRecord record) throws RepositoryException, InterruptedException {
+        Map<ByteKey, byte[]> values = new HashMap<ByteKey, byte[]>();
+        if (record == null) {
+            return values;
+        }
+
+        for (FieldType fieldType : getIndexedFields()) {
+            if (record.hasField(fieldType.getId())) {
+                DataOutput dataOutput = new DataOutputImpl();
+                fieldType.getValueType().write(record.getField(fieldType.getId()), dataOutput,
+                        new IdentityRecordStack());
+                values.put(new ByteKey(fieldType.getId().getBytes()), dataOutput.toByteArray());
+            }
+        }
+
+        SchemaId recordTypeId = record.getRecordTypeId(Scope.NON_VERSIONED);
+        if (recordTypeIndexed && recordTypeId != null) {
+            values.put(new ByteKey(RECORD_TYPE_KEY), recordTypeId.getBytes());
+        }
+
+        return values;
+    }
+
+    /**
+     * Reads the indexed values of a record from the forward index.
+     */
+    Map<ByteKey, byte[]> readIndexedValues(String repositoryName, AbsoluteRecordId recordId)
+            throws IOException, InterruptedException {
+        Map<ByteKey, byte[]> values = new HashMap<ByteKey, byte[]>();
+        Query query = new Query();
+        query.addEqualsCondition("record", recordId.toBytes());
+        QueryResult result = getForwardIndex(repositoryName).performQuery(query);
+        try {
+            byte[] key;
+            while ((key = result.next()) != null) {
+                values.put(new ByteKey(key), result.getData(VALUE_DATA_KEY));
+            }
+        } finally {
+            result.close();
+        }
+        return values;
+    }
+
+    /**
+     * Updates the indexes of a record to its current state, by reading the record and comparing its indexed values
+     * with those in the forward index. Since this doesn't rely on the changes made to the record, it can safely
+     * be repeated.
+     *
+     * @param deleted true if the record is known to be deleted, in which case it is not read
+     */
+    public void reindex(LRepository repository, AbsoluteRecordId recordId, boolean deleted)
+            throws RepositoryException, InterruptedException, IOException {
+        String repositoryName = repository.getRepositoryName();
+        Map<ByteKey, byte[]> oldValues = readIndexedValues(repositoryName, recordId);
+
+        IdRecord record = null;
+        if (!deleted) {
+            List<FieldType> fieldTypes = getIndexedFields();
+            List<SchemaId> fieldIds = new ArrayList<SchemaId>(fieldTypes.size());
+            for (FieldType fieldType : fieldTypes) {
+                fieldIds.add(fieldType.getId());
+            }
+            LTable table = repository.getTable(recordId.getTable());
+            try {
+                record = table.readWithIds(recordId.getRecordId(), null, fieldIds);
+            } catch (RecordNotFoundException e) {
+                // The record has been deleted in the meantime
+            }
+        }
+        Map<ByteKey, byte[]> newValues = getIndexedValues(record);
+
+        update(repositoryName, recordId, oldValues, newValues);
+
+        if (log.isDebugEnabled()) {
+            log.debug("Record " + recordId + " : updated field value indexes, " + oldValues.size()
+                    + " old and " + newValues.size() + " new values.");
+        }
+    }
+
+    /**
+     * Adds all existing records of a table to the indexes, and records the indexes as built for this table.
+     * Records which change while this runs are also handled by the {@link FieldValueIndexUpdater}.
+     */
+    public void build(LRepository repository, String tableName)
+            throws RepositoryException, InterruptedException, IOException {
+        // The indexes which exist before we start, fields created later on are only built by a next run
+        Set<ByteKey> keys = getIndexedKeys();
+
+        RecordScan scan = new RecordScan();
+        scan.setReturnFields(ReturnFields.NONE);
+        scan.setCaching(100);
+        scan.setCacheBlocks(false);
+        RecordScanner scanner = repository.getTable(tableName).getScanner(scan);
+        int count = 0;
+        try {
+            Record record;
+            while ((record = scanner.next()) != null) {
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+                reindex(repository, idGenerator.newAbsoluteRecordId(tableName, record.getId()), false);
+                count++;
+            }
+        } finally {
+            Closer.close(scanner);
+        }
+
+        List<IndexEntry> stateEntries = new ArrayList<IndexEntry>(keys.size());
+        for (ByteKey key : keys) {
+            stateEntries.add(createStateEntry(repository.getRepositoryName(), tableName, key));
+        }
+        getStateIndex(repository.getRepositoryName()).addEntries(stateEntries);
+
+        log.info("Built field value indexes of repository " + repository.getRepositoryName() + ", table "
+                + tableName + " for " + count + " records.");
+    }
+
+    /**
+     * Returns true if all the indexes have been built for a table, see {@link #build}.
+     */
+    public boolean isBuilt(String repositoryName, String tableName)
+            throws RepositoryException, InterruptedException, IOException {
+        return readBuiltKeys(repositoryName, tableName).containsAll(getIndexedKeys());
+    }
+
+    /**
+     * Removes the build state of the indexes which are no longer maintained, so that they will be built again
+     * when they are enabled again later on.
+     */
+    public void clearObsoleteBuildStates(String repositoryName, String tableName)
+            throws RepositoryException, InterruptedException, IOException {
+        Set<ByteKey> indexedKeys = getIndexedKeys();
+        List<IndexEntry> obsolete = new ArrayList<IndexEntry>();
+        for (ByteKey key : readBuiltKeys(repositoryName, tableName)) {
+            if (!indexedKeys.contains(key)) {
+                obsolete.add(createStateEntry(repositoryName, tableName, key));
+            }
+        }
+        if (!obsolete.isEmpty()) {
+            getStateIndex(repositoryName).removeEntries(obsolete);
+        }
+    }
+
+    /**
+     * Returns the keys of the indexes which are maintained: the ids of the indexed fields, and the record type
+     * key if the record type is indexed.
+     */
+    private Set<ByteKey> getIndexedKeys() throws RepositoryException, InterruptedException {
+        Set<ByteKey> keys = new HashSet<ByteKey>();
+        for (FieldType fieldType : getIndexedFields()) {
+            keys.add(new ByteKey(fieldType.getId().getBytes()));
+        }
+        if (recordTypeIndexed) {
+            keys.add(new ByteKey(RECORD_TYPE_KEY));
+        }
+        return keys;
+    }
+
+    private Set<ByteKey> readBuiltKeys(String repositoryName, String tableName)
+            throws IOException, InterruptedException {
+        Set<ByteKey> keys = new HashSet<ByteKey>();
+        Query query = new Query();
+        query.addEqualsCondition("table", tableName);
+        QueryResult result = getStateIndex(repositoryName).performQuery(query);
+        try {
+            byte[] key;
+            while ((key = result.next()) != null) {
+                keys.add(new ByteKey(key));
+            }
+        } finally {
+            result.close();
+        }
+        return keys;
+    }
+
+    private boolean isBuilt(String repositoryName, String tableName, ByteKey key)
+            throws IOException, InterruptedException {
+        return readBuiltKeys(repositoryName, tableName).contains(key);
+    }
+
+    /**
+     * Updates the indexes of a record from its old to its new indexed values.
+     */
+    void update(String repositoryName, AbsoluteRecordId recordId, Map<ByteKey, byte[]> oldValues,
+            Map<ByteKey, byte[]> newValues) throws RepositoryException, InterruptedException, IOException {
+        byte[] recordIdBytes = recordId.getRecordId().toBytes();
+
+        // First remove the old entries from the value indexes and then from the forward index, and the other way
+        // around when adding, so that there are never entries in a value index which can't be found via the
+        // forward index.
+        List<IndexEntry> forwardEntries = new ArrayList<IndexEntry>();
+        for (Map.Entry<ByteKey, byte[]> oldValue : oldValues.entrySet()) {
+            if (!Arrays.equals(oldValue.getValue(), newValues.get(oldValue.getKey()))) {
+                Index index = getValueIndex(repositoryName, oldValue.getKey());
+                if (index != null) {
+                    index.removeEntry(createValueEntry(index, recordId.getTable(), oldValue.getKey(),
+                            oldValue.getValue(), recordIdBytes));
+                }
+                forwardEntries.add(createForwardEntry(repositoryName, recordId, oldValue.getKey(), null));
+            }
+        }
+        getForwardIndex(repositoryName).removeEntries(forwardEntries);
+
+        forwardEntries.clear();
+        List<Map.Entry<ByteKey, byte[]>> added = new ArrayList<Map.Entry<ByteKey, byte[]>>();
+        for (Map.Entry<ByteKey, byte[]> newValue : newValues.entrySet()) {
+            if (!Arrays.equals(newValue.getValue(), oldValues.get(newValue.getKey()))) {
+                forwardEntries.add(createForwardEntry(repositoryName, recordId, newValue.getKey(),
+                        newValue.getValue()));
+                added.add(newValue);
+            }
+        }
+        getForwardIndex(repositoryName).addEntries(forwardEntries);
+
+        for (Map.Entry<ByteKey, byte[]> newValue : added) {
+            Index index = getValueIndex(repositoryName, newValue.getKey());
+            index.addEntry(createValueEntry(index, recordId.getTable(), newValue.getKey(), newValue.getValue(),
+                    recordIdBytes));
+        }
+    }
+
+    /**
+     * Looks up the ids of the records matching a filter in the indexes of a repository table, if the filter can
+     * be answered from an index, that is if it is, or requires (as part of a {@link RecordFilterList} with
+     * operator MUST_PASS_ALL), an indexed field value or record type condition, and that index has been built
+     * for the table.
+     *
+     * <p>The result contains all records which match the indexed condition (as far as the index is up to date),
+     * but these do not necessarily match the complete filter.</p>
+     *
+     * @return the result of the index query, or null if the filter can not be answered from an index
+     */
+    public QueryResult query(String repositoryName, String tableName, RecordFilter filter)
+            throws RepositoryException, InterruptedException, IOException {
+        if (filter instanceof FieldValueFilter) {
+            return queryFieldValue(repositoryName, tableName, (FieldValueFilter)filter);
+        } else if (filter instanceof RecordTypeFilter) {
+            return queryRecordType(repositoryName, tableName, (RecordTypeFilter)filter);
+        } else if (filter instanceof RecordFilterList
+                && ((RecordFilterList)filter).getOperator() == RecordFilterList.Operator.MUST_PASS_ALL) {
+            for (RecordFilter subFilter : ((RecordFilterList)filter).getFilters()) {
+                QueryResult result = query(repositoryName, tableName, subFilter);
+                if (result != null) {
+                    return result;
+                }
+            }
+        }
+        return null;
+    }
+
+    private QueryResult queryFieldValue(String repositoryName, String tableName, FieldValueFilter filter)
+            throws RepositoryException, InterruptedException, IOException {
+        CompareOp compareOp = filter.getCompareOp() != null ? filter.getCompareOp() : CompareOp.EQUAL;
+        // Records without the field are not in the index
+        if (filter.getField() == null || filter.getFieldValue() == null || !filter.getFilterIfMissing()
+                || filter.getListMatch() != null || compareOp == CompareOp.NOT_EQUAL) {
+            return null;
+        }
+
+        FieldType fieldType = typeManager.getFieldTypeByName(filter.getField());
+        ByteKey key = new ByteKey(fieldType.getId().getBytes());
+        if (!isIndexed(fieldType) || !isBuilt(repositoryName, tableName, key)) {
+            return null;
+        }
+
+        Object value = toIndexValue(filter.getFieldValue());
+        Query query = new Query();
+        query.addEqualsCondition("table", tableName);
+        switch (compareOp) {
+            case EQUAL:
+                query.addEqualsCondition("value", value);
+                break;
+            case LESS:
+                query.setRangeCondition("value", Query.MIN_VALUE, value, true, false);
+                break;
+            case LESS_OR_EQUAL:
+                query.setRangeCondition("value", Query.MIN_VALUE, value, true, true);
+                break;
+            case GREATER:
+                query.setRangeCondition("value", value, Query.MAX_VALUE, false, true);
+                break;
+            case GREATER_OR_EQUAL:
+                query.setRangeCondition("value", value, Query.MAX_VALUE, true, true);
+                break;
+            default:
+                return null;
+        }
+
+        return getValueIndex(repositoryName, key).performQuery(query);
+    }
+
+    private QueryResult queryRecordType(String repositoryName, String tableName, RecordTypeFilter filter)
+            throws RepositoryException, InterruptedException, IOException {
+        if (!recordTypeIndexed || filter.getRecordType() == null
+                || (filter.getOperator() != null && filter.getOperator() != RecordTypeFilter.Operator.EQUALS)
+                || !isBuilt(repositoryName, tableName, new ByteKey(RECORD_TYPE_KEY))) {
+            return null;
+        }
+
+        // The record type version, if any, is checked by the filter on the records read
+        RecordType recordType = typeManager.getRecordTypeByName(filter.getRecordType(), null);
+        Query query = new Query();
+        query.addEqualsCondition("table", tableName);
+        query.addEqualsCondition("value", recordType.getId().getBytes());
+        return getValueIndex(repositoryName, new ByteKey(RECORD_TYPE_KEY)).performQuery(query);
+    }
+
+    private IndexEntry createForwardEntry(String repositoryName, AbsoluteRecordId recordId, ByteKey key,
+            byte[] value) throws IOException, InterruptedException {
+        IndexEntry entry = new IndexEntry(getForwardIndex(repositoryName).getDefinition());
+        entry.addField("record", recordId.toBytes());
+        entry.setIdentifier(key.getBytes());
+        if (value != null) {
+            entry.addData(VALUE_DATA_KEY, value);
+        }
+        return entry;
+    }
+
+    private IndexEntry createStateEntry(String repositoryName, String tableName, ByteKey key)
+            throws IOException, InterruptedException {
+        IndexEntry entry = new IndexEntry(getStateIndex(repositoryName).getDefinition());
+        entry.addField("table", tableName);
+        entry.setIdentifier(key.getBytes());
+        return entry;
+    }
+
+    private IndexEntry createValueEntry(Index index, String tableName, ByteKey key, byte[] value,
+            byte[] recordIdBytes) throws RepositoryException, InterruptedException {
+        IndexEntry entry = new IndexEntry(index.getDefinition());
+        entry.addField("table", tableName);
+        if (Arrays.equals(key.getBytes(), RECORD_TYPE_KEY)) {
+            entry.addField("value", value);
+        } else {
+            FieldType fieldType = typeManager.getFieldTypeById(idGenerator.getSchemaId(key.getBytes()));
+            entry.addField("value", toIndexValue(fieldType.getValueType().read(new DataInputImpl(value))));
+        }
+        entry.setIdentifier(recordIdBytes);
+        return entry;
+    }
+
+    /**
+     * Converts a field value to the value as it is stored in the index.
+     */
+    private Object toIndexValue(Object value) {
+        if (value instanceof DateTime) {
+            return ((DateTime)value).getMillis();
+        } else if (value instanceof LocalDate) {
+            return ((LocalDate)value).toDateTimeAtStartOfDay(DateTimeZone.UTC).getMillis();
+        }
+        return value;
+    }
+
+    private Index getForwardIndex(String repositoryName) throws IOException, InterruptedException {
+        String name = RepoAndTableUtil.getHBaseTableName(repositoryName, "fieldvalues-forward");
+        Index index = indexes.get(name);
+        if (index == null) {
+            IndexDefinition indexDef = new IndexDefinition(name);
+            // Same remark as for the link index: the first two bytes are fixed length to avoid BCD encoding
+            // of the first byte of the record id
+            indexDef.addVariableLengthByteField("record", 2);
+            index = getIndex(repositoryName, indexDef);
+        }
+        return index;
+    }
+
+    /**
+     * Returns the index which holds, per table, the keys of the indexes which have been built.
+     */
+    private Index getStateIndex(String repositoryName) throws IOException, InterruptedException {
+        String name = RepoAndTableUtil.getHBaseTableName(repositoryName, "fieldvalues-state");
+        Index index = indexes.get(name);
+        if (index == null) {
+            IndexDefinition indexDef = new IndexDefinition(name);
+            indexDef.addStringField("table");
+            index = getIndex(repositoryName, indexDef);
+        }
+        return index;
+    }
+
+    /**
+     * Returns the index for the given key (field id or record type key), or null if the key is a field which is
+     * (no longer) indexed.
+     */
+    private Index getValueIndex(String repositoryName, ByteKey key)
+            throws RepositoryException, InterruptedException, IOException {
+        String name = RepoAndTableUtil.getHBaseTableName(repositoryName,
+                "fieldvalues-" + Hex.encodeHexString(key.getBytes()));
+        Index index = indexes.get(name);
+        if (index != null) {
+            return index;
+        }
+
+        IndexDefinition indexDef = new IndexDefinition(name);
+        indexDef.addStringField("table");
+        if (Arrays.equals(key.getBytes(), RECORD_TYPE_KEY)) {
+            indexDef.addByteField("value", SCHEMA_ID_LENGTH);
+        } else {
+            FieldType fieldType = typeManager.getFieldTypeById(idGenerator.getSchemaId(key.getBytes()));
+            if (!isIndexed(fieldType)) {
+                return null;
+            }
+            String valueType = fieldType.getValueType().getName();
+            if (valueType.equals("STRING")) {
+                indexDef.addStringField("value");
+            } else if (valueType.equals("INTEGER")) {
+                indexDef.addIntegerField("value");
+            } else if (valueType.equals("DECIMAL")) {
+                indexDef.addDecimalField("value");
+            } else {
+                // LONG, and DATE and DATETIME stored as millis
+                indexDef.addLongField("value");
+            }
+        }
+        return getIndex(repositoryName, indexDef);
+    }
+
+    private Index getIndex(String repositoryName, IndexDefinition indexDef) throws IOException, InterruptedException {
+        Index index;
+        try {
+            index = indexManager.getIndex(repositoryName, indexDef);
+        } catch (IndexNotFoundException e) {
+            throw new IOException(e);
+        }
+        Index existing = indexes.putIfAbsent(indexDef.getName(), index);
+        return existing != null ? existing : index;
+    }
+
+    /**
+     * A byte array usable as map key.
+     */
+    static final class ByteKey {
+        private final byte[] bytes;
+
+        ByteKey(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        byte[] getBytes() {
+            return bytes;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof ByteKey && Arrays.equals(bytes, ((ByteKey)obj).bytes);
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(bytes);
+        }
+    }
+}
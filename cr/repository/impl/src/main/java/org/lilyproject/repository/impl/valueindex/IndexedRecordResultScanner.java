@@ -0,0 +1,173 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.repository.impl.valueindex;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.NoSuchElementException;
+import java.util.TreeSet;
+
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.HTableInterface;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.lilyproject.hbaseindex.QueryResult;
+import org.lilyproject.util.io.Closer;
+
+/**
+ * A ResultScanner which reads the records identified by a {@link FieldValueIndexes} query, rather than scanning
+ * the record table.
+ *
+ * <p>The record ids found in the index are sorted, and limited to the start and stop row of the scan, so that
+ * the records are returned in record id order like with the scan. The ids are hence all kept in memory, which
+ * is fine for the selective queries the indexes are meant for. The records are read with multi-gets, applying
+ * the filter and columns of the scan which would otherwise have been used, so the results are the same as those
+ * of the scan (as far as the index is up to date). This also filters out the records for which the index is
+ * out of date.</p>
+ */
+public class IndexedRecordResultScanner implements ResultScanner {
+    private final QueryResult queryResult;
+    private final HTableInterface recordTable;
+    private final Scan scan;
+    private final int batchSize;
+    private final LinkedList<Result> buffer = new LinkedList<Result>();
+    private Iterator<byte[]> recordIds;
+
+    /**
+     * @param scan the scan of which the filter, columns and caching are used
+     */
+    public IndexedRecordResultScanner(QueryResult queryResult, HTableInterface recordTable, Scan scan) {
+        this.queryResult = queryResult;
+        this.recordTable = recordTable;
+        this.scan = scan;
+        this.batchSize = scan.getCaching() > 0 ? scan.getCaching() : 100;
+    }
+
+    @Override
+    public Result next() throws IOException {
+        if (recordIds == null) {
+            recordIds = readRecordIds().iterator();
+        }
+        while (buffer.isEmpty() && recordIds.hasNext()) {
+            fillBuffer();
+        }
+        return buffer.poll();
+    }
+
+    /**
+     * Reads the record ids from the index query, in row order, limited to the rows covered by the scan.
+     */
+    private NavigableSet<byte[]> readRecordIds() throws IOException {
+        byte[] startRow = scan.getStartRow();
+        byte[] stopRow = scan.getStopRow();
+        NavigableSet<byte[]> ids = new TreeSet<byte[]>(Bytes.BYTES_COMPARATOR);
+        byte[] recordId;
+        while ((recordId = queryResult.next()) != null) {
+            if (Bytes.compareTo(recordId, startRow) >= 0
+                    && (stopRow.length == 0 || Bytes.compareTo(recordId, stopRow) < 0)) {
+                ids.add(recordId);
+            }
+        }
+        return ids;
+    }
+
+    private void fillBuffer() throws IOException {
+        List<Get> gets = new ArrayList<Get>(batchSize);
+        while (gets.size() < batchSize && recordIds.hasNext()) {
+            gets.add(createGet(recordIds.next()));
+        }
+
+        for (Result result : recordTable.get(gets)) {
+            // Records which do not (or no longer) match the filter give an empty result
+            if (result != null && !result.isEmpty()) {
+                buffer.add(result);
+            }
+        }
+    }
+
+    private Get createGet(byte[] recordId) throws IOException {
+        Get get = new Get(recordId);
+        get.setMaxVersions(scan.getMaxVersions());
+        get.setCacheBlocks(scan.getCacheBlocks());
+        get.setFilter(scan.getFilter());
+        for (Map.Entry<byte[], NavigableSet<byte[]>> family : scan.getFamilyMap().entrySet()) {
+            if (family.getValue() == null || family.getValue().isEmpty()) {
+                get.addFamily(family.getKey());
+            } else {
+                for (byte[] qualifier : family.getValue()) {
+                    get.addColumn(family.getKey(), qualifier);
+                }
+            }
+        }
+        return get;
+    }
+
+    @Override
+    public Result[] next(int nbRows) throws IOException {
+        List<Result> results = new ArrayList<Result>(nbRows);
+        Result result;
+        while (results.size() < nbRows && (result = next()) != null) {
+            results.add(result);
+        }
+        return results.toArray(new Result[results.size()]);
+    }
+
+    @Override
+    public void close() {
+        Closer.close(queryResult);
+    }
+
+    @Override
+    public Iterator<Result> iterator() {
+        return new Iterator<Result>() {
+            private Result next;
+
+            @Override
+            public boolean hasNext() {
+                if (next == null) {
+                    try {
+                        next = IndexedRecordResultScanner.this.next();
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+                return next != null;
+            }
+
+            @Override
+            public Result next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                Result result = next;
+                next = null;
+                return result;
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+}
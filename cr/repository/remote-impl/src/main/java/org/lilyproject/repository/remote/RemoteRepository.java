@@ -38,6 +38,7 @@ import org.lilyproject.repository.api.RecordBuilder;
 import org.lilyproject.repository.api.RecordException;
 import org.lilyproject.repository.api.RecordFactory;
 import org.lilyproject.repository.api.RecordId;
+import org.lilyproject.repository.api.RecordResult;
 import org.lilyproject.repository.api.RepositoryException;
 import org.lilyproject.repository.api.TableManager;
 import org.lilyproject.repository.impl.AbstractRepositoryManager;
@@ -107,6 +108,7 @@ public class RemoteRepository extends BaseRepository {
         try {
             ByteBuffer record = lilyProxy.delete(getAuthzContext(), converter.convert(recordId), repositoryName,
                     tableName, converter.convert(null, conditions, this), null);
+            invalidateCachedRecord(recordId);
             return record == null ? null : converter.convertRecord(record, this);
         } catch (AvroRepositoryException e) {
             throw converter.convert(e);
@@ -123,6 +125,7 @@ public class RemoteRepository extends BaseRepository {
     public void delete(RecordId recordId) throws RepositoryException, InterruptedException {
         try {
             lilyProxy.delete(getAuthzContext(), converter.convert(recordId), repositoryName, tableName, null, null);
+            invalidateCachedRecord(recordId);
         } catch (AvroRepositoryException e) {
             throw converter.convert(e);
         } catch (AvroGenericException e) {
@@ -139,6 +142,7 @@ public class RemoteRepository extends BaseRepository {
         try {
             lilyProxy.delete(getAuthzContext(), converter.convert(record.getId()), repositoryName, tableName, null,
                     record.getAttributes());
+            invalidateCachedRecord(record.getId());
         } catch (AvroRepositoryException e) {
             throw converter.convert(e);
         } catch (AvroGenericException e) {
@@ -171,10 +175,12 @@ public class RemoteRepository extends BaseRepository {
     public Record update(Record record, boolean updateVersion, boolean useLatestRecordType,
                          List<MutationCondition> conditions) throws RepositoryException, InterruptedException {
         try {
-            return converter
+            Record result = converter
                     .convertRecord(lilyProxy.update(getAuthzContext(), converter.convert(record, this), repositoryName,
                             tableName, updateVersion, useLatestRecordType, converter.convert(record, conditions, this)),
                             this);
+            invalidateCachedRecord(record.getId());
+            return result;
         } catch (AvroRepositoryException e) {
             throw converter.convert(e);
         } catch (AvroGenericException e) {
@@ -195,8 +201,37 @@ public class RemoteRepository extends BaseRepository {
     public Record createOrUpdate(Record record, boolean useLatestRecordType)
             throws RepositoryException, InterruptedException {
         try {
-            return converter.convertRecord(lilyProxy.createOrUpdate(getAuthzContext(), converter.convert(record, this),
-                    repositoryName, tableName, useLatestRecordType), this);
+            Record result = converter.convertRecord(lilyProxy.createOrUpdate(getAuthzContext(),
+                    converter.convert(record, this), repositoryName, tableName, useLatestRecordType), this);
+            invalidateCachedRecord(result.getId());
+            return result;
+        } catch (AvroRepositoryException e) {
+            throw converter.convert(e);
+        } catch (AvroGenericException e) {
+            throw converter.convert(e);
+        } catch (AvroRemoteException e) {
+            throw handleAvroRemoteException(e);
+        } catch (UndeclaredThrowableException e) {
+            throw handleUndeclaredRecordThrowable(e);
+        }
+    }
+
+    @Override
+    public List<RecordResult> createOrUpdate(List<Record> records) throws RepositoryException, InterruptedException {
+        return createOrUpdate(records, true);
+    }
+
+    @Override
+    public List<RecordResult> createOrUpdate(List<Record> records, boolean useLatestRecordType)
+            throws RepositoryException, InterruptedException {
+        try {
+            List<RecordResult> results = converter.convertAvroRecordResults(lilyProxy.createOrUpdateBatch(
+                    getAuthzContext(), converter.convertRecords(records, this), repositoryName, tableName,
+                    useLatestRecordType), this);
+            for (Record record : records) {
+                invalidateCachedRecord(record.getId());
+            }
+            return results;
         } catch (AvroRepositoryException e) {
             throw converter.convert(e);
         } catch (AvroGenericException e) {
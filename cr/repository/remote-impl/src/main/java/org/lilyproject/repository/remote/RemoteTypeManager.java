@@ -20,6 +20,7 @@ import org.apache.avro.ipc.Transceiver;
 import org.apache.avro.ipc.specific.SpecificRequestor;
 import org.apache.commons.logging.LogFactory;
 import org.lilyproject.avro.AvroConverter;
+import org.lilyproject.avro.AvroFieldAndRecordTypes;
 import org.lilyproject.avro.AvroFieldType;
 import org.lilyproject.avro.AvroGenericException;
 import org.lilyproject.avro.AvroLily;
@@ -201,6 +202,31 @@ public class RemoteTypeManager extends AbstractTypeManager implements TypeManage
         }
     }
 
+    @Override
+    public Pair<List<FieldType>, List<RecordType>> createOrUpdateTypes(List<FieldType> fieldTypes,
+            List<RecordType> recordTypes) throws RepositoryException, InterruptedException {
+        try {
+            AvroFieldAndRecordTypes avroTypes = lilyProxy.createOrUpdateTypes(converter.convertFieldAndRecordTypes(
+                    new Pair<List<FieldType>, List<RecordType>>(fieldTypes, recordTypes)));
+            Pair<List<FieldType>, List<RecordType>> newTypes = converter.convertAvroFieldAndRecordTypes(avroTypes, this);
+            for (FieldType newFieldType : newTypes.getV1()) {
+                updateFieldTypeCache(newFieldType);
+            }
+            for (RecordType newRecordType : newTypes.getV2()) {
+                updateRecordTypeCache(newRecordType.clone());
+            }
+            return newTypes;
+        } catch (AvroRepositoryException e) {
+            throw converter.convert(e);
+        } catch (AvroGenericException e) {
+            throw converter.convert(e);
+        } catch (AvroRemoteException e) {
+            throw handleAvroRemoteException(e);
+        } catch (UndeclaredThrowableException e) {
+            throw handleUndeclaredTypeThrowable(e);
+        }
+    }
+
     @Override
     public FieldType updateFieldType(FieldType fieldType) throws RepositoryException, InterruptedException {
 
@@ -34,6 +34,7 @@ import org.lilyproject.repository.api.RecordBuilder;
 import org.lilyproject.repository.api.RecordException;
 import org.lilyproject.repository.api.RecordFactory;
 import org.lilyproject.repository.api.RecordId;
+import org.lilyproject.repository.api.RecordResult;
 import org.lilyproject.repository.api.RecordScan;
 import org.lilyproject.repository.api.RecordScanner;
 import org.lilyproject.repository.api.Repository;
@@ -120,6 +121,17 @@ public class BaseRepositoryDecorator implements Repository {
         return delegate.createOrUpdate(record, useLatestRecordType);
     }
 
+    @Override
+    public List<RecordResult> createOrUpdate(List<Record> records) throws RepositoryException, InterruptedException {
+        return delegate.createOrUpdate(records);
+    }
+
+    @Override
+    public List<RecordResult> createOrUpdate(List<Record> records, boolean useLatestRecordType)
+            throws RepositoryException, InterruptedException {
+        return delegate.createOrUpdate(records, useLatestRecordType);
+    }
+
     @Override
     public Record read(RecordId recordId, List<QName> fieldNames) throws RepositoryException, InterruptedException {
         return delegate.read(recordId, fieldNames);
@@ -142,6 +154,12 @@ public class BaseRepositoryDecorator implements Repository {
         return delegate.read(recordIds, fieldNames);
     }
 
+    @Override
+    public List<Record> readBatch(List<RecordId> recordIds, QName... fieldNames)
+            throws RepositoryException, InterruptedException {
+        return delegate.readBatch(recordIds, fieldNames);
+    }
+
     @Override
     public Record read(RecordId recordId, Long version, List<QName> fieldNames)
             throws RepositoryException, InterruptedException {
@@ -184,6 +202,12 @@ public class BaseRepositoryDecorator implements Repository {
         return delegate.readWithIds(recordId, version, fieldIds);
     }
 
+    @Override
+    public List<IdRecord> readVersionsWithIds(RecordId recordId, List<Long> versions, List<SchemaId> fieldIds)
+            throws RepositoryException, InterruptedException {
+        return delegate.readVersionsWithIds(recordId, versions, fieldIds);
+    }
+
     @Override
     public void delete(RecordId recordId) throws RepositoryException, InterruptedException {
         delegate.delete(recordId);
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.repository.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+import org.junit.Test;
+import org.lilyproject.repository.api.FieldType;
+import org.lilyproject.repository.api.FieldTypeNotFoundException;
+import org.lilyproject.repository.api.QName;
+import org.lilyproject.repository.api.SchemaId;
+import org.lilyproject.repository.api.Scope;
+import org.lilyproject.repository.impl.id.SchemaIdImpl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class FieldTypesImplTest {
+
+    @Test
+    public void testUpdateDoesNotAffectOldSnapshot() throws Exception {
+        List<FieldType> fieldTypes = new ArrayList<FieldType>();
+        for (int i = 0; i < 1000; i++) {
+            fieldTypes.add(newFieldType(new SchemaIdImpl(UUID.randomUUID()), new QName("ns", "field" + i)));
+        }
+        FieldTypesImpl snapshot = new FieldTypesImpl().withFieldTypes(fieldTypes);
+
+        FieldType changed = newFieldType(fieldTypes.get(0).getId(), fieldTypes.get(0).getName());
+        changed.setScope(Scope.VERSIONED);
+        FieldType added = newFieldType(new SchemaIdImpl(UUID.randomUUID()), new QName("ns", "added"));
+        List<FieldType> update = new ArrayList<FieldType>();
+        update.add(changed);
+        update.add(added);
+        FieldTypesImpl updated = snapshot.withFieldTypes(update);
+
+        // The old snapshot still has the old state
+        assertEquals(Scope.NON_VERSIONED, snapshot.getFieldType(changed.getId()).getScope());
+        assertEquals(Scope.NON_VERSIONED, snapshot.getFieldType(changed.getName()).getScope());
+        assertFalse(snapshot.fieldTypeExists(added.getName()));
+        assertEquals(1000, snapshot.getFieldTypes().size());
+
+        assertEquals(Scope.VERSIONED, updated.getFieldType(changed.getId()).getScope());
+        assertEquals(Scope.VERSIONED, updated.getFieldType(changed.getName()).getScope());
+        assertEquals(added.getId(), updated.getFieldType(added.getName()).getId());
+        assertEquals(1001, updated.getFieldTypes().size());
+
+        // The unchanged field types are found in both
+        for (FieldType fieldType : fieldTypes.subList(1, fieldTypes.size())) {
+            assertEquals(fieldType.getId(), snapshot.getFieldType(fieldType.getName()).getId());
+            assertEquals(fieldType.getId(), updated.getFieldType(fieldType.getName()).getId());
+            assertEquals(fieldType.getName(), updated.getFieldType(fieldType.getId()).getName());
+        }
+    }
+
+    @Test
+    public void testRenameRemovesOldName() throws Exception {
+        SchemaId id = new SchemaIdImpl(UUID.randomUUID());
+        QName oldName = new QName("ns", "old");
+        QName newName = new QName("ns", "new");
+        FieldTypesImpl snapshot = new FieldTypesImpl()
+                .withFieldTypes(Collections.singletonList(newFieldType(id, oldName)));
+
+        FieldTypesImpl renamed = snapshot.withFieldTypes(Collections.singletonList(newFieldType(id, newName)));
+
+        assertFalse(renamed.fieldTypeExists(oldName));
+        assertNull(renamed.getFieldTypeByNameReturnNull(oldName));
+        try {
+            renamed.getFieldType(oldName);
+            fail("Expected a FieldTypeNotFoundException");
+        } catch (FieldTypeNotFoundException e) {
+            // expected
+        }
+        assertEquals(id, renamed.getFieldType(newName).getId());
+        assertEquals(newName, renamed.getFieldType(id).getName());
+        assertEquals(1, renamed.getFieldTypes().size());
+
+        // The old snapshot still resolves the old name
+        assertTrue(snapshot.fieldTypeExists(oldName));
+        assertFalse(snapshot.fieldTypeExists(newName));
+    }
+
+    private FieldType newFieldType(SchemaId id, QName name) {
+        return new FieldTypeImpl(id, null, name, Scope.NON_VERSIONED);
+    }
+}
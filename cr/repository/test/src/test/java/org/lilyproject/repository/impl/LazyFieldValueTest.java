@@ -0,0 +1,114 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.repository.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+import org.lilyproject.bytes.impl.DataOutputImpl;
+import org.lilyproject.repository.api.IdentityRecordStack;
+import org.lilyproject.repository.api.QName;
+import org.lilyproject.repository.api.Record;
+import org.lilyproject.repository.api.RecordException;
+import org.lilyproject.repository.api.RepositoryRuntimeException;
+import org.lilyproject.repository.impl.valuetype.StringValueType;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class LazyFieldValueTest {
+    private final QName field1 = new QName("ns", "field1");
+    private final QName field2 = new QName("ns", "field2");
+
+    @Test
+    public void testLazyFieldsBehaveAsRegularFields() {
+        RecordImpl lazyRecord = new RecordImpl();
+        lazyRecord.setLazyField(field1, encode("value1"));
+        lazyRecord.setLazyField(field2, encode("value2"));
+
+        Record record = new RecordImpl();
+        record.setField(field1, "value1");
+        record.setField(field2, "value2");
+
+        assertTrue(lazyRecord.hasField(field1));
+        assertEquals("value1", lazyRecord.getField(field1));
+
+        // A clone keeps the undecoded value, and decodes it independently
+        Record clone = lazyRecord.clone();
+        assertEquals("value2", clone.getField(field2));
+
+        assertEquals(record, lazyRecord);
+        assertEquals(record.hashCode(), lazyRecord.hashCode());
+        assertEquals(record.getFields(), lazyRecord.getFields());
+        assertEquals("value2", lazyRecord.getFields().get(field2));
+    }
+
+    @Test
+    public void testConcurrentDecoding() throws Exception {
+        final RecordImpl lazyRecord = new RecordImpl();
+        lazyRecord.setLazyField(field1, encode("value1"));
+        lazyRecord.setLazyField(field2, encode("value2"));
+
+        // All threads see the same decoded value
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Object>> results = new ArrayList<Future<Object>>();
+            for (int i = 0; i < 20; i++) {
+                results.add(executor.submit(new Callable<Object>() {
+                    @Override
+                    public Object call() {
+                        return lazyRecord.getField(field1);
+                    }
+                }));
+            }
+            Object value = lazyRecord.getField(field1);
+            for (Future<Object> result : results) {
+                assertSame(value, result.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testDecodingError() {
+        RecordImpl lazyRecord = new RecordImpl();
+        // a string value type expects a length, which is missing
+        lazyRecord.setLazyField(field1, new LazyFieldValue(new StringValueType(), new byte[0], 0, 0));
+        try {
+            lazyRecord.getField(field1);
+            fail("Expected a decoding error");
+        } catch (RepositoryRuntimeException e) {
+            assertTrue(e.getCause() instanceof RecordException);
+        }
+    }
+
+    private LazyFieldValue encode(String value) {
+        DataOutputImpl output = new DataOutputImpl();
+        // some leading bytes, to check the offset is taken into account
+        output.writeByte((byte)7);
+        new StringValueType().write(value, output, new IdentityRecordStack());
+        byte[] data = output.toByteArray();
+        return new LazyFieldValue(new StringValueType(), data, 1, data.length - 1);
+    }
+}
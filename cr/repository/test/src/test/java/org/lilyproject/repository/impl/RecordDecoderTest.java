@@ -0,0 +1,80 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.repository.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Test;
+import org.lilyproject.repository.api.SchemaId;
+import org.lilyproject.repository.api.Scope;
+import org.lilyproject.repository.impl.id.SchemaIdImpl;
+import org.lilyproject.util.Pair;
+import org.lilyproject.util.hbase.LilyHBaseSchema.RecordCf;
+import org.lilyproject.util.hbase.LilyHBaseSchema.RecordColumn;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class RecordDecoderTest {
+    private final byte[] row = Bytes.toBytes("row");
+    private final RecordDecoder decoder = new RecordDecoder(null, null, null);
+
+    @Test
+    public void testGetLatest() {
+        Result result = newResult(
+                new KeyValue(row, RecordCf.DATA.bytes, RecordColumn.VERSION.bytes, 1L, Bytes.toBytes(5L)),
+                new KeyValue(row, RecordCf.DATA.bytes, RecordColumn.DELETED.bytes, 1L, Bytes.toBytes(false)));
+
+        assertEquals(5L, Bytes.toLong(decoder.getLatest(result, RecordCf.DATA.bytes, RecordColumn.VERSION.bytes)));
+        assertArrayEquals(Bytes.toBytes(false),
+                decoder.getLatest(result, RecordCf.DATA.bytes, RecordColumn.DELETED.bytes));
+        assertNull(decoder.getLatest(result, RecordCf.DATA.bytes, RecordColumn.OCC.bytes));
+        assertNull(decoder.getLatest(new Result(), RecordCf.DATA.bytes, RecordColumn.VERSION.bytes));
+    }
+
+    @Test
+    public void testExtractVersionRecordType() {
+        SchemaId rt1 = new SchemaIdImpl(UUID.randomUUID());
+        SchemaId rt2 = new SchemaIdImpl(UUID.randomUUID());
+        Result result = newResult(
+                new KeyValue(row, RecordCf.DATA.bytes, RecordColumn.VERSIONED_RT_ID.bytes, 2L, rt1.getBytes()),
+                new KeyValue(row, RecordCf.DATA.bytes, RecordColumn.VERSIONED_RT_ID.bytes, 4L, rt2.getBytes()),
+                new KeyValue(row, RecordCf.DATA.bytes, RecordColumn.VERSIONED_RT_VERSION.bytes, 2L,
+                        Bytes.toBytes(1L)),
+                new KeyValue(row, RecordCf.DATA.bytes, RecordColumn.VERSIONED_RT_VERSION.bytes, 4L,
+                        Bytes.toBytes(3L)));
+
+        assertNull(decoder.extractVersionRecordType(Scope.VERSIONED, result, 1L));
+        assertEquals(new Pair<SchemaId, Long>(rt1, 1L), decoder.extractVersionRecordType(Scope.VERSIONED, result, 2L));
+        assertEquals(new Pair<SchemaId, Long>(rt1, 1L), decoder.extractVersionRecordType(Scope.VERSIONED, result, 3L));
+        assertEquals(new Pair<SchemaId, Long>(rt2, 3L), decoder.extractVersionRecordType(Scope.VERSIONED, result, 9L));
+        assertNull(decoder.extractVersionRecordType(Scope.NON_VERSIONED, result, 9L));
+    }
+
+    private Result newResult(KeyValue... kvs) {
+        List<KeyValue> sorted = new ArrayList<KeyValue>(Arrays.asList(kvs));
+        Collections.sort(sorted, KeyValue.COMPARATOR);
+        return new Result(sorted);
+    }
+}
@@ -53,6 +53,7 @@ import org.lilyproject.repository.api.TypeManager;
 import org.lilyproject.repository.api.ValueType;
 import org.lilyproject.repository.impl.BlobIncubatorMonitor;
 import org.lilyproject.repository.impl.BlobStoreAccessRegistry;
+import org.lilyproject.repository.impl.HBaseBlobStoreAccess;
 import org.lilyproject.repository.impl.id.IdGeneratorImpl;
 import org.lilyproject.repotestfw.RepositorySetup;
 import org.lilyproject.util.hbase.LilyHBaseSchema;
@@ -1010,6 +1011,104 @@ public abstract class AbstractBlobStoreTest {
         }
     }
 
+    @Test
+    public void testHBaseBlobChunks() throws Exception {
+        HBaseBlobStoreAccess blobStore = new HBaseBlobStoreAccess(repoSetup.getHbaseTableFactory(), false, 100);
+
+        byte[] bytes = new byte[1050];
+        random.nextBytes(bytes);
+
+        // Write in pieces which don't line up with the chunks
+        Blob blob = new Blob("aMediaType", (long)bytes.length, "testHBaseBlobChunks");
+        OutputStream outputStream = blobStore.getOutputStream(blob);
+        int written = 0;
+        int pieceSize = 1;
+        while (written < bytes.length) {
+            int length = Math.min(pieceSize, bytes.length - written);
+            outputStream.write(bytes, written, length);
+            written += length;
+            pieceSize += 37;
+        }
+        outputStream.close();
+
+        InputStream inputStream = blobStore.getInputStream(blob.getValue());
+        try {
+            assertTrue(Arrays.equals(bytes, IOUtils.toByteArray(inputStream)));
+        } finally {
+            IOUtils.closeQuietly(inputStream);
+        }
+
+        for (int offset : new int[] {0, 99, 100, 250, 1049, 1050}) {
+            inputStream = blobStore.getInputStream(blob.getValue(), offset);
+            try {
+                assertTrue(Arrays.equals(Arrays.copyOfRange(bytes, offset, bytes.length),
+                        IOUtils.toByteArray(inputStream)));
+            } finally {
+                IOUtils.closeQuietly(inputStream);
+            }
+        }
+
+        blobStore.delete(blob.getValue());
+        try {
+            blobStore.getInputStream(blob.getValue());
+            fail("Expected exception");
+        } catch (BlobException e) {
+            // ok
+        }
+    }
+
+    @Test
+    public void testHBaseBlobAbandonedWrite() throws Exception {
+        HBaseBlobStoreAccess blobStore = new HBaseBlobStoreAccess(repoSetup.getHbaseTableFactory(), false, 100);
+
+        byte[] bytes = new byte[250];
+        random.nextBytes(bytes);
+
+        // Two writers which wrote two chunks and then got stuck
+        Blob slowBlob = new Blob("aMediaType", (long)bytes.length, "testHBaseBlobAbandonedWrite");
+        OutputStream slowStream = blobStore.getOutputStream(slowBlob);
+        slowStream.write(bytes, 0, 200);
+        Blob abandonedBlob = new Blob("aMediaType", (long)bytes.length, "testHBaseBlobAbandonedWrite");
+        OutputStream abandonedStream = blobStore.getOutputStream(abandonedBlob);
+        abandonedStream.write(bytes, 0, 200);
+
+        // The chunks of blobs which are still being written are not deleted
+        blobStore.deleteAbandonedChunks(60000);
+        slowStream.write(bytes, 200, 50);
+        slowStream.close();
+        InputStream inputStream = blobStore.getInputStream(slowBlob.getValue());
+        try {
+            assertTrue(Arrays.equals(bytes, IOUtils.toByteArray(inputStream)));
+        } finally {
+            IOUtils.closeQuietly(inputStream);
+        }
+
+        // Give time for the chunks to expire
+        Thread.sleep(60);
+        assertTrue(blobStore.deleteAbandonedChunks(50) >= 1);
+
+        // The completed blob is kept, the abandoned one lost its chunks
+        inputStream = blobStore.getInputStream(slowBlob.getValue());
+        try {
+            assertTrue(Arrays.equals(bytes, IOUtils.toByteArray(inputStream)));
+        } finally {
+            IOUtils.closeQuietly(inputStream);
+        }
+        abandonedStream.close();
+        inputStream = blobStore.getInputStream(abandonedBlob.getValue());
+        try {
+            IOUtils.toByteArray(inputStream);
+            fail("Expected exception");
+        } catch (IOException e) {
+            // ok, the first chunks are gone
+        } finally {
+            IOUtils.closeQuietly(inputStream);
+        }
+
+        blobStore.delete(slowBlob.getValue());
+        blobStore.delete(abandonedBlob.getValue());
+    }
+
     private Blob writeBlob(byte[] bytes, String mediaType, String name) throws RepositoryException, InterruptedException,
  IOException {
         return writeBlob(bytes, mediaType, name, bytes.length);
@@ -65,6 +65,7 @@ import org.lilyproject.repository.api.RecordException;
 import org.lilyproject.repository.api.RecordExistsException;
 import org.lilyproject.repository.api.RecordId;
 import org.lilyproject.repository.api.RecordNotFoundException;
+import org.lilyproject.repository.api.RecordResult;
 import org.lilyproject.repository.api.RecordScan;
 import org.lilyproject.repository.api.RecordScanner;
 import org.lilyproject.repository.api.RecordType;
@@ -620,6 +621,27 @@ public abstract class AbstractRepositoryTest {
         assertTrue(records.contains(record1));
     }
 
+    @Test
+    public void testReadVersionsWithIds() throws Exception {
+        Record record = createDefaultRecord();
+        Record updateRecord = record.cloneRecord();
+        updateRecord.setField(fieldType1.getName(), "value2");
+        updateRecord.setField(fieldType2.getName(), 789);
+        repository.update(updateRecord);
+
+        updateRecord.setField(fieldType3.getName(), false);
+        repository.update(updateRecord);
+
+        List<IdRecord> records = repository.readVersionsWithIds(record.getId(), Arrays.asList(3L, 1L, 5L), null);
+        assertEquals(2, records.size());
+        assertEquals(Long.valueOf(1L), records.get(0).getVersion());
+        assertEquals(Long.valueOf(3L), records.get(1).getVersion());
+        assertEquals(repository.read(record.getId(), 1L), records.get(0).getRecord());
+        assertEquals(repository.read(record.getId(), 3L), records.get(1).getRecord());
+        // the value of fieldType2 was stored at version 2
+        assertEquals(Integer.valueOf(789), records.get(1).<Integer>getField(fieldType2.getId()));
+    }
+
     @Test
     public void testReadNonExistingRecord() throws Exception {
         try {
@@ -1638,6 +1660,41 @@ public abstract class AbstractRepositoryTest {
         assertEquals(ResponseStatus.UP_TO_DATE, resultRecord.getResponseStatus());
     }
 
+    @Test
+    public void testCreateOrUpdateBatch() throws Exception {
+        Record existing = repository.newRecord(idGenerator.newRecordId());
+        existing.setRecordType(recordType1.getName(), recordType1.getVersion());
+        existing.setField(fieldType1.getName(), "value1");
+        repository.create(existing);
+
+        Record created = repository.newRecord(idGenerator.newRecordId());
+        created.setRecordType(recordType1.getName(), recordType1.getVersion());
+        created.setField(fieldType1.getName(), "value1");
+
+        Record updated = repository.newRecord(existing.getId());
+        updated.setField(fieldType1.getName(), "value2");
+
+        Record updatedAgain = repository.newRecord(existing.getId());
+        updatedAgain.setField(fieldType1.getName(), "value3");
+
+        Record invalid = repository.newRecord(idGenerator.newRecordId());
+        invalid.setRecordType(new QName("ns", "nonExistingRecordType"));
+        invalid.setField(fieldType1.getName(), "value1");
+
+        List<RecordResult> results = repository.createOrUpdate(
+                Arrays.asList(created, updated, invalid, updatedAgain, existing));
+        assertEquals(5, results.size());
+        assertEquals(ResponseStatus.CREATED, results.get(0).getResponseStatus());
+        assertEquals(ResponseStatus.UPDATED, results.get(1).getResponseStatus());
+        assertFalse(results.get(2).isSuccess());
+        assertTrue(results.get(2).getException() instanceof RecordTypeNotFoundException);
+        assertEquals(ResponseStatus.UPDATED, results.get(3).getResponseStatus());
+        assertEquals(ResponseStatus.UPDATED, results.get(4).getResponseStatus());
+
+        assertEquals("value1", repository.read(created.getId()).getField(fieldType1.getName()));
+        assertEquals("value1", repository.read(existing.getId()).getField(fieldType1.getName()));
+    }
+
     @Test
     public void testUpdateMutableFieldsRecordType() throws Exception {
         Record record = repository.newRecord();
@@ -2724,6 +2781,58 @@ public abstract class AbstractRepositoryTest {
         assertEquals(3, countResults(repository.getScanner(scan)));
     }
 
+    @Test
+    public void testFieldValueFilterRange() throws Exception {
+        FieldType longField =
+                typeManager.createFieldType("LONG", new QName("FieldValueFilterRange", "long"), Scope.NON_VERSIONED);
+        FieldType listField = typeManager.createFieldType("LIST<LONG>",
+                new QName("FieldValueFilterRange", "list"), Scope.NON_VERSIONED);
+        RecordType rt = typeManager.recordTypeBuilder()
+                .defaultNamespace("FieldValueFilterRange")
+                .name("rt1")
+                .fieldEntry().use(longField).add()
+                .fieldEntry().use(listField).add()
+                .create();
+
+        // negative values verify that the comparison is not done on the encoded bytes
+        repository.recordBuilder().recordType(rt.getName()).field(longField.getName(), -5L)
+                .field(listField.getName(), Arrays.asList(-5L, 5L)).create();
+        repository.recordBuilder().recordType(rt.getName()).field(longField.getName(), 3L)
+                .field(listField.getName(), Arrays.asList(3L, 4L)).create();
+        repository.recordBuilder().recordType(rt.getName()).field(longField.getName(), 10L)
+                .field(listField.getName(), Arrays.asList(10L)).create();
+
+        RecordScan scan = new RecordScan();
+        scan.setRecordFilter(new FieldValueFilter(longField.getName(), CompareOp.GREATER, 0L));
+        assertEquals(2, countResults(repository.getScanner(scan)));
+
+        scan = new RecordScan();
+        scan.setRecordFilter(new FieldValueFilter(longField.getName(), CompareOp.LESS_OR_EQUAL, 3L));
+        assertEquals(2, countResults(repository.getScanner(scan)));
+
+        FieldValueFilter filter = new FieldValueFilter(listField.getName(), CompareOp.GREATER_OR_EQUAL, 4L);
+        filter.setListMatch(FieldValueFilter.ListMatch.ANY);
+        scan = new RecordScan();
+        scan.setRecordFilter(filter);
+        assertEquals(3, countResults(repository.getScanner(scan)));
+
+        filter.setListMatch(FieldValueFilter.ListMatch.ALL);
+        scan = new RecordScan();
+        scan.setRecordFilter(filter);
+        assertEquals(1, countResults(repository.getScanner(scan)));
+
+        // a range comparison on a list field requires a list match
+        filter.setListMatch(null);
+        scan = new RecordScan();
+        scan.setRecordFilter(filter);
+        try {
+            repository.getScanner(scan);
+            fail("Expected an exception");
+        } catch (Exception e) {
+            // expected
+        }
+    }
+
     @Test
     public void testFilterList() throws Exception {
         FieldType f1 = typeManager.createFieldType("STRING", new QName("FilterList", "field1"), Scope.NON_VERSIONED);
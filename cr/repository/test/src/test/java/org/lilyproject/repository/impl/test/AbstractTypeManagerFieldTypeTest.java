@@ -15,6 +15,9 @@
  */
 package org.lilyproject.repository.impl.test;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.UUID;
 
 import org.junit.Test;
@@ -23,11 +26,13 @@ import org.lilyproject.repository.api.FieldTypeExistsException;
 import org.lilyproject.repository.api.FieldTypeNotFoundException;
 import org.lilyproject.repository.api.FieldTypeUpdateException;
 import org.lilyproject.repository.api.QName;
+import org.lilyproject.repository.api.RecordType;
 import org.lilyproject.repository.api.SchemaId;
 import org.lilyproject.repository.api.Scope;
 import org.lilyproject.repository.api.TypeManager;
 import org.lilyproject.repository.api.ValueType;
 import org.lilyproject.repository.impl.id.SchemaIdImpl;
+import org.lilyproject.util.Pair;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
@@ -252,6 +257,53 @@ public abstract class AbstractTypeManagerFieldTypeTest {
         assertEquals(typeManager.getValueType("STRING"), fieldType.getValueType());
     }
 
+    @Test
+    public void testCreateOrUpdateTypes() throws Exception {
+        String NS = "testCreateOrUpdateTypes";
+
+        FieldType existingFieldType = typeManager.createFieldType("STRING", new QName(NS, "existing"),
+                Scope.NON_VERSIONED);
+
+        List<FieldType> fieldTypes = new ArrayList<FieldType>();
+        fieldTypes.add(typeManager.newFieldType("STRING", new QName(NS, "field1"), Scope.NON_VERSIONED));
+        fieldTypes.add(typeManager.newFieldType("LONG", new QName(NS, "field2"), Scope.VERSIONED));
+        // same name again, without value type and scope
+        fieldTypes.add(typeManager.newFieldType((ValueType)null, new QName(NS, "field1"), null));
+        fieldTypes.add(typeManager.newFieldType("STRING", new QName(NS, "existing"), Scope.NON_VERSIONED));
+
+        RecordType recordType = typeManager.newRecordType(new QName(NS, "rt1"));
+        recordType.addFieldTypeEntry(existingFieldType.getId(), false);
+
+        Pair<List<FieldType>, List<RecordType>> types = typeManager.createOrUpdateTypes(fieldTypes,
+                Collections.singletonList(recordType));
+
+        List<FieldType> newFieldTypes = types.getV1();
+        assertEquals(4, newFieldTypes.size());
+        assertNotNull(newFieldTypes.get(0).getId());
+        assertEquals(new QName(NS, "field2"), newFieldTypes.get(1).getName());
+        assertEquals(Scope.VERSIONED, newFieldTypes.get(1).getScope());
+        assertEquals(newFieldTypes.get(0).getId(), newFieldTypes.get(2).getId());
+        assertEquals(typeManager.getValueType("STRING"), newFieldTypes.get(2).getValueType());
+        assertEquals(existingFieldType.getId(), newFieldTypes.get(3).getId());
+        assertEquals(newFieldTypes.get(1), typeManager.getFieldTypeByName(new QName(NS, "field2")));
+
+        assertEquals(1, types.getV2().size());
+        assertNotNull(types.getV2().get(0).getId());
+        assertEquals(types.getV2().get(0), typeManager.getRecordTypeByName(new QName(NS, "rt1"), null));
+
+        // A conflicting field type state gives the same error as createOrUpdateFieldType
+        FieldType conflictFieldType = newFieldTypes.get(1).clone();
+        conflictFieldType.setId(null);
+        conflictFieldType.setScope(Scope.NON_VERSIONED);
+        try {
+            typeManager.createOrUpdateTypes(Collections.singletonList(conflictFieldType),
+                    Collections.<RecordType>emptyList());
+            fail("expected exception");
+        } catch (FieldTypeUpdateException e) {
+            // expected
+        }
+    }
+
     @Test
     public void testFieldTypeBuilder() throws Exception {
         String NS = "testFieldTypeBuilder";
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.repository.impl.test;
+
+import java.util.EnumMap;
+import java.util.HashMap;
+
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Test;
+import org.lilyproject.repository.api.AbsoluteRecordId;
+import org.lilyproject.repository.api.IdGenerator;
+import org.lilyproject.repository.api.IdRecord;
+import org.lilyproject.repository.api.QName;
+import org.lilyproject.repository.api.Record;
+import org.lilyproject.repository.api.SchemaId;
+import org.lilyproject.repository.api.Scope;
+import org.lilyproject.repository.impl.IdRecordImpl;
+import org.lilyproject.repository.impl.RecordCache;
+import org.lilyproject.repository.impl.RecordImpl;
+import org.lilyproject.repository.impl.id.IdGeneratorImpl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class RecordCacheTest {
+    private static final String REPO = "default";
+    private final IdGenerator idGenerator = new IdGeneratorImpl();
+
+    @Test
+    public void testPutGetInvalidate() {
+        RecordCache cache = new RecordCache(1024 * 1024);
+        AbsoluteRecordId id = idGenerator.newAbsoluteRecordId("record", idGenerator.newRecordId());
+
+        long stamp = cache.getStamp(REPO, id);
+        cache.put(REPO, id, null, newRecord(id, "latest"), newResult(100), stamp);
+        cache.put(REPO, id, 1L, newRecord(id, "v1"), newResult(100), stamp);
+
+        IdRecord latest = cache.get(REPO, id, null);
+        assertNotNull(latest);
+        assertEquals("latest", latest.getField(new QName("ns", "f")));
+        assertEquals("v1", cache.get(REPO, id, 1L).getField(new QName("ns", "f")));
+        assertNull(cache.get(REPO, id, 2L));
+        assertNull(cache.get("otherrepo", id, null));
+
+        // Returned records are copies
+        assertNotSame(latest, cache.get(REPO, id, null));
+
+        cache.invalidate(REPO, id);
+        assertNull(cache.get(REPO, id, null));
+        assertNull(cache.get(REPO, id, 1L));
+    }
+
+    @Test
+    public void testStalePutIsIgnored() {
+        RecordCache cache = new RecordCache(1024 * 1024);
+        AbsoluteRecordId id = idGenerator.newAbsoluteRecordId("record", idGenerator.newRecordId());
+
+        long stamp = cache.getStamp(REPO, id);
+        // the record changes while it is being read
+        cache.invalidate(REPO, id);
+        cache.put(REPO, id, null, newRecord(id, "stale"), newResult(100), stamp);
+
+        assertNull(cache.get(REPO, id, null));
+    }
+
+    @Test
+    public void testSizeBound() {
+        RecordCache cache = new RecordCache(100 * 1000);
+
+        for (int i = 0; i < 1000; i++) {
+            AbsoluteRecordId id = idGenerator.newAbsoluteRecordId("record", idGenerator.newRecordId());
+            cache.put(REPO, id, null, newRecord(id, "value"), newResult(1000), cache.getStamp(REPO, id));
+        }
+
+        assertTrue(cache.size() < 100);
+        assertTrue(cache.drainEvictionCount() > 900);
+        assertEquals(0, cache.drainEvictionCount());
+    }
+
+    private IdRecord newRecord(AbsoluteRecordId id, String value) {
+        Record record = new RecordImpl(id.getRecordId());
+        record.setField(new QName("ns", "f"), value);
+        return new IdRecordImpl(record, new HashMap<SchemaId, QName>(), new EnumMap<Scope, SchemaId>(Scope.class));
+    }
+
+    private Result newResult(int valueSize) {
+        return new Result(new KeyValue[] {
+                new KeyValue(Bytes.toBytes("row"), Bytes.toBytes("data"), Bytes.toBytes("f"), new byte[valueSize])});
+    }
+}
@@ -18,7 +18,12 @@ package org.lilyproject.repository.impl.test;
 import java.math.BigDecimal;
 import java.net.URI;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.apache.hadoop.hbase.util.Bytes;
 import org.joda.time.DateTime;
@@ -29,16 +34,26 @@ import org.junit.Assert;
 import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.Test;
+import org.lilyproject.avro.repository.RecordAsBytesConverter;
+import org.lilyproject.avro.repository.SchemaIdDictionary;
+import org.lilyproject.bytes.api.DataOutput;
+import org.lilyproject.bytes.impl.DataInputImpl;
+import org.lilyproject.bytes.impl.DataOutputImpl;
 import org.lilyproject.hadooptestfw.TestHelper;
 import org.lilyproject.repository.api.Blob;
 import org.lilyproject.repository.api.HierarchyPath;
 import org.lilyproject.repository.api.IdGenerator;
+import org.lilyproject.repository.api.IdRecord;
 import org.lilyproject.repository.api.Link;
 import org.lilyproject.repository.api.QName;
 import org.lilyproject.repository.api.Record;
 import org.lilyproject.repository.api.RecordException;
+import org.lilyproject.repository.api.RecordType;
 import org.lilyproject.repository.api.Repository;
+import org.lilyproject.repository.api.SchemaId;
+import org.lilyproject.repository.api.Scope;
 import org.lilyproject.repository.api.TypeManager;
+import org.lilyproject.repository.impl.IdRecordImpl;
 import org.lilyproject.repotestfw.RepositorySetup;
 
 import static org.junit.Assert.assertEquals;
@@ -166,4 +181,67 @@ public class RecordTest {
         }
   }
 
+
+  @Test
+  public void testSerializeWithSchemaIds() throws Exception {
+      String namespace = "testSerializeWithSchemaIds";
+      QName recordTypeName = new QName(namespace, "recordType");
+      QName stringFieldName = new QName(namespace, "stringField");
+      QName listFieldName = new QName(namespace, "listField");
+      RecordType recordType = typeManager.recordTypeBuilder()
+          .defaultNamespace(namespace)
+          .name("recordType")
+          .fieldEntry().defineField().name("stringField").create().add()
+          .fieldEntry().defineField().name("listField").type("LIST<LONG>").create().add()
+          .create();
+      SchemaId stringFieldId = typeManager.getFieldTypeByName(stringFieldName).getId();
+
+      Record record = repository.recordBuilder()
+          .id("serialized")
+          .recordType(recordTypeName)
+          .field(stringFieldName, "abc")
+          .field(listFieldName, Arrays.asList(1L, 2L))
+          .build();
+      record.getFieldsToDelete().add(stringFieldName);
+      record.getAttributes().put("attr", "value");
+
+      SchemaIdDictionary dictionary = new SchemaIdDictionary(Collections.singletonList(stringFieldId));
+      for (SchemaIdDictionary fieldTypeDictionary : new SchemaIdDictionary[] {null, dictionary}) {
+          DataOutput output = new DataOutputImpl();
+          RecordAsBytesConverter.writeWithSchemaIds(record, output, repository, fieldTypeDictionary);
+          Record result = RecordAsBytesConverter.read(new DataInputImpl(output.toByteArray()), repository,
+                  fieldTypeDictionary);
+
+          assertEquals(record.getId(), result.getId());
+          assertEquals(recordTypeName, result.getRecordTypeName());
+          assertEquals(record.getFields(), result.getFields());
+          assertEquals(record.getFieldsToDelete(), result.getFieldsToDelete());
+          assertEquals("value", result.getAttributes().get("attr"));
+      }
+
+      // The dictionary saves the field id and its length, for the field and the field to delete
+      DataOutput withoutDictionary = new DataOutputImpl();
+      RecordAsBytesConverter.writeWithSchemaIds(record, withoutDictionary, repository, null);
+      DataOutput withDictionary = new DataOutputImpl();
+      RecordAsBytesConverter.writeWithSchemaIds(record, withDictionary, repository, dictionary);
+      assertEquals(2 * (stringFieldId.getBytes().length + 1), withoutDictionary.getSize() - withDictionary.getSize());
+
+      // The compact form is smaller than the one with names
+      assertTrue(withoutDictionary.getSize() < RecordAsBytesConverter.write(record, repository).length);
+
+      // IdRecord
+      Map<SchemaId, QName> idToQNameMapping = new HashMap<SchemaId, QName>();
+      idToQNameMapping.put(stringFieldId, stringFieldName);
+      Map<Scope, SchemaId> recordTypeIds = new EnumMap<Scope, SchemaId>(Scope.class);
+      recordTypeIds.put(Scope.NON_VERSIONED, recordType.getId());
+      IdRecord idRecord = new IdRecordImpl(record, idToQNameMapping, recordTypeIds);
+      DataOutput output = new DataOutputImpl();
+      RecordAsBytesConverter.writeIdRecordWithSchemaIds(idRecord, output, repository, dictionary);
+      IdRecord idResult = RecordAsBytesConverter.readIdRecord(new DataInputImpl(output.toByteArray()), repository,
+              dictionary);
+      assertEquals(idRecord.getFieldIdToNameMapping(), idResult.getFieldIdToNameMapping());
+      assertEquals(recordType.getId(), idResult.getRecordTypeId());
+      assertEquals(record.getFields(), idResult.getFields());
+  }
+
 }
@@ -0,0 +1,232 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.repository.impl.test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.hadoop.hbase.HTableDescriptor;
+import org.apache.hadoop.hbase.client.HBaseAdmin;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.lilyproject.hadooptestfw.TestHelper;
+import org.lilyproject.repository.api.FieldType;
+import org.lilyproject.repository.api.LRepository;
+import org.lilyproject.repository.api.LTable;
+import org.lilyproject.repository.api.QName;
+import org.lilyproject.repository.api.Record;
+import org.lilyproject.repository.api.RecordType;
+import org.lilyproject.repository.api.ResponseStatus;
+import org.lilyproject.repository.api.Scope;
+import org.lilyproject.repository.api.TypeManager;
+import org.lilyproject.repository.impl.AbstractRepositoryManager;
+import org.lilyproject.repository.impl.hbase.RecordUpdateEndpoint;
+import org.lilyproject.repotestfw.RepositorySetup;
+import org.lilyproject.util.hbase.RepoAndTableUtil;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class RecordUpdateEndpointTest {
+    private static final RepositorySetup repoSetup = new RepositorySetup();
+    private static final String NS = "org.lilyproject.repository.test.endpoint";
+    private static final String ENDPOINT_TABLE = "endpointtable";
+    private static final String PLAIN_TABLE = "plaintable";
+
+    private static TypeManager typeManager;
+    private static LRepository repository;
+    private static FieldType nonVersionedField;
+    private static FieldType versionedField;
+    private static RecordType recordType;
+
+    @BeforeClass
+    public static void setUpBeforeClass() throws Exception {
+        TestHelper.setupLogging();
+        repoSetup.setupCore();
+        repoSetup.setupRepository();
+
+        AbstractRepositoryManager repositoryManager = (AbstractRepositoryManager)repoSetup.getRepositoryManager();
+        repositoryManager.setRecordUpdateEndpointEnabled(true);
+        repository = repositoryManager.getDefaultRepository();
+        typeManager = repository.getTypeManager();
+
+        nonVersionedField = typeManager.createFieldType("STRING", new QName(NS, "nonversioned"), Scope.NON_VERSIONED);
+        versionedField = typeManager.createFieldType("INTEGER", new QName(NS, "versioned"), Scope.VERSIONED);
+        recordType = typeManager.recordTypeBuilder()
+                .name(new QName(NS, "rt"))
+                .field(nonVersionedField.getId(), false)
+                .field(versionedField.getId(), false)
+                .create();
+
+        repository.getTableManager().createTable(ENDPOINT_TABLE);
+        repository.getTableManager().createTable(PLAIN_TABLE);
+
+        HBaseAdmin admin = new HBaseAdmin(repoSetup.getHadoopConf());
+        try {
+            byte[] tableName = Bytes.toBytes(
+                    RepoAndTableUtil.getHBaseTableName(RepoAndTableUtil.DEFAULT_REPOSITORY, ENDPOINT_TABLE));
+            HTableDescriptor descriptor = admin.getTableDescriptor(tableName);
+            descriptor.addCoprocessor(RecordUpdateEndpoint.class.getName());
+            admin.disableTable(tableName);
+            admin.modifyTable(tableName, descriptor);
+            admin.enableTable(tableName);
+        } finally {
+            admin.close();
+        }
+    }
+
+    @AfterClass
+    public static void tearDownAfterClass() throws Exception {
+        repoSetup.stop();
+    }
+
+    @Test
+    public void testUpdate() throws Exception {
+        LTable table = repository.getTable(ENDPOINT_TABLE);
+        Record record = table.recordBuilder()
+                .id("testUpdate")
+                .recordType(recordType.getName())
+                .field(nonVersionedField.getName(), "value1")
+                .field(versionedField.getName(), 1)
+                .create();
+        assertEquals(Long.valueOf(1), record.getVersion());
+
+        record = table.newRecord(record.getId());
+        record.setField(versionedField.getName(), 2);
+        record.setField(nonVersionedField.getName(), "value2");
+        Record updated = table.update(record);
+
+        assertEquals(ResponseStatus.UPDATED, updated.getResponseStatus());
+        assertEquals(Long.valueOf(2), updated.getVersion());
+        assertEquals(recordType.getName(), updated.getRecordTypeName());
+        assertEquals(recordType.getVersion(), updated.getRecordTypeVersion());
+        assertEquals(recordType.getName(), updated.getRecordTypeName(Scope.VERSIONED));
+
+        Record read = table.read(record.getId());
+        assertEquals(Long.valueOf(2), read.getVersion());
+        assertEquals("value2", read.getField(nonVersionedField.getName()));
+        assertEquals(2, read.getField(versionedField.getName()));
+        assertEquals(1, table.read(record.getId(), 1L).getField(versionedField.getName()));
+
+        // An update without changes leaves the record as it is
+        Record unchanged = table.update(record);
+        assertEquals(ResponseStatus.UP_TO_DATE, unchanged.getResponseStatus());
+        assertEquals(Long.valueOf(2), unchanged.getVersion());
+
+        // Field deletes and their validation are handled in the region server as well
+        record = table.newRecord(record.getId());
+        record.delete(nonVersionedField.getName(), true);
+        Record deleted = table.update(record);
+        assertEquals(ResponseStatus.UPDATED, deleted.getResponseStatus());
+        assertFalse(table.read(record.getId()).hasField(nonVersionedField.getName()));
+        assertEquals(0, deleted.getFieldsToDelete().size());
+    }
+
+    @Test
+    public void testConcurrentUpdates() throws Exception {
+        final LTable table = repository.getTable(ENDPOINT_TABLE);
+        final Record record = table.recordBuilder()
+                .id("testConcurrentUpdates")
+                .recordType(recordType.getName())
+                .field(versionedField.getName(), 0)
+                .create();
+
+        // Without the endpoint, most of these updates would fail with a ConcurrentRecordUpdateException
+        final int threads = 5;
+        final int updatesPerThread = 10;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Void>> futures = new ArrayList<Future<Void>>();
+            for (int t = 0; t < threads; t++) {
+                final int thread = t;
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        for (int i = 0; i < updatesPerThread; i++) {
+                            Record update = table.newRecord(record.getId());
+                            update.setField(versionedField.getName(), 1 + thread * updatesPerThread + i);
+                            table.update(update);
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        // Every update created its own version
+        assertEquals(Long.valueOf(1 + threads * updatesPerThread), table.read(record.getId()).getVersion());
+    }
+
+    @Test
+    public void testFallbackWithoutEndpoint() throws Exception {
+        LTable table = repository.getTable(PLAIN_TABLE);
+        Record record = table.recordBuilder()
+                .id("testFallbackWithoutEndpoint")
+                .recordType(recordType.getName())
+                .field(versionedField.getName(), 1)
+                .create();
+
+        for (int i = 2; i <= 3; i++) {
+            record = table.newRecord(record.getId());
+            record.setField(versionedField.getName(), i);
+            Record updated = table.update(record);
+            assertEquals(ResponseStatus.UPDATED, updated.getResponseStatus());
+            assertEquals(Long.valueOf(i), updated.getVersion());
+        }
+        assertEquals(3, table.read(record.getId()).getField(versionedField.getName()));
+    }
+
+    @Test
+    public void testTypeUnknownToRegionServer() throws Exception {
+        LTable table = repository.getTable(ENDPOINT_TABLE);
+        Record record = table.recordBuilder()
+                .id("testTypeUnknownToRegionServer")
+                .recordType(recordType.getName())
+                .field(versionedField.getName(), 1)
+                .create();
+        // Make sure the endpoint has set up its schema before the new type is created
+        record.setField(versionedField.getName(), 2);
+        table.update(record);
+
+        // The schema cache of the region server might not know the new types yet, the update is then
+        // performed the regular way
+        FieldType newField = typeManager.createFieldType("STRING", new QName(NS, "newfield"), Scope.NON_VERSIONED);
+        RecordType newRecordType = typeManager.recordTypeBuilder()
+                .name(new QName(NS, "newrt"))
+                .field(newField.getId(), false)
+                .field(versionedField.getId(), false)
+                .create();
+
+        record = table.newRecord(record.getId());
+        record.setRecordType(newRecordType.getName());
+        record.setField(newField.getName(), "value");
+        Record updated = table.update(record);
+        assertEquals(ResponseStatus.UPDATED, updated.getResponseStatus());
+        assertEquals(newRecordType.getName(), updated.getRecordTypeName());
+        assertEquals("value", table.read(record.getId()).getField(newField.getName()));
+    }
+}
@@ -0,0 +1,259 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.repository.impl.valueindex;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.lilyproject.hadooptestfw.TestHelper;
+import org.lilyproject.hbaseindex.IndexManager;
+import org.lilyproject.hbaseindex.QueryResult;
+import org.lilyproject.repository.api.AbsoluteRecordId;
+import org.lilyproject.repository.api.CompareOp;
+import org.lilyproject.repository.api.FieldType;
+import org.lilyproject.repository.api.IdGenerator;
+import org.lilyproject.repository.api.LRepository;
+import org.lilyproject.repository.api.LTable;
+import org.lilyproject.repository.api.QName;
+import org.lilyproject.repository.api.Record;
+import org.lilyproject.repository.api.RecordId;
+import org.lilyproject.repository.api.RecordScan;
+import org.lilyproject.repository.api.RecordScanner;
+import org.lilyproject.repository.api.RecordType;
+import org.lilyproject.repository.api.Scope;
+import org.lilyproject.repository.api.TypeManager;
+import org.lilyproject.repository.api.filter.FieldValueFilter;
+import org.lilyproject.repository.api.filter.RecordFilter;
+import org.lilyproject.repository.api.filter.RecordFilterList;
+import org.lilyproject.repository.api.filter.RecordTypeFilter;
+import org.lilyproject.repository.impl.AbstractRepositoryManager;
+import org.lilyproject.repotestfw.RepositorySetup;
+import org.lilyproject.util.hbase.LilyHBaseSchema.Table;
+import org.lilyproject.util.io.Closer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class FieldValueIndexesTest {
+    private static final String NS = "org.lilyproject.repository.impl.valueindex.test";
+    private static final String SUBSCRIPTION = "FieldValueIndexUpdater";
+
+    private static final RepositorySetup repoSetup = new RepositorySetup();
+
+    private static TypeManager typeManager;
+    private static IdGenerator idGenerator;
+    private static LRepository repository;
+    private static LTable table;
+    private static FieldValueIndexes indexes;
+    private static FieldType nameField;
+    private static FieldType countField;
+    private static RecordType recordType;
+    private static RecordType otherRecordType;
+
+    @BeforeClass
+    public static void setUpBeforeClass() throws Exception {
+        TestHelper.setupLogging("org.lilyproject.repository.impl.valueindex");
+
+        repoSetup.setupCore();
+        repoSetup.setupRepository();
+
+        typeManager = repoSetup.getTypeManager();
+        idGenerator = repoSetup.getIdGenerator();
+        repository = repoSetup.getRepositoryManager().getDefaultRepository();
+        table = repository.getTable(Table.RECORD.name);
+
+        nameField = typeManager.createFieldType(typeManager.newFieldType(typeManager.getValueType("STRING"),
+                new QName(NS, "name"), Scope.NON_VERSIONED));
+        countField = typeManager.createFieldType(typeManager.newFieldType(typeManager.getValueType("LONG"),
+                new QName(NS, "count"), Scope.NON_VERSIONED));
+        recordType = typeManager.newRecordType(new QName(NS, "RT"));
+        recordType.addFieldTypeEntry(typeManager.newFieldTypeEntry(nameField.getId(), false));
+        recordType.addFieldTypeEntry(typeManager.newFieldTypeEntry(countField.getId(), false));
+        recordType = typeManager.createRecordType(recordType);
+        otherRecordType = typeManager.newRecordType(new QName(NS, "OtherRT"));
+        otherRecordType.addFieldTypeEntry(typeManager.newFieldTypeEntry(nameField.getId(), false));
+        otherRecordType = typeManager.createRecordType(otherRecordType);
+
+        // The "later" field is created by one of the tests, to check an index is only used once it is built
+        Set<String> fields = new LinkedHashSet<String>(Arrays.asList(nameField.getName().toString(),
+                countField.getName().toString(), new QName(NS, "later").toString()));
+        indexes = new FieldValueIndexes(new IndexManager(repoSetup.getHadoopConf()), typeManager, idGenerator,
+                fields, true);
+        ((AbstractRepositoryManager)repoSetup.getRepositoryManager()).setFieldValueIndexes(indexes);
+
+        // The table is still empty, so building only records the indexes as built
+        indexes.build(repository, Table.RECORD.name);
+
+        repoSetup.getSepModel().addSubscription(SUBSCRIPTION);
+        repoSetup.startSepEventSlave(SUBSCRIPTION,
+                new FieldValueIndexUpdater(repoSetup.getRepositoryManager(), indexes, idGenerator, 2));
+    }
+
+    @AfterClass
+    public static void tearDownAfterClass() throws Exception {
+        Closer.close(repoSetup);
+    }
+
+    @Test
+    public void testCreateUpdateDelete() throws Exception {
+        Record record = createRecord("cud", recordType, "cud-a", 1L);
+        repoSetup.waitForSepProcessing();
+
+        assertEquals(ids(record.getId()), queryIndex(new FieldValueFilter(nameField.getName(), "cud-a")));
+        assertTrue(queryIndex(new RecordTypeFilter(recordType.getName())).contains(record.getId()));
+
+        // Changing a value moves the record to the entry of the new value
+        record.setField(nameField.getName(), "cud-b");
+        table.update(record);
+        repoSetup.waitForSepProcessing();
+
+        assertEquals(ids(), queryIndex(new FieldValueFilter(nameField.getName(), "cud-a")));
+        assertEquals(ids(record.getId()), queryIndex(new FieldValueFilter(nameField.getName(), "cud-b")));
+
+        // Removing a field removes it from the index
+        record = table.read(record.getId());
+        record.delete(nameField.getName(), true);
+        table.update(record);
+        repoSetup.waitForSepProcessing();
+
+        assertEquals(ids(), queryIndex(new FieldValueFilter(nameField.getName(), "cud-b")));
+        assertTrue(queryIndex(new RecordTypeFilter(recordType.getName())).contains(record.getId()));
+
+        table.delete(record.getId());
+        repoSetup.waitForSepProcessing();
+
+        assertFalse(queryIndex(new RecordTypeFilter(recordType.getName())).contains(record.getId()));
+        assertFalse(queryIndex(new FieldValueFilter(countField.getName(), 1L)).contains(record.getId()));
+    }
+
+    @Test
+    public void testScanResultsMatchPlainScan() throws Exception {
+        // Create the records in another order than the one of their ids or values
+        for (int i = 0; i < 20; i++) {
+            int n = (i * 7) % 20;
+            createRecord(String.format("scan-%02d", n), n % 3 == 0 ? otherRecordType : recordType,
+                    "scan-" + (n % 4), (long)(100 + 20 - n));
+        }
+        repoSetup.waitForSepProcessing();
+
+        FieldValueFilter nameFilter = new FieldValueFilter(nameField.getName(), "scan-1");
+        FieldValueFilter countFilter = new FieldValueFilter(countField.getName(), CompareOp.GREATER_OR_EQUAL, 105L);
+        RecordFilterList list = new RecordFilterList();
+        list.addFilter(new RecordTypeFilter(recordType.getName()));
+        list.addFilter(countFilter);
+
+        for (RecordFilter filter : Arrays.asList(nameFilter, countFilter, list)) {
+            assertNotNull(queryIndex(filter));
+            List<RecordId> plain = scan(filter, null, false);
+            assertFalse(plain.isEmpty());
+            assertEquals(plain, scan(filter, null, true));
+
+            // Paging on the start record id gives the same pages
+            RecordId start = plain.get(plain.size() / 2);
+            assertEquals(scan(filter, start, false), scan(filter, start, true));
+        }
+    }
+
+    @Test
+    public void testBuild() throws Exception {
+        Record record = createRecord("build", recordType, "build-a", 2L);
+        repoSetup.waitForSepProcessing();
+
+        // Make the index forget about the record, as if it existed before the index was enabled
+        AbsoluteRecordId id = idGenerator.newAbsoluteRecordId(Table.RECORD.name, record.getId());
+        indexes.update(repository.getRepositoryName(), id, indexes.readIndexedValues(repository.getRepositoryName(), id),
+                new HashMap<FieldValueIndexes.ByteKey, byte[]>());
+        FieldValueFilter filter = new FieldValueFilter(nameField.getName(), "build-a");
+        assertEquals(ids(), queryIndex(filter));
+
+        indexes.build(repository, Table.RECORD.name);
+        assertEquals(ids(record.getId()), queryIndex(filter));
+    }
+
+    @Test
+    public void testIndexNotUsedBeforeBuilt() throws Exception {
+        FieldType laterField = typeManager.createFieldType(typeManager.newFieldType(
+                typeManager.getValueType("STRING"), new QName(NS, "later"), Scope.NON_VERSIONED));
+        Record record = table.recordBuilder()
+                .id(idGenerator.newRecordId("later"))
+                .recordType(recordType.getName())
+                .field(laterField.getName(), "later-a")
+                .create();
+        repoSetup.waitForSepProcessing();
+
+        FieldValueFilter filter = new FieldValueFilter(laterField.getName(), "later-a");
+        assertFalse(indexes.isBuilt(repository.getRepositoryName(), Table.RECORD.name));
+        assertNull(indexes.query(repository.getRepositoryName(), Table.RECORD.name, filter));
+        // The scan is then answered by scanning the table
+        assertEquals(ids(record.getId()), scan(filter, null, true));
+
+        indexes.build(repository, Table.RECORD.name);
+        assertTrue(indexes.isBuilt(repository.getRepositoryName(), Table.RECORD.name));
+        assertEquals(ids(record.getId()), queryIndex(filter));
+    }
+
+    private Record createRecord(String id, RecordType type, String name, Long count) throws Exception {
+        return table.recordBuilder()
+                .id(idGenerator.newRecordId(id))
+                .recordType(type.getName())
+                .field(nameField.getName(), name)
+                .field(countField.getName(), count)
+                .create();
+    }
+
+    private List<RecordId> ids(RecordId... ids) {
+        return Arrays.asList(ids);
+    }
+
+    /**
+     * Returns the ids of the records found in the index, in index order.
+     */
+    private List<RecordId> queryIndex(RecordFilter filter) throws Exception {
+        QueryResult result = indexes.query(repository.getRepositoryName(), Table.RECORD.name, filter);
+        assertNotNull(result);
+        List<RecordId> ids = new ArrayList<RecordId>();
+        byte[] id;
+        while ((id = result.next()) != null) {
+            ids.add(idGenerator.fromBytes(id));
+        }
+        result.close();
+        return ids;
+    }
+
+    private List<RecordId> scan(RecordFilter filter, RecordId startRecordId, boolean useIndex) throws Exception {
+        RecordScan scan = new RecordScan();
+        scan.setRecordFilter(filter);
+        scan.setStartRecordId(startRecordId);
+        scan.setUseFieldValueIndex(useIndex);
+        List<RecordId> ids = new ArrayList<RecordId>();
+        RecordScanner scanner = table.getScanner(scan);
+        for (Record record : scanner) {
+            ids.add(record.getId());
+        }
+        scanner.close();
+        return ids;
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.sep;
+
+import javax.management.ObjectName;
+
+import org.apache.hadoop.metrics.MetricsContext;
+import org.apache.hadoop.metrics.MetricsRecord;
+import org.apache.hadoop.metrics.MetricsUtil;
+import org.apache.hadoop.metrics.Updater;
+import org.apache.hadoop.metrics.util.MetricsBase;
+import org.apache.hadoop.metrics.util.MetricsRegistry;
+import org.apache.hadoop.metrics.util.MetricsTimeVaryingLong;
+import org.apache.hadoop.metrics.util.MetricsTimeVaryingRate;
+import org.lilyproject.util.hbase.metrics.MBeanUtil;
+import org.lilyproject.util.hbase.metrics.MetricsDynamicMBeanBase;
+
+/**
+ * Metrics of the parallel event dispatching done by {@link LilyEventListener}: the time spent on each batch
+ * as a whole, and the number of events and processing time per partition.
+ */
+public class LilyEventDispatcherMetrics implements Updater {
+    private final MetricsRegistry registry = new MetricsRegistry();
+    private final MetricsRecord metricsRecord;
+    private final MetricsContext context;
+    private final MetricsTimeVaryingRate batchRate;
+    private final MetricsTimeVaryingRate[] partitionRates;
+    private final MetricsTimeVaryingLong[] partitionEvents;
+    private final LilyEventDispatcherMetricsMXBean mbean;
+    private final String recordName;
+
+    public LilyEventDispatcherMetrics(String recordName, int partitions) {
+        this.recordName = recordName;
+        batchRate = new MetricsTimeVaryingRate("batch", registry);
+        partitionRates = new MetricsTimeVaryingRate[partitions];
+        partitionEvents = new MetricsTimeVaryingLong[partitions];
+        for (int i = 0; i < partitions; i++) {
+            partitionRates[i] = new MetricsTimeVaryingRate("partition" + i, registry);
+            partitionEvents[i] = new MetricsTimeVaryingLong("partition" + i + "_events", registry);
+        }
+
+        context = MetricsUtil.getContext("lilyEventDispatcher");
+        metricsRecord = MetricsUtil.createRecord(context, recordName);
+        context.registerUpdater(this);
+        mbean = new LilyEventDispatcherMetricsMXBean(this.registry);
+    }
+
+    public void shutdown() {
+        context.unregisterUpdater(this);
+        mbean.shutdown();
+    }
+
+    @Override
+    public void doUpdates(MetricsContext unused) {
+        synchronized (this) {
+          for (MetricsBase m : registry.getMetricsList()) {
+            m.pushMetric(metricsRecord);
+          }
+        }
+        metricsRecord.update();
+    }
+
+    void reportBatch(long duration) {
+        batchRate.inc(duration);
+    }
+
+    void reportPartition(int partition, int eventCount, long duration) {
+        partitionRates[partition].inc(duration);
+        partitionEvents[partition].inc(eventCount);
+    }
+
+    public class LilyEventDispatcherMetricsMXBean extends MetricsDynamicMBeanBase {
+        private final ObjectName mbeanName;
+
+        public LilyEventDispatcherMetricsMXBean(MetricsRegistry registry) {
+            super(registry, "Lily Event Dispatcher");
+
+            mbeanName = MBeanUtil.registerMBean("Lily Event Dispatcher", recordName, this);
+        }
+
+        public void shutdown() {
+            if (mbeanName != null) {
+                MBeanUtil.unregisterMBean(mbeanName);
+            }
+        }
+    }
+}
@@ -27,24 +27,80 @@ import org.lilyproject.repository.api.RepositoryUnavailableException;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
+import org.lilyproject.util.ArgumentValidator;
+import org.lilyproject.util.concurrent.CustomThreadFactory;
 import org.lilyproject.util.hbase.RepoAndTableUtil;
 
 /**
  * Base class for SEP {@link EventListener}s that process events from Lily record tables.
  * Filters out non-record events and provides richer {@link LilySepEvent}s.
+ *
+ * <p>By default, each batch of events is passed as a whole to {@link #processLilyEvents}. When constructed
+ * with more than one thread, a batch is instead partitioned on the master record id, and the partitions
+ * are processed concurrently, each with its own call to {@link #processLilyEvents}. The events of one record
+ * (including its variants) always end up in the same partition, in their original order, so the
+ * per-record ordering of the events is preserved. {@link #processEvents} only returns once all partitions
+ * are processed, so the SEP does not deliver new events faster than they are processed. In this mode,
+ * {@link #processLilyEvents} is called concurrently, and should be thread safe.</p>
  */
 public abstract class LilyEventListener implements EventListener {
     private RepositoryManager repositoryManager;
+    private final IdGenerator partitionIdGenerator;
     private Log log = LogFactory.getLog(getClass());
+    private final int threads;
+    private final ThreadPoolExecutor executor;
+    private final LilyEventDispatcherMetrics metrics;
 
     public LilyEventListener(RepositoryManager repositoryManager) {
         this.repositoryManager = repositoryManager;
+        this.partitionIdGenerator = null;
+        this.threads = 1;
+        this.executor = null;
+        this.metrics = null;
+    }
+
+    /**
+     * @param idGenerator used to decode the record ids on which the events are partitioned
+     * @param threads the number of partitions in which each batch of events is processed concurrently
+     */
+    public LilyEventListener(RepositoryManager repositoryManager, IdGenerator idGenerator, int threads) {
+        ArgumentValidator.notNull(idGenerator, "idGenerator");
+        this.repositoryManager = repositoryManager;
+        this.partitionIdGenerator = idGenerator;
+        this.threads = Math.max(1, threads);
+        if (this.threads > 1) {
+            String name = getClass().getSimpleName();
+            // One partition is always processed by the calling thread. When the queue is full (when several
+            // SEP threads call us at the same time), the caller processes the partition itself. This is also
+            // the case after shutdown, as the dispatcher waits for all partitions to be processed.
+            executor = new ThreadPoolExecutor(this.threads - 1, this.threads - 1, 60, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<Runnable>(this.threads), new CustomThreadFactory(name, null, true),
+                    new RejectedExecutionHandler() {
+                        @Override
+                        public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+                            r.run();
+                        }
+                    });
+            executor.allowCoreThreadTimeOut(true);
+            metrics = new LilyEventDispatcherMetrics(name, this.threads);
+        } else {
+            executor = null;
+            metrics = null;
+        }
     }
 
     @Override
     public final void processEvents(List<SepEvent> events) {
         List<LilySepEvent> lilyEvents = new ArrayList<LilySepEvent>(events.size());
+        int[] partitions = threads > 1 ? new int[events.size()] : null;
         for (SepEvent event : events) {
             if (event.getPayload() == null) {
                 // The event is either not from a Lily table or not a normal record operation.
@@ -65,10 +121,109 @@ public abstract class LilyEventListener implements EventListener {
             } catch (RepositoryException e) {
                 throw new RuntimeException(e);
             }
-            lilyEvents.add(new LilySepEvent(idGenerator, repoAndTable[0], repoAndTable[1], event.getTable(),
-                    event.getRow(), event.getKeyValues(), event.getPayload()));
+            LilySepEvent lilyEvent = new LilySepEvent(idGenerator, repoAndTable[0], repoAndTable[1],
+                    event.getTable(), event.getRow(), event.getKeyValues(), event.getPayload());
+            if (partitions != null) {
+                int hash = partitionIdGenerator.fromBytes(event.getRow()).getMaster().hashCode();
+                partitions[lilyEvents.size()] = (hash & Integer.MAX_VALUE) % threads;
+            }
+            lilyEvents.add(lilyEvent);
+        }
+
+        if (partitions == null || lilyEvents.size() <= 1) {
+            processLilyEvents(lilyEvents);
+        } else {
+            dispatch(lilyEvents, partitions);
+        }
+    }
+
+    private void dispatch(List<LilySepEvent> lilyEvents, int[] partitions) {
+        long before = System.currentTimeMillis();
+
+        List<List<LilySepEvent>> partitionedEvents = new ArrayList<List<LilySepEvent>>(threads);
+        for (int i = 0; i < threads; i++) {
+            partitionedEvents.add(new ArrayList<LilySepEvent>());
+        }
+        for (int i = 0; i < lilyEvents.size(); i++) {
+            partitionedEvents.get(partitions[i]).add(lilyEvents.get(i));
+        }
+
+        List<Future<Void>> futures = new ArrayList<Future<Void>>(threads);
+        PartitionTask ownTask = null;
+        for (int i = 0; i < threads; i++) {
+            if (partitionedEvents.get(i).isEmpty()) {
+                continue;
+            }
+            PartitionTask task = new PartitionTask(i, partitionedEvents.get(i));
+            if (ownTask == null) {
+                ownTask = task;
+            } else {
+                futures.add(executor.submit(task));
+            }
+        }
+
+        // Process one partition in the current thread, and wait for all others, even if some fail, so that
+        // no events are still being processed once we return.
+        RuntimeException failure = null;
+        try {
+            ownTask.call();
+        } catch (RuntimeException e) {
+            failure = e;
+        }
+        boolean interrupted = false;
+        for (Future<Void> future : futures) {
+            while (true) {
+                try {
+                    future.get();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    if (failure == null) {
+                        failure = e.getCause() instanceof RuntimeException ?
+                                (RuntimeException)e.getCause() : new RuntimeException(e.getCause());
+                    }
+                    break;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+
+        metrics.reportBatch(System.currentTimeMillis() - before);
+
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Stops the threads and metrics used to process events concurrently, if any.
+     */
+    public void shutdown() {
+        if (executor != null) {
+            executor.shutdown();
+            metrics.shutdown();
+        }
+    }
+
+    private class PartitionTask implements Callable<Void> {
+        private final int partition;
+        private final List<LilySepEvent> events;
+
+        PartitionTask(int partition, List<LilySepEvent> events) {
+            this.partition = partition;
+            this.events = events;
+        }
+
+        @Override
+        public Void call() {
+            long before = System.currentTimeMillis();
+            processLilyEvents(events);
+            metrics.reportPartition(partition, events.size(), System.currentTimeMillis() - before);
+            return null;
         }
-        processLilyEvents(lilyEvents);
     }
 
     public abstract void processLilyEvents(List<LilySepEvent> sepEvents);
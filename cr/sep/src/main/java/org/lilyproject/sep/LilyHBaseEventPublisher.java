@@ -16,13 +16,24 @@
 package org.lilyproject.sep;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import com.ngdata.sep.impl.HBaseEventPublisher;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.hbase.client.HTableInterface;
 import org.apache.hadoop.hbase.client.Put;
 import org.apache.hadoop.hbase.util.Bytes;
+import org.lilyproject.util.Pair;
+import org.lilyproject.util.concurrent.CustomThreadFactory;
 import org.lilyproject.util.hbase.LilyHBaseSchema;
 import org.lilyproject.util.hbase.LilyHBaseSchema.RecordCf;
 import org.lilyproject.util.hbase.LilyHBaseSchema.RecordColumn;
@@ -35,6 +46,21 @@ public class LilyHBaseEventPublisher extends HBaseEventPublisher {
 
     private static final byte[] FALSE_BYTES = Bytes.toBytes(false);
 
+    /**
+     * Used to publish multiple events concurrently. Since HBase has no batch variant of checkAndPut, each event
+     * still needs its own call.
+     */
+    private static final ExecutorService PUBLISH_EXECUTOR;
+
+    static {
+        int threads = Math.max(4, Runtime.getRuntime().availableProcessors() * 2);
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(1000), new CustomThreadFactory("lily-event-publisher", null, true),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+        executor.allowCoreThreadTimeOut(true);
+        PUBLISH_EXECUTOR = executor;
+    }
+
     public LilyHBaseEventPublisher(HTableInterface recordTable) {
         super(recordTable, LilyHBaseSchema.RecordCf.DATA.bytes, LilyHBaseSchema.RecordColumn.PAYLOAD.bytes);
     }
@@ -49,4 +75,49 @@ public class LilyHBaseEventPublisher extends HBaseEventPublisher {
             LogFactory.getLog(getClass()).warn("Did not publish event as requested, row=" + Arrays.toString(row));
     }
 
+    /**
+     * Publishes a number of events concurrently, with the same semantics as {@link #publishEvent} for each of them.
+     * All events are attempted, even if some of them fail, after which the first failure is rethrown.
+     *
+     * @param events pairs of row and payload
+     */
+    public void publishEvents(List<Pair<byte[], byte[]>> events) throws IOException, InterruptedException {
+        if (events.size() == 1) {
+            publishEvent(events.get(0).getV1(), events.get(0).getV2());
+            return;
+        }
+
+        List<Future<Void>> futures = new ArrayList<Future<Void>>(events.size());
+        for (final Pair<byte[], byte[]> event : events) {
+            futures.add(PUBLISH_EXECUTOR.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws IOException {
+                    publishEvent(event.getV1(), event.getV2());
+                    return null;
+                }
+            }));
+        }
+
+        Throwable failure = null;
+        for (Future<Void> future : futures) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                if (failure == null) {
+                    failure = e.getCause();
+                }
+            }
+        }
+
+        if (failure instanceof IOException) {
+            throw (IOException)failure;
+        } else if (failure instanceof RuntimeException) {
+            throw (RuntimeException)failure;
+        } else if (failure instanceof Error) {
+            throw (Error)failure;
+        } else if (failure != null) {
+            throw new IOException(failure);
+        }
+    }
+
 }
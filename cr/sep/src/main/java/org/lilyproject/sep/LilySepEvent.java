@@ -23,6 +23,7 @@ import org.apache.hadoop.hbase.KeyValue;
 import org.lilyproject.repository.api.AbsoluteRecordId;
 import org.lilyproject.repository.api.IdGenerator;
 import org.lilyproject.repository.api.RecordId;
+import org.lilyproject.util.repo.LazyRecordEvent;
 import org.lilyproject.util.repo.RecordEvent;
 
 /**
@@ -70,4 +71,11 @@ public class LilySepEvent extends SepEvent {
     public RecordEvent getRecordEvent() throws IOException {
         return new RecordEvent(getPayload(), idGenerator);
     }
+
+    /**
+     * Returns a view on the record event which only decodes the parts of the payload that are accessed.
+     */
+    public LazyRecordEvent getLazyRecordEvent() {
+        return new LazyRecordEvent(getPayload(), idGenerator);
+    }
 }
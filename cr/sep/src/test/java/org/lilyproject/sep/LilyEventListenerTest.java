@@ -0,0 +1,230 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.sep;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import com.ngdata.sep.SepEvent;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.lilyproject.repository.api.IdGenerator;
+import org.lilyproject.repository.api.LRepository;
+import org.lilyproject.repository.api.RecordId;
+import org.lilyproject.repository.api.RepositoryManager;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class LilyEventListenerTest {
+    private static final int THREADS = 2;
+
+    private RepositoryManager repositoryManager;
+    private IdGenerator idGenerator;
+    private final Map<String, RecordId> recordIds = new HashMap<String, RecordId>();
+    /** Two records of which the events are processed in different partitions. */
+    private String recordA;
+    private String recordB;
+    /** The processed events per record, in processing order. */
+    private final Map<String, List<String>> processed = Collections.synchronizedMap(new HashMap<String, List<String>>());
+    private TestListener listener;
+    private ExecutorService callerExecutor;
+
+    @Before
+    public void setUp() throws Exception {
+        idGenerator = mock(IdGenerator.class);
+        when(idGenerator.fromBytes(any(byte[].class))).thenAnswer(new Answer<RecordId>() {
+            @Override
+            public RecordId answer(InvocationOnMock invocation) throws Throwable {
+                return getRecordId(Bytes.toString((byte[])invocation.getArguments()[0]));
+            }
+        });
+
+        LRepository repository = mock(LRepository.class);
+        when(repository.getIdGenerator()).thenReturn(idGenerator);
+        repositoryManager = mock(RepositoryManager.class);
+        when(repositoryManager.getRepository(anyString())).thenReturn(repository);
+
+        recordA = "record0";
+        for (int i = 1; recordB == null; i++) {
+            if (getPartition("record" + i) != getPartition(recordA)) {
+                recordB = "record" + i;
+            }
+        }
+
+        callerExecutor = Executors.newSingleThreadExecutor();
+    }
+
+    @After
+    public void tearDown() {
+        if (listener != null) {
+            listener.shutdown();
+        }
+        callerExecutor.shutdownNow();
+    }
+
+    @Test
+    public void testOrderPerRecordAndParallelRecords() throws Exception {
+        // Both partitions need to be processed at the same time to get past the barrier
+        final CyclicBarrier barrier = new CyclicBarrier(THREADS);
+        listener = new TestListener() {
+            @Override
+            void process(List<LilySepEvent> events) throws Exception {
+                barrier.await(10, TimeUnit.SECONDS);
+            }
+        };
+
+        listener.processEvents(Arrays.asList(event(recordA, "a1"), event(recordB, "b1"), event(recordA, "a2"),
+                event(recordB, "b2"), event(recordA, "a3")));
+
+        assertEquals(Arrays.asList("a1", "a2", "a3"), processed.get(recordA));
+        assertEquals(Arrays.asList("b1", "b2"), processed.get(recordB));
+    }
+
+    @Test
+    public void testFailureReachesCaller() throws Exception {
+        listener = new TestListener() {
+            @Override
+            void process(List<LilySepEvent> events) throws Exception {
+                if (Bytes.toString(events.get(0).getRow()).equals(recordB)) {
+                    throw new IllegalStateException("failed to process " + recordB);
+                }
+            }
+        };
+
+        try {
+            listener.processEvents(Arrays.asList(event(recordA, "a1"), event(recordB, "b1")));
+            fail("expected the failure of the partition to be thrown, so the SEP does not acknowledge the events");
+        } catch (IllegalStateException e) {
+            assertEquals("failed to process " + recordB, e.getMessage());
+        }
+
+        // The other partition was processed completely before processEvents returned
+        assertEquals(Arrays.asList("a1"), processed.get(recordA));
+    }
+
+    @Test
+    public void testShutdownDuringProcessing() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        listener = new TestListener() {
+            @Override
+            void process(List<LilySepEvent> events) throws Exception {
+                if (Bytes.toString(events.get(0).getPayload()).equals("b1")) {
+                    started.countDown();
+                    assertTrue(release.await(10, TimeUnit.SECONDS));
+                }
+            }
+        };
+
+        Future<Void> inFlight = callerExecutor.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                listener.processEvents(Arrays.asList(event(recordA, "a1"), event(recordB, "b1"),
+                        event(recordB, "b2")));
+                return null;
+            }
+        });
+
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        listener.shutdown();
+        release.countDown();
+
+        // The batch which was being processed completes
+        inFlight.get(10, TimeUnit.SECONDS);
+        assertEquals(Arrays.asList("a1"), processed.get(recordA));
+        assertEquals(Arrays.asList("b1", "b2"), processed.get(recordB));
+
+        // Batches arriving after shutdown are processed by the calling thread
+        listener.processEvents(Arrays.asList(event(recordA, "a2"), event(recordB, "b3")));
+        assertEquals(Arrays.asList("a1", "a2"), processed.get(recordA));
+        assertEquals(Arrays.asList("b1", "b2", "b3"), processed.get(recordB));
+    }
+
+    private SepEvent event(String record, String label) {
+        return new SepEvent(Bytes.toBytes("record"), Bytes.toBytes(record), Collections.<KeyValue>emptyList(),
+                Bytes.toBytes(label));
+    }
+
+    private synchronized RecordId getRecordId(String record) {
+        RecordId recordId = recordIds.get(record);
+        if (recordId == null) {
+            recordId = mock(RecordId.class);
+            when(recordId.getMaster()).thenReturn(recordId);
+            recordIds.put(record, recordId);
+        }
+        return recordId;
+    }
+
+    /**
+     * The partition in which LilyEventListener processes the events of a record.
+     */
+    private int getPartition(String record) {
+        return (getRecordId(record).hashCode() & Integer.MAX_VALUE) % THREADS;
+    }
+
+    private abstract class TestListener extends LilyEventListener {
+        TestListener() {
+            super(repositoryManager, idGenerator, THREADS);
+        }
+
+        @Override
+        public void processLilyEvents(List<LilySepEvent> events) {
+            try {
+                process(events);
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+
+            for (LilySepEvent event : events) {
+                String record = Bytes.toString(event.getRow());
+                synchronized (processed) {
+                    List<String> labels = processed.get(record);
+                    if (labels == null) {
+                        labels = new ArrayList<String>();
+                        processed.put(record, labels);
+                    }
+                    labels.add(Bytes.toString(event.getPayload()));
+                }
+            }
+        }
+
+        abstract void process(List<LilySepEvent> events) throws Exception;
+    }
+}
@@ -34,6 +34,7 @@ import java.util.concurrent.TimeoutException;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.HRegionLocation;
 import org.apache.hadoop.hbase.HTableDescriptor;
 import org.apache.hadoop.hbase.client.Append;
 import org.apache.hadoop.hbase.client.Delete;
@@ -96,6 +97,7 @@ public class LocalHTable implements HTableInterface {
     private static ExecutorService EXECUTOR_SERVICE_SHUTDOWN_PROTECTED;
     private static Field POOL_FIELD;
     private HTablePool pool;
+    private volatile HTable regionLocator;
 
     public LocalHTable(Configuration conf, byte[] tableName) throws IOException {
         this.conf = conf;
@@ -225,6 +227,36 @@ public class LocalHTable implements HTableInterface {
         });
     }
 
+    /**
+     * Returns the location of the region containing the given row. Region locations are cached by the
+     * HBase connection, so this is usually cheap.
+     */
+    public HRegionLocation getRegionLocation(byte[] row) throws IOException {
+        return getRegionLocator().getRegionLocation(row);
+    }
+
+    /**
+     * Returns the locations of the regions covering the given key range, see
+     * {@link HTable#getRegionsInRange(byte[], byte[])}. The locations come from the region cache of the
+     * HBase connection, so unlike {@link HTable#getStartEndKeys()} this does not scan .META. on every call.
+     */
+    public List<HRegionLocation> getRegionsInRange(byte[] startKey, byte[] endKey) throws IOException {
+        return getRegionLocator().getRegionsInRange(startKey, endKey);
+    }
+
+    private HTable getRegionLocator() throws IOException {
+        if (regionLocator == null) {
+            synchronized (this) {
+                if (regionLocator == null) {
+                    // Only used for region lookups, which are thread safe since they are delegated to the
+                    // (shared) connection.
+                    regionLocator = new HTable(conf, tableName);
+                }
+            }
+        }
+        return regionLocator;
+    }
+
     @Override
     public HTableDescriptor getTableDescriptor() throws IOException {
         return runNoExc(new TableRunnable<HTableDescriptor>() {
@@ -395,7 +427,15 @@ public class LocalHTable implements HTableInterface {
 
     @Override
     public void close() throws IOException {
-        // Not allowed, since pooled.
+        // The pooled tables are not closed, since they are shared, but the region locator is our own.
+        HTable locator;
+        synchronized (this) {
+            locator = regionLocator;
+            regionLocator = null;
+        }
+        if (locator != null) {
+            locator.close();
+        }
     }
 
     @Override
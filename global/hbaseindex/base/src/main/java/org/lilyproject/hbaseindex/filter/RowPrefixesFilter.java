@@ -0,0 +1,97 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.hbaseindex.filter;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.filter.FilterBase;
+import org.apache.hadoop.hbase.util.Bytes;
+
+/**
+ * HBase filter which only lets through the rows starting with one of a list of prefixes. The rows
+ * between the prefixes are not read: the scanner seeks from the end of one prefix to the start of the next.
+ *
+ * <p>This allows to read the rows for many prefixes using one scan. The filter should be set directly on
+ * the scan, since seeking is not supported for filters nested in a filter list.</p>
+ */
+public class RowPrefixesFilter extends FilterBase {
+    /** The prefixes, in increasing order. */
+    private byte[][] prefixes;
+    /** Index of the first prefix which rows can still be encountered. */
+    private int position;
+
+    public RowPrefixesFilter(List<byte[]> prefixes) {
+        this.prefixes = prefixes.toArray(new byte[prefixes.size()][]);
+        Arrays.sort(this.prefixes, Bytes.BYTES_COMPARATOR);
+    }
+
+    public RowPrefixesFilter() {
+        // for hbase readFields
+    }
+
+    @Override
+    public ReturnCode filterKeyValue(KeyValue keyValue) {
+        byte[] buffer = keyValue.getBuffer();
+        int offset = keyValue.getRowOffset();
+        int length = keyValue.getRowLength();
+
+        while (position < prefixes.length) {
+            byte[] prefix = prefixes[position];
+            int cmp = Bytes.compareTo(buffer, offset, Math.min(length, prefix.length), prefix, 0, prefix.length);
+            if (cmp == 0 && length >= prefix.length) {
+                return ReturnCode.INCLUDE;
+            } else if (cmp <= 0) {
+                // the row comes before the prefix
+                return ReturnCode.SEEK_NEXT_USING_HINT;
+            }
+            position++;
+        }
+
+        return ReturnCode.NEXT_ROW;
+    }
+
+    @Override
+    public KeyValue getNextKeyHint(KeyValue currentKV) {
+        return KeyValue.createFirstOnRow(prefixes[position]);
+    }
+
+    @Override
+    public boolean filterAllRemaining() {
+        return position >= prefixes.length;
+    }
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+        out.writeInt(prefixes.length);
+        for (byte[] prefix : prefixes) {
+            Bytes.writeByteArray(out, prefix);
+        }
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+        prefixes = new byte[in.readInt()][];
+        for (int i = 0; i < prefixes.length; i++) {
+            prefixes[i] = Bytes.readByteArray(in);
+        }
+        position = 0;
+    }
+}
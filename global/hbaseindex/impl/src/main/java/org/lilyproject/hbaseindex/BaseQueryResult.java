@@ -31,6 +31,37 @@ abstract class BaseQueryResult implements QueryResult {
         this.definition = definition;
     }
 
+    /**
+     * Moves to the first following result with an identifier equal to or larger than the given identifier,
+     * and returns it, or null if the end is reached. This always moves forward at least one result, like
+     * {@link #next}.
+     *
+     * <p>This is only meaningful for results returned in increasing identifier order. The default
+     * implementation simply calls next() until the identifier is reached, subclasses might be able to
+     * jump there directly.</p>
+     */
+    byte[] skipTo(byte[] identifier) throws IOException {
+        return nextUntil(this, identifier);
+    }
+
+    /**
+     * Calls {@link #skipTo} on the given result, or iterates using next() if it isn't a BaseQueryResult.
+     */
+    static byte[] skipTo(QueryResult result, byte[] identifier) throws IOException {
+        if (result instanceof BaseQueryResult) {
+            return ((BaseQueryResult)result).skipTo(identifier);
+        }
+        return nextUntil(result, identifier);
+    }
+
+    private static byte[] nextUntil(QueryResult result, byte[] identifier) throws IOException {
+        byte[] key = result.next();
+        while (key != null && Bytes.compareTo(key, identifier) < 0) {
+            key = result.next();
+        }
+        return key;
+    }
+
     @Override
     public byte[] getData(byte[] qualifier) {
         if (currentResult != null) {
@@ -63,6 +94,22 @@ abstract class BaseQueryResult implements QueryResult {
         }
     }
 
+    protected byte[] decodeIdentifierFrom(byte[] rowKey) throws IOException {
+        final StructRowKey structRowKey = definition.asStructRowKey();
+        structRowKey.iterateOver(rowKey);
+
+        final StructIterator iterator = structRowKey.iterator();
+
+        int nbrFields = structRowKey.getFields().length;
+        // ignore all but last field (i.e. the identifier)
+        for (int i = 0; i < nbrFields - 1; i++) {
+            iterator.skip();
+        }
+
+        // read the last field (i.e. the identifier)
+        return (byte[]) iterator.next();
+    }
+
     private Object decodeIndexFieldFrom(String fieldName, byte[] rowKey) throws IOException {
         final StructRowKey structRowKey = definition.asStructRowKey();
         structRowKey.iterateOver(rowKey);
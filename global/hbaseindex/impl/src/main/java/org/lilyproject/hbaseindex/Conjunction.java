@@ -32,14 +32,12 @@ import org.apache.hadoop.hbase.util.Bytes;
  * <p>A Conjunction itself also returns its results in increasing identifier
  * order, and can hence serve as input to other Conjunctions.
  *
- * <p>TODO the implementation is currently not optimal if lots of rows need
- * to be skipped to move to the next common result, since this is done by
- * iterating one result at a time using next() calls. It would be better to
- * directly skip to the next appropriate result. HBase scanners don't support
- * this natively, so to skip we would rather need to open a new scanner. But
- * we can't exactly know on beforehand if this will be beneficial or not. Maybe
- * we could have some heuristic for this, e.g. after 10 next() calls open a new
- * scanner to jump directly to the next relevant result.
+ * <p>Rather than advancing both results one row at a time, the result which
+ * is behind is asked to skip to the current identifier of the other one
+ * (leapfrogging). Results on top of an HBase scanner iterate a few rows, and
+ * then open a new scanner to jump directly to the next relevant result, so
+ * that intersecting a selective with a non-selective query does not scan the
+ * complete range of the non-selective query.
  */
 public class Conjunction extends BaseQueryResult {
     private QueryResult result1;
@@ -54,36 +52,40 @@ public class Conjunction extends BaseQueryResult {
     @Override
     public byte[] next() throws IOException {
         byte[] key1 = result1.next();
-        byte[] key2 = result2.next();
-
-        if (key1 == null || key2 == null) {
+        if (key1 == null) {
             return null;
         }
+        return align(key1, skipTo(result2, key1));
+    }
 
-        int cmp = Bytes.compareTo(key1, key2);
+    @Override
+    byte[] skipTo(byte[] identifier) throws IOException {
+        byte[] key1 = skipTo(result1, identifier);
+        if (key1 == null) {
+            return null;
+        }
+        return align(key1, skipTo(result2, key1));
+    }
 
-        while (cmp != 0) {
-            if (cmp < 0) {
-                while (cmp < 0) {
-                    key1 = result1.next();
-                    if (key1 == null) {
-                        return null;
-                    }
-                    cmp = Bytes.compareTo(key1, key2);
-                }
-            } else if (cmp > 0) {
-                while (cmp > 0) {
-                    key2 = result2.next();
-                    if (key2 == null) {
-                        return null;
-                    }
-                    cmp = Bytes.compareTo(key1, key2);
+    /**
+     * Skips the result which is behind until both results are on the same identifier.
+     */
+    private byte[] align(byte[] key1, byte[] key2) throws IOException {
+        while (key2 != null) {
+            int cmp = Bytes.compareTo(key1, key2);
+            if (cmp == 0) {
+                currentQResult = result1;
+                return key1;
+            } else if (cmp < 0) {
+                key1 = skipTo(result1, key2);
+                if (key1 == null) {
+                    return null;
                 }
+            } else {
+                key2 = skipTo(result2, key1);
             }
         }
-
-        currentQResult = result1;
-        return key1;
+        return null;
     }
 
     @Override
@@ -16,74 +16,121 @@
 package org.lilyproject.hbaseindex;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
 
 import org.apache.hadoop.hbase.util.Bytes;
 
 /**
- * A QueryResult which is the disjunction (= OR operation) of two other QueryResults.
+ * A QueryResult which is the disjunction (= OR operation) of other QueryResults.
  *
  * <p>The supplied QueryResults should adhere to the same requirements as for
- * {@link Conjunction}s.
+ * {@link Conjunction}s. They are merged using a heap on their current
+ * identifier, an identifier occurring in several of them is returned once.
  */
 public class Disjunction extends BaseQueryResult {
-    private QueryResult result1;
-    private QueryResult result2;
-    private byte[] key1;
-    private byte[] key2;
+    private final List<QueryResult> results;
+    private final PriorityQueue<Head> heap;
+    /** The heads which produced the last returned identifier, these are advanced on the next call. */
+    private final List<Head> consumed = new ArrayList<Head>();
     private boolean init = false;
 
     public Disjunction(QueryResult result1, QueryResult result2) {
+        this(Arrays.asList(result1, result2));
+    }
+
+    public Disjunction(List<QueryResult> results) {
         super(null);
-        this.result1 = result1;
-        this.result2 = result2;
+        this.results = new ArrayList<QueryResult>(results);
+        this.heap = new PriorityQueue<Head>(Math.max(1, results.size()), HEAD_COMPARATOR);
     }
 
     @Override
     public byte[] next() throws IOException {
         if (!init) {
-            key1 = result1.next();
-            key2 = result2.next();
+            for (int i = 0; i < results.size(); i++) {
+                offer(new Head(results.get(i), i), results.get(i).next());
+            }
             init = true;
+        } else {
+            for (Head head : consumed) {
+                offer(head, head.result.next());
+            }
         }
+        return poll();
+    }
 
-        if (key1 == null && key2 == null) {
-            return null;
-        } else if (key1 == null) {
-            byte[] result = key2;
-            currentQResult = result2;
-            key2 = result2.next();
-            return result;
-        } else if (key2 == null) {
-            byte[] result = key1;
-            currentQResult = result1;
-            key1 = result1.next();
-            return result;
+    @Override
+    byte[] skipTo(byte[] identifier) throws IOException {
+        if (!init) {
+            for (int i = 0; i < results.size(); i++) {
+                offer(new Head(results.get(i), i), skipTo(results.get(i), identifier));
+            }
+            init = true;
+        } else {
+            for (Head head : consumed) {
+                offer(head, skipTo(head.result, identifier));
+            }
+            while (!heap.isEmpty() && Bytes.compareTo(heap.peek().key, identifier) < 0) {
+                Head head = heap.poll();
+                offer(head, skipTo(head.result, identifier));
+            }
         }
+        return poll();
+    }
 
-        int cmp = Bytes.compareTo(key1, key2);
+    private void offer(Head head, byte[] key) {
+        if (key != null) {
+            head.key = key;
+            heap.add(head);
+        }
+    }
 
-        if (cmp == 0) {
-            byte[] result = key1;
-            currentQResult = result1;
-            key1 = result1.next();
-            key2 = result2.next();
-            return result;
-        } else if (cmp < 0) {
-            byte[] result = key1;
-            currentQResult = result1;
-            key1 = result1.next();
-            return result;
-        } else { // cmp > 0
-            byte[] result = key2;
-            currentQResult = result2;
-            key2 = result2.next();
-            return result;
+    /**
+     * Takes the smallest identifier from the heap, together with the other heads on the same identifier.
+     */
+    private byte[] poll() {
+        consumed.clear();
+        Head first = heap.poll();
+        if (first == null) {
+            currentQResult = null;
+            return null;
+        }
+        consumed.add(first);
+        while (!heap.isEmpty() && Bytes.equals(heap.peek().key, first.key)) {
+            consumed.add(heap.poll());
         }
+        currentQResult = first.result;
+        return first.key;
     }
 
     @Override
     public void close() {
-        result1.close();
-        result2.close();
+        for (QueryResult result : results) {
+            result.close();
+        }
+    }
+
+    private static final Comparator<Head> HEAD_COMPARATOR = new Comparator<Head>() {
+        @Override
+        public int compare(Head head1, Head head2) {
+            int cmp = Bytes.compareTo(head1.key, head2.key);
+            // on equal identifiers, the first result is used as current result
+            return cmp != 0 ? cmp : head1.index - head2.index;
+        }
+    };
+
+    private static final class Head {
+        private final QueryResult result;
+        private final int index;
+        private byte[] key;
+
+        private Head(QueryResult result, int index) {
+            this.result = result;
+            this.index = index;
+        }
     }
 }
@@ -17,16 +17,25 @@ package org.lilyproject.hbaseindex;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import com.gotometrics.orderly.RowKey;
 import com.gotometrics.orderly.StructBuilder;
 import com.gotometrics.orderly.StructRowKey;
 import com.gotometrics.orderly.Termination;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.HRegionLocation;
 import org.apache.hadoop.hbase.client.Delete;
+import org.apache.hadoop.hbase.client.Get;
 import org.apache.hadoop.hbase.client.HTableInterface;
 import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Row;
 import org.apache.hadoop.hbase.client.Scan;
 import org.apache.hadoop.hbase.filter.BinaryPrefixComparator;
 import org.apache.hadoop.hbase.filter.CompareFilter.CompareOp;
@@ -34,9 +43,13 @@ import org.apache.hadoop.hbase.filter.Filter;
 import org.apache.hadoop.hbase.filter.FilterList;
 import org.apache.hadoop.hbase.filter.RowFilter;
 import org.apache.hadoop.hbase.filter.WhileMatchFilter;
+import org.apache.hadoop.hbase.util.Bytes;
 import org.lilyproject.hbaseindex.filter.IndexFilterHbaseImpl;
+import org.lilyproject.hbaseindex.filter.RowPrefixesFilter;
 import org.lilyproject.util.ArgumentValidator;
 import org.lilyproject.util.ByteArrayKey;
+import org.lilyproject.util.concurrent.CustomThreadFactory;
+import org.lilyproject.util.hbase.LocalHTable;
 
 /**
  * Allows to query an index, and add entries to it or remove entries from it.
@@ -50,6 +63,41 @@ public class Index {
     private static final byte[] DUMMY_QUALIFIER = new byte[]{0};
     private static final byte[] DUMMY_VALUE = new byte[]{0};
 
+    /**
+     * Executor for the parallel scans, shared by all indexes. Its size is also the maximum number of regions
+     * scanned concurrently by one query.
+     */
+    private static final ExecutorService SCAN_EXECUTOR;
+    private static final int SCAN_PARALLELISM;
+
+    static {
+        SCAN_PARALLELISM = Math.max(4, Runtime.getRuntime().availableProcessors() * 2);
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(SCAN_PARALLELISM, SCAN_PARALLELISM, 60,
+                TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(1000),
+                new CustomThreadFactory("lily-index-scan", null, true), new ThreadPoolExecutor.CallerRunsPolicy());
+        executor.allowCoreThreadTimeOut(true);
+        SCAN_EXECUTOR = executor;
+    }
+
+    /**
+     * How {@link Index#performQuery(Query, ScanMode)} scans the index table.
+     */
+    public enum ScanMode {
+        /**
+         * Use a single scanner, the results are returned in index order.
+         */
+        SERIAL,
+        /**
+         * Scan the regions concurrently, the results are returned in index order.
+         */
+        PARALLEL_ORDERED,
+        /**
+         * Scan the regions concurrently, the results are returned in no particular order. Such results
+         * can not be used as input for a {@link Conjunction} or {@link Disjunction}.
+         */
+        PARALLEL_UNORDERED
+    }
+
     protected Index(HTableInterface htable, IndexDefinition definition) {
         this.htable = htable;
         this.definition = definition;
@@ -134,6 +182,45 @@ public class Index {
         htable.delete(deletes);
     }
 
+    /**
+     * Adds and removes entries using a single HBase batch call. Since HBase does not define the order in
+     * which the operations of a batch are applied, the same entry should not be both added and removed.
+     */
+    public void updateEntries(List<IndexEntry> addedEntries, List<IndexEntry> removedEntries)
+            throws IOException, InterruptedException {
+        ArgumentValidator.notNull(addedEntries, "addedEntries");
+        ArgumentValidator.notNull(removedEntries, "removedEntries");
+
+        List<Row> actions = new ArrayList<Row>(addedEntries.size() + removedEntries.size());
+        for (IndexEntry entry : addedEntries) {
+            entry.validate();
+            actions.add(createAddEntryPut(entry));
+        }
+        for (IndexEntry entry : removedEntries) {
+            entry.validate();
+            actions.add(new Delete(buildRowKey(entry)));
+        }
+
+        if (!actions.isEmpty()) {
+            htable.batch(actions);
+        }
+    }
+
+    /**
+     * Returns the value of a data column of an index entry, or null if there is no such entry or it does not
+     * have this data. This is a point lookup: the fields and identifier of the supplied entry should exactly
+     * match those of the entry as it was added.
+     */
+    public byte[] getData(IndexEntry entry, byte[] qualifier) throws IOException {
+        ArgumentValidator.notNull(entry, "entry");
+        ArgumentValidator.notNull(qualifier, "qualifier");
+        entry.validate();
+
+        Get get = new Get(buildRowKey(entry));
+        get.addColumn(IndexDefinition.DATA_FAMILY, qualifier);
+        return htable.get(get).getValue(IndexDefinition.DATA_FAMILY, qualifier);
+    }
+
     /**
      * Build the index row key.
      *
@@ -150,6 +237,16 @@ public class Index {
     }
 
     public QueryResult performQuery(Query query) throws IOException {
+        return performQuery(query, ScanMode.SERIAL);
+    }
+
+    /**
+     * Performs a query, see {@link ScanMode} for the ways in which the index table can be scanned. The
+     * parallel modes are useful for queries returning many results which span several regions, for other
+     * queries they fall back to a serial scan. They are also only supported when the index table is a
+     * {@link LocalHTable}, other tables are always scanned serially.
+     */
+    public QueryResult performQuery(Query query, ScanMode scanMode) throws IOException {
         validateQuery(query);
 
         final StructBuilder fromKeyStructBuilder = new StructBuilder();
@@ -286,7 +383,136 @@ public class Index {
         scan.setFilter(filters);
         scan.setCaching(30);
 
-        return new ScannerQueryResult(htable.getScanner(scan), definition);
+        if (scanMode != ScanMode.SERIAL && htable instanceof LocalHTable) {
+            List<Scan> scans = splitByRegion((LocalHTable)htable, scan, toKey);
+            if (scans.size() > 1) {
+                return new ParallelScannerQueryResult(htable, scans, definition, SCAN_EXECUTOR, SCAN_PARALLELISM,
+                        scanMode == ScanMode.PARALLEL_ORDERED);
+            }
+        }
+
+        return new ScannerQueryResult(htable, scan, definition);
+    }
+
+    /**
+     * Performs a number of queries with a single scan. The result is the union of the results of the
+     * queries, in index order.
+     *
+     * <p>The queries can only have equals conditions, on a leading subset of the index fields. The scan
+     * skips the rows in between the rows matching the queries, so this is efficient for looking up
+     * the entries of many unrelated keys.</p>
+     */
+    public QueryResult performQueries(List<Query> queries) throws IOException {
+        ArgumentValidator.notNull(queries, "queries");
+        if (queries.isEmpty()) {
+            throw new MalformedQueryException("At least one query is required");
+        }
+
+        List<byte[]> prefixes = new ArrayList<byte[]>(queries.size());
+        for (Query query : queries) {
+            validateQuery(query);
+            prefixes.add(buildEqualsKey(query));
+        }
+
+        byte[] startRow = prefixes.get(0);
+        byte[] lastPrefix = prefixes.get(0);
+        for (byte[] prefix : prefixes) {
+            if (Bytes.compareTo(prefix, startRow) < 0) {
+                startRow = prefix;
+            }
+            if (Bytes.compareTo(prefix, lastPrefix) > 0) {
+                lastPrefix = prefix;
+            }
+        }
+        byte[] stopRow = prefixUpperBound(lastPrefix);
+
+        Scan scan = new Scan(startRow, stopRow != null ? stopRow : HConstants.EMPTY_END_ROW);
+        scan.setFilter(new RowPrefixesFilter(prefixes));
+        scan.setCaching(30);
+
+        return new ScannerQueryResult(htable, scan, definition);
+    }
+
+    /**
+     * Builds the key prefix of the rows matching a query which has only equals conditions.
+     */
+    private byte[] buildEqualsKey(Query query) throws IOException {
+        if (query.getRangeCondition() != null || query.getIndexFilter() != null) {
+            throw new MalformedQueryException("Only queries with equals conditions can be combined in one scan.");
+        }
+
+        StructBuilder keyStructBuilder = new StructBuilder();
+        List<Object> keyComponents = new ArrayList<Object>(definition.getFields().size());
+        for (IndexFieldDefinition fieldDef : definition.getFields()) {
+            Query.EqualsCondition eqCond = query.getCondition(fieldDef.getName());
+            if (eqCond == null) {
+                break;
+            }
+            checkQueryValueType(fieldDef, eqCond.getValue());
+            RowKey key = fieldDef.asRowKey();
+            key.setTermination(Termination.MUST);
+            keyStructBuilder.add(key);
+            keyComponents.add(eqCond.getValue());
+        }
+
+        if (keyComponents.size() < query.getEqConditions().size()) {
+            throw new MalformedQueryException("The query contains equals conditions on fields which do not follow"
+                    + " immediately on the previous equals condition.");
+        }
+
+        StructRowKey rk = keyStructBuilder.toRowKey();
+        rk.setTermination(Termination.MUST);
+        return rk.serialize(keyComponents.toArray());
+    }
+
+    /**
+     * Splits the scan in one scan per region, limited to the regions which can contain rows starting with
+     * a prefix up to toKey. The scans are returned in key order.
+     *
+     * <p>The region boundaries come from the region location cache of the HBase connection. If that cache
+     * is stale (e.g. after a region split), a scan might span more than one region, which HBase's scanner
+     * handles transparently, so this only affects the degree of parallelism, not the results.</p>
+     */
+    private List<Scan> splitByRegion(LocalHTable table, Scan scan, byte[] toKey) throws IOException {
+        byte[] startRow = scan.getStartRow();
+        byte[] stopRow = prefixUpperBound(toKey);
+
+        List<HRegionLocation> regions =
+                table.getRegionsInRange(startRow, stopRow != null ? stopRow : HConstants.EMPTY_END_ROW);
+
+        List<Scan> scans = new ArrayList<Scan>(regions.size());
+        for (HRegionLocation region : regions) {
+            byte[] startKey = region.getRegionInfo().getStartKey();
+            byte[] endKey = region.getRegionInfo().getEndKey();
+            if (stopRow != null && Bytes.compareTo(startKey, stopRow) >= 0) {
+                break;
+            }
+
+            Scan regionScan = new Scan(scan);
+            regionScan.setStartRow(Bytes.compareTo(startKey, startRow) > 0 ? startKey : startRow);
+            if (stopRow != null && (endKey.length == 0 || Bytes.compareTo(stopRow, endKey) < 0)) {
+                regionScan.setStopRow(stopRow);
+            } else {
+                regionScan.setStopRow(endKey);
+            }
+            scans.add(regionScan);
+        }
+        return scans;
+    }
+
+    /**
+     * Returns the smallest key which is larger than all keys starting with the given prefix, or null if
+     * there is no such key.
+     */
+    private static byte[] prefixUpperBound(byte[] prefix) {
+        for (int i = prefix.length - 1; i >= 0; i--) {
+            if (prefix[i] != (byte)0xFF) {
+                byte[] bound = Arrays.copyOf(prefix, i + 1);
+                bound[i]++;
+                return bound;
+            }
+        }
+        return null;
     }
 
     /**
@@ -0,0 +1,285 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.hbaseindex;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.apache.hadoop.hbase.UnknownScannerException;
+import org.apache.hadoop.hbase.client.HTableInterface;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.client.ScannerTimeoutException;
+import org.apache.hadoop.hbase.regionserver.LeaseException;
+import org.apache.hadoop.hbase.util.Bytes;
+
+/**
+ * A QueryResult which scans a number of key ranges (typically one per region) concurrently.
+ *
+ * <p>For each range, the next batch of rows is fetched in the background while the current one is being
+ * consumed. At most {@code parallelism} ranges are being fetched at the same time. The fetch tasks never
+ * block on the consumer, so the executor threads are not held up by slow consumers.</p>
+ *
+ * <p>When ordered, the ranges are returned one after the other, so the results are in the same order as
+ * for a single scan over the whole range (the ranges should be supplied in key order). Otherwise, batches
+ * are returned in the order they become available.</p>
+ *
+ * <p>The scanner of a range sits idle while its prefetched batch waits for the consumer, which in ordered mode
+ * can take as long as consuming all preceding ranges. If this exceeds the scanner lease period
+ * (hbase.regionserver.lease.period), the range is continued with a new scanner starting after the last row
+ * that was fetched.</p>
+ */
+class ParallelScannerQueryResult extends BaseQueryResult {
+    private final HTableInterface htable;
+    private final List<RangeScan> ranges = new ArrayList<RangeScan>();
+    private final ExecutorService executor;
+    /** Only used in unordered mode, to wait for whichever range has a batch available first. */
+    private final ExecutorCompletionService<RangeScan> completionService;
+    private final boolean ordered;
+    private final int parallelism;
+
+    /** Ordered mode: index of the range being consumed. Unordered mode: index of the next range to start. */
+    private int rangeIndex;
+    private int inFlight;
+    private Result[] batch;
+    private int batchPos;
+
+    ParallelScannerQueryResult(HTableInterface htable, List<Scan> scans, IndexDefinition definition,
+            ExecutorService executor, int parallelism, boolean ordered) {
+        super(definition);
+        this.htable = htable;
+        this.executor = executor;
+        this.completionService = ordered ? null : new ExecutorCompletionService<RangeScan>(executor);
+        this.parallelism = Math.max(1, parallelism);
+        this.ordered = ordered;
+        for (Scan scan : scans) {
+            ranges.add(new RangeScan(scan));
+        }
+    }
+
+    @Override
+    public byte[] next() throws IOException {
+        while (batch == null || batchPos >= batch.length) {
+            batch = ordered ? nextOrderedBatch() : nextUnorderedBatch();
+            batchPos = 0;
+            if (batch == null) {
+                currentResult = null;
+                return null;
+            }
+        }
+
+        currentResult = batch[batchPos++];
+        return decodeIdentifierFrom(currentResult.getRow());
+    }
+
+    private Result[] nextOrderedBatch() throws IOException {
+        while (rangeIndex < ranges.size()) {
+            // Keep the current and following ranges prefetching
+            for (int i = rangeIndex; i < ranges.size() && i < rangeIndex + parallelism; i++) {
+                ranges.get(i).fetch();
+            }
+
+            RangeScan range = ranges.get(rangeIndex);
+            Result[] results = range.take();
+            if (range.done) {
+                rangeIndex++;
+            } else {
+                range.fetch();
+            }
+            if (results.length > 0) {
+                return results;
+            }
+        }
+        return null;
+    }
+
+    private Result[] nextUnorderedBatch() throws IOException {
+        while (true) {
+            while (inFlight < parallelism && rangeIndex < ranges.size()) {
+                ranges.get(rangeIndex++).fetch();
+                inFlight++;
+            }
+            if (inFlight == 0) {
+                return null;
+            }
+
+            RangeScan range;
+            try {
+                range = completionService.take().get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for index scan results.");
+            } catch (ExecutionException e) {
+                throw toIOException(e);
+            }
+
+            Result[] results = range.take();
+            if (range.done) {
+                inFlight--;
+            } else {
+                range.fetch();
+            }
+            if (results.length > 0) {
+                return results;
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        for (RangeScan range : ranges) {
+            range.close();
+        }
+    }
+
+    private static boolean isLeaseExpired(IOException e) {
+        return e instanceof ScannerTimeoutException || e instanceof UnknownScannerException
+                || e instanceof LeaseException;
+    }
+
+    private static IOException toIOException(ExecutionException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof IOException) {
+            return (IOException)cause;
+        } else if (cause instanceof RuntimeException) {
+            throw (RuntimeException)cause;
+        } else if (cause instanceof Error) {
+            throw (Error)cause;
+        }
+        return new IOException(cause);
+    }
+
+    /**
+     * The scan of one key range. At most one fetch is pending at any time, and the scanner is only used by
+     * that fetch, so it is never accessed concurrently.
+     */
+    private final class RangeScan implements Callable<RangeScan> {
+        private final Scan scan;
+        private ResultScanner scanner;
+        /** The last row fetched from this range, to resume the scan from when the scanner lease expired. */
+        private byte[] lastRow;
+        private Future<RangeScan> pending;
+        private Result[] fetched;
+        private boolean done;
+        private volatile boolean closed;
+
+        private RangeScan(Scan scan) {
+            this.scan = scan;
+        }
+
+        /**
+         * Starts fetching the next batch, if this isn't already happening.
+         */
+        void fetch() {
+            if (pending == null && !done) {
+                pending = ordered ? executor.submit(this) : completionService.submit(this);
+            }
+        }
+
+        /**
+         * Waits for the pending fetch and returns its results.
+         */
+        Result[] take() throws IOException {
+            try {
+                pending.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for index scan results.");
+            } catch (ExecutionException e) {
+                pending = null;
+                done = true;
+                throw toIOException(e);
+            }
+            pending = null;
+            Result[] results = fetched;
+            fetched = null;
+            return results;
+        }
+
+        @Override
+        public RangeScan call() throws IOException {
+            if (closed) {
+                fetched = new Result[0];
+                done = true;
+                return this;
+            }
+            if (scanner == null) {
+                scanner = htable.getScanner(scan);
+            }
+            int batchSize = Math.max(1, scan.getCaching());
+            try {
+                fetched = scanner.next(batchSize);
+            } catch (IOException e) {
+                if (!isLeaseExpired(e)) {
+                    throw e;
+                }
+                scanner.close();
+                scanner = htable.getScanner(resumeScan());
+                fetched = scanner.next(batchSize);
+            }
+            if (fetched.length > 0) {
+                lastRow = fetched[fetched.length - 1].getRow();
+            }
+            // A scanner only returns less rows than requested when it reached the end of its range
+            if (fetched.length < batchSize) {
+                done = true;
+                scanner.close();
+                scanner = null;
+            }
+            return this;
+        }
+
+        /**
+         * Returns a scan over the part of the range after the last fetched row.
+         */
+        private Scan resumeScan() throws IOException {
+            Scan resumeScan = new Scan(scan);
+            if (lastRow != null) {
+                // the smallest row key following lastRow
+                resumeScan.setStartRow(Bytes.add(lastRow, new byte[] {0}));
+            }
+            return resumeScan;
+        }
+
+        void close() {
+            closed = true;
+            if (pending != null) {
+                // Wait for the pending fetch rather than cancelling it, so that the scanner is not closed
+                // while it is being used. Fetches which did not start yet return immediately.
+                try {
+                    pending.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (ExecutionException e) {
+                    // ignore, we're closing
+                }
+                pending = null;
+            }
+            if (scanner != null) {
+                scanner.close();
+                scanner = null;
+            }
+        }
+    }
+}
@@ -17,19 +17,32 @@ package org.lilyproject.hbaseindex;
 
 import java.io.IOException;
 
-import com.gotometrics.orderly.StructIterator;
+import com.gotometrics.orderly.Order;
 import com.gotometrics.orderly.StructRowKey;
+import org.apache.hadoop.hbase.client.HTableInterface;
 import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.util.Bytes;
 
 /**
  * A QueryResult on top of a HBase scanner.
  */
 class ScannerQueryResult extends BaseQueryResult {
+    /**
+     * Number of rows {@link #skipTo} iterates over before it rather opens a new scanner to jump directly
+     * to the requested identifier.
+     */
+    private static final int SKIP_THRESHOLD = 10;
+
+    private final HTableInterface htable;
+    private final Scan scan;
     private ResultScanner scanner;
 
-    ScannerQueryResult(ResultScanner scanner, IndexDefinition definition) {
+    ScannerQueryResult(HTableInterface htable, Scan scan, IndexDefinition definition) throws IOException {
         super(definition);
-        this.scanner = scanner;
+        this.htable = htable;
+        this.scan = scan;
+        this.scanner = htable.getScanner(scan);
     }
 
     @Override
@@ -44,20 +57,34 @@ class ScannerQueryResult extends BaseQueryResult {
         return decodeIdentifierFrom(rowKey);
     }
 
-    private byte[] decodeIdentifierFrom(byte[] rowKey) throws IOException {
-        final StructRowKey structRowKey = definition.asStructRowKey();
-        structRowKey.iterateOver(rowKey);
-
-        final StructIterator iterator = structRowKey.iterator();
+    /**
+     * Skips to the given identifier by re-opening the scanner at the row with the same values for the
+     * other index fields as the current row, and the given identifier. This assumes that, as required by
+     * {@link Conjunction}, the other index fields are fixed by the query.
+     */
+    @Override
+    byte[] skipTo(byte[] identifier) throws IOException {
+        for (int i = 0; i < SKIP_THRESHOLD; i++) {
+            byte[] key = next();
+            if (key == null || Bytes.compareTo(key, identifier) >= 0) {
+                return key;
+            }
+        }
 
-        int nbrFields = structRowKey.getFields().length;
-        // ignore all but last field (i.e. the identifier)
-        for (int i = 0; i < nbrFields - 1; i++) {
-            iterator.skip();
+        if (definition.getIdentifierIndexFieldDefinition().getOrder() != Order.ASCENDING) {
+            return super.skipTo(identifier);
         }
 
-        // read the last field (i.e. the identifier)
-        return (byte[]) iterator.next();
+        StructRowKey structRowKey = definition.asStructRowKey();
+        Object[] fields = (Object[])structRowKey.deserialize(currentResult.getRow());
+        fields[fields.length - 1] = identifier;
+
+        Scan skipScan = new Scan(scan);
+        skipScan.setStartRow(structRowKey.serialize(fields));
+        scanner.close();
+        scanner = htable.getScanner(skipScan);
+
+        return super.skipTo(identifier);
     }
 
     @Override
@@ -18,8 +18,11 @@ package org.lilyproject.hbaseindex;
 import java.io.IOException;
 import java.math.BigDecimal;
 import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
 
 import com.gotometrics.orderly.Order;
+import org.apache.hadoop.hbase.client.HBaseAdmin;
 import org.apache.hadoop.hbase.util.Bytes;
 import org.junit.AfterClass;
 import org.junit.BeforeClass;
@@ -30,6 +33,7 @@ import org.lilyproject.hadooptestfw.TestHelper;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 // Important: while not done in these testcases, it is recommended to call QueryResult.close()
@@ -969,6 +973,110 @@ public class IndexTest {
 
         assertNotNull(result.next());
         assertEquals("foo", result.getDataAsString("originalValue"));
+
+        // Point lookups
+        IndexEntry lookup = new IndexEntry(indexDef);
+        lookup.addField("field1", "foo");
+        lookup.setIdentifier(Bytes.toBytes("foo"));
+        assertEquals("foo", Bytes.toString(index.getData(lookup, Bytes.toBytes("originalValue"))));
+        assertNull(index.getData(lookup, Bytes.toBytes("otherValue")));
+
+        lookup = new IndexEntry(indexDef);
+        lookup.addField("field1", "foo");
+        lookup.setIdentifier(Bytes.toBytes("bar"));
+        assertNull(index.getData(lookup, Bytes.toBytes("originalValue")));
+    }
+
+    @Test
+    public void testParallelQueryOverSplitTable() throws Exception {
+        final String INDEX_NAME = "parallelQuery";
+        IndexManager indexManager = new IndexManager(HBASE_PROXY.getConf());
+
+        IndexDefinition indexDef = new IndexDefinition(INDEX_NAME);
+        indexDef.addStringField("field1");
+        Index index = indexManager.getIndex(indexDef);
+
+        byte[] splitPoint = null;
+        for (int i = 0; i < 100; i++) {
+            IndexEntry entry = new IndexEntry(indexDef);
+            entry.addField("field1", i % 2 == 0 ? "even" : "odd");
+            entry.setIdentifier(Bytes.toBytes(String.format("key%03d", i)));
+            index.addEntry(entry);
+            if (i == 50) {
+                splitPoint = indexDef.asStructRowKey().serialize(entry.getFieldValuesInSerializationOrder());
+            }
+        }
+
+        // Split the table in the middle of the "even" entries
+        HBaseAdmin admin = new HBaseAdmin(HBASE_PROXY.getConf());
+        admin.flush(INDEX_NAME);
+        admin.split(Bytes.toBytes(INDEX_NAME), splitPoint);
+        long waitUntil = System.currentTimeMillis() + 60000L;
+        while (admin.getTableRegions(Bytes.toBytes(INDEX_NAME)).size() < 2) {
+            if (System.currentTimeMillis() > waitUntil) {
+                fail("Table was not split");
+            }
+            Thread.sleep(100);
+        }
+        admin.close();
+
+        String[] expectedEven = new String[50];
+        for (int i = 0; i < 50; i++) {
+            expectedEven[i] = String.format("key%03d", i * 2);
+        }
+
+        Query query = new Query();
+        query.addEqualsCondition("field1", "even");
+        assertResultIds(index.performQuery(query, Index.ScanMode.PARALLEL_ORDERED), expectedEven);
+
+        QueryResult result = index.performQuery(query, Index.ScanMode.PARALLEL_UNORDERED);
+        Set<String> unordered = new HashSet<String>();
+        byte[] identifier;
+        while ((identifier = result.next()) != null) {
+            unordered.add(Bytes.toString(identifier));
+        }
+        result.close();
+        assertEquals(new HashSet<String>(Arrays.asList(expectedEven)), unordered);
+
+        query = new Query();
+        query.setRangeCondition("field1", Query.MIN_VALUE, Query.MAX_VALUE);
+        assertResultSize(100, index.performQuery(query, Index.ScanMode.PARALLEL_ORDERED));
+    }
+
+    @Test
+    public void testSkipToReopensScanner() throws Exception {
+        final String INDEX_NAME = "skipTo";
+        IndexManager indexManager = new IndexManager(HBASE_PROXY.getConf());
+
+        IndexDefinition indexDef = new IndexDefinition(INDEX_NAME);
+        indexDef.addStringField("field1");
+        Index index = indexManager.getIndex(indexDef);
+
+        for (String value : new String[] {"a", "b", "c"}) {
+            for (int i = 0; i < 100; i++) {
+                IndexEntry entry = new IndexEntry(indexDef);
+                entry.addField("field1", value);
+                entry.setIdentifier(Bytes.toBytes(String.format("key%03d", i)));
+                index.addEntry(entry);
+            }
+        }
+
+        Query query = new Query();
+        query.addEqualsCondition("field1", "b");
+        QueryResult result = index.performQuery(query);
+        assertTrue(result instanceof ScannerQueryResult);
+
+        assertEquals("key000", Bytes.toString(result.next()));
+        // Further away than the number of rows skipTo iterates over, so the scanner is re-opened
+        assertEquals("key050", Bytes.toString(BaseQueryResult.skipTo(result, Bytes.toBytes("key050"))));
+        assertEquals("key051", Bytes.toString(result.next()));
+        // A missing identifier skips to the next one
+        assertEquals("key080", Bytes.toString(BaseQueryResult.skipTo(result, Bytes.toBytes("key07999"))));
+        assertEquals("key081", Bytes.toString(result.next()));
+        // The re-opened scanner does not leak into the entries for the next value
+        assertEquals("key099", Bytes.toString(BaseQueryResult.skipTo(result, Bytes.toBytes("key0985"))));
+        assertNull(result.next());
+        result.close();
     }
 
     private void assertResultIds(QueryResult result, String... expectedIdentifiers) throws IOException {
@@ -55,6 +55,43 @@ public class MergeJoinTest {
         assertNull(result.next());
     }
 
+    @Test
+    public void testDisjunctionOfMany() throws Exception {
+        List<QueryResult> results = new ArrayList<QueryResult>();
+        results.add(buildQueryResult(new String[] {"a", "d", "g"}));
+        results.add(buildQueryResult(new String[] {"b", "d"}));
+        results.add(buildQueryResult(new String[] {}));
+        results.add(buildQueryResult(new String[] {"c", "d", "h"}));
+
+        QueryResult result = new Disjunction(results);
+
+        assertEquals("a", Bytes.toString(result.next()));
+        assertEquals("b", Bytes.toString(result.next()));
+        assertEquals("c", Bytes.toString(result.next()));
+        assertEquals("d", Bytes.toString(result.next()));
+        assertEquals("g", Bytes.toString(result.next()));
+        assertEquals("h", Bytes.toString(result.next()));
+        assertNull(result.next());
+    }
+
+    @Test
+    public void testNestedConjunctionAndDisjunction() throws Exception {
+        String[] values1 = {"a", "c", "e", "g", "i", "k", "m"};
+        String[] values2 = {"b", "c", "d", "k"};
+        String[] values3 = {"i", "l"};
+        String[] values4 = {"c", "i", "k", "z"};
+
+        QueryResult result = new Conjunction(
+                new Conjunction(buildQueryResult(values1),
+                        new Disjunction(buildQueryResult(values2), buildQueryResult(values3))),
+                buildQueryResult(values4));
+
+        assertEquals("c", Bytes.toString(result.next()));
+        assertEquals("i", Bytes.toString(result.next()));
+        assertEquals("k", Bytes.toString(result.next()));
+        assertNull(result.next());
+    }
+
     private QueryResult buildQueryResult(String[] values) {
         List<byte[]> byteValues = new ArrayList<byte[]>(values.length);
 
@@ -0,0 +1,181 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.hbaseindex;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import com.google.common.util.concurrent.MoreExecutors;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.UnknownScannerException;
+import org.apache.hadoop.hbase.client.HTableInterface;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class ParallelScannerQueryResultTest {
+    private static final String[] VALUES = {"a", "b", "c", "d", "e", "f", "g", "h", "i", "j"};
+
+    private IndexDefinition definition;
+    private List<byte[]> rows = new ArrayList<byte[]>();
+    private List<FakeScanner> scanners = new ArrayList<FakeScanner>();
+    private HTableInterface htable;
+
+    @Before
+    public void setUp() throws Exception {
+        definition = new IndexDefinition("test");
+        definition.addStringField("field1");
+
+        for (String value : VALUES) {
+            IndexEntry entry = new IndexEntry(definition);
+            entry.addField("field1", value);
+            entry.setIdentifier(Bytes.toBytes("id-" + value));
+            rows.add(definition.asStructRowKey().serialize(entry.getFieldValuesInSerializationOrder()));
+        }
+
+        htable = mock(HTableInterface.class);
+        when(htable.getScanner(any(Scan.class))).thenAnswer(new Answer<ResultScanner>() {
+            @Override
+            public ResultScanner answer(InvocationOnMock invocation) throws Throwable {
+                FakeScanner scanner = new FakeScanner((Scan)invocation.getArguments()[0]);
+                scanners.add(scanner);
+                return scanner;
+            }
+        });
+    }
+
+    @Test
+    public void testOrdered() throws Exception {
+        QueryResult result = newQueryResult(true);
+        for (String value : VALUES) {
+            assertEquals("id-" + value, Bytes.toString(result.next()));
+        }
+        assertNull(result.next());
+        result.close();
+    }
+
+    @Test
+    public void testOrderedResumesAfterLeaseExpiry() throws Exception {
+        QueryResult result = newQueryResult(true);
+
+        // The first batch of both ranges is fetched, and the second batch of the first range
+        for (int i = 0; i < 3; i++) {
+            assertEquals("id-" + VALUES[i], Bytes.toString(result.next()));
+        }
+
+        // The consumer took longer than the lease period: the open scanners are gone on the server
+        for (FakeScanner scanner : scanners) {
+            scanner.expired = true;
+        }
+
+        for (int i = 3; i < VALUES.length; i++) {
+            assertEquals("id-" + VALUES[i], Bytes.toString(result.next()));
+        }
+        assertNull(result.next());
+        result.close();
+
+        // The second range continued with a new scanner after its last fetched row ("g")
+        FakeScanner resumed = scanners.get(scanners.size() - 1);
+        assertArrayEquals(Bytes.add(rows.get(6), new byte[] {0}), resumed.scan.getStartRow());
+    }
+
+    @Test(expected = IOException.class)
+    public void testOtherErrorsAreThrown() throws Exception {
+        QueryResult result = newQueryResult(true);
+        result.next();
+        for (FakeScanner scanner : scanners) {
+            scanner.failure = new IOException("region server down");
+        }
+        while (result.next() != null) {
+        }
+    }
+
+    /**
+     * Two ranges of five rows, scanned two rows at a time. The scans run in the calling thread, so the order
+     * in which the ranges are fetched is fixed.
+     */
+    private QueryResult newQueryResult(boolean ordered) {
+        List<Scan> scans = new ArrayList<Scan>();
+        scans.add(new Scan(rows.get(0), rows.get(5)));
+        scans.add(new Scan(rows.get(5)));
+        for (Scan scan : scans) {
+            scan.setCaching(2);
+        }
+        return new ParallelScannerQueryResult(htable, scans, definition, MoreExecutors.sameThreadExecutor(), 2,
+                ordered);
+    }
+
+    private class FakeScanner implements ResultScanner {
+        private final Scan scan;
+        private int position;
+        private volatile boolean expired;
+        private volatile IOException failure;
+
+        FakeScanner(Scan scan) {
+            this.scan = scan;
+            while (position < rows.size() && Bytes.compareTo(rows.get(position), scan.getStartRow()) < 0) {
+                position++;
+            }
+        }
+
+        @Override
+        public Result next() throws IOException {
+            Result[] results = next(1);
+            return results.length > 0 ? results[0] : null;
+        }
+
+        @Override
+        public Result[] next(int nbRows) throws IOException {
+            if (expired) {
+                throw new UnknownScannerException("Scanner lease expired");
+            }
+            if (failure != null) {
+                throw failure;
+            }
+            List<Result> results = new ArrayList<Result>();
+            while (results.size() < nbRows && position < rows.size() && (scan.getStopRow().length == 0
+                    || Bytes.compareTo(rows.get(position), scan.getStopRow()) < 0)) {
+                byte[] row = rows.get(position++);
+                results.add(new Result(new KeyValue[] {new KeyValue(row, Bytes.toBytes("f"), Bytes.toBytes("q"),
+                        new byte[0])}));
+            }
+            return results.toArray(new Result[results.size()]);
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public Iterator<Result> iterator() {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -43,7 +43,7 @@ public class DataInputImpl implements DataInput {
     private static final long HALF_SHIFT = 10;
     private static final long HALF_MASK = 0x3FFL;
 
-    private final byte[] source; // The underlying byte[]
+    private byte[] source; // The underlying byte[]
 
     /**
      * Absolute position in the underlying byte[] to start reading.
@@ -102,6 +102,19 @@ public class DataInputImpl implements DataInput {
         this(source.source, source.startPosition + startPosition, size);
     }
 
+    /**
+     * Lets this DataInput read from another (part of a) byte[], so that the instance can be reused.
+     *
+     * @return this DataInput
+     */
+    public DataInputImpl reset(byte[] source, int startPosition, int size) {
+        this.source = source;
+        this.startPosition = startPosition;
+        this.size = size;
+        this.pos = 0;
+        return this;
+    }
+
 
     @Override
     public byte readByte() {
@@ -75,6 +75,21 @@ public class DataOutputImpl implements DataOutput {
         return Arrays.copyOfRange(buffer, 0, pos);
     }
 
+    /**
+     * Returns the underlying byte[] without copying it. Only the first {@link #getSize()} bytes are
+     * written data, and the array is only valid until the next write or {@link #reset()}.
+     */
+    public byte[] getBuffer() {
+        return buffer;
+    }
+
+    /**
+     * Discards the written data, keeping the underlying byte[] so that this instance can be reused.
+     */
+    public void reset() {
+        pos = 0;
+    }
+
     /**
      * Checks if the buffer has enough space to put <code>len</code> bytes.
      * If not the buffer is resized to at least twice its current size.
@@ -15,6 +15,7 @@
  */
 package org.lilyproject.bytes.impl.test;
 
+import java.util.Arrays;
 import java.util.Random;
 
 import junit.framework.TestCase;
@@ -203,4 +204,22 @@ public class TestDataInputOutput extends TestCase {
         Assert.assertEquals(-1, new DataInputImpl(source, 7, 3).indexOf((byte) 0x00));
     }
 
+    public void testReuse() {
+        DataOutputImpl dataOutput = new DataOutputImpl(4);
+        dataOutput.writeUTF("first value");
+        dataOutput.reset();
+        dataOutput.writeUTF("second");
+        dataOutput.writeInt(42);
+
+        // The buffer holds the data written since the reset
+        byte[] buffer = dataOutput.getBuffer();
+        Assert.assertArrayEquals(dataOutput.toByteArray(), Arrays.copyOf(buffer, dataOutput.getSize()));
+
+        DataInputImpl dataInput = new DataInputImpl(new byte[0]);
+        dataInput.reset(buffer, 0, dataOutput.getSize());
+        Assert.assertEquals("second", dataInput.readUTF());
+        Assert.assertEquals(42, dataInput.readInt());
+        Assert.assertEquals(dataOutput.getSize(), dataInput.getPosition());
+    }
+
 }